@@ -0,0 +1,77 @@
+package app.unattach.model;
+
+import javax.activation.DataHandler;
+import javax.mail.MessagingException;
+import javax.mail.Part;
+import javax.mail.Session;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import javax.mail.util.ByteArrayDataSource;
+import javax.mail.util.SharedByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Random;
+
+// The same emails for every run, so that results are comparable.
+class BenchmarkEmails {
+  static final Session SESSION = Session.getInstance(new Properties());
+  static final Email EMAIL = new Email("17a3c5e7f9b1d3e5", "<17a3c5e7f9b1d3e5@mail.example.com>",
+      Collections.singletonList("INBOX"), "\"Sender Name\" <sender@example.com>", "me@example.com",
+      "Quarterly report and photos", 1501545600000L, 0, Collections.emptyList());
+
+  // A text and an HTML body in a multipart/alternative, followed by the given attachments.
+  static byte[] createMessage(int attachments, int attachmentSizeInBytes) throws MessagingException, IOException {
+    Random random = new Random(1337);
+    MimeMessage mimeMessage = new MimeMessage(SESSION);
+    mimeMessage.setFrom("\"Sender Name\" <sender@example.com>");
+    mimeMessage.setRecipients(javax.mail.Message.RecipientType.TO, "me@example.com");
+    mimeMessage.setSubject("Quarterly report and photos");
+    MimeBodyPart text = new MimeBodyPart();
+    text.setText(getParagraphs(20), "utf-8");
+    MimeBodyPart html = new MimeBodyPart();
+    html.setContent("<html><body><p>" + getParagraphs(20).replace("\n", "</p><p>") + "</p></body></html>",
+        "text/html; charset=utf-8");
+    MimeMultipart alternative = new MimeMultipart("alternative");
+    alternative.addBodyPart(text);
+    alternative.addBodyPart(html);
+    MimeBodyPart body = new MimeBodyPart();
+    body.setContent(alternative);
+    MimeMultipart mixed = new MimeMultipart();
+    mixed.addBodyPart(body);
+    for (int i = 0; i < attachments; ++i) {
+      byte[] bytes = new byte[attachmentSizeInBytes];
+      random.nextBytes(bytes);
+      MimeBodyPart attachment = new MimeBodyPart();
+      attachment.setDataHandler(new DataHandler(new ByteArrayDataSource(bytes, "application/octet-stream")));
+      attachment.setDisposition(Part.ATTACHMENT);
+      attachment.setFileName("attachment-" + i + ".bin");
+      attachment.setHeader("Content-Transfer-Encoding", "base64");
+      mixed.addBodyPart(attachment);
+    }
+    mimeMessage.setContent(mixed);
+    mimeMessage.saveChanges();
+    return write(mimeMessage);
+  }
+
+  static String getParagraphs(int paragraphs) {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < paragraphs; ++i) {
+      text.append("Paragraph ").append(i).append(" of the email, with enough words in it to look like a real one. ")
+          .append("Please find the attachments below, and let me know if anything is missing.\n");
+    }
+    return text.toString();
+  }
+
+  static MimeMessage parse(byte[] bytes) throws MessagingException {
+    return new MimeMessage(SESSION, new SharedByteArrayInputStream(bytes));
+  }
+
+  static byte[] write(MimeMessage mimeMessage) throws MessagingException, IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    mimeMessage.writeTo(buffer);
+    return buffer.toByteArray();
+  }
+}
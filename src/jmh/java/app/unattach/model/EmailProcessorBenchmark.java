@@ -0,0 +1,74 @@
+package app.unattach.model;
+
+import app.unattach.view.Action;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Parses a message and processes it, as LiveModel does after downloading it.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EmailProcessorBenchmark {
+  @Param({"1", "4", "16"})
+  public int attachments;
+
+  @Param({"16384", "1048576"})
+  public int attachmentSizeInBytes;
+
+  @Param({"DELETE", "DOWNLOAD_AND_DELETE"})
+  public Action action;
+
+  private byte[] message;
+  private File targetDirectory;
+  private ProcessSettings processSettings;
+
+  @Setup(Level.Trial)
+  public void setUp() throws MessagingException, IOException {
+    message = BenchmarkEmails.createMessage(attachments, attachmentSizeInBytes);
+    targetDirectory = Files.createTempDirectory("unattach-benchmark").toFile();
+  }
+
+  // Every invocation starts with an empty directory and new file name reservations, so that the saved attachments
+  // don't pile up and each invocation saves them under the same names. Processing an email takes long enough that
+  // the per-invocation fixtures hardly affect the measurement.
+  @Setup(Level.Invocation)
+  public void setUpProcessSettings() {
+    ProcessOption processOption = new ProcessOption(action, false, action != Action.DELETE, true, false, null, null);
+    processSettings = new ProcessSettings(processOption, targetDirectory, "${ID}-${BODY_PART_INDEX}-${ATTACHMENT_NAME}",
+        DirectoryLayout.FLAT, true);
+    processSettings.getFilenameFactory();
+  }
+
+  @TearDown(Level.Invocation)
+  public void cleanDirectory() throws IOException {
+    FileUtils.cleanDirectory(targetDirectory);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(targetDirectory);
+  }
+
+  @Benchmark
+  public byte[] process() throws MessagingException, IOException {
+    MimeMessage mimeMessage = BenchmarkEmails.parse(message);
+    List<SavedAttachment> savedAttachments =
+        EmailProcessor.process(BenchmarkEmails.EMAIL, mimeMessage, processSettings, null);
+    if (savedAttachments.size() != attachments) {
+      throw new IllegalStateException("Processed " + savedAttachments.size() + " attachments instead of " +
+          attachments + ".");
+    }
+    return BenchmarkEmails.write(mimeMessage);
+  }
+}
@@ -0,0 +1,66 @@
+package app.unattach.model;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Fills a store with search results, and reports the heap retained per row as the bytesPerRow counter. The time
+// includes the garbage collections around the measurement, so only the counter is meaningful. Filling the store takes
+// longer than an iteration, so each iteration fills it once, and there is a single measurement iteration, since JMH
+// adds up the counter over all of them.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 1, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EmailStoreBenchmark {
+  private static final List<List<String>> LABEL_SETS = Arrays.asList(
+      Arrays.asList("INBOX", "IMPORTANT"), Arrays.asList("INBOX", "CATEGORY_UPDATES"),
+      Collections.singletonList("SENT"), Arrays.asList("Label_12", "INBOX", "UNREAD"));
+  private static final List<String> ATTACHMENT_NAMES =
+      Arrays.asList("image001.png", "invoice.pdf", "data.zip", "photo.jpg");
+
+  @Param({"200000"})
+  public int rows;
+
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  @State(Scope.Thread)
+  public static class Memory {
+    public long bytesPerRow;
+  }
+
+  @Benchmark
+  public EmailStore fill(Memory memory) {
+    Random random = new Random(1337);
+    long before = getUsedMemory();
+    EmailStore emailStore = new EmailStore();
+    for (int i = 0; i < rows; ++i) {
+      String gmailId = String.format("17%014x", random.nextLong() & 0xffffffffffffL);
+      String uniqueId = "<" + gmailId + "." + i + "@mail.example.com>";
+      String from = "\"Sender " + random.nextInt(2000) + "\" <sender" + random.nextInt(2000) + "@example.com>";
+      List<String> attachments = new ArrayList<>();
+      for (int j = random.nextInt(3); j >= 0; --j) {
+        attachments.add(ATTACHMENT_NAMES.get(random.nextInt(ATTACHMENT_NAMES.size())));
+      }
+      emailStore.add(gmailId, uniqueId, LABEL_SETS.get(random.nextInt(LABEL_SETS.size())), from,
+          "me@example.com", "Subject of email number " + i, 1501545600000L + i * 60_000L,
+          random.nextInt(20 * Constants.BYTES_IN_MEGABYTE), attachments);
+    }
+    memory.bytesPerRow = (getUsedMemory() - before) / rows;
+    return emailStore;
+  }
+
+  private static long getUsedMemory() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 5; ++i) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
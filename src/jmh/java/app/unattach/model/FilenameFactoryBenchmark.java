@@ -0,0 +1,33 @@
+package app.unattach.model;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FilenameFactoryBenchmark {
+  @Param({
+      "${ATTACHMENT_NAME}",
+      FilenameFactory.DEFAULT_SCHEMA,
+      "${DATE}_${FROM_EMAIL}_${SUBJECT:30}_${RAW_ATTACHMENT_NAME}",
+      "${FROM_NAME:10}/${LABELS}/${ID:8}-${BODY_PART_INDEX}-${ATTACHMENT_NAME:50}"
+  })
+  public String schema;
+
+  private FilenameFactory filenameFactory;
+
+  @Setup
+  public void setUp() {
+    filenameFactory = new FilenameFactory(schema);
+  }
+
+  @Benchmark
+  public String getFilename() {
+    return filenameFactory.getFilename(BenchmarkEmails.EMAIL, 3, "Quarterly report (final) – v2.pdf");
+  }
+}
@@ -0,0 +1,64 @@
+package app.unattach.model;
+
+import com.google.api.services.gmail.model.Message;
+import com.google.api.services.gmail.model.MessagePart;
+import com.google.api.services.gmail.model.MessagePartHeader;
+import org.openjdk.jmh.annotations.*;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.commons.codec.binary.Base64.encodeBase64URLSafeString;
+
+// The steps in LiveModel between the Gmail API and EmailProcessor: reading the headers of the metadata, decoding the
+// raw (base64) email, and encoding it again for the upload.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RawMessageBenchmark {
+  @Param({"65536", "4194304"})
+  public int sizeInBytes;
+
+  private Message metadata;
+  private Message rawMessage;
+  private MimeMessage mimeMessage;
+
+  @Setup
+  public void setUp() throws MessagingException, IOException {
+    List<MessagePartHeader> headers = new ArrayList<>();
+    String[] names = {"Delivered-To", "Received", "Received", "Return-Path", "DKIM-Signature", "Message-ID", "Date",
+        "From", "To", "Subject", "MIME-Version", "Content-Type", "X-Mailer", "List-Unsubscribe"};
+    for (String name : names) {
+      headers.add(new MessagePartHeader().setName(name).setValue("Value of the " + name + " header"));
+    }
+    metadata = new Message().setPayload(new MessagePart().setHeaders(headers));
+    byte[] bytes = BenchmarkEmails.createMessage(1, sizeInBytes);
+    rawMessage = new Message().setRaw(encodeBase64URLSafeString(bytes));
+    mimeMessage = BenchmarkEmails.parse(bytes);
+  }
+
+  @Benchmark
+  public Map<String, String> getHeaderMap() {
+    return LiveModel.getHeaderMap(metadata);
+  }
+
+  @Benchmark
+  public MimeMessage decode() throws MessagingException, IOException {
+    return LiveModel.getMimeMessage(BenchmarkEmails.SESSION, rawMessage);
+  }
+
+  @Benchmark
+  public String encode() throws MessagingException, IOException {
+    Message message = new Message();
+    LiveModel.updateRawMessage(message, mimeMessage);
+    return message.getRaw();
+  }
+}
@@ -0,0 +1,55 @@
+package app.unattach.model;
+
+import app.unattach.view.Action;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+// The references to the removed attachments that are appended to the bodies of an email.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SuffixBenchmark {
+  private static final String DATE_TIME = "2020-07-01T12:00:00.000+01:00";
+
+  @Param({"1", "16"})
+  public int attachments;
+
+  @Param({"20", "500"})
+  public int paragraphs;
+
+  private ProcessSettings processSettings;
+  private Map<String, String> originalToNormalizedFilename;
+  private String text;
+  private String html;
+
+  @Setup
+  public void setUp() {
+    ProcessOption processOption = new ProcessOption(Action.DOWNLOAD_AND_DELETE, false, true, true, false, null, null);
+    processSettings = new ProcessSettings(processOption, new File("attachments"), FilenameFactory.DEFAULT_SCHEMA,
+        DirectoryLayout.FLAT, true);
+    originalToNormalizedFilename = new TreeMap<>();
+    for (int i = 0; i < attachments; ++i) {
+      originalToNormalizedFilename.put("attachment " + i + ".pdf", BenchmarkEmails.EMAIL.getGmailId() + "-" + i +
+          "-attachment_" + i + ".pdf");
+    }
+    text = BenchmarkEmails.getParagraphs(paragraphs);
+    html = "<html><body><p>" + text.replace("\n", "</p><p>") + "</p></body></html>";
+  }
+
+  @Benchmark
+  public String generateTextSuffix() {
+    return EmailProcessor.generateTextSuffix(text, originalToNormalizedFilename, processSettings, DATE_TIME, "host");
+  }
+
+  @Benchmark
+  public String generateHtmlSuffix() {
+    return EmailProcessor.generateHtmlSuffix(html, originalToNormalizedFilename, processSettings, DATE_TIME, "host");
+  }
+}
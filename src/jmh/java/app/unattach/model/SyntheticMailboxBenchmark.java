@@ -0,0 +1,52 @@
+package app.unattach.model;
+
+import app.unattach.view.Action;
+import org.openjdk.jmh.annotations.*;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Parses and processes a realistic mix of emails from the synthetic mailbox, one after another.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SyntheticMailboxBenchmark {
+  @Param({"100"})
+  public int emails;
+
+  private List<Email> metadata;
+  private byte[][] raws;
+  private ProcessSettings processSettings;
+  private int nextEmail;
+
+  @Setup
+  public void setUp() throws MessagingException, IOException {
+    SyntheticMailbox mailbox = new SyntheticMailbox(1337, emails);
+    EmailStore emailStore = new EmailStore();
+    mailbox.addTo(emailStore, 0, emails);
+    metadata = emailStore.getEmails();
+    raws = new byte[emails][];
+    for (int i = 0; i < emails; ++i) {
+      raws[i] = mailbox.getRaw(i);
+    }
+    ProcessOption processOption = new ProcessOption(Action.DELETE, false, false, true, false, null, null);
+    processSettings = new ProcessSettings(processOption, new File("attachments"), FilenameFactory.DEFAULT_SCHEMA,
+        DirectoryLayout.FLAT, true);
+  }
+
+  @Benchmark
+  public byte[] process() throws MessagingException, IOException {
+    int index = nextEmail;
+    nextEmail = (nextEmail + 1) % emails;
+    MimeMessage mimeMessage = BenchmarkEmails.parse(raws[index]);
+    EmailProcessor.process(metadata.get(index), mimeMessage, processSettings);
+    return BenchmarkEmails.write(mimeMessage);
+  }
+}
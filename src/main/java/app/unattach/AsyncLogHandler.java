@@ -0,0 +1,177 @@
+package app.unattach;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+
+// Passes log records to other handlers on a background thread, so that the threads that log never wait for the log
+// file or the console. Configured in logging.properties with the properties below, prefixed with the class name:
+//  - handlers: the handlers to pass the records to,
+//  - capacity: how many records can wait (4096 by default),
+//  - overflow: "drop" to drop new records while the buffer is full (the default), or "block" to wait for space.
+// Warnings and errors are never dropped, and the number of dropped records is logged once there is space again.
+public class AsyncLogHandler extends Handler {
+  private static final String PREFIX = AsyncLogHandler.class.getName() + ".";
+  private static final int DEFAULT_CAPACITY = 4096;
+  private static final int MAX_BATCH_SIZE = 256;
+
+  enum Overflow { DROP, BLOCK }
+
+  private final Handler[] handlers;
+  private final BlockingQueue<LogRecord> queue;
+  private final Overflow overflow;
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicLong enqueued = new AtomicLong();
+  private final AtomicLong handled = new AtomicLong();
+  private final Thread thread;
+  private volatile boolean closed;
+
+  public AsyncLogHandler() {
+    this(getConfiguredHandlers(), getConfiguredCapacity(), getConfiguredOverflow());
+    String level = LogManager.getLogManager().getProperty(PREFIX + "level");
+    if (level != null) {
+      setLevel(Level.parse(level.trim()));
+    }
+  }
+
+  AsyncLogHandler(Handler[] handlers, int capacity, Overflow overflow) {
+    this.handlers = handlers;
+    this.overflow = overflow;
+    queue = new ArrayBlockingQueue<>(capacity);
+    thread = new Thread(this::handleRecords, "async-log");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public Handler[] getHandlers() {
+    return handlers.clone();
+  }
+
+  @Override
+  public void publish(LogRecord record) {
+    if (closed || !isLoggable(record)) {
+      return;
+    }
+    if (overflow == Overflow.BLOCK || record.getLevel().intValue() >= Level.WARNING.intValue()) {
+      try {
+        queue.put(record);
+        enqueued.incrementAndGet();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    } else if (queue.offer(record)) {
+      enqueued.incrementAndGet();
+    } else {
+      dropped.incrementAndGet();
+    }
+  }
+
+  // Waits until the records published so far are handled, e.g. before the app exits.
+  @Override
+  public void flush() {
+    long target = enqueued.get();
+    while (handled.get() < target && thread.isAlive()) {
+      try {
+        Thread.sleep(1);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+    for (Handler handler : handlers) {
+      handler.flush();
+    }
+  }
+
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    flush();
+    closed = true;
+    thread.interrupt();
+    try {
+      thread.join(TimeUnit.SECONDS.toMillis(1));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    for (Handler handler : handlers) {
+      handler.close();
+    }
+  }
+
+  private void handleRecords() {
+    List<LogRecord> batch = new ArrayList<>(MAX_BATCH_SIZE);
+    while (!closed) {
+      try {
+        batch.add(queue.take());
+      } catch (InterruptedException e) {
+        break;
+      }
+      queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+      for (LogRecord record : batch) {
+        handle(record);
+      }
+      long dropped = this.dropped.getAndSet(0);
+      if (dropped > 0) {
+        LogRecord record = new LogRecord(Level.WARNING, "Dropped " + dropped + " log records, because the log " +
+            "buffer was full.");
+        record.setLoggerName(AsyncLogHandler.class.getName());
+        handle(record);
+      }
+      handled.addAndGet(batch.size());
+      batch.clear();
+    }
+  }
+
+  private void handle(LogRecord record) {
+    for (Handler handler : handlers) {
+      try {
+        handler.publish(record);
+      } catch (RuntimeException e) {
+        reportError("Failed to publish a log record.", e, ErrorManager.WRITE_FAILURE);
+      }
+    }
+  }
+
+  private static Handler[] getConfiguredHandlers() {
+    String names = LogManager.getLogManager().getProperty(PREFIX + "handlers");
+    List<Handler> handlers = new ArrayList<>();
+    if (names != null) {
+      for (String name : names.split("[,\\s]+")) {
+        if (name.isEmpty()) {
+          continue;
+        }
+        try {
+          handlers.add((Handler) ClassLoader.getSystemClassLoader().loadClass(name).getConstructor().newInstance());
+        } catch (ReflectiveOperationException | RuntimeException e) {
+          new ErrorManager().error("Failed to create the log handler " + name + ".", e, ErrorManager.OPEN_FAILURE);
+        }
+      }
+    }
+    return handlers.toArray(new Handler[0]);
+  }
+
+  private static int getConfiguredCapacity() {
+    String capacity = LogManager.getLogManager().getProperty(PREFIX + "capacity");
+    try {
+      return capacity == null ? DEFAULT_CAPACITY : Math.max(1, Integer.parseInt(capacity.trim()));
+    } catch (NumberFormatException e) {
+      return DEFAULT_CAPACITY;
+    }
+  }
+
+  private static Overflow getConfiguredOverflow() {
+    String overflow = LogManager.getLogManager().getProperty(PREFIX + "overflow");
+    return overflow != null && overflow.trim().equalsIgnoreCase("block") ? Overflow.BLOCK : Overflow.DROP;
+  }
+}
@@ -3,34 +3,69 @@ package app.unattach;
 import org.apache.commons.lang3.ClassUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Formatter;
 import java.util.logging.LogRecord;
 
+// Thread-safe. Records mostly come in bursts within the same second, so the formatted second is reused.
 public final class LogFormatter extends Formatter {
   private static final String LINE_SEPARATOR = System.getProperty("line.separator");
-  private static final SimpleDateFormat SIMPLE_DATE_FORMAT = new SimpleDateFormat("dd-MMM-yyyy HH:mm:ss");
+  private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("dd-MMM-yyyy HH:mm:ss");
+  private static final Map<String, String> ABBREVIATED_LOGGER_NAMES = new ConcurrentHashMap<>();
+
+  private static class FormattedSecond {
+    private final long epochSecond;
+    private final String text;
+
+    private FormattedSecond(long epochSecond, String text) {
+      this.epochSecond = epochSecond;
+      this.text = text;
+    }
+  }
+
+  private volatile FormattedSecond lastSecond = new FormattedSecond(Long.MIN_VALUE, "");
 
   @Override
   public String format(LogRecord logRecord) {
-    StringBuilder sb = new StringBuilder();
-    Date logDate = new Date(logRecord.getMillis());
-    String formattedLogDate = SIMPLE_DATE_FORMAT.format(logDate);
-    String paddedLogLevel = String.format("%1$-7s", logRecord.getLevel());
-    String abbreviatedLoggerName = ClassUtils.getAbbreviatedName(logRecord.getLoggerName(), 10);
-    String paddedAbbreviatedLoggerName = String.format("%1$-35s", abbreviatedLoggerName);
-    sb.append(formattedLogDate)
-        .append(" ")
-        .append(paddedLogLevel)
-        .append(" ")
-        .append(paddedAbbreviatedLoggerName)
-        .append(" ")
-        .append(formatMessage(logRecord))
-        .append(LINE_SEPARATOR);
+    String message = formatMessage(logRecord);
+    StringBuilder sb = new StringBuilder(64 + message.length());
+    sb.append(formatSecond(logRecord.getMillis())).append(' ');
+    appendPadded(sb, logRecord.getLevel().getName(), 7).append(' ');
+    appendPadded(sb, abbreviate(logRecord.getLoggerName()), 35).append(' ');
+    sb.append(message).append(LINE_SEPARATOR);
     if (logRecord.getThrown() != null) {
       sb.append(ExceptionUtils.getStackTrace(logRecord.getThrown()));
     }
     return sb.toString();
   }
+
+  private String formatSecond(long millis) {
+    long epochSecond = Math.floorDiv(millis, 1000);
+    FormattedSecond lastSecond = this.lastSecond;
+    if (lastSecond.epochSecond != epochSecond) {
+      String text = DATE_TIME_FORMATTER.format(Instant.ofEpochSecond(epochSecond).atZone(ZoneId.systemDefault()));
+      lastSecond = new FormattedSecond(epochSecond, text);
+      this.lastSecond = lastSecond;
+    }
+    return lastSecond.text;
+  }
+
+  private static String abbreviate(String loggerName) {
+    if (loggerName == null) {
+      return "";
+    }
+    return ABBREVIATED_LOGGER_NAMES.computeIfAbsent(loggerName, name -> ClassUtils.getAbbreviatedName(name, 10));
+  }
+
+  private static StringBuilder appendPadded(StringBuilder sb, String text, int width) {
+    sb.append(text);
+    for (int i = text.length(); i < width; ++i) {
+      sb.append(' ');
+    }
+    return sb;
+  }
 }
@@ -1,7 +1,14 @@
 package app.unattach;
 
+import java.util.Arrays;
+
 public class Main {
   public static void main(String[] args) {
-    MainFx.main(args);
+    // The command line is dispatched to before MainFx is loaded, so that it runs without JavaFX.
+    if (args.length > 0 && args[0].equals("--cli")) {
+      MainCli.main(Arrays.copyOfRange(args, 1, args.length));
+    } else {
+      MainFx.main(args);
+    }
   }
 }
@@ -0,0 +1,399 @@
+package app.unattach;
+
+import app.unattach.controller.*;
+import app.unattach.model.*;
+import app.unattach.view.Action;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.Logger;
+
+// Searches and processes emails without the desktop app, e.g. on a server or from a scheduler, and prints the progress
+// to standard output. It doesn't load any JavaFX class. Signing in uses the credentials that were stored by an earlier
+// sign-in; without them, the address to sign in at is printed instead of opened in a browser window.
+public class MainCli {
+  private static final Logger LOGGER = Logger.getLogger(MainCli.class.getName());
+  private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+  // Completes when the emails that are being processed, if any, are finished or stopped.
+  private static final AtomicReference<CompletableFuture<Void>> processing =
+      new AtomicReference<>(CompletableFuture.completedFuture(null));
+  private static final String USAGE = String.join(System.lineSeparator(),
+      "Usage: " + Constants.PRODUCT_NAME.toLowerCase() + " --cli [options]",
+      "",
+      "  --action download|delete|download-and-delete",
+      "                            What to do with the attachments of the emails that match the search.",
+      "  --query QUERY             A Gmail search query. Defaults to the basic search below.",
+      "  --min-size MB             The minimum email size of the basic search.",
+      "  --labels NAME[,NAME..]    The labels of the basic search, any of which an email has to have.",
+      "  --target-directory DIR    Where to download the attachments to.",
+      "  --filename-schema SCHEMA  How to name downloaded attachments.",
+      "  --directory-layout " + getValues(DirectoryLayout.values()),
+      "  --order " + getValues(ProcessingOrder.values()),
+      "  --backup                  Download the original emails as well.",
+      "  --trash-original          Move original emails to the trash instead of permanently deleting them.",
+      "  --no-metadata             Don't add metadata about removed attachments to the emails.",
+      "  --resume                  Resume an interrupted job first; --action is optional with it.",
+      "  --repeat-every MINUTES    Keep running, and repeat the search and processing periodically.",
+      "  --daily-at HH:MM          Keep running, and repeat the search and processing every day at this time.",
+      "  --jitter MINUTES          Delay each repeated run by a random time of up to this many minutes.",
+      "  --help                    Show this message.",
+      "",
+      "Options that are not given default to the settings of the desktop app.");
+
+  static class Options {
+    Action action;
+    String query;
+    Integer minEmailSizeInMb;
+    List<String> labelNames;
+    String targetDirectory;
+    String filenameSchema;
+    DirectoryLayout directoryLayout;
+    ProcessingOrder processingOrder;
+    boolean backup;
+    boolean trashOriginal;
+    boolean addMetadata = true;
+    boolean resume;
+    long repeatEveryMinutes;
+    LocalTime dailyAt;
+    long jitterMinutes;
+    boolean help;
+
+    static Options parse(String[] args) {
+      Options options = new Options();
+      Iterator<String> iterator = Arrays.asList(args).iterator();
+      while (iterator.hasNext()) {
+        String option = iterator.next();
+        switch (option) {
+          case "--action" -> options.action = parseEnum(Action.class, option, getValue(iterator, option));
+          case "--query" -> options.query = getValue(iterator, option);
+          case "--min-size" -> options.minEmailSizeInMb = parseNumber(option, getValue(iterator, option));
+          case "--labels" -> options.labelNames = Arrays.asList(getValue(iterator, option).split(","));
+          case "--target-directory" -> options.targetDirectory = getValue(iterator, option);
+          case "--filename-schema" -> options.filenameSchema = getValue(iterator, option);
+          case "--directory-layout" ->
+              options.directoryLayout = parseEnum(DirectoryLayout.class, option, getValue(iterator, option));
+          case "--order" ->
+              options.processingOrder = parseEnum(ProcessingOrder.class, option, getValue(iterator, option));
+          case "--backup" -> options.backup = true;
+          case "--trash-original" -> options.trashOriginal = true;
+          case "--no-metadata" -> options.addMetadata = false;
+          case "--resume" -> options.resume = true;
+          case "--repeat-every" -> options.repeatEveryMinutes = parseNumber(option, getValue(iterator, option));
+          case "--daily-at" -> options.dailyAt = parseTime(option, getValue(iterator, option));
+          case "--jitter" -> options.jitterMinutes = parseNumber(option, getValue(iterator, option));
+          case "--help" -> options.help = true;
+          default -> throw new IllegalArgumentException("Unknown option: " + option);
+        }
+      }
+      if (options.action == null && !options.resume && !options.help) {
+        throw new IllegalArgumentException("Either --action or --resume is required.");
+      }
+      if (options.repeatEveryMinutes > 0 && options.dailyAt != null) {
+        throw new IllegalArgumentException("Only one of --repeat-every and --daily-at can be given.");
+      }
+      if (options.action == null && options.getTrigger() != null) {
+        throw new IllegalArgumentException("--repeat-every and --daily-at require --action.");
+      }
+      return options;
+    }
+
+    private static String getValue(Iterator<String> iterator, String option) {
+      if (!iterator.hasNext()) {
+        throw new IllegalArgumentException("Missing the value of " + option + ".");
+      }
+      return iterator.next();
+    }
+
+    private static int parseNumber(String option, String value) {
+      try {
+        int number = Integer.parseInt(value);
+        if (number < 0) {
+          throw new NumberFormatException();
+        }
+        return number;
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid value of " + option + ": " + value);
+      }
+    }
+
+    private static LocalTime parseTime(String option, String value) {
+      try {
+        return LocalTime.parse(value);
+      } catch (DateTimeParseException e) {
+        throw new IllegalArgumentException("Invalid value of " + option + ": " + value);
+      }
+    }
+
+    // Returns null if the search and processing only run once.
+    Scheduler.Trigger getTrigger() {
+      if (repeatEveryMinutes > 0) {
+        return Scheduler.Trigger.every(TimeUnit.MINUTES.toMillis(repeatEveryMinutes));
+      } else if (dailyAt != null) {
+        return Scheduler.Trigger.dailyAt(dailyAt);
+      } else {
+        return null;
+      }
+    }
+
+    private static <E extends Enum<E>> E parseEnum(Class<E> enumClass, String option, String value) {
+      try {
+        return Enum.valueOf(enumClass, value.toUpperCase().replace('-', '_'));
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException("Invalid value of " + option + ": " + value);
+      }
+    }
+  }
+
+  public static void main(String[] args) {
+    System.exit(run(args));
+  }
+
+  // Returns the exit code: 0 if all emails were processed, 1 if some failed or an error occurred, and 2 for invalid
+  // options.
+  static int run(String[] args) {
+    Options options;
+    try {
+      options = Options.parse(args);
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.err.println(USAGE);
+      return 2;
+    }
+    if (options.help) {
+      System.out.println(USAGE);
+      return 0;
+    }
+    CancellationToken cancellationToken = new CancellationToken();
+    // On Ctrl+C, the email being processed is finished (or stopped at a step that the job journal can resume from).
+    // Anything else, e.g. signing in or searching, is simply abandoned.
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      cancellationToken.cancel();
+      try {
+        processing.get().get(1, TimeUnit.MINUTES);
+      } catch (InterruptedException | ExecutionException | TimeoutException e) {
+        LOGGER.log(Level.WARNING, "Stopped without waiting for the current email.", e);
+      }
+    }));
+    try {
+      configureLogging();
+      LOGGER.info("Starting " + Constants.PRODUCT_NAME + " on the command line ..");
+      Controller controller = ControllerFactory.getDefaultController();
+      System.out.println("Signed in as " + controller.signIn() + ".");
+      return run(controller, options, cancellationToken);
+    } catch (CancellationException e) {
+      System.out.println("Stopped.");
+      return 1;
+    } catch (Throwable t) {
+      Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+      LOGGER.log(Level.SEVERE, "Failed to run on the command line.", cause);
+      System.err.println("Failed: " + cause.getMessage());
+      return 1;
+    }
+  }
+
+  // The log file is the same as the desktop app's, while only warnings go to the console, next to the progress.
+  private static void configureLogging() throws IOException {
+    LogManager.getLogManager().readConfiguration(MainCli.class.getResourceAsStream("/logging.properties"));
+    for (Handler handler : Logger.getLogger("").getHandlers()) {
+      Handler[] handlers = handler instanceof AsyncLogHandler ? ((AsyncLogHandler) handler).getHandlers() :
+          new Handler[] {handler};
+      for (Handler nestedHandler : handlers) {
+        if (nestedHandler instanceof ConsoleHandler) {
+          nestedHandler.setLevel(Level.WARNING);
+        }
+      }
+    }
+  }
+
+  private static int run(Controller controller, Options options, CancellationToken cancellationToken)
+      throws Exception {
+    ProcessingEngine processingEngine = new ProcessingEngine(controller);
+    int failed = 0;
+    JobJournal interruptedJob = controller.getInterruptedJob();
+    if (options.resume) {
+      if (interruptedJob == null) {
+        System.out.println("There is no interrupted job to resume.");
+      } else {
+        failed += resume(controller, processingEngine, interruptedJob, cancellationToken);
+      }
+    } else if (interruptedJob != null) {
+      // Starting another job would replace its journal.
+      System.err.printf("The processing of %d emails was interrupted. Please run with --resume first.%n",
+          interruptedJob.getNumberOfEmails());
+      return 1;
+    }
+    if (options.action == null) {
+      return failed == 0 ? 0 : 1;
+    }
+    Scheduler.Trigger trigger = options.getTrigger();
+    if (trigger == null) {
+      failed += searchAndProcess(controller, processingEngine, options, cancellationToken);
+      return failed == 0 ? 0 : 1;
+    }
+    runScheduled(controller, processingEngine, options, trigger, cancellationToken);
+    return 0;
+  }
+
+  // Runs until stopped, e.g. with Ctrl+C. The next run is kept on disk, so a restarted daemon doesn't run again
+  // before it is due, while a run that was missed when it wasn't running is caught up right away.
+  private static void runScheduled(Controller controller, ProcessingEngine processingEngine, Options options,
+                                   Scheduler.Trigger trigger, CancellationToken cancellationToken) {
+    AtomicReference<CompletableFuture<Integer>> lastRun = new AtomicReference<>(CompletableFuture.completedFuture(0));
+    controller.getScheduler(Scheduler.Owner.COMMAND_LINE).start(trigger, options.action.name(),
+        TimeUnit.MINUTES.toMillis(options.jitterMinutes), true,
+        () -> processingEngine.getMillisUntilBandwidthAvailable(options.action),
+        () -> {
+          CompletableFuture<Integer> run = LongTaskExecutor.submit(() ->
+              searchAndProcess(controller, processingEngine, options, cancellationToken));
+          lastRun.set(run);
+          return run;
+        },
+        nextRunMillis -> System.out.println("Next run at " +
+            TIME_FORMATTER.format(Instant.ofEpochMilli(nextRunMillis).atZone(ZoneId.systemDefault())) + "."));
+    CompletableFuture<Void> stopped = new CompletableFuture<>();
+    cancellationToken.onCancel(() -> stopped.complete(null));
+    stopped.join();
+    // The scheduler stops checking with the JVM, and its state is kept for the next start.
+    lastRun.get().handle((failed, throwable) -> null).join();
+  }
+
+  // Returns the number of emails that failed.
+  private static int resume(Controller controller, ProcessingEngine processingEngine, JobJournal interruptedJob,
+                            CancellationToken cancellationToken) {
+    System.out.printf("Resuming the interrupted job (%s) of %d emails, %d of which are not finished yet ..%n",
+        interruptedJob.getProcessSettings().getProcessOption().getAction(), interruptedJob.getNumberOfEmails(),
+        interruptedJob.getPendingGmailIds().size());
+    List<Email> emails = controller.resumeJob(interruptedJob);
+    return process(() -> processingEngine.resume(emails, interruptedJob, cancellationToken, PROGRESS_PRINTER));
+  }
+
+  // Returns the number of emails that failed. Emails that an earlier scheduled run left halfway are resumed first,
+  // since a new job can't be started while they are pending.
+  private static int searchAndProcess(Controller controller, ProcessingEngine processingEngine, Options options,
+                                      CancellationToken cancellationToken) throws Exception {
+    int failed = 0;
+    JobJournal interruptedJob = controller.getInterruptedJob();
+    if (interruptedJob != null) {
+      failed += resume(controller, processingEngine, interruptedJob, cancellationToken);
+    }
+    controller.clearPreviousSearch();
+    String query = getQuery(controller, options);
+    System.out.println("Searching for emails (query: " + query + ") ..");
+    GetEmailMetadataTask searchTask = controller.getSearchTask(query, cancellationToken);
+    join(LongTaskExecutor.run(searchTask, cancellationToken, progress ->
+        System.out.printf("Obtaining email metadata (completed %d of %d batches) ..%n", progress.completedSteps,
+            progress.numberOfSteps)));
+    List<Email> emails = controller.getEmails();
+    System.out.println("Found " + emails.size() + " emails.");
+    emails.forEach(email -> email.setStatus(EmailStatus.TO_PROCESS));
+    ProcessSettings processSettings = getProcessSettings(controller, options);
+    ProcessingOrder processingOrder = options.processingOrder == null ?
+        controller.getConfig().getProcessingOrder() : options.processingOrder;
+    return failed + process(() -> processingEngine.process(emails, processSettings, processingOrder,
+        cancellationToken, PROGRESS_PRINTER));
+  }
+
+  // Returns the number of emails that failed. Ctrl+C waits for the run to stop only while it is in here.
+  private static int process(Supplier<CompletableFuture<ProcessingProgress>> run) {
+    CompletableFuture<Void> runStopped = new CompletableFuture<>();
+    processing.set(runStopped);
+    try {
+      return report(join(run.get()));
+    } finally {
+      runStopped.complete(null);
+    }
+  }
+
+  private static String getQuery(Controller controller, Options options) {
+    if (options.query != null) {
+      return options.query;
+    }
+    Config config = controller.getConfig();
+    int minEmailSizeInMb = options.minEmailSizeInMb == null ? config.getEmailSize() : options.minEmailSizeInMb;
+    List<String> labelNames = options.labelNames;
+    if (labelNames == null) {
+      labelNames = new ArrayList<>();
+      SortedMap<String, String> idToLabel = controller.getIdToLabel();
+      for (String labelId : config.getLabelIds()) {
+        if (idToLabel != null && idToLabel.containsKey(labelId)) {
+          labelNames.add(idToLabel.get(labelId));
+        }
+      }
+    }
+    return BasicSearchQuery.build(minEmailSizeInMb, labelNames);
+  }
+
+  private static ProcessSettings getProcessSettings(Controller controller, Options options) {
+    Config config = controller.getConfig();
+    boolean deleteOriginal = !options.trashOriginal && config.getDeleteOriginal();
+    String downloadedLabelId = controller.getOrCreateDownloadedLabelId();
+    ProcessOption processOption = switch (options.action) {
+      case DOWNLOAD -> new ProcessOption(Action.DOWNLOAD, options.backup, true, false, false, downloadedLabelId, null);
+      case DELETE -> new ProcessOption(Action.DELETE, options.backup, false, true, deleteOriginal, downloadedLabelId,
+          controller.getOrCreateRemovedLabelId());
+      case DOWNLOAD_AND_DELETE -> new ProcessOption(Action.DOWNLOAD_AND_DELETE, options.backup, true, true,
+          deleteOriginal, downloadedLabelId, controller.getOrCreateRemovedLabelId());
+    };
+    String targetDirectory = options.targetDirectory == null ? config.getTargetDirectory() : options.targetDirectory;
+    String filenameSchema = options.filenameSchema == null ? config.getFilenameSchema() : options.filenameSchema;
+    DirectoryLayout directoryLayout =
+        options.directoryLayout == null ? config.getDirectoryLayout() : options.directoryLayout;
+    return new ProcessSettings(processOption, new File(targetDirectory), filenameSchema, directoryLayout,
+        options.addMetadata);
+  }
+
+  private static final ProcessingEngine.Listener PROGRESS_PRINTER = new ProcessingEngine.Listener() {
+    @Override
+    public void onProgress(ProcessingProgress progress) {
+      System.out.println("Processing selected emails (" + progress + ") ..");
+    }
+
+    @Override
+    public void onEmailFailed(Email email, Throwable t) {
+      System.err.println("Failed to process the email \"" + email.getSubject() + "\": " + t.getMessage());
+    }
+  };
+
+  private static int report(ProcessingProgress progress) {
+    System.out.println("Processing stopped (" + progress + ").");
+    return progress.failed;
+  }
+
+  // Rethrows a cancellation as is, so that it can be told apart from failures.
+  private static <T> T join(CompletableFuture<T> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof CancellationException) {
+        throw (CancellationException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  private static String getValues(Enum<?>[] values) {
+    StringJoiner joiner = new StringJoiner("|");
+    for (Enum<?> value : values) {
+      joiner.add(value.name().toLowerCase().replace('_', '-'));
+    }
+    return joiner.toString();
+  }
+}
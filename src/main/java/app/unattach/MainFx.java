@@ -22,7 +22,7 @@ public class MainFx extends Application {
       Scenes.init(stage);
       Controller controller = ControllerFactory.getDefaultController();
       if (controller.getConfig().getSignInAutomatically()) {
-        controller.signIn();
+        // The main view signs in once it is shown.
         Scenes.setScene(Scenes.MAIN);
       } else {
         Scenes.setScene(Scenes.SIGN_IN);
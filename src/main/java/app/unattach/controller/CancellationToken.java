@@ -0,0 +1,72 @@
+package app.unattach.controller;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+// Shared between whoever can cancel a long task and the code doing the work, which checks it between steps, and waits
+// with delay(), so that waiting ends as soon as the task is cancelled.
+public class CancellationToken {
+  private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "cancellation-token-scheduler");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final List<Runnable> callbacks = new ArrayList<>();
+  private volatile boolean cancelled;
+
+  public void cancel() {
+    List<Runnable> callbacksToRun;
+    synchronized (this) {
+      if (cancelled) {
+        return;
+      }
+      cancelled = true;
+      callbacksToRun = new ArrayList<>(callbacks);
+      callbacks.clear();
+    }
+    callbacksToRun.forEach(Runnable::run);
+  }
+
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  public void throwIfCancelled() {
+    if (cancelled) {
+      throw new CancellationException();
+    }
+  }
+
+  // Runs the callback once the token is cancelled (or right away, if it already is). Returns false in the latter case.
+  public boolean onCancel(Runnable callback) {
+    synchronized (this) {
+      if (!cancelled) {
+        callbacks.add(callback);
+        return true;
+      }
+    }
+    callback.run();
+    return false;
+  }
+
+  private synchronized void removeOnCancel(Runnable callback) {
+    callbacks.remove(callback);
+  }
+
+  // Completes after the given time, or with a CancellationException as soon as the token is cancelled. No thread is
+  // blocked in the meantime.
+  public CompletableFuture<Void> delay(long millis) {
+    CompletableFuture<Void> delay = new CompletableFuture<>();
+    Runnable onCancel = () -> delay.completeExceptionally(new CancellationException());
+    if (onCancel(onCancel)) {
+      ScheduledFuture<?> timer = SCHEDULER.schedule(() -> delay.complete(null), millis, TimeUnit.MILLISECONDS);
+      delay.whenComplete((result, throwable) -> {
+        timer.cancel(false);
+        removeOnCancel(onCancel);
+      });
+    }
+    return delay;
+  }
+}
@@ -11,24 +11,36 @@ import java.util.SortedMap;
 
 public interface Controller {
   void clearPreviousSearch();
+  BandwidthLedger getBandwidthLedger();
   String createLabel(String name);
+  void discardJob(JobJournal interruptedJob);
   void donate(String item, int amount, String currency);
+  void exportResults(File file) throws IOException;
+  void finishJob();
   Config getConfig();
   List<Email> getEmails();
+  EmailStore getEmailStore();
   String getEmailAddress() throws IOException;
   SortedMap<String, String> getIdToLabel();
+  JobJournal getInterruptedJob();
+  int importResults(File file) throws IOException;
+  boolean isSignedIn();
   DefaultArtifactVersion getLatestVersion();
   String getOrCreateDownloadedLabelId();
   String getOrCreateRemovedLabelId();
   LongTask<ProcessEmailResult> getProcessTask(Email email, ProcessSettings processSettings);
-  GetEmailMetadataTask getSearchTask(String query) throws IOException, InterruptedException;
+  GetEmailMetadataTask getSearchTask(String query, CancellationToken cancellationToken) throws IOException, InterruptedException;
   void openFile(File file);
   void openQueryLanguagePage();
   void openUnattachHomepage();
   void openTermsAndConditions();
   void openWebPage(String uriString);
+  void requestEmailMetadata(Email email);
+  List<Email> resumeJob(JobJournal interruptedJob);
+  Scheduler getScheduler(Scheduler.Owner owner);
   String signIn() throws IOException, GeneralSecurityException;
   void signOut();
+  void startJob(List<Email> emails, ProcessSettings processSettings);
   void sendToServer(String contentDescription, String exceptionText, String userText);
   void subscribe(String emailAddress) throws Exception;
 }
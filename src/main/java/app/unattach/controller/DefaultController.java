@@ -33,6 +33,22 @@ public class DefaultController implements Controller {
     model.clearPreviousSearch();
   }
 
+  // Returns null if the account's ledger can't be opened.
+  @Override
+  public BandwidthLedger getBandwidthLedger() {
+    try {
+      return model.getBandwidthLedger();
+    } catch (Throwable t) {
+      LOGGER.log(Level.SEVERE, "Failed to get the bandwidth ledger.", t);
+      return null;
+    }
+  }
+
+  @Override
+  public Scheduler getScheduler(Scheduler.Owner owner) {
+    return model.getScheduler(owner);
+  }
+
   @Override
   public String createLabel(String name) {
     try {
@@ -47,8 +63,63 @@ public class DefaultController implements Controller {
   }
 
   @Override
-  public GetEmailMetadataTask getSearchTask(String query) throws IOException, InterruptedException {
-    return model.getSearchTask(query);
+  public GetEmailMetadataTask getSearchTask(String query, CancellationToken cancellationToken)
+      throws IOException, InterruptedException {
+    return model.getSearchTask(query, cancellationToken);
+  }
+
+  @Override
+  public void exportResults(File file) throws IOException {
+    model.exportResults(file);
+  }
+
+  @Override
+  public int importResults(File file) throws IOException {
+    return model.importResults(file);
+  }
+
+  // The journal only makes an interrupted job resumable, so processing goes on without it if it can't be started,
+  // e.g. because an interrupted job is still pending, whose journal is then kept as it is.
+  @Override
+  public void startJob(List<Email> emails, ProcessSettings processSettings) {
+    try {
+      model.startJob(emails, processSettings);
+    } catch (Throwable t) {
+      LOGGER.log(Level.SEVERE, "Failed to start the job journal.", t);
+    }
+  }
+
+  @Override
+  public void finishJob() {
+    try {
+      model.finishJob();
+    } catch (Throwable t) {
+      LOGGER.log(Level.SEVERE, "Failed to finish the job journal.", t);
+    }
+  }
+
+  @Override
+  public JobJournal getInterruptedJob() {
+    try {
+      return model.getInterruptedJob();
+    } catch (Throwable t) {
+      LOGGER.log(Level.SEVERE, "Failed to read the job journal.", t);
+      return null;
+    }
+  }
+
+  @Override
+  public List<Email> resumeJob(JobJournal interruptedJob) {
+    return model.resumeJob(interruptedJob);
+  }
+
+  @Override
+  public void discardJob(JobJournal interruptedJob) {
+    try {
+      model.discardJob(interruptedJob);
+    } catch (Throwable t) {
+      LOGGER.log(Level.SEVERE, "Failed to discard the job journal.", t);
+    }
   }
 
   @Override
@@ -102,11 +173,21 @@ public class DefaultController implements Controller {
     return model.getProcessTask(email, processSettings);
   }
 
+  @Override
+  public void requestEmailMetadata(Email email) {
+    model.requestEmailMetadata(email);
+  }
+
   @Override
   public List<Email> getEmails() {
     return model.getEmails();
   }
 
+  @Override
+  public EmailStore getEmailStore() {
+    return model.getEmailStore();
+  }
+
   @Override
   public void openUnattachHomepage() {
     openWebPage(Constants.HOMEPAGE);
@@ -122,6 +203,11 @@ public class DefaultController implements Controller {
     openWebPage("https://support.google.com/mail/answer/7190");
   }
 
+  @Override
+  public boolean isSignedIn() {
+    return model.isSignedIn();
+  }
+
   @Override
   public String signIn() throws IOException, GeneralSecurityException {
       model.signIn();
@@ -1,8 +1,11 @@
 package app.unattach.controller;
 
+import java.util.concurrent.CompletableFuture;
+
 public interface LongTask<T> {
   int getNumberOfSteps();
 
   boolean hasMoreSteps();
-  T takeStep() throws LongTaskException;
+  // The returned future completes when the step is done; the next step may only be taken after that.
+  CompletableFuture<T> takeStep(CancellationToken cancellationToken);
 }
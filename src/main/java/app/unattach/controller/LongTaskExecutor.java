@@ -0,0 +1,54 @@
+package app.unattach.controller;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+public class LongTaskExecutor {
+  private static final AtomicInteger NUMBER_OF_THREADS = new AtomicInteger();
+  private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+    Thread thread = new Thread(runnable, "long-task-" + NUMBER_OF_THREADS.incrementAndGet());
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private LongTaskExecutor() {}
+
+  // Runs blocking work (e.g. Gmail calls) on a worker thread. The future fails with a CancellationException if the work
+  // was cancelled, and with a LongTaskException if it failed for any other reason.
+  public static <T> CompletableFuture<T> submit(Callable<T> callable) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    EXECUTOR.execute(() -> {
+      try {
+        future.complete(callable.call());
+      } catch (CancellationException e) {
+        future.completeExceptionally(e);
+      } catch (Throwable t) {
+        future.completeExceptionally(new LongTaskException(t));
+      }
+    });
+    return future;
+  }
+
+  // Takes the steps of the task one after another, without blocking the calling thread, and publishes the progress
+  // after each of them. Stops with a CancellationException before the next step once the token is cancelled.
+  public static <T> CompletableFuture<Void> run(LongTask<T> task, CancellationToken cancellationToken,
+                                                Consumer<LongTaskProgress<T>> progressListener) {
+    return run(task, 0, cancellationToken, progressListener);
+  }
+
+  private static <T> CompletableFuture<Void> run(LongTask<T> task, int completedSteps,
+                                                 CancellationToken cancellationToken,
+                                                 Consumer<LongTaskProgress<T>> progressListener) {
+    if (!task.hasMoreSteps()) {
+      return CompletableFuture.completedFuture(null);
+    }
+    if (cancellationToken.isCancelled()) {
+      return CompletableFuture.failedFuture(new CancellationException());
+    }
+    return task.takeStep(cancellationToken).thenCompose(result -> {
+      progressListener.accept(new LongTaskProgress<>(completedSteps + 1, task.getNumberOfSteps(), result));
+      return run(task, completedSteps + 1, cancellationToken, progressListener);
+    });
+  }
+}
@@ -0,0 +1,14 @@
+package app.unattach.controller;
+
+// Published after each step of a long task.
+public class LongTaskProgress<T> {
+  public final int completedSteps;
+  public final int numberOfSteps;
+  public final T result;
+
+  LongTaskProgress(int completedSteps, int numberOfSteps, T result) {
+    this.completedSteps = completedSteps;
+    this.numberOfSteps = numberOfSteps;
+    this.result = result;
+  }
+}
@@ -0,0 +1,153 @@
+package app.unattach.controller;
+
+import app.unattach.model.*;
+import app.unattach.view.Action;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Processes emails one after another, and keeps the job journal and the emails' status up to date, independently of
+// how the progress is shown, so that the desktop app and the command line share the same processing.
+public class ProcessingEngine {
+  private static final Logger LOGGER = Logger.getLogger(ProcessingEngine.class.getName());
+
+  // Called on the thread that finished the email, so UIs have to switch to their own thread.
+  public interface Listener {
+    void onProgress(ProcessingProgress progress);
+
+    default void onEmailFailed(Email email, Throwable t) {}
+  }
+
+  private final Controller controller;
+
+  public ProcessingEngine(Controller controller) {
+    this.controller = controller;
+  }
+
+  // Orders the emails, starts a job for them, and completes with the final progress once all of them were processed,
+  // or the token was cancelled.
+  public CompletableFuture<ProcessingProgress> process(List<Email> emails, ProcessSettings processSettings,
+                                                       ProcessingOrder processingOrder,
+                                                       CancellationToken cancellationToken, Listener listener) {
+    BandwidthLedger bandwidthLedger = controller.getBandwidthLedger();
+    long remainingUploadBytes = bandwidthLedger == null ?
+        Long.MAX_VALUE : bandwidthLedger.getRemainingBytes(BandwidthLedger.Direction.UPLOAD);
+    List<Email> orderedEmails = processingOrder.sort(emails, processSettings.getProcessOption(), remainingUploadBytes);
+    controller.startJob(orderedEmails, processSettings);
+    return run(orderedEmails, processSettings, cancellationToken, listener);
+  }
+
+  // Continues an interrupted job with the emails returned by Controller.resumeJob.
+  public CompletableFuture<ProcessingProgress> resume(List<Email> emails, JobJournal interruptedJob,
+                                                      CancellationToken cancellationToken, Listener listener) {
+    return run(emails, interruptedJob.getProcessSettings(), cancellationToken, listener);
+  }
+
+  private CompletableFuture<ProcessingProgress> run(List<Email> emails, ProcessSettings processSettings,
+                                                    CancellationToken cancellationToken, Listener listener) {
+    Run run = new Run(emails, processSettings, cancellationToken, listener);
+    // Emails that are not loaded yet are loaded when processed, and count with the average size until then.
+    long averageSizeInBytes = controller.getEmailStore().getAverageSizeInBytes();
+    run.allBytesToProcess = emails.stream()
+        .mapToLong(email -> email.isLoaded() ? email.getSizeInBytes() : averageSizeInBytes).sum();
+    listener.onProgress(run.getProgress());
+    processNextEmail(run);
+    return run.future;
+  }
+
+  private void processNextEmail(Run run) {
+    Metrics.getInstance().setEmailsQueued(run.emails.size() - run.nextEmailIndex);
+    if (run.cancellationToken.isCancelled() || run.nextEmailIndex >= run.emails.size()) {
+      Metrics.getInstance().setEmailsQueued(0);
+      controller.finishJob();
+      run.future.complete(run.getProgress());
+      return;
+    }
+    Email email = run.emails.get(run.nextEmailIndex);
+    // The task always has a single step.
+    LongTask<ProcessEmailResult> longTask = controller.getProcessTask(email, run.processSettings);
+    longTask.takeStep(run.cancellationToken).whenComplete((processEmailResult, throwable) -> {
+      Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+      IOException deferralCause = getDeferralCause(cause);
+      if (cause instanceof CancellationException) {
+        // Stopped before anything was changed, so the email can still be processed later.
+        processNextEmail(run);
+        return;
+      } else if (deferralCause != null) {
+        // Deferred rather than failed, so that the emails which still fit the budget (e.g. with no attachments to
+        // upload) are processed first, and this one stays selected for a later run.
+        email.setNote(deferralCause.getMessage());
+        ++run.deferred;
+      } else if (cause != null) {
+        LOGGER.log(Level.SEVERE, "Failed to process the email " + email.getGmailId() + ".", cause);
+        email.setStatus(EmailStatus.FAILED);
+        email.setNote(cause.getMessage());
+        ++run.failed;
+        run.listener.onEmailFailed(email, cause);
+      } else {
+        if (processEmailResult.getNewUniqueId() != null) {
+          email.setUniqueId(processEmailResult.getNewUniqueId());
+        }
+        run.bytesProcessed += email.getSizeInBytes();
+        ++run.processed;
+      }
+      ++run.nextEmailIndex;
+      run.listener.onProgress(run.getProgress());
+      processNextEmail(run);
+    });
+  }
+
+  // The bandwidth or the memory that the email needs isn't available, but may be in a later run.
+  private static IOException getDeferralCause(Throwable throwable) {
+    for (Throwable t = throwable; t != null; t = t.getCause()) {
+      if (t instanceof BandwidthBudgetException || t instanceof MemoryBudgetException) {
+        return (IOException) t;
+      }
+    }
+    return null;
+  }
+
+  // A run while the bandwidth that the action needs is spent would only defer every email.
+  public long getMillisUntilBandwidthAvailable(Action action) {
+    BandwidthLedger bandwidthLedger = controller.getBandwidthLedger();
+    if (bandwidthLedger == null) {
+      return 0;
+    }
+    long millis = bandwidthLedger.getMillisUntilNotSpent(BandwidthLedger.Direction.DOWNLOAD);
+    if (action != Action.DOWNLOAD) {
+      millis = Math.max(millis, bandwidthLedger.getMillisUntilNotSpent(BandwidthLedger.Direction.UPLOAD));
+    }
+    return millis;
+  }
+
+  private static class Run {
+    private final List<Email> emails;
+    private final ProcessSettings processSettings;
+    private final CancellationToken cancellationToken;
+    private final Listener listener;
+    private final CompletableFuture<ProcessingProgress> future = new CompletableFuture<>();
+    private int nextEmailIndex;
+    private int processed;
+    private int failed;
+    private int deferred;
+    private long bytesProcessed;
+    private long allBytesToProcess;
+
+    private Run(List<Email> emails, ProcessSettings processSettings, CancellationToken cancellationToken,
+                Listener listener) {
+      this.emails = emails;
+      this.processSettings = processSettings;
+      this.cancellationToken = cancellationToken;
+      this.listener = listener;
+    }
+
+    private ProcessingProgress getProgress() {
+      return new ProcessingProgress(emails.size(), processed, failed, deferred, bytesProcessed, allBytesToProcess);
+    }
+  }
+}
@@ -0,0 +1,39 @@
+package app.unattach.controller;
+
+import app.unattach.model.Constants;
+
+// A snapshot of a processing run, after an email was processed, failed, or was deferred.
+public class ProcessingProgress {
+  public final int numberOfEmails;
+  public final int processed;
+  public final int failed;
+  public final int deferred;
+  public final long bytesProcessed;
+  public final long allBytesToProcess;
+
+  ProcessingProgress(int numberOfEmails, int processed, int failed, int deferred, long bytesProcessed,
+                     long allBytesToProcess) {
+    this.numberOfEmails = numberOfEmails;
+    this.processed = processed;
+    this.failed = failed;
+    this.deferred = deferred;
+    this.bytesProcessed = bytesProcessed;
+    this.allBytesToProcess = allBytesToProcess;
+  }
+
+  public int getNumberOfFinishedEmails() {
+    return processed + failed + deferred;
+  }
+
+  public double getFractionOfBytesProcessed() {
+    return allBytesToProcess == 0 ? 0 : 1.0 * bytesProcessed / allBytesToProcess;
+  }
+
+  @Override
+  public String toString() {
+    String status = String.format("processed %d of %d, %dMB / %dMB, %d%% by size, %d failed", processed,
+        numberOfEmails, bytesProcessed / Constants.BYTES_IN_MEGABYTE, allBytesToProcess / Constants.BYTES_IN_MEGABYTE,
+        allBytesToProcess == 0 ? 0 : 100 * bytesProcessed / allBytesToProcess, failed);
+    return deferred == 0 ? status : status + String.format(", %d deferred", deferred);
+  }
+}
@@ -0,0 +1,18 @@
+package app.unattach.model;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// The files in the user's home directory that belong to a single Gmail account, so that e.g. signing in with another
+// account doesn't replace them.
+final class AccountFiles {
+  private AccountFiles() {}
+
+  // E.g. ~/.unattach-bandwidth-me@example.com.log for the name "bandwidth" and the extension "log".
+  static Path getPath(String name, String emailAddress, String extension) {
+    String userHome = System.getProperty("user.home");
+    String account = emailAddress.toLowerCase().replaceAll("[^a-z0-9@._-]", "_");
+    return Paths.get(userHome, "." + Constants.PRODUCT_NAME.toLowerCase() + "-" + name + "-" + account + "." +
+        extension);
+  }
+}
@@ -0,0 +1,30 @@
+package app.unattach.model;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+// Thrown before a transfer that would exceed Gmail's daily limit, so that the email can be processed later instead.
+public class BandwidthBudgetException extends IOException {
+  private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+  private final BandwidthLedger.Direction direction;
+  private final long availableAt;
+
+  BandwidthBudgetException(BandwidthLedger.Direction direction, long availableAt) {
+    super(String.format("The daily Gmail %s limit (%d MB) is used up until %s.", direction,
+        direction.getLimitInBytes() / Constants.BYTES_IN_MEGABYTE,
+        TIME_FORMATTER.format(Instant.ofEpochMilli(availableAt).atZone(ZoneId.systemDefault()))));
+    this.direction = direction;
+    this.availableAt = availableAt;
+  }
+
+  public BandwidthLedger.Direction getDirection() {
+    return direction;
+  }
+
+  public long getAvailableAt() {
+    return availableAt;
+  }
+}
@@ -0,0 +1,213 @@
+package app.unattach.model;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.*;
+
+// The bytes downloaded from and uploaded to Gmail by an account in the last 24 hours, to stay within Gmail's daily
+// limits instead of failing every email once they are reached. Each transfer is appended to a file, one line per
+// transfer, so that the limits are also respected across restarts.
+public class BandwidthLedger {
+  private static final Logger LOGGER = Logger.getLogger(BandwidthLedger.class.getName());
+  static final long WINDOW_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+  public enum Direction {
+    DOWNLOAD("download", 2500L * Constants.BYTES_IN_MEGABYTE),
+    UPLOAD("upload", 500L * Constants.BYTES_IN_MEGABYTE);
+
+    private final String name;
+    private final long limitInBytes;
+
+    Direction(String name, long limitInBytes) {
+      this.name = name;
+      this.limitInBytes = limitInBytes;
+    }
+
+    public long getLimitInBytes() {
+      return limitInBytes;
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  private static class Transfer {
+    private final long timestamp;
+    private final long bytes;
+
+    private Transfer(long timestamp, long bytes) {
+      this.timestamp = timestamp;
+      this.bytes = bytes;
+    }
+  }
+
+  private final Path path;
+  private final LongSupplier clock;
+  private final Map<Direction, Deque<Transfer>> transfersByDirection = new EnumMap<>(Direction.class);
+  private final long[] bytesByDirection = new long[Direction.values().length];
+  // The smallest transfer that did not fit the remaining budget, so that emails are not fetched in vain while it
+  // still wouldn't.
+  private final long[] smallestRejectedBytesByDirection = new long[Direction.values().length];
+
+  // The ledger is only kept in memory if the path is null.
+  BandwidthLedger(Path path, LongSupplier clock) {
+    this.path = path;
+    this.clock = clock;
+    for (Direction direction : Direction.values()) {
+      transfersByDirection.put(direction, new ArrayDeque<>());
+      smallestRejectedBytesByDirection[direction.ordinal()] = Long.MAX_VALUE;
+    }
+  }
+
+  static Path getDefaultPath(String emailAddress) {
+    return AccountFiles.getPath("bandwidth", emailAddress, "log");
+  }
+
+  // Reads the transfers of the last 24 hours, and drops the older ones from the file.
+  static BandwidthLedger load(Path path, LongSupplier clock) {
+    BandwidthLedger ledger = new BandwidthLedger(path, clock);
+    if (Files.exists(path)) {
+      try {
+        ledger.read();
+        ledger.rewrite();
+      } catch (IOException e) {
+        LOGGER.log(Level.WARNING, "Failed to read the bandwidth ledger " + path + ".", e);
+      }
+    }
+    return ledger;
+  }
+
+  private void read() throws IOException {
+    long windowStart = clock.getAsLong() - WINDOW_MILLIS;
+    try (BufferedReader reader = Files.newBufferedReader(path, UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.split(" ");
+        try {
+          long timestamp = Long.parseLong(fields[0]);
+          Direction direction = Direction.valueOf(fields[1]);
+          long bytes = Long.parseLong(fields[2]);
+          if (timestamp > windowStart) {
+            add(direction, new Transfer(timestamp, bytes));
+          }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+          LOGGER.warning("Ignoring an invalid transfer in " + path + ": " + line);
+        }
+      }
+    }
+  }
+
+  private void rewrite() throws IOException {
+    Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+    try (BufferedWriter writer = Files.newBufferedWriter(temporaryPath, UTF_8)) {
+      for (Direction direction : Direction.values()) {
+        for (Transfer transfer : transfersByDirection.get(direction)) {
+          writer.write(toLine(direction, transfer));
+        }
+      }
+    }
+    Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static String toLine(Direction direction, Transfer transfer) {
+    return transfer.timestamp + " " + direction.name() + " " + transfer.bytes + "\n";
+  }
+
+  public synchronized void record(Direction direction, long bytes) {
+    Transfer transfer = new Transfer(clock.getAsLong(), bytes);
+    add(direction, transfer);
+    if (path != null) {
+      // Losing a transfer only makes the ledger a bit optimistic, so it is not worth failing the email for.
+      try (BufferedWriter writer = Files.newBufferedWriter(path, UTF_8, WRITE, CREATE, APPEND)) {
+        writer.write(toLine(direction, transfer));
+      } catch (IOException e) {
+        LOGGER.log(Level.WARNING, "Failed to update the bandwidth ledger " + path + ".", e);
+      }
+    }
+  }
+
+  private void add(Direction direction, Transfer transfer) {
+    transfersByDirection.get(direction).addLast(transfer);
+    bytesByDirection[direction.ordinal()] += transfer.bytes;
+  }
+
+  private void removeExpired(Direction direction) {
+    long windowStart = clock.getAsLong() - WINDOW_MILLIS;
+    Deque<Transfer> transfers = transfersByDirection.get(direction);
+    while (!transfers.isEmpty() && transfers.getFirst().timestamp <= windowStart) {
+      bytesByDirection[direction.ordinal()] -= transfers.removeFirst().bytes;
+    }
+  }
+
+  public synchronized long getBytes(Direction direction) {
+    removeExpired(direction);
+    return bytesByDirection[direction.ordinal()];
+  }
+
+  public synchronized long getRemainingBytes(Direction direction) {
+    return Math.max(0, direction.limitInBytes - getBytes(direction));
+  }
+
+  // Throws if the transfer doesn't fit the remaining budget.
+  synchronized void check(Direction direction, long bytes) throws BandwidthBudgetException {
+    if (bytes > getRemainingBytes(direction)) {
+      int index = direction.ordinal();
+      smallestRejectedBytesByDirection[index] = Math.min(smallestRejectedBytesByDirection[index], bytes);
+      throw new BandwidthBudgetException(direction, clock.getAsLong() + getMillisUntilAvailable(direction, bytes));
+    }
+  }
+
+  // Throws if the budget is spent, i.e. if nothing is left, or a recent transfer didn't fit and still wouldn't.
+  synchronized void checkNotSpent(Direction direction) throws BandwidthBudgetException {
+    long millisUntilNotSpent = getMillisUntilNotSpent(direction);
+    if (millisUntilNotSpent > 0) {
+      throw new BandwidthBudgetException(direction, clock.getAsLong() + millisUntilNotSpent);
+    }
+  }
+
+  // Returns 0 if the budget is not spent.
+  public synchronized long getMillisUntilNotSpent(Direction direction) {
+    int index = direction.ordinal();
+    long remainingBytes = getRemainingBytes(direction);
+    if (remainingBytes >= smallestRejectedBytesByDirection[index]) {
+      smallestRejectedBytesByDirection[index] = Long.MAX_VALUE;
+    }
+    long requiredBytes = smallestRejectedBytesByDirection[index] == Long.MAX_VALUE ?
+        1 : smallestRejectedBytesByDirection[index];
+    return remainingBytes >= requiredBytes ? 0 : getMillisUntilAvailable(direction, requiredBytes);
+  }
+
+  // Returns how long it takes until enough earlier transfers leave the 24 hour window for the given number of bytes.
+  public synchronized long getMillisUntilAvailable(Direction direction, long bytes) {
+    removeExpired(direction);
+    long excessBytes = bytesByDirection[direction.ordinal()] + bytes - direction.limitInBytes;
+    if (excessBytes <= 0) {
+      return 0;
+    }
+    long now = clock.getAsLong();
+    for (Transfer transfer : transfersByDirection.get(direction)) {
+      excessBytes -= transfer.bytes;
+      if (excessBytes <= 0) {
+        return Math.max(0, transfer.timestamp + WINDOW_MILLIS - now);
+      }
+    }
+    // Larger than the daily limit, so it never fits.
+    return Long.MAX_VALUE - now;
+  }
+}
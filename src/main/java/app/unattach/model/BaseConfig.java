@@ -8,11 +8,14 @@ import java.util.Properties;
 
 public class BaseConfig implements Config {
   private static final String DELETE_ORIGINAL_PROPERTY = "delete_original";
+  private static final String DIRECTORY_LAYOUT_PROPERTY = "directory_layout";
   private static final String DOWNLOADED_LABEL_ID_PROPERTY = "downloaded_label_id";
   private static final String EMAIL_SIZE_PROPERTY = "email_size";
   private static final String FILENAME_SCHEMA_PROPERTY = "filename_schema";
   private static final String LABEL_IDS_PROPERTY = "label_ids";
+  private static final String LOAD_DETAILS_LAZILY_PROPERTY = "load_details_lazily";
   private static final String NUMBER_OF_RUNS_PROPERTY = "number_of_runs";
+  private static final String PROCESSING_ORDER_PROPERTY = "processing_order";
   private static final String REMOVED_LABEL_ID_PROPERTY = "removed_label_id";
   private static final String SEARCH_QUERY_PROPERTY = "search_query";
   private static final String SIGN_IN_AUTOMATICALLY_PROPERTY = "sign_in_automatically";
@@ -40,6 +43,15 @@ public class BaseConfig implements Config {
     return Boolean.parseBoolean(config.getProperty(DELETE_ORIGINAL_PROPERTY, "true"));
   }
 
+  @Override
+  public DirectoryLayout getDirectoryLayout() {
+    try {
+      return DirectoryLayout.valueOf(config.getProperty(DIRECTORY_LAYOUT_PROPERTY, DirectoryLayout.FLAT.name()));
+    } catch (IllegalArgumentException e) {
+      return DirectoryLayout.FLAT;
+    }
+  }
+
   @Override
   public String getFilenameSchema() {
     return config.getProperty(FILENAME_SCHEMA_PROPERTY, FilenameFactory.DEFAULT_SCHEMA);
@@ -69,6 +81,20 @@ public class BaseConfig implements Config {
     return config.getProperty(SEARCH_QUERY_PROPERTY, "has:attachment size:1m");
   }
 
+  @Override
+  public ProcessingOrder getProcessingOrder() {
+    try {
+      return ProcessingOrder.valueOf(config.getProperty(PROCESSING_ORDER_PROPERTY, ProcessingOrder.TABLE.name()));
+    } catch (IllegalArgumentException e) {
+      return ProcessingOrder.TABLE;
+    }
+  }
+
+  @Override
+  public boolean getLoadDetailsLazily() {
+    return Boolean.parseBoolean(config.getProperty(LOAD_DETAILS_LAZILY_PROPERTY, "false"));
+  }
+
   @Override
   public boolean getSignInAutomatically() {
     return Boolean.parseBoolean(config.getProperty(SIGN_IN_AUTOMATICALLY_PROPERTY, "false"));
@@ -104,6 +130,24 @@ public class BaseConfig implements Config {
     saveConfig();
   }
 
+  @Override
+  public void saveLoadDetailsLazily(boolean loadDetailsLazily) {
+    config.setProperty(LOAD_DETAILS_LAZILY_PROPERTY, Boolean.toString(loadDetailsLazily));
+    saveConfig();
+  }
+
+  @Override
+  public void saveProcessingOrder(ProcessingOrder processingOrder) {
+    config.setProperty(PROCESSING_ORDER_PROPERTY, processingOrder.name());
+    saveConfig();
+  }
+
+  @Override
+  public void saveDirectoryLayout(DirectoryLayout directoryLayout) {
+    config.setProperty(DIRECTORY_LAYOUT_PROPERTY, directoryLayout.name());
+    saveConfig();
+  }
+
   @Override
   public void saveDownloadedLabelId(String downloadedLabelId) {
     config.setProperty(DOWNLOADED_LABEL_ID_PROPERTY, downloadedLabelId);
@@ -0,0 +1,20 @@
+package app.unattach.model;
+
+import java.util.Collection;
+import java.util.stream.Collectors;
+
+// The Gmail query of the basic search: emails with attachments, of at least the given size, with any of the labels.
+public final class BasicSearchQuery {
+  private BasicSearchQuery() {}
+
+  public static String build(int minEmailSizeInMb, Collection<String> labelNames) {
+    StringBuilder query = new StringBuilder(String.format("has:attachment size:%dm", minEmailSizeInMb));
+    if (!labelNames.isEmpty()) {
+      query.append(" {");
+      query.append(labelNames.stream().map(labelName -> String.format("label:\"%s\"", labelName))
+          .collect(Collectors.joining(" ")));
+      query.append("}");
+    }
+    return query.toString();
+  }
+}
@@ -5,19 +5,25 @@ import java.util.List;
 public interface Config {
   int getEmailSize();
   boolean getDeleteOriginal();
+  DirectoryLayout getDirectoryLayout();
   String getFilenameSchema();
   List<String> getLabelIds();
   String getDownloadedLabelId();
   String getRemovedLabelId();
+  ProcessingOrder getProcessingOrder();
   String getSearchQuery();
+  boolean getLoadDetailsLazily();
   boolean getSignInAutomatically();
   boolean getSubscribeToUpdates();
   String getTargetDirectory();
   int incrementNumberOfRuns();
+  void saveDirectoryLayout(DirectoryLayout directoryLayout);
   void saveDownloadedLabelId(String downloadedLabelId);
   void saveEmailSize(int emailSize);
   void saveFilenameSchema(String schema);
   void saveLabelIds(List<String> labelIds);
+  void saveLoadDetailsLazily(boolean loadDetailsLazily);
+  void saveProcessingOrder(ProcessingOrder processingOrder);
   void saveRemovedLabelId(String removedLabelId);
   void saveSearchQuery(String query);
   void saveSignInAutomatically(boolean signInAutomatically);
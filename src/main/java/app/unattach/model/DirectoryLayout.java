@@ -0,0 +1,46 @@
+package app.unattach.model;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+// Decides the subdirectory of the target directory where the attachments of an email are stored. Sharding keeps
+// the number of entries per directory manageable for very large archives.
+public enum DirectoryLayout {
+  FLAT("all in one directory"),
+  DATE("by date (year/month)"),
+  HASH_PREFIX("by email ID hash prefix"),
+  SENDER_DOMAIN("by sender domain");
+
+  private static final DateTimeFormatter YEAR_MONTH_FORMATTER = DateTimeFormatter.ofPattern("yyyy/MM");
+
+  private final String caption;
+
+  DirectoryLayout(String caption) {
+    this.caption = caption;
+  }
+
+  // Returns the relative directory with a trailing '/', or an empty string for the flat layout.
+  String getDirectory(Email email) {
+    return switch (this) {
+      case FLAT -> "";
+      case DATE -> YEAR_MONTH_FORMATTER.format(Instant.ofEpochMilli(email.getTimestamp()).atZone(ZoneId.systemDefault())) + "/";
+      case HASH_PREFIX -> String.format("%02x/", email.getGmailId().hashCode() & 0xff);
+      case SENDER_DOMAIN -> getSenderDomain(email) + "/";
+    };
+  }
+
+  private static String getSenderDomain(Email email) {
+    String fromEmail = email.getFromEmail();
+    int atIndex = fromEmail.lastIndexOf('@');
+    String domain = atIndex == -1 ? "" : fromEmail.substring(atIndex + 1).toLowerCase();
+    domain = FilenameFactory.normalise(domain);
+    // Avoid empty, "." and ".." directory names.
+    return domain.replace(".", "").isEmpty() ? "unknown" : domain;
+  }
+
+  @Override
+  public String toString() {
+    return caption;
+  }
+}
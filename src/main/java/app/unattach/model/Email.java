@@ -1,84 +1,89 @@
 package app.unattach.model;
 
-import javafx.beans.InvalidationListener;
-import javafx.beans.Observable;
-import javafx.fxml.FXML;
 import org.apache.commons.lang3.StringUtils;
 
-import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
 
-public class Email implements Observable {
-  private final String gmailId;
-  private String uniqueId;
-  private final SortedSet<String> labelIds;
-  private final String from;
-  private final String to;
-  private final String subject;
-  private final long timestamp;
-  private final Date date;
-  private final int sizeInBytes;
-  private final List<String> attachments;
-  private EmailStatus status;
-  private String note;
-
-  private final List<InvalidationListener> listeners = new ArrayList<>();
+public class Email {
+  private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+  private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("HH-mm-ss");
+
+  // All the data lives in the store; an email is only a view of one of its rows.
+  private final EmailStore store;
+  private final int row;
+
+  Email(EmailStore store, int row) {
+    this.store = store;
+    this.row = row;
+  }
 
   public Email(String gmailId, String uniqueId, List<String> labelIds, String from, String to, String subject,
                long timestamp, int sizeInBytes, List<String> attachments) {
-    this.gmailId = gmailId;
-    this.uniqueId = uniqueId;
-    this.labelIds = Collections.unmodifiableSortedSet(labelIds == null ? Collections.emptySortedSet() : new TreeSet<>(labelIds));
-    this.from = from;
-    this.to = to;
-    this.subject = subject;
-    this.timestamp = timestamp;
-    this.date = new Date(timestamp);
-    this.sizeInBytes = sizeInBytes;
-    this.attachments = attachments;
-    status = EmailStatus.IGNORED;
-    note = "";
-  }
-
-  @FXML
+    store = new EmailStore(new LabelDictionary(), 1);
+    row = store.addRow(gmailId, uniqueId, labelIds, from, to, subject, timestamp, sizeInBytes, attachments);
+  }
+
+  // The row of this email in its store, as reported by EmailStore.drainChangedRows().
+  public int getRow() {
+    return row;
+  }
+
   public String getGmailId() {
-    return gmailId;
+    return store.getGmailId(row);
   }
 
-  @FXML
   public String getUniqueId() {
-    return uniqueId;
+    return store.getUniqueId(row);
   }
 
-  @FXML
   public String getLabelIdsString() {
-    return StringUtils.join(labelIds, "_");
+    return store.getLabelIdsString(row);
+  }
+
+  List<String> getLabelIds() {
+    return store.getLabelIds(row);
+  }
+
+  // The given labels are a bit set obtained from the LabelDictionary of the search results.
+  public boolean hasAnyLabel(BitSet labels) {
+    return store.hasAnyLabel(row, labels);
+  }
+
+  // Emails found by a lazy search only have their Gmail ID until their metadata is loaded.
+  public boolean isLoaded() {
+    return store.isLoaded(row);
+  }
+
+  void load(String uniqueId, List<String> labelIds, String from, String to, String subject, long timestamp,
+            int sizeInBytes, List<String> attachments) {
+    store.load(row, uniqueId, labelIds, from, to, subject, timestamp, sizeInBytes, attachments);
   }
 
-  @FXML
   public Date getDate() {
-    return date;
+    return isLoaded() ? new Date(getTimestamp()) : null;
   }
 
   String getDateIso8601() {
-    return new SimpleDateFormat("yyyy-MM-dd").format(getDate());
+    return DATE_FORMATTER.format(Instant.ofEpochMilli(getTimestamp()).atZone(ZoneId.systemDefault()));
   }
 
   String getTimeString() {
-    return new SimpleDateFormat("HH-mm-ss").format(getDate());
+    return TIME_FORMATTER.format(Instant.ofEpochMilli(getTimestamp()).atZone(ZoneId.systemDefault()));
   }
 
-  @FXML
   public String getFrom() {
-    return from;
+    return store.getFrom(row);
   }
 
-  @FXML
   public String getTo() {
-    return to;
+    return store.getTo(row);
   }
 
   String getFromEmail() {
+    String from = getFrom();
     if (from == null) {
       return "";
     } else if (from.endsWith(">")) {
@@ -89,91 +94,84 @@ public class Email implements Observable {
   }
 
   String getFromName() {
-    if (from.endsWith(">")) {
+    String from = getFrom();
+    if (from != null && from.endsWith(">")) {
       return StringUtils.strip(from.substring(0, from.lastIndexOf('<')), " \"");
     } else {
       return "_";
     }
   }
 
-  @FXML
   public String getSubject() {
-    return subject;
+    return store.getSubject(row);
   }
 
   public int getSizeInBytes() {
-    return sizeInBytes;
+    return store.getSizeInBytes(row);
   }
 
-  @FXML
   public int getSizeInMegaBytes() {
-    return sizeInBytes / Constants.BYTES_IN_MEGABYTE;
+    return getSizeInBytes() / Constants.BYTES_IN_MEGABYTE;
   }
 
-  @FXML
   public String getAttachments() {
-    return String.join(", ", attachments);
+    return String.join(", ", store.getAttachments(row));
+  }
+
+  List<String> getAttachmentNames() {
+    return store.getAttachments(row);
+  }
+
+  // Returns -1 if the size is unknown.
+  public int getAttachmentSizeInBytes() {
+    return store.getAttachmentSizeInBytes(row);
+  }
+
+  void setAttachmentSizeInBytes(int attachmentSizeInBytes) {
+    store.setAttachmentSizeInBytes(row, attachmentSizeInBytes);
   }
 
-  @FXML
   public boolean isSelected() {
-    return status == EmailStatus.TO_PROCESS;
+    return getStatus() == EmailStatus.TO_PROCESS;
   }
 
-  @FXML
   public EmailStatus getStatus() {
-    return status;
+    return store.getStatus(row);
   }
 
-  @FXML
   public void setStatus(EmailStatus status) {
-    this.status = status;
-    for (InvalidationListener listener : listeners) {
-      listener.invalidated(this);
-    }
+    store.setStatus(row, status);
   }
 
   long getTimestamp() {
-    return timestamp;
+    return store.getTimestamp(row);
   }
 
-  @FXML
   public String getNote() {
-    return note;
+    return store.getNote(row);
   }
 
-  @FXML
   public void setNote(String note) {
-    this.note = note;
-  }
-
-  @Override
-  public void addListener(InvalidationListener listener) {
-    listeners.add(listener);
-  }
-
-  @Override
-  public void removeListener(InvalidationListener listener) {
-    listeners.remove(listener);
+    store.setNote(row, note);
   }
 
   public void setUniqueId(String uniqueId) {
-    this.uniqueId = uniqueId;
+    store.setUniqueId(row, uniqueId);
   }
 
   @Override
   public String toString() {
     return "Email{" +
-            "gmailId='" + gmailId + '\'' +
-            ", uniqueId='" + uniqueId + '\'' +
-            ", labelIds=" + labelIds +
-            ", from='" + from + '\'' +
-            ", subject='" + subject + '\'' +
-            ", timestamp=" + timestamp +
-            ", date=" + date +
-            ", sizeInBytes=" + sizeInBytes +
-            ", status=" + status +
-            ", note='" + note + '\'' +
+            "gmailId='" + getGmailId() + '\'' +
+            ", uniqueId='" + getUniqueId() + '\'' +
+            ", labelIds=" + getLabelIdsString() +
+            ", from='" + getFrom() + '\'' +
+            ", subject='" + getSubject() + '\'' +
+            ", timestamp=" + getTimestamp() +
+            ", date=" + getDate() +
+            ", sizeInBytes=" + getSizeInBytes() +
+            ", status=" + getStatus() +
+            ", note='" + getNote() + '\'' +
             '}';
   }
 }
@@ -0,0 +1,180 @@
+package app.unattach.model;
+
+import app.unattach.controller.CancellationToken;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Loads the metadata of emails that were added to the store with only their Gmail ID: first the ones that were
+// requested (e.g. because they were scrolled into view), and otherwise all the others in order.
+class EmailMetadataLoader {
+  private static final Logger LOGGER = Logger.getLogger(EmailMetadataLoader.class.getName());
+  // 1 messages.get == 5 quota units
+  private static final int QUOTA_UNITS_PER_EMAIL = 5;
+  // Like the eager search, the loader uses up to 200 quota units / second. Each batch is charged against this budget,
+  // so requested emails are loaded right away unless the budget is used up. Loading in the background additionally
+  // waits for as long as the quota of its batch lasts, which leaves half of the budget for processing emails at the
+  // same time, and lets requested emails go first.
+  private static final int QUOTA_UNITS_PER_SECOND = 200;
+  private static final int REQUESTED_BATCH_SIZE = 40;
+  private static final int BACKGROUND_BATCH_SIZE = 20;
+  // Only the most recent requests matter, since older ones are for rows that were scrolled past.
+  private static final int MAX_REQUESTED_ROWS = 200;
+  // Emails that fail to load (e.g. because the rate limit was exceeded) are retried in the background after a pause,
+  // which doubles with every batch that fails in a row. After that, they are only loaded on request.
+  static final long INITIAL_BACKOFF_MILLIS = 1000;
+  private static final long MAX_BACKOFF_MILLIS = 60000;
+  private static final int MAX_ATTEMPTS = 5;
+
+  interface Worker {
+    void getEmailMetadata(List<Email> emails) throws IOException;
+  }
+
+  private final EmailStore emailStore;
+  private final Worker worker;
+  private final Deque<Integer> requestedRows = new ArrayDeque<>();
+  private final Deque<Integer> retriedRows = new ArrayDeque<>();
+  private final Map<Integer, Integer> attemptsByRow = new HashMap<>();
+  private final Thread thread;
+  private final CancellationToken cancellationToken = new CancellationToken();
+  private int nextBackgroundRow;
+  private long quotaAvailableAtNanos = System.nanoTime();
+  private int failedBatchesInARow;
+
+  EmailMetadataLoader(EmailStore emailStore, Worker worker) {
+    this.emailStore = emailStore;
+    this.worker = worker;
+    thread = new Thread(this::run, "email-metadata-loader");
+    thread.setDaemon(true);
+    // Wakes the thread up if it is waiting for something to load, or for quota.
+    cancellationToken.onCancel(thread::interrupt);
+  }
+
+  void start() {
+    thread.start();
+  }
+
+  void stop() {
+    cancellationToken.cancel();
+  }
+
+  synchronized void request(Email email) {
+    if (email.isLoaded()) {
+      return;
+    }
+    requestedRows.addFirst(email.getRow());
+    if (requestedRows.size() > MAX_REQUESTED_ROWS) {
+      requestedRows.removeLast();
+    }
+    notifyAll();
+  }
+
+  private void run() {
+    try {
+      while (!cancellationToken.isCancelled()) {
+        List<Email> emails = takeBatch();
+        try {
+          worker.getEmailMetadata(emails);
+        } catch (IOException e) {
+          LOGGER.log(Level.WARNING, "Failed to load the metadata of " + emails.size() + " emails.", e);
+        }
+        finishBatch(emails);
+      }
+    } catch (InterruptedException e) {
+      LOGGER.info("Stopped loading email metadata.");
+    }
+  }
+
+  // Waits until there is something to load, and the quota for it is available.
+  private synchronized List<Email> takeBatch() throws InterruptedException {
+    while (true) {
+      removeLoadedRows(requestedRows);
+      removeLoadedRows(retriedRows);
+      long now = System.nanoTime();
+      if (!requestedRows.isEmpty()) {
+        if (now - quotaAvailableAtNanos >= 0) {
+          return takeBatch(requestedRows, REQUESTED_BATCH_SIZE);
+        }
+        waitNanos(quotaAvailableAtNanos - now);
+      } else if (!retriedRows.isEmpty() || nextBackgroundRow != -1) {
+        long readyAtNanos = quotaAvailableAtNanos + getQuotaNanos(BACKGROUND_BATCH_SIZE);
+        if (now - readyAtNanos < 0) {
+          waitNanos(readyAtNanos - now);
+        } else if (!retriedRows.isEmpty()) {
+          return takeBatch(retriedRows, BACKGROUND_BATCH_SIZE);
+        } else {
+          List<Email> emails = takeBackgroundBatch();
+          if (!emails.isEmpty()) {
+            return emails;
+          }
+        }
+      } else {
+        wait();
+      }
+    }
+  }
+
+  private void removeLoadedRows(Deque<Integer> rows) {
+    rows.removeIf(emailStore::isLoaded);
+  }
+
+  private List<Email> takeBatch(Deque<Integer> rows, int batchSize) {
+    Set<Integer> batchRows = new LinkedHashSet<>();
+    while (batchRows.size() < batchSize && !rows.isEmpty()) {
+      batchRows.add(rows.removeFirst());
+    }
+    List<Email> emails = new ArrayList<>(batchRows.size());
+    batchRows.forEach(row -> emails.add(emailStore.getEmail(row)));
+    return emails;
+  }
+
+  private List<Email> takeBackgroundBatch() {
+    List<Email> emails = new ArrayList<>(BACKGROUND_BATCH_SIZE);
+    int row = emailStore.getNextUnloadedRow(nextBackgroundRow);
+    while (row != -1 && emails.size() < BACKGROUND_BATCH_SIZE) {
+      emails.add(emailStore.getEmail(row));
+      row = emailStore.getNextUnloadedRow(row + 1);
+    }
+    nextBackgroundRow = row;
+    return emails;
+  }
+
+  // Charges the batch against the quota, and queues the emails that failed to load for a retry.
+  private synchronized void finishBatch(List<Email> emails) {
+    long now = System.nanoTime();
+    quotaAvailableAtNanos = Math.max(now, quotaAvailableAtNanos) + getQuotaNanos(emails.size());
+    boolean failed = false;
+    for (Email email : emails) {
+      int row = email.getRow();
+      if (emailStore.isLoaded(row)) {
+        attemptsByRow.remove(row);
+        continue;
+      }
+      failed = true;
+      int attempts = attemptsByRow.merge(row, 1, Integer::sum);
+      if (attempts < MAX_ATTEMPTS && !retriedRows.contains(row)) {
+        retriedRows.addLast(row);
+      }
+    }
+    if (failed) {
+      ++failedBatchesInARow;
+      long backoffMillis =
+          Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << Math.min(failedBatchesInARow - 1, 16));
+      quotaAvailableAtNanos = Math.max(quotaAvailableAtNanos, now + TimeUnit.MILLISECONDS.toNanos(backoffMillis));
+    } else {
+      failedBatchesInARow = 0;
+    }
+  }
+
+  private static long getQuotaNanos(int numberOfEmails) {
+    return TimeUnit.SECONDS.toNanos(numberOfEmails * QUOTA_UNITS_PER_EMAIL) / QUOTA_UNITS_PER_SECOND;
+  }
+
+  private void waitNanos(long nanos) throws InterruptedException {
+    long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(nanos));
+    wait(millis);
+  }
+}
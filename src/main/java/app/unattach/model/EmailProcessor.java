@@ -14,6 +14,7 @@ import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -28,30 +29,60 @@ class EmailProcessor {
   private final Email email;
   private final ProcessSettings processSettings;
   private final FilenameFactory filenameFactory;
+  private final String directory;
+  // The attachments that were already saved by an interrupted run, in the order of the email, or null.
+  private final List<SavedAttachment> previouslySavedAttachments;
   private int fileCounter = 0;
   private final List<BodyPart> copiedBodyParts;
+  private final List<SavedAttachment> savedAttachments;
   private final Map<String, String> originalToNormalizedFilename;
   private BodyPart mainTextBodyPart;
   private BodyPart mainHtmlBodyPart;
 
-  private EmailProcessor(Email email, ProcessSettings processSettings) {
+  private EmailProcessor(Email email, ProcessSettings processSettings,
+                         List<SavedAttachment> previouslySavedAttachments) {
     this.email = email;
     this.processSettings = processSettings;
-    filenameFactory = new FilenameFactory(processSettings.filenameSchema);
+    this.previouslySavedAttachments = previouslySavedAttachments;
+    filenameFactory = processSettings.getFilenameFactory();
+    directory = processSettings.directoryLayout.getDirectory(email);
     copiedBodyParts = new LinkedList<>();
+    savedAttachments = new ArrayList<>();
     originalToNormalizedFilename = new TreeMap<>();
   }
 
   static Set<String> process(Email email, MimeMessage mimeMessage, ProcessSettings processSettings)
       throws IOException, MessagingException {
-    EmailProcessor processor = new EmailProcessor(email, processSettings);
-    processor.exploreContent(mimeMessage.getContent());
-    processor.removeCopiedBodyParts();
-    if (processSettings.addMetadata) {
-      processor.addReferencesToContent();
-    }
-    mimeMessage.saveChanges();
-    return processor.originalToNormalizedFilename.keySet();
+    return getOriginalFilenames(process(email, mimeMessage, processSettings, null));
+  }
+
+  // Returns the attachments in the order of the email. If previouslySavedAttachments is given, the attachments are not
+  // saved again, and the email refers to the saved files instead.
+  static List<SavedAttachment> process(Email email, MimeMessage mimeMessage, ProcessSettings processSettings,
+                                       List<SavedAttachment> previouslySavedAttachments)
+      throws IOException, MessagingException {
+    EmailProcessor processor = new EmailProcessor(email, processSettings, previouslySavedAttachments);
+    if (mimeMessage.isMimeType("multipart/*")) {
+      processor.exploreContent(mimeMessage.getContent());
+    }
+    // The message is only written back when attachments are removed, so there is no point in modifying it otherwise.
+    // Parts that are left untouched keep their original encoded bytes when the message is written out.
+    if (processSettings.processOption.shouldRemove() && !processor.copiedBodyParts.isEmpty()) {
+      processor.removeCopiedBodyParts();
+      if (processSettings.addMetadata) {
+        processor.addReferencesToContent();
+      }
+      mimeMessage.saveChanges();
+    }
+    return processor.savedAttachments;
+  }
+
+  static Set<String> getOriginalFilenames(List<SavedAttachment> savedAttachments) {
+    Set<String> originalFilenames = new TreeSet<>();
+    for (SavedAttachment savedAttachment : savedAttachments) {
+      originalFilenames.add(savedAttachment.originalFilename);
+    }
+    return originalFilenames;
   }
 
   private void exploreContent(Object content) throws MessagingException, IOException {
@@ -61,7 +92,10 @@ class EmailProcessor {
         BodyPart bodyPart = multipart.getBodyPart(i);
         handleBodyPart(bodyPart);
         fixInvalidContentType(bodyPart);
-        exploreContent(bodyPart.getContent());
+        // Only multiparts need to be decoded to find nested parts; leaf parts are judged by their headers alone.
+        if (bodyPart.isMimeType("multipart/*")) {
+          exploreContent(bodyPart.getContent());
+        }
       }
     }
   }
@@ -98,25 +132,52 @@ class EmailProcessor {
   }
 
   private void copyBodyPartToDisk(BodyPart bodyPart) throws IOException, MessagingException {
-    try (InputStream inputStream = bodyPart.getInputStream()) {
-      String originalFilename = getFilename(bodyPart);
-      if (originalFilename == null) {
-        return;
+    String originalFilename = getFilename(bodyPart);
+    if (originalFilename == null) {
+      return;
+    }
+    int index = fileCounter++;
+    // The directory is part of the normalized file name, so that the links in the email include it.
+    String normalizedFilename = directory + filenameFactory.getFilename(email, index, originalFilename);
+    if (previouslySavedAttachments != null) {
+      // The same email has its attachments in the same order. Without a matching saved file, the attachment must stay
+      // in the email, so the email is left as it is.
+      if (index >= previouslySavedAttachments.size() ||
+          !previouslySavedAttachments.get(index).originalFilename.equals(originalFilename)) {
+        throw new IOException("The attachment " + originalFilename + " (" + (index + 1) + ") of " +
+            email.getGmailId() + " was not saved by the interrupted job.");
       }
-      String normalizedFilename = filenameFactory.getFilename(email, fileCounter++, originalFilename);
-      if (processSettings.processOption.shouldDownload()) {
-        Path targetPath = Path.of(processSettings.targetDirectory.getAbsolutePath(), normalizedFilename);
-        File targetFile = targetPath.toFile();
-        //noinspection ResultOfMethodCallIgnored
-        targetFile.getParentFile().mkdirs();
-        Files.copy(inputStream, targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-        //noinspection ResultOfMethodCallIgnored
-        targetFile.setLastModified(email.getTimestamp());
+      normalizedFilename = previouslySavedAttachments.get(index).normalizedFilename;
+    } else if (processSettings.processOption.shouldDownload()) {
+      FilenameReservations filenameReservations = processSettings.filenameReservations;
+      normalizedFilename = filenameReservations.reserve(normalizedFilename);
+      File targetFile = filenameReservations.getTargetDirectory().resolve(normalizedFilename).toFile();
+      // The reserved (empty) file belongs to this attachment, so it is safe to replace it.
+      ProcessingEvents.AttachmentWrite event = new ProcessingEvents.AttachmentWrite();
+      event.begin();
+      try (InputStream inputStream = bodyPart.getInputStream()) {
+        long bytesWritten = Files.copy(inputStream, targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Metrics.getInstance().recordWritten(bytesWritten);
+        event.end();
+        if (event.shouldCommit()) {
+          event.gmailId = email.getGmailId();
+          event.size = bytesWritten;
+          event.filename = normalizedFilename;
+          event.commit();
+        }
+      } catch (IOException | MessagingException e) {
+        filenameReservations.release(normalizedFilename);
+        throw e;
       }
-      copiedBodyParts.add(bodyPart);
-      originalToNormalizedFilename.put(originalFilename, normalizedFilename);
-      LOGGER.info("Saved attachment " + originalFilename + " from " + email + " as " + normalizedFilename + ".");
+      //noinspection ResultOfMethodCallIgnored
+      targetFile.setLastModified(email.getTimestamp());
     }
+    copiedBodyParts.add(bodyPart);
+    savedAttachments.add(new SavedAttachment(originalFilename, normalizedFilename));
+    originalToNormalizedFilename.put(originalFilename, normalizedFilename);
+    String savedFilename = normalizedFilename;
+    LOGGER.info(() -> "Saved attachment " + originalFilename + " from " + email.getGmailId() + " as " + savedFilename +
+        ".");
   }
 
   private String getFilename(BodyPart bodyPart) throws MessagingException, UnsupportedEncodingException {
@@ -141,13 +202,23 @@ class EmailProcessor {
     String hostname = getHostname();
     if (mainTextBodyPart != null) {
       String text = mainTextBodyPart.getContent().toString();
-      String newText = generateTextSuffix(text, originalToNormalizedFilename, dateTimeString, hostname);
+      String newText = generateTextSuffix(text, originalToNormalizedFilename, processSettings, dateTimeString,
+          hostname);
       mainTextBodyPart.setContent(newText, "text/plain; charset=utf-8");
     }
     if (mainHtmlBodyPart != null) {
+      ProcessingEvents.HtmlRewrite event = new ProcessingEvents.HtmlRewrite();
+      event.begin();
       String html = mainHtmlBodyPart.getContent().toString();
-      String newHtml = generateHtmlSuffix(html, originalToNormalizedFilename, dateTimeString, hostname);
+      String newHtml = generateHtmlSuffix(html, originalToNormalizedFilename, processSettings, dateTimeString,
+          hostname);
       mainHtmlBodyPart.setContent(newHtml, "text/html; charset=utf-8");
+      event.end();
+      if (event.shouldCommit()) {
+        event.gmailId = email.getGmailId();
+        event.size = newHtml.getBytes(StandardCharsets.UTF_8).length;
+        event.commit();
+      }
     }
   }
 
@@ -159,8 +230,8 @@ class EmailProcessor {
     }
   }
 
-  private String generateTextSuffix(String text, Map<String, String> originalToNormalizedFilename,
-                                    String dateTimeString, String hostname) {
+  static String generateTextSuffix(String text, Map<String, String> originalToNormalizedFilename,
+                                   ProcessSettings processSettings, String dateTimeString, String hostname) {
     StringBuilder newText = new StringBuilder(text);
     newText.append("\n\n\n");
     newText.append("=========================================\n");
@@ -183,8 +254,8 @@ class EmailProcessor {
     return newText.toString();
   }
 
-  private String generateHtmlSuffix(String html, Map<String, String> originalToNormalizedFilename,
-                                    String dateTimeString, String hostname) {
+  static String generateHtmlSuffix(String html, Map<String, String> originalToNormalizedFilename,
+                                   ProcessSettings processSettings, String dateTimeString, String hostname) {
     StringBuilder suffix = new StringBuilder("<hr /><p>Previous attachments:<ul>\n");
     String targetDirectoryAbsolutePath = processSettings.targetDirectory.getAbsolutePath();
     for (Map.Entry<String, String> entry : originalToNormalizedFilename.entrySet()) {
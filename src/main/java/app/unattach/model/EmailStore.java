@@ -0,0 +1,530 @@
+package app.unattach.model;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntBinaryOperator;
+import java.util.stream.IntStream;
+
+// Keeps search results in columns of primitives and dictionary-encoded strings, rather than as one heavy object per
+// email. Each Email is a thin view over a row of this store. Rows can also be added with only their Gmail ID, and
+// loaded later; until all rows are loaded, sizes are estimated from the loaded ones.
+public class EmailStore {
+  public enum SortKey {
+    LABELS, DATE, FROM, TO, SUBJECT, SIZE, ATTACHMENTS, SELECTED, STATUS, NOTE
+  }
+
+  private static final int INITIAL_CAPACITY = 64;
+  private static final EmailStatus[] STATUSES = EmailStatus.values();
+
+  private final StringDictionary senders = new StringDictionary();
+  private final StringDictionary recipients = new StringDictionary();
+  private final LabelDictionary labelDictionary;
+  private final StringDictionary attachmentNames = new StringDictionary();
+  private final List<Email> emails = new ArrayList<>();
+
+  private int size;
+  private String[] gmailIds;
+  private String[] uniqueIds;
+  private int[] labelSetCodes;
+  private int[] fromCodes;
+  private int[] toCodes;
+  private String[] subjects;
+  private long[] timestamps;
+  private int[] sizesInBytes;
+  // The attachment names of row i are attachmentNameCodes[attachmentStarts[i] .. + attachmentCounts[i]).
+  private int[] attachmentStarts;
+  private int[] attachmentCounts;
+  private int[] attachmentNameCodes;
+  private int numberOfAttachmentNameCodes;
+  // The total size of the attachments, if Gmail reported the sizes of the parts, or -1.
+  private int[] attachmentSizesInBytes;
+  private byte[] statuses;
+  private String[] notes;
+  // Running aggregates per status, so that summaries never need to scan all rows.
+  private final int[] countByStatus = new int[STATUSES.length];
+  private final long[] bytesByStatus = new long[STATUSES.length];
+  private long totalSizeInBytes;
+  private final BitSet loadedRows = new BitSet();
+  private int numberOfLoadedRows;
+  private final int[] unloadedCountByStatus = new int[STATUSES.length];
+  // The rows of the filtered view that the table shows, with the same running aggregates over just those rows.
+  private final BitSet filteredRows = new BitSet();
+  private final int[] filteredCountByStatus = new int[STATUSES.length];
+  private final long[] filteredBytesByStatus = new long[STATUSES.length];
+  // Rows whose status or note changed since the last drain. Any thread may append to the queue without locking; the
+  // flag ensures that the listener is told only once until the changes are drained.
+  private final Queue<Integer> changedRows = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean changesPending = new AtomicBoolean();
+  private volatile Runnable changeListener;
+
+  public EmailStore() {
+    this(new LabelDictionary());
+  }
+
+  public EmailStore(LabelDictionary labelDictionary) {
+    this(labelDictionary, INITIAL_CAPACITY);
+  }
+
+  EmailStore(LabelDictionary labelDictionary, int capacity) {
+    this.labelDictionary = labelDictionary;
+    gmailIds = new String[capacity];
+    uniqueIds = new String[capacity];
+    labelSetCodes = new int[capacity];
+    fromCodes = new int[capacity];
+    toCodes = new int[capacity];
+    subjects = new String[capacity];
+    timestamps = new long[capacity];
+    sizesInBytes = new int[capacity];
+    attachmentStarts = new int[capacity];
+    attachmentCounts = new int[capacity];
+    attachmentNameCodes = new int[capacity];
+    attachmentSizesInBytes = new int[capacity];
+    statuses = new byte[capacity];
+    notes = new String[capacity];
+  }
+
+  public synchronized Email add(String gmailId, String uniqueId, List<String> labelIds, String from, String to,
+                                String subject, long timestamp, int sizeInBytes, List<String> attachments) {
+    Email email = new Email(this, addRow(gmailId, uniqueId, labelIds, from, to, subject, timestamp, sizeInBytes,
+        attachments));
+    emails.add(email);
+    return email;
+  }
+
+  public synchronized Email addUnloaded(String gmailId) {
+    Email email = new Email(this, appendRow(gmailId));
+    emails.add(email);
+    return email;
+  }
+
+  synchronized int addRow(String gmailId, String uniqueId, List<String> labelIds, String from, String to,
+                          String subject, long timestamp, int sizeInBytes, List<String> attachments) {
+    int row = appendRow(gmailId);
+    fillRow(row, uniqueId, labelIds, from, to, subject, timestamp, sizeInBytes, attachments);
+    return row;
+  }
+
+  // Fills in a row added with addUnloaded(). Rows that are already loaded are left as they are.
+  void load(int row, String uniqueId, List<String> labelIds, String from, String to, String subject, long timestamp,
+            int sizeInBytes, List<String> attachments) {
+    synchronized (this) {
+      if (loadedRows.get(row)) {
+        return;
+      }
+      fillRow(row, uniqueId, labelIds, from, to, subject, timestamp, sizeInBytes, attachments);
+    }
+    recordChange(row);
+  }
+
+  private int appendRow(String gmailId) {
+    int row = size;
+    ensureCapacity(row + 1);
+    gmailIds[row] = gmailId;
+    labelSetCodes[row] = labelDictionary.getLabelSetCode(null);
+    fromCodes[row] = -1;
+    toCodes[row] = -1;
+    attachmentSizesInBytes[row] = -1;
+    statuses[row] = (byte) EmailStatus.IGNORED.ordinal();
+    ++countByStatus[EmailStatus.IGNORED.ordinal()];
+    ++unloadedCountByStatus[EmailStatus.IGNORED.ordinal()];
+    ++size;
+    return row;
+  }
+
+  private void fillRow(int row, String uniqueId, List<String> labelIds, String from, String to, String subject,
+                       long timestamp, int sizeInBytes, List<String> attachments) {
+    uniqueIds[row] = uniqueId;
+    labelSetCodes[row] = labelDictionary.getLabelSetCode(labelIds);
+    fromCodes[row] = senders.encode(from);
+    toCodes[row] = recipients.encode(to);
+    subjects[row] = subject;
+    timestamps[row] = timestamp;
+    sizesInBytes[row] = sizeInBytes;
+    int attachmentStart = numberOfAttachmentNameCodes;
+    int numberOfAttachments = attachments == null ? 0 : attachments.size();
+    if (attachmentStart + numberOfAttachments > attachmentNameCodes.length) {
+      attachmentNameCodes = Arrays.copyOf(attachmentNameCodes,
+          Math.max(2 * attachmentNameCodes.length, attachmentStart + numberOfAttachments));
+    }
+    for (int i = 0; i < numberOfAttachments; ++i) {
+      attachmentNameCodes[attachmentStart + i] = attachmentNames.encode(attachments.get(i));
+    }
+    attachmentStarts[row] = attachmentStart;
+    attachmentCounts[row] = numberOfAttachments;
+    numberOfAttachmentNameCodes += numberOfAttachments;
+    int status = statuses[row];
+    --unloadedCountByStatus[status];
+    bytesByStatus[status] += sizeInBytes;
+    if (filteredRows.get(row)) {
+      filteredBytesByStatus[status] += sizeInBytes;
+    }
+    totalSizeInBytes += sizeInBytes;
+    loadedRows.set(row);
+    ++numberOfLoadedRows;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity <= gmailIds.length) {
+      return;
+    }
+    int newCapacity = Math.max(capacity, 2 * gmailIds.length);
+    gmailIds = Arrays.copyOf(gmailIds, newCapacity);
+    uniqueIds = Arrays.copyOf(uniqueIds, newCapacity);
+    labelSetCodes = Arrays.copyOf(labelSetCodes, newCapacity);
+    fromCodes = Arrays.copyOf(fromCodes, newCapacity);
+    toCodes = Arrays.copyOf(toCodes, newCapacity);
+    subjects = Arrays.copyOf(subjects, newCapacity);
+    timestamps = Arrays.copyOf(timestamps, newCapacity);
+    sizesInBytes = Arrays.copyOf(sizesInBytes, newCapacity);
+    attachmentStarts = Arrays.copyOf(attachmentStarts, newCapacity);
+    attachmentCounts = Arrays.copyOf(attachmentCounts, newCapacity);
+    attachmentSizesInBytes = Arrays.copyOf(attachmentSizesInBytes, newCapacity);
+    statuses = Arrays.copyOf(statuses, newCapacity);
+    notes = Arrays.copyOf(notes, newCapacity);
+  }
+
+  // A snapshot, since rows may still be added by other threads.
+  public synchronized List<Email> getEmails() {
+    return List.copyOf(emails);
+  }
+
+  synchronized Email getEmail(int row) {
+    return emails.get(row);
+  }
+
+  public synchronized int size() {
+    return size;
+  }
+
+  public synchronized long getTotalSizeInBytes() {
+    return totalSizeInBytes;
+  }
+
+  public synchronized int getCount(EmailStatus status) {
+    return countByStatus[status.ordinal()];
+  }
+
+  public synchronized long getSizeInBytes(EmailStatus status) {
+    return bytesByStatus[status.ordinal()];
+  }
+
+  public synchronized boolean isFullyLoaded() {
+    return numberOfLoadedRows == size;
+  }
+
+  public synchronized int getNumberOfLoadedRows() {
+    return numberOfLoadedRows;
+  }
+
+  public synchronized long getAverageSizeInBytes() {
+    return numberOfLoadedRows == 0 ? 0 : totalSizeInBytes / numberOfLoadedRows;
+  }
+
+  public synchronized long getEstimatedTotalSizeInBytes() {
+    return totalSizeInBytes + (size - numberOfLoadedRows) * getAverageSizeInBytes();
+  }
+
+  public synchronized long getEstimatedSizeInBytes(EmailStatus status) {
+    return bytesByStatus[status.ordinal()] + unloadedCountByStatus[status.ordinal()] * getAverageSizeInBytes();
+  }
+
+  synchronized boolean isLoaded(int row) {
+    return loadedRows.get(row);
+  }
+
+  // Returns the first row at or after the given one that is not loaded yet, or -1.
+  synchronized int getNextUnloadedRow(int fromRow) {
+    int row = loadedRows.nextClearBit(fromRow);
+    return row < size ? row : -1;
+  }
+
+  // The listener is called on the thread that made the change, and should only schedule a call to drainChangedRows().
+  public void setChangeListener(Runnable changeListener) {
+    this.changeListener = changeListener;
+  }
+
+  // Returns the rows changed since the previous call, in ascending order and without duplicates.
+  public int[] drainChangedRows() {
+    changesPending.set(false);
+    BitSet rows = new BitSet();
+    Integer row;
+    while ((row = changedRows.poll()) != null) {
+      rows.set(row);
+    }
+    return rows.stream().toArray();
+  }
+
+  private void recordChange(int row) {
+    Runnable changeListener = this.changeListener;
+    if (changeListener == null) {
+      return;
+    }
+    changedRows.add(row);
+    if (changesPending.compareAndSet(false, true)) {
+      changeListener.run();
+    }
+  }
+
+  // Returns the rows that match the filter, in the order of the store. Rows that are not loaded yet only match an
+  // empty filter.
+  public synchronized int[] filter(ResultFilter filter) {
+    if (filter.isEmpty()) {
+      return IntStream.range(0, size).toArray();
+    }
+    // String predicates are evaluated once per distinct string, and then matched against the codes of each row.
+    BitSet[] senderCodes = getCodes(senders, filter.senders);
+    BitSet[] recipientCodes = getCodes(recipients, filter.recipients);
+    BitSet[] wordSenderCodes = getCodes(senders, filter.words);
+    BitSet[] attachmentCodes = filter.extensions.stream()
+        .map(extension -> attachmentNames.getCodes(name -> StringUtils.endsWithIgnoreCase(name, extension)))
+        .toArray(BitSet[]::new);
+    BitSet[] labelSetCodes = filter.labelIds.stream().map(labelDictionary::getLabelSetCodesWithAnyLabel)
+        .toArray(BitSet[]::new);
+    int[] rows = new int[size];
+    int numberOfRows = 0;
+    for (int row = 0; row < size; ++row) {
+      if (loadedRows.get(row) && sizesInBytes[row] > filter.minSizeInBytesExclusive &&
+          sizesInBytes[row] < filter.maxSizeInBytesExclusive && timestamps[row] >= filter.minTimestamp &&
+          timestamps[row] < filter.maxTimestampExclusive && containsAll(senderCodes, fromCodes[row]) &&
+          containsAll(recipientCodes, toCodes[row]) && containsAll(labelSetCodes, this.labelSetCodes[row]) &&
+          matchesSubjects(row, filter.subjects) && matchesWords(row, filter.words, wordSenderCodes) &&
+          matchesAttachments(row, attachmentCodes)) {
+        rows[numberOfRows++] = row;
+      }
+    }
+    return Arrays.copyOf(rows, numberOfRows);
+  }
+
+  // Sets the rows of the filtered view, e.g. as returned by filter(), so that the aggregates over them are kept up to
+  // date from then on.
+  public synchronized void setFilteredRows(int[] rows) {
+    filteredRows.clear();
+    Arrays.fill(filteredCountByStatus, 0);
+    Arrays.fill(filteredBytesByStatus, 0);
+    for (int row : rows) {
+      filteredRows.set(row);
+      ++filteredCountByStatus[statuses[row]];
+      filteredBytesByStatus[statuses[row]] += sizesInBytes[row];
+    }
+  }
+
+  public synchronized int getFilteredCount(EmailStatus status) {
+    return filteredCountByStatus[status.ordinal()];
+  }
+
+  public synchronized long getFilteredSizeInBytes(EmailStatus status) {
+    return filteredBytesByStatus[status.ordinal()];
+  }
+
+  private static BitSet[] getCodes(StringDictionary dictionary, List<String> substrings) {
+    return substrings.stream().map(substring -> dictionary.getCodes(s -> StringUtils.containsIgnoreCase(s, substring)))
+        .toArray(BitSet[]::new);
+  }
+
+  private static boolean containsAll(BitSet[] codeSets, int code) {
+    for (BitSet codes : codeSets) {
+      if (code == -1 || !codes.get(code)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean matchesSubjects(int row, List<String> subjectSubstrings) {
+    for (String subjectSubstring : subjectSubstrings) {
+      if (!StringUtils.containsIgnoreCase(subjects[row], subjectSubstring)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean matchesWords(int row, List<String> words, BitSet[] wordSenderCodes) {
+    for (int i = 0; i < words.size(); ++i) {
+      boolean senderMatches = fromCodes[row] != -1 && wordSenderCodes[i].get(fromCodes[row]);
+      if (!senderMatches && !StringUtils.containsIgnoreCase(subjects[row], words.get(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean matchesAttachments(int row, BitSet[] attachmentCodes) {
+    int start = attachmentStarts[row];
+    int end = start + attachmentCounts[row];
+    for (BitSet codes : attachmentCodes) {
+      int i = start;
+      while (i < end && !codes.get(attachmentNameCodes[i])) {
+        ++i;
+      }
+      if (i == end) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Sorts the given rows by a column. Strings in dictionaries are compared by their precomputed rank, so that most
+  // comparisons only compare ints.
+  public synchronized void sort(int[] rows, SortKey sortKey, boolean ascending) {
+    IntBinaryOperator comparator = getComparator(sortKey);
+    RowSorter.sort(rows, ascending ? comparator : (a, b) -> comparator.applyAsInt(b, a));
+  }
+
+  private IntBinaryOperator getComparator(SortKey sortKey) {
+    return switch (sortKey) {
+      case LABELS -> {
+        int[] ranks = labelDictionary.getLabelSetRanks();
+        yield (a, b) -> Integer.compare(ranks[labelSetCodes[a]], ranks[labelSetCodes[b]]);
+      }
+      case DATE -> (a, b) -> Long.compare(timestamps[a], timestamps[b]);
+      case FROM -> getComparator(senders, fromCodes);
+      case TO -> getComparator(recipients, toCodes);
+      case SUBJECT -> getComparator(subjects);
+      case SIZE -> (a, b) -> Integer.compare(sizesInBytes[a], sizesInBytes[b]);
+      case ATTACHMENTS -> {
+        // By the first attachment, and then by the number of attachments.
+        int[] ranks = attachmentNames.getRanks(String.CASE_INSENSITIVE_ORDER);
+        yield (a, b) -> {
+          int result = Integer.compare(getFirstAttachmentRank(ranks, a), getFirstAttachmentRank(ranks, b));
+          return result != 0 ? result : Integer.compare(attachmentCounts[a], attachmentCounts[b]);
+        };
+      }
+      case SELECTED -> {
+        byte selected = (byte) EmailStatus.TO_PROCESS.ordinal();
+        yield (a, b) -> Boolean.compare(statuses[a] == selected, statuses[b] == selected);
+      }
+      case STATUS -> (a, b) -> Integer.compare(statuses[a], statuses[b]);
+      case NOTE -> getComparator(notes);
+    };
+  }
+
+  private static IntBinaryOperator getComparator(StringDictionary dictionary, int[] codes) {
+    int[] ranks = dictionary.getRanks(String.CASE_INSENSITIVE_ORDER);
+    return (a, b) -> Integer.compare(codes[a] == -1 ? -1 : ranks[codes[a]], codes[b] == -1 ? -1 : ranks[codes[b]]);
+  }
+
+  private static IntBinaryOperator getComparator(String[] column) {
+    Comparator<String> comparator = Comparator.nullsFirst(String.CASE_INSENSITIVE_ORDER);
+    return (a, b) -> comparator.compare(column[a], column[b]);
+  }
+
+  private int getFirstAttachmentRank(int[] ranks, int row) {
+    return attachmentCounts[row] == 0 ? -1 : ranks[attachmentNameCodes[attachmentStarts[row]]];
+  }
+
+  public LabelDictionary getLabelDictionary() {
+    return labelDictionary;
+  }
+
+  synchronized String getGmailId(int row) {
+    return gmailIds[row];
+  }
+
+  synchronized String getUniqueId(int row) {
+    return uniqueIds[row];
+  }
+
+  synchronized void setUniqueId(int row, String uniqueId) {
+    uniqueIds[row] = uniqueId;
+  }
+
+  synchronized String getLabelIdsString(int row) {
+    return labelDictionary.getLabelIdsString(labelSetCodes[row]);
+  }
+
+  synchronized List<String> getLabelIds(int row) {
+    return labelDictionary.getLabelIds(labelSetCodes[row]);
+  }
+
+  synchronized boolean hasAnyLabel(int row, BitSet labels) {
+    return labelDictionary.hasAnyLabel(labelSetCodes[row], labels);
+  }
+
+  synchronized String getFrom(int row) {
+    return senders.decode(fromCodes[row]);
+  }
+
+  synchronized String getTo(int row) {
+    return recipients.decode(toCodes[row]);
+  }
+
+  synchronized String getSubject(int row) {
+    return subjects[row];
+  }
+
+  synchronized long getTimestamp(int row) {
+    return timestamps[row];
+  }
+
+  synchronized int getSizeInBytes(int row) {
+    return sizesInBytes[row];
+  }
+
+  synchronized List<String> getAttachments(int row) {
+    int start = attachmentStarts[row];
+    int end = start + attachmentCounts[row];
+    List<String> attachments = new ArrayList<>(end - start);
+    for (int i = start; i < end; ++i) {
+      attachments.add(attachmentNames.decode(attachmentNameCodes[i]));
+    }
+    return attachments;
+  }
+
+  synchronized int getAttachmentSizeInBytes(int row) {
+    return attachmentSizesInBytes[row];
+  }
+
+  synchronized void setAttachmentSizeInBytes(int row, int attachmentSizeInBytes) {
+    attachmentSizesInBytes[row] = attachmentSizeInBytes;
+  }
+
+  synchronized EmailStatus getStatus(int row) {
+    return STATUSES[statuses[row]];
+  }
+
+  void setStatus(int row, EmailStatus status) {
+    synchronized (this) {
+      int oldStatus = statuses[row];
+      int newStatus = status.ordinal();
+      if (oldStatus == newStatus) {
+        return;
+      }
+      statuses[row] = (byte) newStatus;
+      --countByStatus[oldStatus];
+      ++countByStatus[newStatus];
+      if (!loadedRows.get(row)) {
+        --unloadedCountByStatus[oldStatus];
+        ++unloadedCountByStatus[newStatus];
+      }
+      bytesByStatus[oldStatus] -= sizesInBytes[row];
+      bytesByStatus[newStatus] += sizesInBytes[row];
+      if (filteredRows.get(row)) {
+        --filteredCountByStatus[oldStatus];
+        ++filteredCountByStatus[newStatus];
+        filteredBytesByStatus[oldStatus] -= sizesInBytes[row];
+        filteredBytesByStatus[newStatus] += sizesInBytes[row];
+      }
+    }
+    recordChange(row);
+  }
+
+  synchronized String getNote(int row) {
+    String note = notes[row];
+    return note == null ? "" : note;
+  }
+
+  void setNote(int row, String note) {
+    synchronized (this) {
+      String newNote = note == null || note.isEmpty() ? null : note;
+      if (Objects.equals(notes[row], newNote)) {
+        return;
+      }
+      notes[row] = newNote;
+    }
+    recordChange(row);
+  }
+}
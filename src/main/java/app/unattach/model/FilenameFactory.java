@@ -1,96 +1,179 @@
 package app.unattach.model;
 
 import java.security.InvalidParameterException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.TreeMap;
 
 public class FilenameFactory {
   static final String DEFAULT_SCHEMA = "${ID}-${BODY_PART_INDEX}-${ATTACHMENT_NAME}";
+  private static final String RAW_PREFIX = "RAW_";
+  private static final ThreadLocal<StringBuilder> BUILDER = ThreadLocal.withInitial(() -> new StringBuilder(128));
 
-  private final Map<String, Pattern> keyToPattern;
-  private final String schema;
+  private enum Variable {
+    FROM_EMAIL, FROM_NAME, SUBJECT, TIMESTAMP, DATE, TIME, ID, BODY_PART_INDEX, LABELS, ATTACHMENT_NAME
+  }
+
+  private static final Map<String, Variable> NAME_TO_VARIABLE = new TreeMap<>();
+
+  static {
+    for (Variable variable : Variable.values()) {
+      NAME_TO_VARIABLE.put(variable.name(), variable);
+    }
+  }
+
+  // A schema is compiled into a sequence of tokens, each of which is either a literal (variable == null) or a
+  // variable with its maximum length.
+  private static class Token {
+    private final String literal;
+    private final Variable variable;
+    private final boolean raw;
+    private final int maxLength;
+
+    private Token(String literal, Variable variable, boolean raw, int maxLength) {
+      this.literal = literal;
+      this.variable = variable;
+      this.raw = raw;
+      this.maxLength = maxLength;
+    }
+  }
+
+  private final List<Token> tokens;
 
   public FilenameFactory(String schema) {
-    keyToPattern = new HashMap<>();
-    this.schema = schema;
+    tokens = compile(schema);
   }
 
   public String getFilename(Email email, int bodyPartIndex, String attachmentName) {
-    String template = schema;
-    template = replaceRawAndNormalised(template, "FROM_EMAIL", email.getFromEmail(), FilenameFactory::simpleTrim);
-    template = replaceRawAndNormalised(template, "FROM_NAME", email.getFromName(), FilenameFactory::simpleTrim);
-    template = replaceRawAndNormalised(template, "SUBJECT", email.getSubject(), FilenameFactory::simpleTrim);
-    template = replaceRawAndNormalised(template, "TIMESTAMP", String.valueOf(email.getTimestamp()), FilenameFactory::simpleTrim);
-    template = replaceRawAndNormalised(template, "DATE", email.getDateIso8601(), FilenameFactory::simpleTrim);
-    template = replaceRawAndNormalised(template, "TIME", email.getTimeString(), FilenameFactory::simpleTrim);
-    template = replaceRawAndNormalised(template, "ID", email.getGmailId(), FilenameFactory::simpleTrim);
-    template = replaceRawAndNormalised(template, "BODY_PART_INDEX", String.valueOf(bodyPartIndex), FilenameFactory::simpleTrim);
-    template = replaceRawAndNormalised(template, "LABELS", email.getLabelIdsString(), FilenameFactory::simpleTrim);
-    template = replaceRawAndNormalised(template, "ATTACHMENT_NAME", attachmentName, FilenameFactory::basenameTrim);
-    if (template.contains("${")) {
-      int start = template.indexOf("${");
-      int end = template.indexOf("}", start);
-      String unknownPattern = template.substring(start, end == -1 ? template.length() : end + 1);
-      throw new InvalidParameterException("The schema contains an unknown pattern: " + unknownPattern);
+    StringBuilder filename = BUILDER.get();
+    filename.setLength(0);
+    for (Token token : tokens) {
+      if (token.variable == null) {
+        filename.append(token.literal);
+      } else {
+        String value = getValue(token.variable, email, bodyPartIndex, attachmentName);
+        appendTrimmed(filename, value, token);
+      }
     }
-    return template;
+    return filename.toString();
   }
 
-  private Pattern getPattern(String key) {
-    Pattern pattern;
-    if (keyToPattern.containsKey(key)) {
-      pattern = keyToPattern.get(key);
-    } else {
-      keyToPattern.put(key, pattern = Pattern.compile("\\$\\{" + key + "(:([0-9]+))?}"));
+  private static List<Token> compile(String schema) {
+    List<Token> tokens = new ArrayList<>();
+    int position = 0;
+    while (position < schema.length()) {
+      int start = schema.indexOf("${", position);
+      if (start == -1) {
+        tokens.add(new Token(schema.substring(position), null, false, 0));
+        break;
+      }
+      if (start > position) {
+        tokens.add(new Token(schema.substring(position, start), null, false, 0));
+      }
+      int end = schema.indexOf('}', start);
+      if (end == -1) {
+        throw unknownPattern(schema.substring(start));
+      }
+      tokens.add(compileVariable(schema.substring(start, end + 1)));
+      position = end + 1;
     }
-    return pattern;
+    return Collections.unmodifiableList(tokens);
   }
 
-  private interface Trimmer {
-    String trim(String replacement, int maxLength, int newLength);
+  private static Token compileVariable(String pattern) {
+    String name = pattern.substring(2, pattern.length() - 1);
+    int maxLength = Integer.MAX_VALUE;
+    int colonIndex = name.indexOf(':');
+    if (colonIndex != -1) {
+      String maxLengthString = name.substring(colonIndex + 1);
+      if (maxLengthString.isEmpty() || !maxLengthString.chars().allMatch(c -> c >= '0' && c <= '9')) {
+        throw unknownPattern(pattern);
+      }
+      try {
+        maxLength = Integer.parseInt(maxLengthString);
+      } catch (NumberFormatException e) {
+        throw unknownPattern(pattern);
+      }
+      name = name.substring(0, colonIndex);
+    }
+    boolean raw = name.startsWith(RAW_PREFIX);
+    Variable variable = NAME_TO_VARIABLE.get(raw ? name.substring(RAW_PREFIX.length()) : name);
+    if (variable == null) {
+      throw unknownPattern(pattern);
+    }
+    return new Token(null, variable, raw, maxLength);
   }
 
-  private String replaceRawAndNormalised(String template, String patternString, String replacement, Trimmer trimmer) {
-    template = replace(template, "RAW_" + patternString, replacement, trimmer);
-    template = replace(template, patternString, replacement, trimmer);
-    return template;
+  private static InvalidParameterException unknownPattern(String pattern) {
+    return new InvalidParameterException("The schema contains an unknown pattern: " + pattern);
   }
 
-  private String replace(String template, String patternString, String replacement, Trimmer trimmer) {
-    Pattern pattern = getPattern(patternString);
-    Matcher matcher = pattern.matcher(template);
-    if (replacement == null) {
-      replacement = "";
+  private static String getValue(Variable variable, Email email, int bodyPartIndex, String attachmentName) {
+    return switch (variable) {
+      case FROM_EMAIL -> email.getFromEmail();
+      case FROM_NAME -> email.getFromName();
+      case SUBJECT -> email.getSubject();
+      case TIMESTAMP -> String.valueOf(email.getTimestamp());
+      case DATE -> email.getDateIso8601();
+      case TIME -> email.getTimeString();
+      case ID -> email.getGmailId();
+      case BODY_PART_INDEX -> String.valueOf(bodyPartIndex);
+      case LABELS -> email.getLabelIdsString();
+      case ATTACHMENT_NAME -> attachmentName;
+    };
+  }
+
+  private static void appendTrimmed(StringBuilder filename, String value, Token token) {
+    if (value == null) {
+      value = "";
     }
-    if (!patternString.startsWith("RAW_")) {
-      replacement = replacement.replaceAll("[^a-zA-Z0-9-_.@]", "_");
+    if (!token.raw) {
+      value = normalise(value);
     }
-    if (matcher.find()) {
-      String maxLengthGroup = matcher.group(2);
-      int maxLength = maxLengthGroup == null ? Integer.MAX_VALUE : Integer.parseInt(maxLengthGroup);
-      int newLength = Math.min(maxLength, replacement.length());
-      String replacementTrimmed = trimmer.trim(replacement, maxLength, newLength);
-      template = matcher.replaceFirst(replacementTrimmed);
+    if (token.variable == Variable.ATTACHMENT_NAME) {
+      appendBasenameTrimmed(filename, value, token.maxLength);
+    } else {
+      filename.append(value, 0, Math.min(token.maxLength, value.length()));
     }
-    return template;
   }
 
-  private static String simpleTrim(String replacement, @SuppressWarnings("unused") int maxLength, int newLength) {
-    return replacement.substring(0, newLength);
-  }
-
-  private static String basenameTrim(String replacement, int maxLength, int newLength) {
-    int lastDotIndex = replacement.lastIndexOf('.');
+  // Keeps the extension, and trims only the basename of the attachment.
+  private static void appendBasenameTrimmed(StringBuilder filename, String value, int maxLength) {
+    int lastDotIndex = value.lastIndexOf('.');
     if (lastDotIndex == -1) {
-      return simpleTrim(replacement, maxLength, newLength);
+      filename.append(value, 0, Math.min(maxLength, value.length()));
     } else {
-      String basename = replacement.substring(0, lastDotIndex);
-      String extension = replacement.substring(lastDotIndex + 1);
-      int maxBasenameLength = Math.max(0, maxLength - extension.length() - 1);
-      int newBasenameLength = Math.min(maxBasenameLength, basename.length());
-      return basename.substring(0, newBasenameLength) + '.' + extension;
+      int extensionLength = value.length() - lastDotIndex - 1;
+      int maxBasenameLength = Math.max(0, maxLength - extensionLength - 1);
+      filename.append(value, 0, Math.min(maxBasenameLength, lastDotIndex));
+      filename.append(value, lastDotIndex, value.length());
+    }
+  }
+
+  // Replaces every code point outside [a-zA-Z0-9-_.@] with an underscore.
+  static String normalise(String value) {
+    int length = value.length();
+    int i = 0;
+    while (i < length && isSafe(value.charAt(i))) {
+      ++i;
+    }
+    if (i == length) {
+      return value;
     }
+    StringBuilder normalised = new StringBuilder(length);
+    normalised.append(value, 0, i);
+    while (i < length) {
+      int codePoint = value.codePointAt(i);
+      normalised.append(isSafe(codePoint) ? (char) codePoint : '_');
+      i += Character.charCount(codePoint);
+    }
+    return normalised.toString();
+  }
+
+  private static boolean isSafe(int c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ||
+        c == '-' || c == '_' || c == '.' || c == '@';
   }
 }
@@ -0,0 +1,71 @@
+package app.unattach.model;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Hands out unique file names within a target directory. A name is claimed both in memory and on disk (by atomically
+// creating an empty file), so that concurrently processed attachments and files from previous runs are never
+// overwritten. On a collision, the first free name of the form "name-N.ext" is used.
+class FilenameReservations {
+  private final Path targetDirectory;
+  private final Set<Path> createdDirectories = ConcurrentHashMap.newKeySet();
+  private final Set<String> reservedFilenames = ConcurrentHashMap.newKeySet();
+  private final Map<String, AtomicInteger> filenameToNextSuffix = new ConcurrentHashMap<>();
+
+  FilenameReservations(Path targetDirectory) {
+    this.targetDirectory = targetDirectory;
+  }
+
+  Path getTargetDirectory() {
+    return targetDirectory;
+  }
+
+  String reserve(String filename) throws IOException {
+    createParentDirectory(filename);
+    String candidate = filename;
+    AtomicInteger nextSuffix = null;
+    while (true) {
+      if (reservedFilenames.add(candidate)) {
+        try {
+          Files.createFile(targetDirectory.resolve(candidate));
+          return candidate;
+        } catch (FileAlreadyExistsException e) {
+          // Taken on disk (e.g. by a previous run), so the name stays reserved.
+        }
+      }
+      if (nextSuffix == null) {
+        nextSuffix = filenameToNextSuffix.computeIfAbsent(filename, key -> new AtomicInteger(1));
+      }
+      candidate = addSuffix(filename, nextSuffix.getAndIncrement());
+    }
+  }
+
+  // Each (shard) directory is only created once per run, rather than once per file.
+  private void createParentDirectory(String filename) throws IOException {
+    Path parent = targetDirectory.resolve(filename).getParent();
+    if (parent != null && !createdDirectories.contains(parent)) {
+      Files.createDirectories(parent);
+      createdDirectories.add(parent);
+    }
+  }
+
+  void release(String filename) throws IOException {
+    Files.deleteIfExists(targetDirectory.resolve(filename));
+    reservedFilenames.remove(filename);
+  }
+
+  static String addSuffix(String filename, int suffix) {
+    int nameStart = Math.max(filename.lastIndexOf('/'), filename.lastIndexOf('\\')) + 1;
+    int extensionStart = filename.lastIndexOf('.');
+    if (extensionStart <= nameStart) {
+      return filename + "-" + suffix;
+    }
+    return filename.substring(0, extensionStart) + "-" + suffix + filename.substring(extensionStart);
+  }
+}
@@ -1,10 +1,12 @@
 package app.unattach.model;
 
+import app.unattach.controller.CancellationToken;
 import app.unattach.controller.LongTask;
-import app.unattach.controller.LongTaskException;
+import app.unattach.controller.LongTaskExecutor;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class GetEmailMetadataTask implements LongTask<GetEmailMetadataTask.Result> {
   interface Worker {
@@ -22,13 +24,19 @@ public class GetEmailMetadataTask implements LongTask<GetEmailMetadataTask.Resul
   private final List<String> emailIds;
   // (maximum batch size = 100)
   // batch size = 40 ==> batch quota units = 200 ==> 1 batch / second
-  private final int batchSize = 40;
+  private static final int DEFAULT_BATCH_SIZE = 40;
+  private final int batchSize;
   private final int numberOfBatches;
   private final Worker worker;
   private int currentBatchNumber;
 
   GetEmailMetadataTask(List<String> emailIds, Worker worker) {
+    this(emailIds, DEFAULT_BATCH_SIZE, worker);
+  }
+
+  GetEmailMetadataTask(List<String> emailIds, int batchSize, Worker worker) {
     this.emailIds = emailIds;
+    this.batchSize = batchSize;
     numberOfBatches = (emailIds.size() + batchSize - 1) / batchSize;
     this.worker = worker;
   }
@@ -44,18 +52,25 @@ public class GetEmailMetadataTask implements LongTask<GetEmailMetadataTask.Resul
   }
 
   @Override
-  public Result takeStep() throws LongTaskException {
-    try {
-      if (currentBatchNumber != 0) {
-        Thread.sleep(1000);
-      }
+  public CompletableFuture<Result> takeStep(CancellationToken cancellationToken) {
+    CompletableFuture<Void> delay =
+        currentBatchNumber == 0 ? CompletableFuture.completedFuture(null) : cancellationToken.delay(1000);
+    return delay.thenCompose(v -> LongTaskExecutor.submit(() -> {
+      cancellationToken.throwIfCancelled();
       final int startIndexInclusive = currentBatchNumber * batchSize;
       final int endIndexExclusive = Math.min(emailIds.size(), (currentBatchNumber + 1) * batchSize);
+      ProcessingEvents.MetadataBatch event = new ProcessingEvents.MetadataBatch();
+      event.begin();
       worker.getEmailMetadata(startIndexInclusive, endIndexExclusive);
+      event.end();
+      if (event.shouldCommit()) {
+        event.batchNumber = currentBatchNumber + 1;
+        event.emails = endIndexExclusive - startIndexInclusive;
+        event.gmailId = emailIds.get(startIndexInclusive);
+        event.commit();
+      }
       ++currentBatchNumber;
       return new Result(currentBatchNumber);
-    } catch (Throwable t) {
-      throw new LongTaskException(t);
-    }
+    }));
   }
 }
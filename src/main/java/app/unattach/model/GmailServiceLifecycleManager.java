@@ -26,13 +26,27 @@ class GmailServiceLifecycleManager {
   private static final File DATA_STORE_DIR = new File(System.getProperty("user.home"), ".credentials/unattach");
   private static final JsonFactory JSON_FACTORY = JacksonFactory.getDefaultInstance();
   private static final List<String> SCOPES = Collections.singletonList(GmailScopes.MAIL_GOOGLE_COM);
+  // Points the client at another implementation of the Gmail API, e.g. http://localhost:8080/, without signing in.
+  static final String ROOT_URL_PROPERTY = "unattach.gmail.root_url";
 
   private FileDataStoreFactory DATA_STORE_FACTORY;
   private HttpTransport HTTP_TRANSPORT;
+  private final String rootUrl;
 
   GmailServiceLifecycleManager() throws GeneralSecurityException, IOException {
     HTTP_TRANSPORT = GoogleNetHttpTransport.newTrustedTransport();
-    DATA_STORE_FACTORY = new FileDataStoreFactory(DATA_STORE_DIR);
+    rootUrl = getRootUrl();
+    if (rootUrl == null) {
+      DATA_STORE_FACTORY = new FileDataStoreFactory(DATA_STORE_DIR);
+    }
+  }
+
+  private static String getRootUrl() {
+    String rootUrl = System.getProperty(ROOT_URL_PROPERTY);
+    if (rootUrl == null || rootUrl.isBlank()) {
+      return null;
+    }
+    return rootUrl.endsWith("/") ? rootUrl : rootUrl + "/";
   }
 
   private HttpRequestInitializer setHttpTimeout(final HttpRequestInitializer requestInitializer) {
@@ -44,6 +58,12 @@ class GmailServiceLifecycleManager {
   }
 
   Gmail signIn() throws IOException {
+    if (rootUrl != null) {
+      return new Gmail.Builder(HTTP_TRANSPORT, JSON_FACTORY, setHttpTimeout(httpRequest -> {}))
+          .setApplicationName(GOOGLE_APPLICATION_NAME)
+          .setRootUrl(rootUrl)
+          .build();
+    }
     Credential credential = authorize();
     return new Gmail.Builder(HTTP_TRANSPORT, JSON_FACTORY, setHttpTimeout(credential))
         .setApplicationName(GOOGLE_APPLICATION_NAME)
@@ -51,6 +71,9 @@ class GmailServiceLifecycleManager {
   }
 
   void signOut() throws IOException {
+    if (rootUrl != null) {
+      return;
+    }
     FileUtils.deleteDirectory(DATA_STORE_DIR);
   }
 
@@ -0,0 +1,304 @@
+package app.unattach.model;
+
+import app.unattach.view.Action;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.logging.Logger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.*;
+
+// A write-ahead log of a processing job on local disk, so that a job which was interrupted (e.g. by closing the app or
+// a crash) can be resumed from the last completed step of each email, instead of being restarted. The first line
+// describes the job, and every other line records a step that was completed for an email. Each line is forced to disk
+// before the next step starts.
+public class JobJournal {
+  private static final Logger LOGGER = Logger.getLogger(JobJournal.class.getName());
+
+  // The steps of processing an email, in order. Emails without attachments to remove skip from ATTACHMENTS_SAVED to
+  // PROCESSED.
+  enum Step {FETCHED, ATTACHMENTS_SAVED, SLIM_INSERTED, LABELLED, ORIGINAL_REMOVED, PROCESSED}
+
+  private static class EmailProgress {
+    private Step step;
+    private List<SavedAttachment> savedAttachments;
+    private String newGmailId;
+  }
+
+  private final Path path;
+  private final String emailAddress;
+  private final ProcessSettings processSettings;
+  private final List<String> gmailIds;
+  private final Map<String, EmailProgress> gmailIdToProgress = new HashMap<>();
+  private FileChannel channel;
+
+  private JobJournal(Path path, String emailAddress, ProcessSettings processSettings, List<String> gmailIds) {
+    this.path = path;
+    this.emailAddress = emailAddress;
+    this.processSettings = processSettings;
+    this.gmailIds = new ArrayList<>(gmailIds);
+  }
+
+  static Path getDefaultPath(String emailAddress) {
+    return AccountFiles.getPath("journal", emailAddress, "jsonl");
+  }
+
+  // Replaces any previous journal at the path, unless it still has emails to resume, since replacing it would lose
+  // the emails that were left halfway, e.g. with both the slim and the original email in the mailbox.
+  static JobJournal start(Path path, String emailAddress, ProcessSettings processSettings, List<String> gmailIds)
+      throws IOException {
+    JobJournal previousJob;
+    try {
+      previousJob = read(path);
+    } catch (IOException e) {
+      // An unreadable journal can't be resumed anyway.
+      LOGGER.warning("Replacing the unreadable job journal " + path + ": " + e.getMessage());
+      previousJob = null;
+    }
+    if (previousJob != null && !previousJob.getPendingGmailIds().isEmpty()) {
+      throw new IOException("The interrupted job in " + path + " still has " +
+          previousJob.getPendingGmailIds().size() + " emails to process. Resume or discard it first.");
+    }
+    JobJournal jobJournal = new JobJournal(path, emailAddress, processSettings, gmailIds);
+    jobJournal.rewrite();
+    return jobJournal;
+  }
+
+  // Returns null if there is no journal at the path.
+  static JobJournal read(Path path) throws IOException {
+    if (!Files.exists(path)) {
+      return null;
+    }
+    JobJournal jobJournal;
+    boolean incomplete = false;
+    try (BufferedReader reader = Files.newBufferedReader(path, UTF_8)) {
+      String header = reader.readLine();
+      if (header == null) {
+        throw new IOException("The job journal " + path + " is empty.");
+      }
+      try {
+        jobJournal = fromJson(path, new JSONObject(header));
+      } catch (JSONException | IllegalArgumentException e) {
+        throw new IOException("Invalid job in " + path + ": " + e.getMessage(), e);
+      }
+      String line;
+      while ((line = reader.readLine()) != null) {
+        try {
+          jobJournal.apply(new JSONObject(line));
+        } catch (JSONException | IllegalArgumentException e) {
+          // Only the last line can be incomplete, if the app stopped while writing it.
+          LOGGER.warning("Ignoring an incomplete step in " + path + ": " + line);
+          incomplete = true;
+        }
+      }
+    }
+    if (incomplete) {
+      // Otherwise the next step would be appended to the incomplete line.
+      jobJournal.rewrite();
+    }
+    return jobJournal;
+  }
+
+  public String getEmailAddress() {
+    return emailAddress;
+  }
+
+  public ProcessSettings getProcessSettings() {
+    return processSettings;
+  }
+
+  public int getNumberOfEmails() {
+    return gmailIds.size();
+  }
+
+  public synchronized List<String> getPendingGmailIds() {
+    List<String> pendingGmailIds = new ArrayList<>();
+    for (String gmailId : gmailIds) {
+      if (getLastStep(gmailId) != Step.PROCESSED) {
+        pendingGmailIds.add(gmailId);
+      }
+    }
+    return pendingGmailIds;
+  }
+
+  // Returns null if no step was completed yet.
+  synchronized Step getLastStep(String gmailId) {
+    EmailProgress progress = gmailIdToProgress.get(gmailId);
+    return progress == null ? null : progress.step;
+  }
+
+  // In the order of the email.
+  synchronized List<SavedAttachment> getSavedAttachments(String gmailId) {
+    EmailProgress progress = gmailIdToProgress.get(gmailId);
+    return progress == null || progress.savedAttachments == null ?
+        Collections.emptyList() : progress.savedAttachments;
+  }
+
+  synchronized String getNewGmailId(String gmailId) {
+    EmailProgress progress = gmailIdToProgress.get(gmailId);
+    return progress == null ? null : progress.newGmailId;
+  }
+
+  void record(String gmailId, Step step) throws IOException {
+    append(new JSONObject().put("gmailId", gmailId).put("step", step.name()));
+  }
+
+  void recordAttachmentsSaved(String gmailId, List<SavedAttachment> savedAttachments) throws IOException {
+    append(new JSONObject().put("gmailId", gmailId).put("step", Step.ATTACHMENTS_SAVED.name())
+        .put("attachments", toJson(savedAttachments)));
+  }
+
+  void recordSlimInserted(String gmailId, String newGmailId) throws IOException {
+    append(new JSONObject().put("gmailId", gmailId).put("step", Step.SLIM_INSERTED.name())
+        .put("newGmailId", newGmailId));
+  }
+
+  // Steps that were already completed (e.g. before a resumed job was interrupted) are not recorded again.
+  private synchronized void append(JSONObject json) throws IOException {
+    EmailProgress progress = gmailIdToProgress.get(json.getString("gmailId"));
+    if (progress != null && progress.step.compareTo(Step.valueOf(json.getString("step"))) >= 0) {
+      return;
+    }
+    if (channel == null) {
+      channel = FileChannel.open(path, WRITE, APPEND);
+    }
+    ByteBuffer buffer = ByteBuffer.wrap((json.toString() + "\n").getBytes(UTF_8));
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    channel.force(false);
+    apply(json);
+  }
+
+  private void apply(JSONObject json) {
+    EmailProgress progress = gmailIdToProgress.computeIfAbsent(json.getString("gmailId"), id -> new EmailProgress());
+    progress.step = Step.valueOf(json.getString("step"));
+    JSONArray attachments = json.optJSONArray("attachments");
+    if (attachments != null) {
+      progress.savedAttachments = new ArrayList<>(attachments.length());
+      for (int i = 0; i < attachments.length(); ++i) {
+        JSONObject attachment = attachments.getJSONObject(i);
+        progress.savedAttachments.add(
+            new SavedAttachment(attachment.getString("original"), attachment.getString("normalized")));
+      }
+    }
+    if (json.has("newGmailId")) {
+      progress.newGmailId = json.getString("newGmailId");
+    }
+  }
+
+  // Deletes the journal, unless some emails were left halfway (e.g. because a step failed), in which case only they
+  // are kept, so that they can be resumed later instead of being processed again from the start.
+  synchronized void finish() throws IOException {
+    close();
+    Set<String> halfwayGmailIds = new HashSet<>();
+    for (String gmailId : gmailIds) {
+      Step step = getLastStep(gmailId);
+      if (step != null && step.compareTo(Step.FETCHED) > 0 && step != Step.PROCESSED) {
+        halfwayGmailIds.add(gmailId);
+      }
+    }
+    if (halfwayGmailIds.isEmpty()) {
+      Files.deleteIfExists(path);
+    } else {
+      LOGGER.warning("Keeping the job journal for " + halfwayGmailIds.size() + " emails which were left halfway.");
+      gmailIds.retainAll(halfwayGmailIds);
+      rewrite();
+      close();
+    }
+  }
+
+  synchronized void delete() throws IOException {
+    close();
+    Files.deleteIfExists(path);
+  }
+
+  private void close() throws IOException {
+    if (channel != null) {
+      channel.close();
+      channel = null;
+    }
+  }
+
+  // Writes the job and the progress so far to a new file, which then atomically replaces the journal.
+  private void rewrite() throws IOException {
+    Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+    try (FileChannel temporaryChannel = FileChannel.open(temporaryPath, WRITE, CREATE, TRUNCATE_EXISTING)) {
+      StringBuilder lines = new StringBuilder(toJson().toString()).append('\n');
+      for (String gmailId : gmailIds) {
+        EmailProgress progress = gmailIdToProgress.get(gmailId);
+        if (progress != null) {
+          lines.append(toJson(gmailId, progress)).append('\n');
+        }
+      }
+      ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(UTF_8));
+      while (buffer.hasRemaining()) {
+        temporaryChannel.write(buffer);
+      }
+      temporaryChannel.force(false);
+    }
+    Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private JSONObject toJson() {
+    ProcessOption processOption = processSettings.processOption;
+    return new JSONObject()
+        .put("emailAddress", emailAddress)
+        .put("action", processOption.getAction().name())
+        .put("backup", processOption.shouldBackup())
+        .put("download", processOption.shouldDownload())
+        .put("remove", processOption.shouldRemove())
+        .put("deleteOriginal", processOption.shouldDeleteOriginal())
+        .putOpt("downloadedLabelId", processOption.getDownloadedLabelId())
+        .putOpt("removedLabelId", processOption.getRemovedLabelId())
+        .put("targetDirectory", processSettings.targetDirectory.getPath())
+        .put("filenameSchema", processSettings.filenameSchema)
+        .put("directoryLayout", processSettings.directoryLayout.name())
+        .put("addMetadata", processSettings.addMetadata)
+        .put("gmailIds", new JSONArray(gmailIds));
+  }
+
+  private static JSONObject toJson(String gmailId, EmailProgress progress) {
+    JSONObject json = new JSONObject().put("gmailId", gmailId).put("step", progress.step.name());
+    if (progress.savedAttachments != null) {
+      json.put("attachments", toJson(progress.savedAttachments));
+    }
+    return json.putOpt("newGmailId", progress.newGmailId);
+  }
+
+  private static JSONArray toJson(List<SavedAttachment> savedAttachments) {
+    JSONArray json = new JSONArray();
+    for (SavedAttachment savedAttachment : savedAttachments) {
+      json.put(new JSONObject().put("original", savedAttachment.originalFilename)
+          .put("normalized", savedAttachment.normalizedFilename));
+    }
+    return json;
+  }
+
+  private static JobJournal fromJson(Path path, JSONObject json) {
+    ProcessOption processOption = new ProcessOption(Action.valueOf(json.getString("action")),
+        json.getBoolean("backup"), json.getBoolean("download"), json.getBoolean("remove"),
+        json.getBoolean("deleteOriginal"), json.optString("downloadedLabelId", null),
+        json.optString("removedLabelId", null));
+    ProcessSettings processSettings = new ProcessSettings(processOption, new File(json.getString("targetDirectory")),
+        json.getString("filenameSchema"), DirectoryLayout.valueOf(json.getString("directoryLayout")),
+        json.getBoolean("addMetadata"));
+    JSONArray gmailIdArray = json.getJSONArray("gmailIds");
+    List<String> gmailIds = new ArrayList<>(gmailIdArray.length());
+    for (int i = 0; i < gmailIdArray.length(); ++i) {
+      gmailIds.add(gmailIdArray.getString(i));
+    }
+    return new JobJournal(path, json.getString("emailAddress"), processSettings, gmailIds);
+  }
+}
@@ -0,0 +1,108 @@
+package app.unattach.model;
+
+import java.util.*;
+
+// Maps the (few) label IDs of a mailbox to small integers, and interns each distinct set of labels as a bit set, so
+// that search results store their labels as a single int and label filtering is a bitwise operation. The joined
+// label string is computed once per distinct label set.
+public class LabelDictionary {
+  private static final class LabelSet {
+    private final BitSet labels;
+    private final String labelIdsString;
+
+    private LabelSet(BitSet labels, String labelIdsString) {
+      this.labels = labels;
+      this.labelIdsString = labelIdsString;
+    }
+  }
+
+  private final Map<String, Integer> labelIdToCode = new HashMap<>();
+  private final List<String> codeToLabelId = new ArrayList<>();
+  private final Map<BitSet, Integer> labelsToLabelSetCode = new HashMap<>();
+  private final List<LabelSet> labelSets = new ArrayList<>();
+
+  synchronized int getLabelCode(String labelId) {
+    Integer code = labelIdToCode.get(labelId);
+    if (code == null) {
+      code = codeToLabelId.size();
+      codeToLabelId.add(labelId);
+      labelIdToCode.put(labelId, code);
+    }
+    return code;
+  }
+
+  synchronized int getLabelSetCode(Collection<String> labelIds) {
+    BitSet labels = new BitSet();
+    if (labelIds != null) {
+      for (String labelId : labelIds) {
+        labels.set(getLabelCode(labelId));
+      }
+    }
+    Integer labelSetCode = labelsToLabelSetCode.get(labels);
+    if (labelSetCode == null) {
+      labelSetCode = labelSets.size();
+      labelSets.add(new LabelSet(labels, joinLabelIds(labels)));
+      labelsToLabelSetCode.put(labels, labelSetCode);
+    }
+    return labelSetCode;
+  }
+
+  private String joinLabelIds(BitSet labels) {
+    List<String> labelIds = new ArrayList<>(labels.cardinality());
+    labels.stream().forEach(code -> labelIds.add(codeToLabelId.get(code)));
+    Collections.sort(labelIds);
+    return String.join("_", labelIds);
+  }
+
+  synchronized String getLabelIdsString(int labelSetCode) {
+    return labelSets.get(labelSetCode).labelIdsString;
+  }
+
+  synchronized List<String> getLabelIds(int labelSetCode) {
+    List<String> labelIds = new ArrayList<>();
+    labelSets.get(labelSetCode).labels.stream().forEach(code -> labelIds.add(codeToLabelId.get(code)));
+    return labelIds;
+  }
+
+  // Returns the bit set with the given labels, for use with hasAnyLabel(). Unknown labels are added, since they
+  // cannot match any result anyway.
+  public synchronized BitSet getLabels(Collection<String> labelIds) {
+    BitSet labels = new BitSet();
+    for (String labelId : labelIds) {
+      labels.set(getLabelCode(labelId));
+    }
+    return labels;
+  }
+
+  synchronized boolean hasAnyLabel(int labelSetCode, BitSet labels) {
+    return labelSets.get(labelSetCode).labels.intersects(labels);
+  }
+
+  // Returns the codes of the label sets that contain any of the given labels.
+  synchronized BitSet getLabelSetCodesWithAnyLabel(Collection<String> labelIds) {
+    BitSet labels = getLabels(labelIds);
+    BitSet labelSetCodes = new BitSet(labelSets.size());
+    for (int labelSetCode = 0; labelSetCode < labelSets.size(); ++labelSetCode) {
+      if (labelSets.get(labelSetCode).labels.intersects(labels)) {
+        labelSetCodes.set(labelSetCode);
+      }
+    }
+    return labelSetCodes;
+  }
+
+  // Returns the rank of each label set code when the label sets are sorted by their joined label IDs.
+  synchronized int[] getLabelSetRanks() {
+    Integer[] labelSetCodes = new Integer[labelSets.size()];
+    Arrays.setAll(labelSetCodes, i -> i);
+    Arrays.sort(labelSetCodes, Comparator.comparing(code -> labelSets.get(code).labelIdsString));
+    int[] ranks = new int[labelSetCodes.length];
+    for (int rank = 0; rank < labelSetCodes.length; ++rank) {
+      ranks[labelSetCodes[rank]] = rank;
+    }
+    return ranks;
+  }
+
+  synchronized int getNumberOfLabelSets() {
+    return labelSets.size();
+  }
+}
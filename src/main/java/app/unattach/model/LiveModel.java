@@ -1,10 +1,15 @@
 package app.unattach.model;
 
+import app.unattach.controller.CancellationToken;
 import app.unattach.controller.LongTask;
+import app.unattach.controller.LongTaskExecutor;
 import com.google.api.client.googleapis.batch.BatchRequest;
 import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
 import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.services.json.AbstractGoogleJsonClientRequest;
 import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpStatusCodes;
 import com.google.api.services.gmail.Gmail;
 import com.google.api.services.gmail.model.*;
 import org.apache.commons.lang3.StringUtils;
@@ -13,10 +18,13 @@ import org.apache.maven.artifact.versioning.DefaultArtifactVersion;
 import javax.mail.MessagingException;
 import javax.mail.Session;
 import javax.mail.internet.MimeMessage;
+import javax.mail.util.SharedByteArrayInputStream;
 import java.io.*;
 import java.lang.Thread;
 import java.security.GeneralSecurityException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -26,13 +34,22 @@ import static org.apache.commons.codec.binary.Base64.*;
 public class LiveModel implements Model {
   private static final Logger LOGGER = Logger.getLogger(LiveModel.class.getName());
   private static final String USER = "me";
+  private static final String METADATA_FIELDS =
+      "id,labelIds,internalDate,payload/parts/filename,payload/parts/body/size,payload/headers,sizeEstimate";
 
   private final Config config;
+  private final Map<Scheduler.Owner, Scheduler> schedulers = new EnumMap<>(Scheduler.Owner.class);
+  private final MemoryBudget memoryBudget = new MemoryBudget(Runtime.getRuntime().maxMemory());
   private GmailServiceLifecycleManager serviceLifecycleManager;
   private Gmail service;
   private Session session;
-  private List<Email> emails;
+  private LabelDictionary labelDictionary;
+  private EmailStore emailStore;
+  private EmailMetadataLoader emailMetadataLoader;
+  private JobJournal jobJournal;
+  private BandwidthLedger bandwidthLedger;
   private String emailAddress;
+  private CompletableFuture<SortedMap<String, String>> idToLabelPrefetch;
 
   public LiveModel() {
     this.config = new FileConfig();
@@ -70,12 +87,27 @@ public class LiveModel implements Model {
     serviceLifecycleManager = null;
     service = null;
     emailAddress = null;
+    idToLabelPrefetch = null;
+    bandwidthLedger = null;
+    labelDictionary = new LabelDictionary();
     clearPreviousSearch();
   }
 
   @Override
   public void clearPreviousSearch() {
-    emails = new ArrayList<>();
+    if (emailMetadataLoader != null) {
+      emailMetadataLoader.stop();
+      emailMetadataLoader = null;
+    }
+    emailStore = new EmailStore(labelDictionary);
+  }
+
+  @Override
+  public void requestEmailMetadata(Email email) {
+    EmailMetadataLoader emailMetadataLoader = this.emailMetadataLoader;
+    if (emailMetadataLoader != null) {
+      emailMetadataLoader.request(email);
+    }
   }
 
   @Override
@@ -83,14 +115,23 @@ public class LiveModel implements Model {
     return HttpClient.getLatestVersion();
   }
 
+  @Override
+  public boolean isSignedIn() {
+    return service != null;
+  }
+
   @Override
   public void signIn() throws IOException, GeneralSecurityException {
     configureService();
+    // The labels are shown right after signing in, so they are requested at the same time as the profile, rather
+    // than one round trip after it.
+    prefetchIdToLabel();
     try {
       // Test call to the service. This can fail due to token issues.
       getEmailAddress();
     } catch (IOException e) {
       LOGGER.log(Level.WARNING, "Initial signing in failed. Explicitly signing out and retrying..", e);
+      Metrics.getInstance().recordRetry();
       signOut();
       configureService();
     }
@@ -125,64 +166,266 @@ public class LiveModel implements Model {
   @Override
   public String getEmailAddress() throws IOException {
     if (emailAddress == null) {
-      // unknown quota units
-      Profile profile = service.users().getProfile(USER).setFields("emailAddress").execute();
+      // 1 users.getProfile == 1 quota unit
+      Profile profile = execute("users.getProfile", 1, service.users().getProfile(USER).setFields("emailAddress"));
       emailAddress = profile.getEmailAddress();
     }
     return emailAddress;
   }
 
+  @Override
+  public synchronized BandwidthLedger getBandwidthLedger() throws IOException {
+    if (bandwidthLedger == null) {
+      bandwidthLedger = BandwidthLedger.load(BandwidthLedger.getDefaultPath(getEmailAddress()),
+          System::currentTimeMillis);
+    }
+    return bandwidthLedger;
+  }
+
+  @Override
+  public synchronized Scheduler getScheduler(Scheduler.Owner owner) {
+    return schedulers.computeIfAbsent(owner,
+        key -> new Scheduler(Scheduler.getDefaultPath(key), System::currentTimeMillis, new Random()));
+  }
+
   @Override
   public List<Email> getEmails() {
-    return emails;
+    return emailStore.getEmails();
+  }
+
+  @Override
+  public EmailStore getEmailStore() {
+    return emailStore;
   }
 
   @Override
   public LongTask<ProcessEmailResult> getProcessTask(Email email, ProcessSettings processSettings) {
-    return new ProcessEmailTask(email, e -> processEmail(e, processSettings) /* 40 quota units */);
+    return new ProcessEmailTask(email, (e, cancellationToken) -> {
+      Metrics metrics = Metrics.getInstance();
+      long startAllocatedBytes = metrics.recordEmailStarted();
+      Throwable throwable = null;
+      try (MemoryBudget.Reservation reservation = memoryBudget.newReservation()) {
+        return processEmail(e, processSettings, reservation, cancellationToken); // 40 quota units
+      } catch (Throwable t) {
+        throwable = t;
+        throw t;
+      } finally {
+        metrics.recordEmailFinished(startAllocatedBytes, throwable);
+      }
+    });
   }
 
-  private ProcessEmailResult processEmail(Email email, ProcessSettings processSettings)
+  // Cancelling is only possible until the attachments are about to be saved, so that an email is never left halfway.
+  // Each completed step is recorded in the job journal (if there is one), and steps that were completed by an
+  // interrupted run are skipped, so that e.g. the slim email is never inserted twice. Emails that would exceed the
+  // daily bandwidth limits fail with a BandwidthBudgetException before the transfer, and can be resumed later. The
+  // memory that the email needs is reserved before the download, so emails that can't fit wait or fail with a
+  // MemoryBudgetException instead.
+  private ProcessEmailResult processEmail(Email email, ProcessSettings processSettings,
+                                          MemoryBudget.Reservation reservation, CancellationToken cancellationToken)
       throws IOException, MessagingException {
-    Message message = getRawMessage(email.getGmailId()); // 5 quota units
-    MimeMessage mimeMessage = getMimeMessage(message);
-    String newUniqueId = null;
-    if (processSettings.processOption.shouldBackup()) {
-      backupEmail(email, processSettings, mimeMessage);
+    cancellationToken.throwIfCancelled();
+    BandwidthLedger bandwidthLedger = getBandwidthLedger();
+    JobJournal jobJournal = this.jobJournal;
+    String gmailId = email.getGmailId();
+    JobJournal.Step lastStep = jobJournal == null ? null : jobJournal.getLastStep(gmailId);
+    ProcessOption processOption = processSettings.processOption;
+    Message message = null;
+    MimeMessage mimeMessage = null;
+    List<SavedAttachment> savedAttachments;
+    if (isPending(lastStep, JobJournal.Step.ATTACHMENTS_SAVED) ||
+        (processOption.shouldRemove() && isPending(lastStep, JobJournal.Step.SLIM_INSERTED))) {
+      if (!email.isLoaded()) {
+        loadEmailMetadata(email); // 5 quota units
+      }
+      if (processOption.shouldRemove() && !email.getAttachmentNames().isEmpty()) {
+        // Fetching the email is pointless if the slim email can't be uploaded anyway. Deferring it only at the upload
+        // would save its attachments again when it is processed later, by a new job.
+        bandwidthLedger.checkNotSpent(BandwidthLedger.Direction.UPLOAD);
+        bandwidthLedger.check(BandwidthLedger.Direction.UPLOAD, ProcessingOrder.getUploadBytes(email));
+      }
+      bandwidthLedger.check(BandwidthLedger.Direction.DOWNLOAD, email.getSizeInBytes());
+      reservation.acquire(MemoryBudget.estimatePeakBytes(email.getSizeInBytes(), processOption), cancellationToken);
+      message = getRawMessage(gmailId); // 5 quota units
+      bandwidthLedger.record(BandwidthLedger.Direction.DOWNLOAD, getSizeInBytes(message));
+      Metrics.getInstance().recordDownloaded(getSizeInBytes(message));
+      cancellationToken.throwIfCancelled();
+      record(jobJournal, gmailId, JobJournal.Step.FETCHED);
+      ProcessingEvents.MimeParse event = new ProcessingEvents.MimeParse();
+      event.begin();
+      mimeMessage = getMimeMessage(session, message);
+      event.end();
+      if (event.shouldCommit()) {
+        event.gmailId = gmailId;
+        event.size = getSizeInBytes(message);
+        event.commit();
+      }
     }
-    Set<String> fileNames = EmailProcessor.process(email, mimeMessage, processSettings);
-    if (processSettings.processOption.shouldDownload() && !processSettings.processOption.shouldRemove()) {
-      addLabel(message.getId(), processSettings.processOption.getDownloadedLabelId());
+    if (isPending(lastStep, JobJournal.Step.ATTACHMENTS_SAVED)) {
+      if (processOption.shouldBackup()) {
+        backupEmail(email, processSettings, mimeMessage);
+      }
+      savedAttachments = EmailProcessor.process(email, mimeMessage, processSettings, null);
+      if (jobJournal != null) {
+        jobJournal.recordAttachmentsSaved(gmailId, savedAttachments);
+      }
+    } else {
+      savedAttachments = jobJournal.getSavedAttachments(gmailId);
+      if (mimeMessage != null) {
+        // The attachments were saved, but they still need to be removed from the email.
+        EmailProcessor.process(email, mimeMessage, processSettings, savedAttachments);
+      }
+    }
+    if (processOption.shouldDownload() && !processOption.shouldRemove()) {
+      addLabel(gmailId, processOption.getDownloadedLabelId());
     }
-    if (processSettings.processOption.shouldRemove() && !fileNames.isEmpty()) {
-      updateRawMessage(message, mimeMessage);
-      Message newMessage = insertSlimMessage(message); // 25 quota units
-      newMessage = getMetadataForNewMessage(newMessage); // 5 quota units
+    String newUniqueId = null;
+    if (processOption.shouldRemove() && !savedAttachments.isEmpty()) {
+      String newGmailId;
+      if (isPending(lastStep, JobJournal.Step.SLIM_INSERTED)) {
+        ProcessingEvents.Insert event = new ProcessingEvents.Insert();
+        event.begin();
+        updateRawMessage(message, mimeMessage);
+        bandwidthLedger.check(BandwidthLedger.Direction.UPLOAD, getSizeInBytes(message));
+        newGmailId = insertSlimMessage(message).getId(); // 25 quota units
+        event.end();
+        if (event.shouldCommit()) {
+          event.gmailId = gmailId;
+          event.size = getSizeInBytes(message);
+          event.commit();
+        }
+        bandwidthLedger.record(BandwidthLedger.Direction.UPLOAD, getSizeInBytes(message));
+        Metrics.getInstance().recordUploaded(getSizeInBytes(message));
+        if (jobJournal != null) {
+          jobJournal.recordSlimInserted(gmailId, newGmailId);
+        }
+      } else {
+        newGmailId = jobJournal.getNewGmailId(gmailId);
+      }
+      Message newMessage = getMetadataForNewMessage(newGmailId); // 5 quota units
       Map<String, String> headerMap = getHeaderMap(newMessage);
       newUniqueId = headerMap.get("message-id");
-      if (processSettings.processOption.shouldDownload()) {
-        addLabel(newMessage.getId(), processSettings.processOption.getDownloadedLabelId());
+      if (isPending(lastStep, JobJournal.Step.LABELLED)) {
+        if (processOption.shouldDownload()) {
+          addLabel(newGmailId, processOption.getDownloadedLabelId());
+        }
+        addLabel(newGmailId, processOption.getRemovedLabelId());
+        addLabel(newGmailId, "STARRED");
+        record(jobJournal, gmailId, JobJournal.Step.LABELLED);
+      }
+      if (isPending(lastStep, JobJournal.Step.ORIGINAL_REMOVED)) {
+        ProcessingEvents.Trash event = new ProcessingEvents.Trash();
+        event.begin();
+        removeOriginalMessage(processOption.shouldDeleteOriginal(), gmailId); // 5-10 quota units
+        event.end();
+        if (event.shouldCommit()) {
+          event.gmailId = gmailId;
+          event.size = email.getSizeInBytes();
+          event.deleted = processOption.shouldDeleteOriginal();
+          event.commit();
+        }
+        record(jobJournal, gmailId, JobJournal.Step.ORIGINAL_REMOVED);
+      }
+    }
+    record(jobJournal, gmailId, JobJournal.Step.PROCESSED);
+    return new ProcessEmailResult(newUniqueId, EmailProcessor.getOriginalFilenames(savedAttachments));
+  }
+
+  // The size of the email itself, rather than of its base64 encoding.
+  private static long getSizeInBytes(Message message) {
+    return message.getRaw() == null ? 0 : message.getRaw().length() * 3L / 4;
+  }
+
+  // The size of the email in a request or a response, or 0 if there is none.
+  private static long getRawSizeInBytes(Object content) {
+    return content instanceof Message ? getSizeInBytes((Message) content) : 0;
+  }
+
+  private static boolean isPending(JobJournal.Step lastStep, JobJournal.Step step) {
+    return lastStep == null || lastStep.compareTo(step) < 0;
+  }
+
+  private static void record(JobJournal jobJournal, String gmailId, JobJournal.Step step) throws IOException {
+    if (jobJournal != null) {
+      jobJournal.record(gmailId, step);
+    }
+  }
+
+  private static <T> T execute(String endpoint, int quotaUnits, AbstractGoogleJsonClientRequest<T> request)
+      throws IOException {
+    return execute(endpoint, quotaUnits, null, 0, request);
+  }
+
+  // Times the call, and counts it with its quota units in the metrics and in the flight recording, if there is one.
+  private static <T> T execute(String endpoint, int quotaUnits, String gmailId, int retries,
+                               AbstractGoogleJsonClientRequest<T> request) throws IOException {
+    ProcessingEvents.GmailCall event = new ProcessingEvents.GmailCall();
+    event.begin();
+    long start = System.nanoTime();
+    boolean failed = true;
+    T response = null;
+    try {
+      response = request.execute();
+      failed = false;
+      event.status = request.getLastStatusCode();
+      return response;
+    } catch (HttpResponseException e) {
+      event.status = e.getStatusCode();
+      throw e;
+    } finally {
+      Metrics.getInstance().recordCall(endpoint, quotaUnits, System.nanoTime() - start, failed);
+      event.end();
+      if (event.shouldCommit()) {
+        event.endpoint = endpoint;
+        event.gmailId = gmailId;
+        event.requests = 1;
+        event.bytes = getRawSizeInBytes(request.getJsonContent()) + getRawSizeInBytes(response);
+        event.retries = retries;
+        event.commit();
+      }
+    }
+  }
+
+  private static void execute(BatchRequest batch, int quotaUnitsPerRequest) throws IOException {
+    // The batch is empty once it is executed.
+    int requests = batch.size();
+    int quotaUnits = quotaUnitsPerRequest * requests;
+    ProcessingEvents.GmailCall event = new ProcessingEvents.GmailCall();
+    event.begin();
+    long start = System.nanoTime();
+    boolean failed = true;
+    try {
+      batch.execute();
+      failed = false;
+      event.status = HttpStatusCodes.STATUS_CODE_OK;
+    } catch (HttpResponseException e) {
+      event.status = e.getStatusCode();
+      throw e;
+    } finally {
+      Metrics.getInstance().recordCall("batch", quotaUnits, System.nanoTime() - start, failed);
+      event.end();
+      if (event.shouldCommit()) {
+        event.endpoint = "batch";
+        event.requests = requests;
+        event.commit();
       }
-      addLabel(newMessage.getId(), processSettings.processOption.getRemovedLabelId());
-      addLabel(newMessage.getId(), "STARRED");
-      removeOriginalMessage(processSettings.processOption.shouldDeleteOriginal(), message.getId()); // 5-10 quota units
     }
-    return new ProcessEmailResult(newUniqueId, fileNames);
   }
 
   private Message getRawMessage(String emailId) throws IOException {
     // 1 messages.get == 5 quota units
     // download limit = 2500 MB / day / user
-    return service.users().messages().get(USER, emailId).setFormat("raw").execute();
+    return execute("messages.get", 5, emailId, 0, service.users().messages().get(USER, emailId).setFormat("raw"));
   }
 
-  private MimeMessage getMimeMessage(Message message) throws MessagingException, IOException {
+  static MimeMessage getMimeMessage(Session session, Message message) throws MessagingException, IOException {
     String rawBefore = message.getRaw();
     if (rawBefore == null) {
       throw new IOException("Unable to extract the contents of the email.");
     }
     byte[] emailBytes = decodeBase64(rawBefore);
-    try (InputStream is = new ByteArrayInputStream(emailBytes)) {
+    // A shared stream lets the message and all of its body parts reference the decoded bytes instead of copying them.
+    try (InputStream is = new SharedByteArrayInputStream(emailBytes)) {
       return new MimeMessage(session, is);
     }
   }
@@ -192,12 +435,14 @@ public class LiveModel implements Model {
     //noinspection ResultOfMethodCallIgnored
     processSettings.targetDirectory.mkdirs();
     String filename = email.getGmailId() + ".eml";
-    try (OutputStream os = new FileOutputStream(new File(processSettings.targetDirectory, filename))) {
+    File file = new File(processSettings.targetDirectory, filename);
+    try (OutputStream os = new FileOutputStream(file)) {
       mimeMessage.writeTo(os);
     }
+    Metrics.getInstance().recordWritten(file.length());
   }
 
-  private void updateRawMessage(Message message, MimeMessage mimeMessage) throws IOException, MessagingException {
+  static void updateRawMessage(Message message, MimeMessage mimeMessage) throws IOException, MessagingException {
     try (ByteArrayOutputStream buffer = new ByteArrayOutputStream()) {
       mimeMessage.writeTo(buffer);
       String raw = encodeBase64URLSafeString(buffer.toByteArray());
@@ -213,33 +458,47 @@ public class LiveModel implements Model {
     ModifyMessageRequest modifyMessageRequest = new ModifyMessageRequest();
     modifyMessageRequest.setAddLabelIds(Collections.singletonList(labelId));
     // 1 messages.modify == 5 quota units
-    service.users().messages().modify(USER, emailId, modifyMessageRequest).execute();
+    execute("messages.modify", 5, emailId, 0,
+        service.users().messages().modify(USER, emailId, modifyMessageRequest));
   }
 
   private Message insertSlimMessage(Message message) throws IOException {
     // 1 messages.insert == 25 quota units
     // upload limit = 500 MB / day / user
-    return service.users().messages().insert(USER, message).setInternalDateSource("dateHeader").execute();
+    return execute("messages.insert", 25,
+        service.users().messages().insert(USER, message).setInternalDateSource("dateHeader"));
   }
 
-  private Message getMetadataForNewMessage(Message newMessage) throws IOException {
+  private Message getMetadataForNewMessage(String newGmailId) throws IOException {
     // 1 messages.get == 5 quota units
-    return service.users().messages().get(LiveModel.USER, newMessage.getId()).setFields("id,payload/headers").execute();
+    return execute("messages.get", 5, newGmailId, 0,
+        service.users().messages().get(LiveModel.USER, newGmailId).setFields("id,payload/headers"));
   }
 
   private void removeOriginalMessage(boolean deleteOriginal, String emailId) throws IOException {
     if (deleteOriginal) {
       // 1 messages.delete == 10 quota units
-      service.users().messages().delete(USER, emailId).execute();
+      execute("messages.delete", 10, emailId, 0, service.users().messages().delete(USER, emailId));
     } else {
       // 1 messages.trash == 5 quota units
-      service.users().messages().trash(USER, emailId).execute();
+      execute("messages.trash", 5, emailId, 0, service.users().messages().trash(USER, emailId));
     }
   }
 
   @Override
-  public GetEmailMetadataTask getSearchTask(String query) throws IOException, InterruptedException {
-    List<String> emailIdsToProcess = getEmailIds(query).stream().map(Message::getId).collect(Collectors.toList());
+  public GetEmailMetadataTask getSearchTask(String query, CancellationToken cancellationToken)
+      throws IOException, InterruptedException {
+    List<String> emailIdsToProcess = getEmailIds(query, cancellationToken).stream().map(Message::getId).collect(Collectors.toList());
+
+    if (config.getLoadDetailsLazily()) {
+      // A single step, which only adds the IDs; the rest of the metadata is loaded afterwards.
+      return new GetEmailMetadataTask(emailIdsToProcess, Math.max(1, emailIdsToProcess.size()),
+          (startIndexInclusive, endIndexExclusive) -> {
+            emailIdsToProcess.forEach(emailStore::addUnloaded);
+            startEmailMetadataLoader();
+          }
+      );
+    }
 
     JsonBatchCallback<Message> perEmailCallback = new JsonBatchCallback<>() {
       @Override
@@ -259,11 +518,10 @@ public class LiveModel implements Model {
         long timestamp = message.getInternalDate();
         List<MessagePart> messageParts = message.getPayload().getParts();
         if (messageParts != null) { // Means, this is not a blank message
-          List<String> attachments = messageParts.stream()
-                  .map(MessagePart::getFilename).filter(StringUtils::isNotBlank).collect(Collectors.toList());
-          Email email = new Email(emailId, uniqueId, labelIds, from, to, subject, timestamp, message.getSizeEstimate(),
-                  attachments);
-          emails.add(email);
+          List<String> attachments = getAttachmentNames(messageParts);
+          Email email = emailStore.add(emailId, uniqueId, labelIds, from, to, subject, timestamp,
+              message.getSizeEstimate(), attachments);
+          email.setAttachmentSizeInBytes(getAttachmentSizeInBytes(messageParts));
         }
         else {
           LOGGER.log(Level.WARNING, "Skipping message as GMail returned no parts:\n" +
@@ -284,19 +542,138 @@ public class LiveModel implements Model {
           for (int emailIndex = startIndexInclusive; emailIndex < endIndexExclusive; ++emailIndex) {
             getEmailMetadata(service, emailIdsToProcess.get(emailIndex), batch, perEmailCallback);
           }
-          batch.execute();
+          execute(batch, 5);
         }
     );
   }
 
-  private List<Message> getEmailIds(String query) throws IOException, InterruptedException {
+  private void startEmailMetadataLoader() {
+    emailMetadataLoader = new EmailMetadataLoader(emailStore, this::loadEmailMetadata);
+    emailMetadataLoader.start();
+  }
+
+  @Override
+  public void exportResults(File file) throws IOException {
+    ResultsFile.write(emailStore, file.toPath());
+  }
+
+  @Override
+  public void startJob(List<Email> emails, ProcessSettings processSettings) throws IOException {
+    finishJob();
+    List<String> gmailIds = emails.stream().map(Email::getGmailId).collect(Collectors.toList());
+    jobJournal = JobJournal.start(JobJournal.getDefaultPath(getEmailAddress()), getEmailAddress(), processSettings, gmailIds);
+  }
+
+  @Override
+  public void finishJob() throws IOException {
+    if (jobJournal != null) {
+      jobJournal.finish();
+      jobJournal = null;
+    }
+  }
+
+  @Override
+  public JobJournal getInterruptedJob() throws IOException {
+    JobJournal interruptedJob = JobJournal.read(JobJournal.getDefaultPath(getEmailAddress()));
+    if (interruptedJob != null && !interruptedJob.getEmailAddress().equals(getEmailAddress())) {
+      LOGGER.info("Ignoring an interrupted job of " + interruptedJob.getEmailAddress() + ".");
+      return null;
+    }
+    return interruptedJob;
+  }
+
+  @Override
+  public List<Email> resumeJob(JobJournal interruptedJob) {
+    clearPreviousSearch();
+    List<Email> emails = new ArrayList<>();
+    for (String gmailId : interruptedJob.getPendingGmailIds()) {
+      Email email = emailStore.addUnloaded(gmailId);
+      email.setStatus(EmailStatus.TO_PROCESS);
+      emails.add(email);
+    }
+    jobJournal = interruptedJob;
+    return emails;
+  }
+
+  @Override
+  public void discardJob(JobJournal interruptedJob) throws IOException {
+    interruptedJob.delete();
+  }
+
+  @Override
+  public int importResults(File file) throws IOException {
+    clearPreviousSearch();
+    int numberOfEmails = ResultsFile.read(file.toPath(), emailStore);
+    if (!emailStore.isFullyLoaded()) {
+      startEmailMetadataLoader();
+    }
+    return numberOfEmails;
+  }
+
+  private void loadEmailMetadata(List<Email> emails) throws IOException {
+    BatchRequest batch = service.batch();
+    for (Email email : emails) {
+      getEmailMetadata(service, email.getGmailId(), batch, new JsonBatchCallback<>() {
+        @Override
+        public void onFailure(GoogleJsonError googleJsonError, HttpHeaders httpHeaders) {
+          LOGGER.log(Level.WARNING, "Failed to load the metadata of " + email.getGmailId() + ": " +
+              googleJsonError.getMessage());
+        }
+
+        @Override
+        public void onSuccess(Message message, HttpHeaders httpHeaders) {
+          loadEmailMetadata(email, message);
+        }
+      });
+    }
+    execute(batch, 5);
+  }
+
+  private void loadEmailMetadata(Email email) throws IOException {
+    // 1 messages.get == 5 quota units
+    Message message = execute("messages.get", 5, email.getGmailId(), 0,
+        service.users().messages().get(USER, email.getGmailId()).setFields(METADATA_FIELDS));
+    loadEmailMetadata(email, message);
+  }
+
+  private static void loadEmailMetadata(Email email, Message message) {
+    Map<String, String> headerMap = getHeaderMap(message);
+    List<MessagePart> messageParts = message.getPayload().getParts();
+    // Unlike an eager search, a lazy one already shows blank messages, so they are kept without attachments.
+    List<String> attachments = messageParts == null ? Collections.emptyList() : getAttachmentNames(messageParts);
+    email.load(headerMap.get("message-id"), message.getLabelIds(), headerMap.get("from"), headerMap.get("to"),
+        headerMap.get("subject"), message.getInternalDate(), message.getSizeEstimate(), attachments);
+    email.setAttachmentSizeInBytes(messageParts == null ? 0 : getAttachmentSizeInBytes(messageParts));
+  }
+
+  private static List<String> getAttachmentNames(List<MessagePart> messageParts) {
+    return messageParts.stream()
+        .map(MessagePart::getFilename).filter(StringUtils::isNotBlank).collect(Collectors.toList());
+  }
+
+  // The decoded size of the top-level attachments, or -1 if Gmail didn't report it.
+  private static int getAttachmentSizeInBytes(List<MessagePart> messageParts) {
+    int attachmentSizeInBytes = 0;
+    for (MessagePart messagePart : messageParts) {
+      if (StringUtils.isNotBlank(messagePart.getFilename())) {
+        if (messagePart.getBody() == null || messagePart.getBody().getSize() == null) {
+          return -1;
+        }
+        attachmentSizeInBytes += messagePart.getBody().getSize();
+      }
+    }
+    return attachmentSizeInBytes;
+  }
+
+  private List<Message> getEmailIds(String query, CancellationToken cancellationToken)
+      throws IOException, InterruptedException {
     List<Message> messages = new ArrayList<>();
     String pageToken = null;
     do {
       // 1 messages.list == 5 quota units
       Gmail.Users.Messages.List request = service.users().messages().list(USER).setFields("messages/id").setQ(query)
           .setMaxResults(100000L).setPageToken(pageToken);
-      ListMessagesResponse response = request.execute();
+      ListMessagesResponse response = execute("messages.list", 5, request);
       if (response == null) {
         break;
       }
@@ -306,15 +683,41 @@ public class LiveModel implements Model {
       }
       messages.addAll(responseMessages);
       pageToken = response.getNextPageToken();
-      Thread.sleep(25);
+      if (pageToken != null) {
+        cancellationToken.delay(25).join();
+      }
     } while (pageToken != null);
     return messages;
   }
 
+  private synchronized void prefetchIdToLabel() {
+    idToLabelPrefetch = LongTaskExecutor.submit(() -> fetchIdToLabel(0));
+  }
+
+  // The prefetched labels are only used once, since they can change later, e.g. when a label is created.
   @Override
   public SortedMap<String, String> getIdToLabel() throws IOException {
-    // 1 labels.get == 1 quota unit
-    ListLabelsResponse response = service.users().labels().list(USER).setFields("labels/id,labels/name").execute();
+    CompletableFuture<SortedMap<String, String>> prefetch;
+    synchronized (this) {
+      prefetch = idToLabelPrefetch;
+      idToLabelPrefetch = null;
+    }
+    if (prefetch != null) {
+      try {
+        return prefetch.join();
+      } catch (CompletionException e) {
+        LOGGER.log(Level.WARNING, "Failed to prefetch the labels. Retrying..", e);
+        Metrics.getInstance().recordRetry();
+        return fetchIdToLabel(1);
+      }
+    }
+    return fetchIdToLabel(0);
+  }
+
+  private SortedMap<String, String> fetchIdToLabel(int retries) throws IOException {
+    // 1 labels.list == 1 quota unit
+    ListLabelsResponse response = execute("labels.list", 1, null, retries,
+        service.users().labels().list(USER).setFields("labels/id,labels/name"));
     SortedMap<String, String> labelToId = new TreeMap<>();
     for (Label label : response.getLabels()) {
       labelToId.put(label.getId(), label.getName());
@@ -332,7 +735,11 @@ public class LiveModel implements Model {
     labelColor.setBackgroundColor("#ffffff");
     labelColor.setTextColor("#fb4c2f");
     labelIn.setColor(labelColor);
-    Label labelOut = service.users().labels().create(USER, labelIn).execute();
+    Label labelOut = execute("labels.create", 5, service.users().labels().create(USER, labelIn));
+    synchronized (this) {
+      // The prefetched labels don't include the new one.
+      idToLabelPrefetch = null;
+    }
     return labelOut.getId();
   }
 
@@ -344,11 +751,10 @@ public class LiveModel implements Model {
   private static void getEmailMetadata(Gmail service, String messageId, BatchRequest batch,
                                        JsonBatchCallback<Message> callback) throws IOException {
     // 1 messages.get == 5 quota units
-    String fields = "id,labelIds,internalDate,payload/parts/filename,payload/headers,sizeEstimate";
-    service.users().messages().get(LiveModel.USER, messageId).setFields(fields).queue(batch, callback);
+    service.users().messages().get(LiveModel.USER, messageId).setFields(METADATA_FIELDS).queue(batch, callback);
   }
 
-  private static Map<String, String> getHeaderMap(Message message) {
+  static Map<String, String> getHeaderMap(Message message) {
     List<MessagePartHeader> headers = message.getPayload().getHeaders();
     Map<String, String> headerMap = new HashMap<>(headers.size());
     for (MessagePartHeader header : headers) {
@@ -0,0 +1,104 @@
+package app.unattach.model;
+
+import app.unattach.controller.CancellationToken;
+
+import java.util.concurrent.CancellationException;
+import java.util.logging.Logger;
+
+// Admits emails for processing only while their estimated peak memory fits the heap, so that several large emails are
+// never held at once, and an email that can't fit at all is deferred rather than failing with an OutOfMemoryError,
+// which could also take down the rest of a long run. Most of the heap is shared between the emails being processed;
+// an email that needs more than that is processed on its own, once nothing else is reserved.
+class MemoryBudget {
+  private static final Logger LOGGER = Logger.getLogger(MemoryBudget.class.getName());
+  // The rest of the heap is left for the app itself, e.g. the email store and the UI.
+  private static final double SHARED_HEAP_FRACTION = 0.5;
+  private static final double EXCLUSIVE_HEAP_FRACTION = 0.9;
+  private static final long WAIT_MILLIS = 100;
+
+  private final long sharedBytes;
+  private final long exclusiveBytes;
+  private long reservedBytes;
+  private int reservations;
+  private boolean exclusive;
+
+  MemoryBudget(long maxMemory) {
+    sharedBytes = (long) (maxMemory * SHARED_HEAP_FRACTION);
+    exclusiveBytes = (long) (maxMemory * EXCLUSIVE_HEAP_FRACTION);
+  }
+
+  // The client library reads the base64 of the email as a JSON string, which takes about twice the encoded size
+  // (4/3 of the email) while it is parsed, then keeps it as a string next to the decoded email. Removing attachments
+  // also writes the slim email to a buffer, and encodes it to a string and to JSON again.
+  static long estimatePeakBytes(long sizeInBytes, ProcessOption processOption) {
+    long peakBytes = sizeInBytes * 7;
+    if (processOption.shouldRemove()) {
+      peakBytes += sizeInBytes * 5;
+    }
+    return peakBytes + Constants.BYTES_IN_MEGABYTE;
+  }
+
+  Reservation newReservation() {
+    return new Reservation();
+  }
+
+  synchronized long getReservedBytes() {
+    return reservedBytes;
+  }
+
+  private synchronized void acquire(long bytes, CancellationToken cancellationToken) throws MemoryBudgetException {
+    if (bytes > exclusiveBytes) {
+      throw new MemoryBudgetException(bytes, exclusiveBytes);
+    }
+    boolean needsExclusive = bytes > sharedBytes;
+    if (needsExclusive && reservations > 0) {
+      LOGGER.info("Waiting for the other emails to be processed, so that an email that needs " +
+          bytes / Constants.BYTES_IN_MEGABYTE + " MB of memory can be processed on its own.");
+    }
+    while (exclusive || (needsExclusive ? reservations > 0 : reservedBytes + bytes > sharedBytes)) {
+      cancellationToken.throwIfCancelled();
+      try {
+        wait(WAIT_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new CancellationException();
+      }
+    }
+    reservedBytes += bytes;
+    ++reservations;
+    exclusive = needsExclusive;
+  }
+
+  private synchronized void release(long bytes) {
+    reservedBytes -= bytes;
+    --reservations;
+    exclusive = false;
+    notifyAll();
+  }
+
+  // Holds the memory of one email from when it is about to be downloaded until it is processed.
+  class Reservation implements AutoCloseable {
+    private long bytes;
+    private boolean acquired;
+
+    private Reservation() {}
+
+    // Waits until the email fits, or throws a MemoryBudgetException if it never will.
+    void acquire(long bytes, CancellationToken cancellationToken) throws MemoryBudgetException {
+      if (acquired) {
+        throw new IllegalStateException("The memory is already reserved.");
+      }
+      MemoryBudget.this.acquire(bytes, cancellationToken);
+      this.bytes = bytes;
+      acquired = true;
+    }
+
+    @Override
+    public void close() {
+      if (acquired) {
+        acquired = false;
+        release(bytes);
+      }
+    }
+  }
+}
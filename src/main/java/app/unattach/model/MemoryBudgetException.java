@@ -0,0 +1,20 @@
+package app.unattach.model;
+
+import java.io.IOException;
+
+// Thrown before downloading an email that would need more memory than the heap has, so that it can be processed later
+// with a larger heap instead.
+public class MemoryBudgetException extends IOException {
+  private final long requiredBytes;
+
+  MemoryBudgetException(long requiredBytes, long availableBytes) {
+    super(String.format("The email needs about %d MB of memory, but at most %d MB is available. Increase the " +
+            "maximum heap size (e.g. -Xmx4g) to process it.", requiredBytes / Constants.BYTES_IN_MEGABYTE,
+        availableBytes / Constants.BYTES_IN_MEGABYTE));
+    this.requiredBytes = requiredBytes;
+  }
+
+  public long getRequiredBytes() {
+    return requiredBytes;
+  }
+}
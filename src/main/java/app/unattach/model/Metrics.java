@@ -0,0 +1,326 @@
+package app.unattach.model;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Live counters of the calls to Gmail and the processing of emails, published over JMX as unattach:type=Metrics,
+// with one unattach:type=Endpoint,name=<method> per Gmail API method, so that long runs can be watched with e.g.
+// JConsole or VisualVM. Rates are over the last minute.
+public class Metrics implements MetricsMBean {
+  private static final Logger LOGGER = Logger.getLogger(Metrics.class.getName());
+  private static final String DOMAIN = Constants.PRODUCT_NAME.toLowerCase();
+  private static final Metrics INSTANCE = new Metrics(System::currentTimeMillis, true);
+  private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+  public interface EndpointMBean {
+    long getCalls();
+    long getFailures();
+    double getAverageLatencyMillis();
+    double getMaxLatencyMillis();
+    void reset();
+  }
+
+  // Sums per second over a sliding window.
+  private static class Rate {
+    private final LongSupplier clock;
+    private final long[] seconds;
+    private final long[] sums;
+
+    private Rate(LongSupplier clock, int windowSeconds) {
+      this.clock = clock;
+      seconds = new long[windowSeconds];
+      sums = new long[windowSeconds];
+    }
+
+    private synchronized void add(long amount) {
+      long second = clock.getAsLong() / 1000;
+      int index = (int) (second % seconds.length);
+      if (seconds[index] != second) {
+        seconds[index] = second;
+        sums[index] = 0;
+      }
+      sums[index] += amount;
+    }
+
+    private synchronized long getSum() {
+      long second = clock.getAsLong() / 1000;
+      long sum = 0;
+      for (int i = 0; i < seconds.length; ++i) {
+        if (second - seconds[i] < seconds.length) {
+          sum += sums[i];
+        }
+      }
+      return sum;
+    }
+
+    private synchronized void reset() {
+      Arrays.fill(seconds, 0);
+      Arrays.fill(sums, 0);
+    }
+  }
+
+  private static class Endpoint implements EndpointMBean {
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder latencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    private void record(long nanos, boolean failed) {
+      calls.increment();
+      if (failed) {
+        failures.increment();
+      }
+      latencyNanos.add(nanos);
+      maxLatencyNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    @Override
+    public long getCalls() {
+      return calls.sum();
+    }
+
+    @Override
+    public long getFailures() {
+      return failures.sum();
+    }
+
+    @Override
+    public double getAverageLatencyMillis() {
+      long calls = this.calls.sum();
+      return calls == 0 ? 0 : latencyNanos.sum() / 1e6 / calls;
+    }
+
+    @Override
+    public double getMaxLatencyMillis() {
+      return maxLatencyNanos.get() / 1e6;
+    }
+
+    @Override
+    public void reset() {
+      calls.reset();
+      failures.reset();
+      latencyNanos.reset();
+      maxLatencyNanos.set(0);
+    }
+  }
+
+  private final boolean published;
+  private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+  private final LongAdder emailsProcessed = new LongAdder();
+  private final LongAdder emailsFailed = new LongAdder();
+  private final LongAdder emailsDeferred = new LongAdder();
+  private final Rate emailRate;
+  private final AtomicLong emailsInFlight = new AtomicLong();
+  private final AtomicLong emailsQueued = new AtomicLong();
+  private final LongAdder quotaUnits = new LongAdder();
+  private final Rate quotaUnitRate;
+  private final LongAdder bytesDownloaded = new LongAdder();
+  private final LongAdder bytesUploaded = new LongAdder();
+  private final LongAdder bytesWritten = new LongAdder();
+  private final LongAdder retries = new LongAdder();
+  private final AtomicLong maxBytesAllocatedPerEmail = new AtomicLong();
+
+  Metrics(LongSupplier clock, boolean published) {
+    this.published = published;
+    emailRate = new Rate(clock, 60);
+    quotaUnitRate = new Rate(clock, 60);
+    if (published) {
+      register("type=Metrics", new StandardMBean(this, MetricsMBean.class, false));
+    }
+  }
+
+  public static Metrics getInstance() {
+    return INSTANCE;
+  }
+
+  private void register(String properties, StandardMBean mBean) {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(DOMAIN + ":" + properties);
+      if (!server.isRegistered(name)) {
+        server.registerMBean(mBean, name);
+      }
+    } catch (JMException e) {
+      LOGGER.log(Level.WARNING, "Failed to publish the metrics " + properties + ".", e);
+    }
+  }
+
+  void recordCall(String endpointName, int quotaUnits, long nanos, boolean failed) {
+    Endpoint endpoint = endpoints.computeIfAbsent(endpointName, name -> {
+      Endpoint newEndpoint = new Endpoint();
+      if (published) {
+        register("type=Endpoint,name=" + ObjectName.quote(name),
+            new StandardMBean(newEndpoint, EndpointMBean.class, false));
+      }
+      return newEndpoint;
+    });
+    endpoint.record(nanos, failed);
+    this.quotaUnits.add(quotaUnits);
+    quotaUnitRate.add(quotaUnits);
+  }
+
+  void recordRetry() {
+    retries.increment();
+  }
+
+  void recordDownloaded(long bytes) {
+    bytesDownloaded.add(bytes);
+  }
+
+  void recordUploaded(long bytes) {
+    bytesUploaded.add(bytes);
+  }
+
+  void recordWritten(long bytes) {
+    bytesWritten.add(bytes);
+  }
+
+  // Returns the bytes allocated by the current thread so far, to be passed to recordEmailFinished on the same thread.
+  long recordEmailStarted() {
+    emailsInFlight.incrementAndGet();
+    return getAllocatedBytes();
+  }
+
+  // An email is processed on a single thread, so the bytes that the thread allocated in the meantime are what
+  // processing that email took, e.g. the raw email, its parsed form and the slim copy, regardless of the other emails
+  // that are processed at the same time.
+  void recordEmailFinished(long startAllocatedBytes, Throwable throwable) {
+    emailsInFlight.decrementAndGet();
+    if (throwable == null) {
+      emailsProcessed.increment();
+      emailRate.add(1);
+    } else if (throwable instanceof BandwidthBudgetException || throwable instanceof MemoryBudgetException) {
+      emailsDeferred.increment();
+    } else if (!(throwable instanceof CancellationException)) {
+      emailsFailed.increment();
+    }
+    long endAllocatedBytes = getAllocatedBytes();
+    if (startAllocatedBytes >= 0 && endAllocatedBytes >= 0) {
+      maxBytesAllocatedPerEmail.accumulateAndGet(endAllocatedBytes - startAllocatedBytes, Math::max);
+    }
+  }
+
+  // Returns -1 if the JVM doesn't count the bytes allocated per thread.
+  private static long getAllocatedBytes() {
+    if (THREAD_MX_BEAN instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) THREAD_MX_BEAN;
+      if (threadMXBean.isThreadAllocatedMemorySupported() && threadMXBean.isThreadAllocatedMemoryEnabled()) {
+        return threadMXBean.getCurrentThreadAllocatedBytes();
+      }
+    }
+    return -1;
+  }
+
+  public void setEmailsQueued(long emailsQueued) {
+    this.emailsQueued.set(emailsQueued);
+  }
+
+  EndpointMBean getEndpoint(String endpointName) {
+    return endpoints.get(endpointName);
+  }
+
+  @Override
+  public long getEmailsProcessed() {
+    return emailsProcessed.sum();
+  }
+
+  @Override
+  public long getEmailsFailed() {
+    return emailsFailed.sum();
+  }
+
+  @Override
+  public long getEmailsDeferred() {
+    return emailsDeferred.sum();
+  }
+
+  @Override
+  public double getEmailsPerMinute() {
+    return emailRate.getSum();
+  }
+
+  @Override
+  public long getEmailsInFlight() {
+    return emailsInFlight.get();
+  }
+
+  @Override
+  public long getEmailsQueued() {
+    return emailsQueued.get();
+  }
+
+  @Override
+  public long getQuotaUnits() {
+    return quotaUnits.sum();
+  }
+
+  @Override
+  public double getQuotaUnitsPerSecond() {
+    return quotaUnitRate.getSum() / (double) TimeUnit.MINUTES.toSeconds(1);
+  }
+
+  @Override
+  public long getBytesDownloaded() {
+    return bytesDownloaded.sum();
+  }
+
+  @Override
+  public long getBytesUploaded() {
+    return bytesUploaded.sum();
+  }
+
+  @Override
+  public long getBytesWritten() {
+    return bytesWritten.sum();
+  }
+
+  @Override
+  public long getCalls() {
+    return endpoints.values().stream().mapToLong(Endpoint::getCalls).sum();
+  }
+
+  @Override
+  public long getCallFailures() {
+    return endpoints.values().stream().mapToLong(Endpoint::getFailures).sum();
+  }
+
+  @Override
+  public long getRetries() {
+    return retries.sum();
+  }
+
+  @Override
+  public long getMaxBytesAllocatedPerEmail() {
+    return maxBytesAllocatedPerEmail.get();
+  }
+
+  @Override
+  public void reset() {
+    endpoints.values().forEach(Endpoint::reset);
+    emailsProcessed.reset();
+    emailsFailed.reset();
+    emailsDeferred.reset();
+    emailRate.reset();
+    quotaUnits.reset();
+    quotaUnitRate.reset();
+    bytesDownloaded.reset();
+    bytesUploaded.reset();
+    bytesWritten.reset();
+    retries.reset();
+    maxBytesAllocatedPerEmail.set(0);
+  }
+}
@@ -0,0 +1,21 @@
+package app.unattach.model;
+
+// The attributes and operations of Metrics that are published over JMX.
+public interface MetricsMBean {
+  long getEmailsProcessed();
+  long getEmailsFailed();
+  long getEmailsDeferred();
+  double getEmailsPerMinute();
+  long getEmailsInFlight();
+  long getEmailsQueued();
+  long getQuotaUnits();
+  double getQuotaUnitsPerSecond();
+  long getBytesDownloaded();
+  long getBytesUploaded();
+  long getBytesWritten();
+  long getCalls();
+  long getCallFailures();
+  long getRetries();
+  long getMaxBytesAllocatedPerEmail();
+  void reset();
+}
@@ -1,8 +1,13 @@
 package app.unattach.model;
 
+import app.unattach.controller.CancellationToken;
 import app.unattach.controller.LongTask;
 import org.apache.maven.artifact.versioning.DefaultArtifactVersion;
 
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import javax.mail.util.SharedByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.util.*;
 import java.util.logging.Logger;
@@ -10,13 +15,22 @@ import java.util.logging.Logger;
 public class MockModel implements Model {
   private static final Logger LOGGER = Logger.getLogger(MockModel.class.getName());
 
+  // Set e.g. -Dunattach.mock.emails=100000 to try out a large mailbox.
+  private static final String EMAILS_PROPERTY = "unattach.mock.emails";
+  private static final int SEARCH_BATCH_SIZE = 1000;
+
   private final Config config = new BaseConfig();
+  private final SyntheticMailbox mailbox = new SyntheticMailbox(1337, Integer.getInteger(EMAILS_PROPERTY, 100));
+  private final Session session = Session.getInstance(new Properties());
   private final Random random = new Random(1337);
-  private ArrayList<Email> emails = new ArrayList<>();
+  private final LabelDictionary labelDictionary = new LabelDictionary();
+  private EmailStore emailStore = new EmailStore(labelDictionary);
+  private final BandwidthLedger bandwidthLedger = new BandwidthLedger(null, System::currentTimeMillis);
+  private final Map<Scheduler.Owner, Scheduler> schedulers = new EnumMap<>(Scheduler.Owner.class);
 
   @Override
   public void clearPreviousSearch() {
-    emails = new ArrayList<>();
+    emailStore = new EmailStore(labelDictionary);
   }
 
   @Override
@@ -29,28 +43,17 @@ public class MockModel implements Model {
     return config;
   }
 
+  // The query is ignored: the whole mailbox is found.
   @Override
-  public GetEmailMetadataTask getSearchTask(String query) {
-    int minEmailSizeInMb = 1;
-    List<String> emailIds = new ArrayList<>();
-    emails = new ArrayList<>();
-    int minEmailSizeInBytes = minEmailSizeInMb * (int) Math.pow(2, 20);
-    int maxEmailId = 15;
-    for (int i = minEmailSizeInBytes / 1000 / 1000; i < maxEmailId; ++i) {
-      String emailId = String.valueOf(i);
-      emailIds.add(emailId);
+  public GetEmailMetadataTask getSearchTask(String query, CancellationToken cancellationToken) {
+    emailStore = new EmailStore(labelDictionary);
+    List<String> emailIds = new ArrayList<>(mailbox.size());
+    for (int i = 0; i < mailbox.size(); ++i) {
+      emailIds.add(SyntheticMailbox.getGmailId(i));
     }
-    return new GetEmailMetadataTask(emailIds, (startIndexInclusive, endIndexExclusive) -> {
-      for (int i = minEmailSizeInBytes / 1000 / 1000; i < maxEmailId; ++i) {
-        if (startIndexInclusive <= i && i < endIndexExclusive) {
-          String emailId = String.valueOf(i);
-          emails.add(new Email(emailId, emailId, Arrays.asList("INBOX", "IMPORTANT"),
-              "john.doe@example.com", "jane.doe@example.com",
-              "Subject " + i, System.currentTimeMillis(),
-              i * (int) Math.pow(2, 20), Collections.singletonList("data.zip")));
-        }
-      }
-    });
+    EmailStore emailStore = this.emailStore;
+    return new GetEmailMetadataTask(emailIds, SEARCH_BATCH_SIZE,
+        (startIndexInclusive, endIndexExclusive) -> mailbox.addTo(emailStore, startIndexInclusive, endIndexExclusive));
   }
 
   @Override
@@ -60,7 +63,12 @@ public class MockModel implements Model {
 
   @Override
   public List<Email> getEmails() {
-    return emails;
+    return emailStore.getEmails();
+  }
+
+  @Override
+  public EmailStore getEmailStore() {
+    return emailStore;
   }
 
   @Override
@@ -72,22 +80,80 @@ public class MockModel implements Model {
     return idToLabel;
   }
 
+  // The real processing of the generated email, parsed from its bytes as LiveModel does, but without any uploads.
+  // Emails are deferred as LiveModel defers them once the bandwidth ledger is spent.
   @Override
   public LongTask<ProcessEmailResult> getProcessTask(Email email, ProcessSettings processSettings) {
-    return new ProcessEmailTask(email, e -> {
-      if (random.nextBoolean()) {
-        return new ProcessEmailResult("mock-new-unique-id", Collections.singleton(e.getGmailId()));
-      } else {
-        throw new IOException("Something went wrong.");
+    return new ProcessEmailTask(email, (e, cancellationToken) -> {
+      cancellationToken.throwIfCancelled();
+      if (processSettings.processOption.shouldRemove() && !e.getAttachmentNames().isEmpty()) {
+        bandwidthLedger.checkNotSpent(BandwidthLedger.Direction.UPLOAD);
+        bandwidthLedger.check(BandwidthLedger.Direction.UPLOAD, ProcessingOrder.getUploadBytes(e));
       }
+      bandwidthLedger.check(BandwidthLedger.Direction.DOWNLOAD, e.getSizeInBytes());
+      byte[] raw = mailbox.getRaw(SyntheticMailbox.getIndex(e.getGmailId()));
+      bandwidthLedger.record(BandwidthLedger.Direction.DOWNLOAD, raw.length);
+      MimeMessage mimeMessage = new MimeMessage(session, new SharedByteArrayInputStream(raw));
+      List<SavedAttachment> savedAttachments = EmailProcessor.process(e, mimeMessage, processSettings, null);
+      boolean removed = processSettings.processOption.shouldRemove() && !savedAttachments.isEmpty();
+      return new ProcessEmailResult(removed ? mimeMessage.getMessageID() : null,
+          EmailProcessor.getOriginalFilenames(savedAttachments));
     });
   }
 
+  @Override
+  public void requestEmailMetadata(Email email) {}
+
+  @Override
+  public BandwidthLedger getBandwidthLedger() {
+    return bandwidthLedger;
+  }
+
+  @Override
+  public synchronized Scheduler getScheduler(Scheduler.Owner owner) {
+    return schedulers.computeIfAbsent(owner, key -> new Scheduler(null, System::currentTimeMillis, random));
+  }
+
+  @Override
+  public void startJob(List<Email> emails, ProcessSettings processSettings) {}
+
+  @Override
+  public void finishJob() {}
+
+  @Override
+  public JobJournal getInterruptedJob() {
+    return null;
+  }
+
+  @Override
+  public List<Email> resumeJob(JobJournal interruptedJob) {
+    return Collections.emptyList();
+  }
+
+  @Override
+  public void discardJob(JobJournal interruptedJob) {}
+
+  @Override
+  public void exportResults(File file) throws IOException {
+    ResultsFile.write(emailStore, file.toPath());
+  }
+
+  @Override
+  public int importResults(File file) throws IOException {
+    clearPreviousSearch();
+    return ResultsFile.read(file.toPath(), emailStore);
+  }
+
   @Override
   public DefaultArtifactVersion getLatestVersion() {
     return new DefaultArtifactVersion(Constants.VERSION);
   }
 
+  @Override
+  public boolean isSignedIn() {
+    return true;
+  }
+
   @Override
   public void signIn() {
     LOGGER.info("signIn");
@@ -1,8 +1,10 @@
 package app.unattach.model;
 
+import app.unattach.controller.CancellationToken;
 import app.unattach.controller.LongTask;
 import org.apache.maven.artifact.versioning.DefaultArtifactVersion;
 
+import java.io.File;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
 import java.util.List;
@@ -10,16 +12,28 @@ import java.util.SortedMap;
 
 public interface Model {
   void clearPreviousSearch();
+  BandwidthLedger getBandwidthLedger() throws IOException;
   String createLabel(String name) throws IOException;
   Config getConfig();
-  GetEmailMetadataTask getSearchTask(String query) throws IOException, InterruptedException;
+  void discardJob(JobJournal interruptedJob) throws IOException;
+  void exportResults(File file) throws IOException;
+  void finishJob() throws IOException;
+  GetEmailMetadataTask getSearchTask(String query, CancellationToken cancellationToken) throws IOException, InterruptedException;
   String getEmailAddress() throws IOException;
   SortedMap<String, String> getIdToLabel() throws IOException;
+  JobJournal getInterruptedJob() throws IOException;
+  int importResults(File file) throws IOException;
+  boolean isSignedIn();
   List<Email> getEmails();
+  EmailStore getEmailStore();
   LongTask<ProcessEmailResult> getProcessTask(Email email, ProcessSettings processSettings);
+  void requestEmailMetadata(Email email);
+  List<Email> resumeJob(JobJournal interruptedJob);
+  Scheduler getScheduler(Scheduler.Owner owner);
   DefaultArtifactVersion getLatestVersion() throws IOException, InterruptedException;
   void signIn() throws IOException, GeneralSecurityException;
   void signOut() throws IOException;
+  void startJob(List<Email> emails, ProcessSettings processSettings) throws IOException;
   void sendToServer(String contentDescription, String userEmail, String stackTraceText, String userText)
       throws IOException, InterruptedException;
   void subscribe(String emailAddress) throws IOException, InterruptedException;
@@ -1,10 +1,13 @@
 package app.unattach.model;
 
+import app.unattach.controller.CancellationToken;
 import app.unattach.controller.LongTask;
-import app.unattach.controller.LongTaskException;
+import app.unattach.controller.LongTaskExecutor;
+
+import java.util.concurrent.CompletableFuture;
 
 interface EmailProcessorFunctor {
-  ProcessEmailResult processEmail(Email email) throws Exception;
+  ProcessEmailResult processEmail(Email email, CancellationToken cancellationToken) throws Exception;
 }
 
 class ProcessEmailTask implements LongTask<ProcessEmailResult> {
@@ -27,16 +30,16 @@ class ProcessEmailTask implements LongTask<ProcessEmailResult> {
   }
 
   @Override
-  public ProcessEmailResult takeStep() throws LongTaskException {
-    try {
-      ProcessEmailResult result = processEmailFunction.processEmail(email);
+  public CompletableFuture<ProcessEmailResult> takeStep(CancellationToken cancellationToken) {
+    return LongTaskExecutor.submit(() -> {
+      ProcessEmailResult result = processEmailFunction.processEmail(email, cancellationToken);
       email.setStatus(EmailStatus.PROCESSED);
-      // Given the 250 quota units / user / second limit, and where each request uses
-      // around 40, sleeping for 160ms is minimal, but better to sleep for longer.
-      Thread.sleep(1000);
       return result;
-    } catch (Throwable t) {
-      throw new LongTaskException(t);
-    }
+    }).thenCompose(result -> {
+      // Given the 250 quota units / user / second limit, and where each request uses
+      // around 40, waiting for 160ms is minimal, but better to wait for longer.
+      // The email is already processed, so the result is kept even if the wait is cancelled.
+      return cancellationToken.delay(1000).handle((v, t) -> result);
+    });
   }
 }
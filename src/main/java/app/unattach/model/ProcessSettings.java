@@ -6,17 +6,30 @@ public class ProcessSettings {
   final ProcessOption processOption;
   final File targetDirectory;
   final String filenameSchema;
+  final DirectoryLayout directoryLayout;
   final boolean addMetadata;
+  final FilenameReservations filenameReservations;
+  private FilenameFactory filenameFactory;
 
   public ProcessSettings(ProcessOption processOption, File targetDirectory, String filenameSchema,
-                         boolean addMetadata) {
+                         DirectoryLayout directoryLayout, boolean addMetadata) {
     this.processOption = processOption;
     this.targetDirectory = targetDirectory;
     this.filenameSchema = filenameSchema;
+    this.directoryLayout = directoryLayout;
     this.addMetadata = addMetadata;
+    filenameReservations = new FilenameReservations(targetDirectory.toPath().toAbsolutePath());
   }
 
   public ProcessOption getProcessOption() {
     return processOption;
   }
+
+  // The schema is compiled on first use, so that an invalid schema fails the processing of each email as before.
+  synchronized FilenameFactory getFilenameFactory() {
+    if (filenameFactory == null) {
+      filenameFactory = new FilenameFactory(filenameSchema);
+    }
+    return filenameFactory;
+  }
 }
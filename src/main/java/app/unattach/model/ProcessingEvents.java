@@ -0,0 +1,100 @@
+package app.unattach.model;
+
+import jdk.jfr.*;
+
+// Java Flight Recorder events for each phase of searching and processing emails, so that a recording of a slow run
+// shows which phase, and which emails, took the time. They cost next to nothing while no recording is running, e.g.
+//   java -XX:StartFlightRecording=filename=unattach.jfr ...
+final class ProcessingEvents {
+  private static final String CATEGORY = Constants.PRODUCT_NAME;
+
+  private ProcessingEvents() {}
+
+  @Name("app.unattach.GmailCall")
+  @Label("Gmail Call")
+  @Description("A call to the Gmail API, or a batch of them.")
+  @Category({CATEGORY, "Gmail"})
+  static class GmailCall extends Event {
+    @Label("Endpoint")
+    String endpoint;
+
+    @Label("Gmail ID")
+    String gmailId;
+
+    @Label("Requests")
+    int requests;
+
+    @Label("Bytes")
+    @Description("The size of the email that was downloaded or uploaded, if any.")
+    @DataAmount
+    long bytes;
+
+    @Label("Status")
+    @Description("The HTTP status, or 0 if there was no response.")
+    int status;
+
+    @Label("Retries")
+    int retries;
+  }
+
+  @Name("app.unattach.MetadataBatch")
+  @Label("Metadata Batch")
+  @Description("One step of a search, which loads the metadata of a batch of emails.")
+  @Category({CATEGORY, "Search"})
+  static class MetadataBatch extends Event {
+    @Label("Batch Number")
+    int batchNumber;
+
+    @Label("Emails")
+    int emails;
+
+    @Label("First Gmail ID")
+    String gmailId;
+  }
+
+  @Category({CATEGORY, "Processing"})
+  abstract static class EmailEvent extends Event {
+    @Label("Gmail ID")
+    String gmailId;
+
+    @Label("Size")
+    @DataAmount
+    long size;
+  }
+
+  @Name("app.unattach.MimeParse")
+  @Label("MIME Parse")
+  @Description("Decoding and parsing a downloaded email.")
+  @Category({CATEGORY, "Processing"})
+  static class MimeParse extends EmailEvent {}
+
+  @Name("app.unattach.AttachmentWrite")
+  @Label("Attachment Write")
+  @Description("Saving an attachment to disk.")
+  @Category({CATEGORY, "Processing"})
+  static class AttachmentWrite extends EmailEvent {
+    @Label("File Name")
+    String filename;
+  }
+
+  @Name("app.unattach.HtmlRewrite")
+  @Label("HTML Rewrite")
+  @Description("Adding the links to the removed attachments to the HTML of an email.")
+  @Category({CATEGORY, "Processing"})
+  static class HtmlRewrite extends EmailEvent {}
+
+  @Name("app.unattach.Insert")
+  @Label("Insert")
+  @Description("Encoding and uploading the email without its attachments.")
+  @Category({CATEGORY, "Processing"})
+  static class Insert extends EmailEvent {}
+
+  @Name("app.unattach.Trash")
+  @Label("Trash")
+  @Description("Moving the original email to the trash, or deleting it.")
+  @Category({CATEGORY, "Processing"})
+  static class Trash extends EmailEvent {
+    @Label("Deleted")
+    boolean deleted;
+  }
+}
@@ -0,0 +1,89 @@
+package app.unattach.model;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+// The order in which the selected emails are processed. When the daily limits don't allow processing all of them,
+// the order decides how much mailbox space is freed by the emails that do get processed.
+public enum ProcessingOrder {
+  TABLE("in table order"),
+  LARGEST_FIRST("largest attachments first"),
+  BEST_RATIO_WITHIN_UPLOAD_LIMIT("most space freed per uploaded MB, within the upload limit");
+
+  private static final Comparator<Email> MOST_RECLAIMABLE_FIRST =
+      Comparator.comparingLong(ProcessingOrder::getReclaimableBytes).reversed();
+
+  private final String caption;
+
+  ProcessingOrder(String caption) {
+    this.caption = caption;
+  }
+
+  public List<Email> sort(List<Email> emails, ProcessOption processOption, long remainingUploadBytes) {
+    List<Email> sortedEmails = new ArrayList<>(emails);
+    switch (this) {
+      case TABLE -> {}
+      case LARGEST_FIRST -> sortedEmails.sort(MOST_RECLAIMABLE_FIRST);
+      case BEST_RATIO_WITHIN_UPLOAD_LIMIT -> {
+        if (!processOption.shouldRemove()) {
+          // Nothing is uploaded, so every email has the same (infinite) ratio.
+          sortedEmails.sort(MOST_RECLAIMABLE_FIRST);
+        } else {
+          return sortByRatioWithinUploadLimit(sortedEmails, remainingUploadBytes);
+        }
+      }
+    }
+    return sortedEmails;
+  }
+
+  // Greedily picks the emails with the most reclaimed bytes per uploaded byte while they fit the remaining upload
+  // limit. The others follow in the same order, to be processed (or deferred) once the limit allows.
+  private static List<Email> sortByRatioWithinUploadLimit(List<Email> emails, long remainingUploadBytes) {
+    emails.sort(Comparator.comparingDouble(ProcessingOrder::getReclaimedBytesPerUploadedByte).reversed()
+        .thenComparing(MOST_RECLAIMABLE_FIRST));
+    List<Email> fitting = new ArrayList<>(emails.size());
+    List<Email> remaining = new ArrayList<>();
+    for (Email email : emails) {
+      long uploadBytes = getUploadBytes(email);
+      if (uploadBytes <= remainingUploadBytes) {
+        fitting.add(email);
+        remainingUploadBytes -= uploadBytes;
+      } else {
+        remaining.add(email);
+      }
+    }
+    fitting.addAll(remaining);
+    return fitting;
+  }
+
+  // Attachments are base64-encoded in the email, which takes 4 bytes for every 3. Emails that aren't loaded yet
+  // count as having nothing to reclaim, and emails whose attachment sizes are unknown as consisting of them.
+  static long getReclaimableBytes(Email email) {
+    if (!email.isLoaded() || email.getAttachmentNames().isEmpty()) {
+      return 0;
+    }
+    int attachmentSizeInBytes = email.getAttachmentSizeInBytes();
+    if (attachmentSizeInBytes == -1) {
+      return email.getSizeInBytes();
+    }
+    return Math.min(email.getSizeInBytes(), attachmentSizeInBytes * 4L / 3);
+  }
+
+  // The size of the slim email which replaces the original, or 0 if there is nothing to remove.
+  static long getUploadBytes(Email email) {
+    long reclaimableBytes = getReclaimableBytes(email);
+    return reclaimableBytes == 0 ? 0 : email.getSizeInBytes() - reclaimableBytes;
+  }
+
+  private static double getReclaimedBytesPerUploadedByte(Email email) {
+    long reclaimableBytes = getReclaimableBytes(email);
+    // Each insert also has a fixed cost in quota units, so an empty slim email still counts as one byte.
+    return (double) reclaimableBytes / Math.max(1, getUploadBytes(email));
+  }
+
+  @Override
+  public String toString() {
+    return caption;
+  }
+}
@@ -0,0 +1,131 @@
+package app.unattach.model;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.security.InvalidParameterException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+
+// A filter over search results, e.g. "from:example.com subject:invoice size>5 size<20 after:2020-01-01
+// before:2021-01-01 label:work ext:pdf". All terms must match. Sizes are in MB, dates are in the local time zone, and
+// words without a prefix match the sender or the subject. Values with spaces can be quoted.
+public class ResultFilter {
+  public static final ResultFilter EMPTY = new ResultFilter();
+
+  final List<String> senders = new ArrayList<>();
+  final List<String> recipients = new ArrayList<>();
+  final List<String> subjects = new ArrayList<>();
+  final List<String> words = new ArrayList<>();
+  final List<Collection<String>> labelIds = new ArrayList<>();
+  final List<String> extensions = new ArrayList<>();
+  long minSizeInBytesExclusive = -1;
+  long maxSizeInBytesExclusive = Long.MAX_VALUE;
+  long minTimestamp = Long.MIN_VALUE;
+  long maxTimestampExclusive = Long.MAX_VALUE;
+
+  private ResultFilter() {}
+
+  // Labels can be given by their ID or by their name.
+  public static ResultFilter parse(String query, Map<String, String> idToLabel) {
+    ResultFilter filter = new ResultFilter();
+    for (String term : tokenize(query)) {
+      filter.addTerm(term, idToLabel);
+    }
+    return filter;
+  }
+
+  private static List<String> tokenize(String query) {
+    List<String> terms = new ArrayList<>();
+    StringBuilder term = new StringBuilder();
+    boolean quoted = false;
+    for (int i = 0; i < query.length(); ++i) {
+      char c = query.charAt(i);
+      if (c == '"') {
+        quoted = !quoted;
+      } else if (Character.isWhitespace(c) && !quoted) {
+        if (term.length() > 0) {
+          terms.add(term.toString());
+          term.setLength(0);
+        }
+      } else {
+        term.append(c);
+      }
+    }
+    if (term.length() > 0) {
+      terms.add(term.toString());
+    }
+    return terms;
+  }
+
+  private void addTerm(String term, Map<String, String> idToLabel) {
+    if (StringUtils.startsWithIgnoreCase(term, "from:")) {
+      senders.add(getValue(term, "from:"));
+    } else if (StringUtils.startsWithIgnoreCase(term, "to:")) {
+      recipients.add(getValue(term, "to:"));
+    } else if (StringUtils.startsWithIgnoreCase(term, "subject:")) {
+      subjects.add(getValue(term, "subject:"));
+    } else if (StringUtils.startsWithIgnoreCase(term, "label:")) {
+      labelIds.add(getLabelIds(getValue(term, "label:"), idToLabel));
+    } else if (StringUtils.startsWithIgnoreCase(term, "ext:")) {
+      extensions.add("." + StringUtils.removeStart(getValue(term, "ext:"), "."));
+    } else if (StringUtils.startsWithIgnoreCase(term, "size>")) {
+      minSizeInBytesExclusive = Math.max(minSizeInBytesExclusive, getSizeInBytes(term, "size>"));
+    } else if (StringUtils.startsWithIgnoreCase(term, "size<")) {
+      maxSizeInBytesExclusive = Math.min(maxSizeInBytesExclusive, getSizeInBytes(term, "size<"));
+    } else if (StringUtils.startsWithIgnoreCase(term, "after:")) {
+      minTimestamp = Math.max(minTimestamp, getTimestamp(term, "after:"));
+    } else if (StringUtils.startsWithIgnoreCase(term, "before:")) {
+      maxTimestampExclusive = Math.min(maxTimestampExclusive, getTimestamp(term, "before:"));
+    } else {
+      words.add(term);
+    }
+  }
+
+  private static String getValue(String term, String prefix) {
+    String value = term.substring(prefix.length());
+    if (value.isEmpty()) {
+      throw invalidTerm(term);
+    }
+    return value;
+  }
+
+  private static Collection<String> getLabelIds(String label, Map<String, String> idToLabel) {
+    Set<String> labelIds = new HashSet<>();
+    labelIds.add(label);
+    idToLabel.forEach((id, name) -> {
+      if (id.equalsIgnoreCase(label) || name.equalsIgnoreCase(label)) {
+        labelIds.add(id);
+      }
+    });
+    return labelIds;
+  }
+
+  private static long getSizeInBytes(String term, String prefix) {
+    try {
+      return (long) (Double.parseDouble(getValue(term, prefix)) * Constants.BYTES_IN_MEGABYTE);
+    } catch (NumberFormatException e) {
+      throw invalidTerm(term);
+    }
+  }
+
+  private static long getTimestamp(String term, String prefix) {
+    try {
+      LocalDate date = LocalDate.parse(getValue(term, prefix));
+      return date.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    } catch (DateTimeParseException e) {
+      throw invalidTerm(term);
+    }
+  }
+
+  private static InvalidParameterException invalidTerm(String term) {
+    return new InvalidParameterException("The filter contains an invalid term: " + term);
+  }
+
+  public boolean isEmpty() {
+    return senders.isEmpty() && recipients.isEmpty() && subjects.isEmpty() && words.isEmpty() && labelIds.isEmpty() &&
+        extensions.isEmpty() && minSizeInBytesExclusive == -1 && maxSizeInBytesExclusive == Long.MAX_VALUE &&
+        minTimestamp == Long.MIN_VALUE && maxTimestampExclusive == Long.MAX_VALUE;
+  }
+}
@@ -0,0 +1,101 @@
+package app.unattach.model;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+// Search results in the JSON Lines format: one JSON object per email, which is written or read one line at a time,
+// so that the memory use doesn't depend on the number of emails. Emails whose metadata was not loaded yet only have
+// their Gmail ID, status and note.
+public class ResultsFile {
+  private ResultsFile() {}
+
+  public static void write(EmailStore emailStore, Path path) throws IOException {
+    try (BufferedWriter writer = Files.newBufferedWriter(path, UTF_8)) {
+      for (Email email : emailStore.getEmails()) {
+        toJson(email).write(writer);
+        writer.newLine();
+      }
+    }
+  }
+
+  private static JSONObject toJson(Email email) {
+    JSONObject json = new JSONObject().put("gmailId", email.getGmailId());
+    if (email.isLoaded()) {
+      json.put("uniqueId", email.getUniqueId())
+          .put("labelIds", new JSONArray(email.getLabelIds()))
+          .put("from", email.getFrom())
+          .put("to", email.getTo())
+          .put("subject", email.getSubject())
+          .put("timestamp", email.getTimestamp())
+          .put("sizeInBytes", email.getSizeInBytes())
+          .put("attachments", new JSONArray(email.getAttachmentNames()));
+      if (email.getAttachmentSizeInBytes() != -1) {
+        json.put("attachmentSizeInBytes", email.getAttachmentSizeInBytes());
+      }
+    }
+    json.put("status", email.getStatus().name());
+    if (!email.getNote().isEmpty()) {
+      json.put("note", email.getNote());
+    }
+    return json;
+  }
+
+  // Adds the emails in the file to the store, and returns their number.
+  public static int read(Path path, EmailStore emailStore) throws IOException {
+    int numberOfEmails = 0;
+    try (BufferedReader reader = Files.newBufferedReader(path, UTF_8)) {
+      int lineNumber = 0;
+      String line;
+      while ((line = reader.readLine()) != null) {
+        ++lineNumber;
+        if (line.isBlank()) {
+          continue;
+        }
+        try {
+          addEmail(emailStore, new JSONObject(line));
+        } catch (JSONException | IllegalArgumentException e) {
+          throw new IOException("Invalid email on line " + lineNumber + " of " + path + ": " + e.getMessage(), e);
+        }
+        ++numberOfEmails;
+      }
+    }
+    return numberOfEmails;
+  }
+
+  private static void addEmail(EmailStore emailStore, JSONObject json) {
+    String gmailId = json.getString("gmailId");
+    Email email;
+    if (json.has("timestamp")) {
+      email = emailStore.add(gmailId, json.optString("uniqueId", null), getStrings(json, "labelIds"),
+          json.optString("from", null), json.optString("to", null), json.optString("subject", null),
+          json.getLong("timestamp"), json.getInt("sizeInBytes"), getStrings(json, "attachments"));
+      email.setAttachmentSizeInBytes(json.optInt("attachmentSizeInBytes", -1));
+    } else {
+      email = emailStore.addUnloaded(gmailId);
+    }
+    email.setStatus(EmailStatus.valueOf(json.getString("status")));
+    email.setNote(json.optString("note", null));
+  }
+
+  private static List<String> getStrings(JSONObject json, String key) {
+    JSONArray array = json.optJSONArray(key);
+    List<String> strings = new ArrayList<>(array == null ? 0 : array.length());
+    if (array != null) {
+      for (int i = 0; i < array.length(); ++i) {
+        strings.add(array.getString(i));
+      }
+    }
+    return strings;
+  }
+}
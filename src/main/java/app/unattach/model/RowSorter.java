@@ -0,0 +1,43 @@
+package app.unattach.model;
+
+import java.util.function.IntBinaryOperator;
+
+// A stable merge sort of row indices, which avoids boxing every row into an Integer. Being stable, sorting by several
+// columns is done by sorting by each of them, starting with the least significant one.
+class RowSorter {
+  private static final int INSERTION_SORT_THRESHOLD = 16;
+
+  private RowSorter() {}
+
+  static void sort(int[] rows, IntBinaryOperator comparator) {
+    sort(rows, rows.clone(), 0, rows.length, comparator);
+  }
+
+  // Sorts rows[from, to), using buffer (which holds the same values in that range) as scratch space.
+  private static void sort(int[] rows, int[] buffer, int from, int to, IntBinaryOperator comparator) {
+    if (to - from <= INSERTION_SORT_THRESHOLD) {
+      for (int i = from + 1; i < to; ++i) {
+        int row = rows[i];
+        int j = i - 1;
+        while (j >= from && comparator.applyAsInt(rows[j], row) > 0) {
+          rows[j + 1] = rows[j];
+          --j;
+        }
+        rows[j + 1] = row;
+      }
+      return;
+    }
+    int middle = (from + to) >>> 1;
+    sort(buffer, rows, from, middle, comparator);
+    sort(buffer, rows, middle, to, comparator);
+    int left = from;
+    int right = middle;
+    for (int i = from; i < to; ++i) {
+      if (right >= to || (left < middle && comparator.applyAsInt(buffer[left], buffer[right]) <= 0)) {
+        rows[i] = buffer[left++];
+      } else {
+        rows[i] = buffer[right++];
+      }
+    }
+  }
+}
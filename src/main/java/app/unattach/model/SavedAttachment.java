@@ -0,0 +1,37 @@
+package app.unattach.model;
+
+import java.util.Objects;
+
+// An attachment that was saved, or would have been, by the file name in the email and the one on disk. Emails can
+// have several attachments with the same name, so attachments are identified by their position in the email.
+final class SavedAttachment {
+  final String originalFilename;
+  final String normalizedFilename;
+
+  SavedAttachment(String originalFilename, String normalizedFilename) {
+    this.originalFilename = originalFilename;
+    this.normalizedFilename = normalizedFilename;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    SavedAttachment that = (SavedAttachment) o;
+    return originalFilename.equals(that.originalFilename) && normalizedFilename.equals(that.normalizedFilename);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(originalFilename, normalizedFilename);
+  }
+
+  @Override
+  public String toString() {
+    return originalFilename + " -> " + normalizedFilename;
+  }
+}
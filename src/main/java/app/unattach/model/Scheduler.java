@@ -0,0 +1,306 @@
+package app.unattach.model;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.function.LongSupplier;
+import java.util.function.LongUnaryOperator;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+// Runs a job repeatedly, e.g. a search and the processing of its results, independently of any window. The time of
+// the next run is compared with the wall clock at least once a minute, so that a run that was missed while the
+// computer was asleep is caught up once after it wakes up, rather than drifting or being repeated. A run is skipped if
+// the previous one is still going. The trigger, the job and the next run are kept on disk, so that restarting doesn't
+// restart the period, and the schedule can be started again after the app was closed.
+public class Scheduler {
+  private static final Logger LOGGER = Logger.getLogger(Scheduler.class.getName());
+  private static final long MAX_CHECK_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+  private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "scheduler");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  // Whoever runs the schedule. Each keeps its own schedule on disk, so that e.g. stopping the schedule of the desktop
+  // app doesn't delete the one of a command-line daemon.
+  public enum Owner {
+    DESKTOP("desktop"),
+    COMMAND_LINE("cli");
+
+    private final String name;
+
+    Owner(String name) {
+      this.name = name;
+    }
+  }
+
+  // When the next run is due, given the time of the current one.
+  public static final class Trigger {
+    private final String spec;
+    private final LongUnaryOperator nextRunMillis;
+
+    private Trigger(String spec, LongUnaryOperator nextRunMillis) {
+      this.spec = spec;
+      this.nextRunMillis = nextRunMillis;
+    }
+
+    public static Trigger every(long periodMillis) {
+      return new Trigger("every " + periodMillis + " ms", nowMillis -> nowMillis + periodMillis);
+    }
+
+    public static Trigger dailyAt(LocalTime time) {
+      return new Trigger("daily at " + time, nowMillis -> {
+        ZonedDateTime now = Instant.ofEpochMilli(nowMillis).atZone(ZoneId.systemDefault());
+        ZonedDateTime next = now.with(time);
+        return (next.isAfter(now) ? next : next.plusDays(1)).toInstant().toEpochMilli();
+      });
+    }
+
+    // Returns null if the spec isn't one of a trigger.
+    static Trigger parse(String spec) {
+      try {
+        if (spec.startsWith("every ") && spec.endsWith(" ms")) {
+          return every(Long.parseLong(spec.substring("every ".length(), spec.length() - " ms".length())));
+        } else if (spec.startsWith("daily at ")) {
+          return dailyAt(LocalTime.parse(spec.substring("daily at ".length())));
+        }
+      } catch (NumberFormatException | DateTimeParseException e) {
+        LOGGER.warning("Invalid trigger: " + spec);
+      }
+      return null;
+    }
+
+    long getNextRunMillis(long nowMillis) {
+      return nextRunMillis.applyAsLong(nowMillis);
+    }
+
+    @Override
+    public String toString() {
+      return spec;
+    }
+  }
+
+  public interface Listener {
+    void onNextRun(long nextRunMillis);
+  }
+
+  // A schedule that was kept on disk, e.g. to start it again when the app starts.
+  public static final class SavedSchedule {
+    public final Trigger trigger;
+    public final String jobName;
+
+    private SavedSchedule(Trigger trigger, String jobName) {
+      this.trigger = trigger;
+      this.jobName = jobName;
+    }
+  }
+
+  private final Path path;
+  private final LongSupplier clock;
+  private final Random random;
+  private Trigger trigger;
+  private String jobName;
+  private long maxJitterMillis;
+  private LongSupplier millisUntilReady;
+  private Supplier<CompletableFuture<?>> job;
+  private Listener listener;
+  private long nextRunMillis;
+  private CompletableFuture<?> currentRun;
+  private ScheduledFuture<?> check;
+
+  // The next run is only kept in memory if the path is null.
+  Scheduler(Path path, LongSupplier clock, Random random) {
+    this.path = path;
+    this.clock = clock;
+    this.random = random;
+  }
+
+  static Path getDefaultPath(Owner owner) {
+    String userHome = System.getProperty("user.home");
+    return Paths.get(userHome, "." + Constants.PRODUCT_NAME.toLowerCase() + "-schedule-" + owner.name + ".properties");
+  }
+
+  // Replaces any previous schedule, without deleting its state on disk. The job returns a future that completes when
+  // the run is over, and is saved by its name. Until millisUntilReady returns 0 (e.g. while the bandwidth budget is
+  // spent), a due run is postponed. If a run of the same job with the same trigger was due while nothing was
+  // scheduled, it is caught up right away; otherwise, the first run is now if runFirstNow is set, or after the
+  // trigger.
+  public synchronized void start(Trigger trigger, String jobName, long maxJitterMillis, boolean runFirstNow,
+                                 LongSupplier millisUntilReady, Supplier<CompletableFuture<?>> job, Listener listener) {
+    cancelCheck();
+    this.trigger = trigger;
+    this.jobName = jobName;
+    this.maxJitterMillis = maxJitterMillis;
+    this.millisUntilReady = millisUntilReady;
+    this.job = job;
+    this.listener = listener;
+    long savedNextRunMillis = readNextRunMillis(trigger, jobName);
+    long now = clock.getAsLong();
+    if (savedNextRunMillis != -1) {
+      nextRunMillis = savedNextRunMillis;
+    } else if (runFirstNow) {
+      nextRunMillis = now;
+    } else {
+      nextRunMillis = getNextRunMillis(now);
+    }
+    LOGGER.info("Scheduled a job " + trigger + ", next at " + Instant.ofEpochMilli(nextRunMillis) + ".");
+    setNextRun(nextRunMillis);
+  }
+
+  // Also deletes the schedule on disk, so that it isn't started again.
+  public synchronized void stop() {
+    cancelCheck();
+    trigger = null;
+    if (path != null) {
+      try {
+        Files.deleteIfExists(path);
+      } catch (IOException e) {
+        LOGGER.log(Level.WARNING, "Failed to delete the schedule " + path + ".", e);
+      }
+    }
+  }
+
+  private void cancelCheck() {
+    if (check != null) {
+      check.cancel(false);
+      check = null;
+    }
+  }
+
+  public synchronized boolean isStarted() {
+    return trigger != null;
+  }
+
+  public synchronized long getNextRunMillis() {
+    return nextRunMillis;
+  }
+
+  private long getNextRunMillis(long now) {
+    long jitterMillis = maxJitterMillis <= 0 ? 0 : (long) (random.nextDouble() * maxJitterMillis);
+    return trigger.getNextRunMillis(now) + jitterMillis;
+  }
+
+  private void setNextRun(long nextRunMillis) {
+    this.nextRunMillis = nextRunMillis;
+    writeNextRunMillis();
+    listener.onNextRun(nextRunMillis);
+    scheduleCheck();
+  }
+
+  private void scheduleCheck() {
+    long delayMillis = Math.min(Math.max(0, nextRunMillis - clock.getAsLong()), MAX_CHECK_DELAY_MILLIS);
+    check = EXECUTOR.schedule(this::check, delayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  synchronized void check() {
+    if (trigger == null) {
+      return;
+    }
+    long now = clock.getAsLong();
+    if (now < nextRunMillis) {
+      scheduleCheck();
+      return;
+    }
+    if (currentRun != null && !currentRun.isDone()) {
+      LOGGER.info("Skipping a scheduled run, because the previous one is still going.");
+      setNextRun(getNextRunMillis(now));
+      return;
+    }
+    long waitMillis = millisUntilReady.getAsLong();
+    if (waitMillis > 0) {
+      LOGGER.info("Postponing a scheduled run by " + waitMillis + " ms.");
+      setNextRun(now + waitMillis);
+      return;
+    }
+    try {
+      currentRun = job.get();
+    } catch (RuntimeException e) {
+      currentRun = CompletableFuture.failedFuture(e);
+    }
+    currentRun.whenComplete((result, throwable) -> {
+      Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+      if (cause instanceof CancellationException) {
+        LOGGER.info("A scheduled run was stopped.");
+      } else if (cause != null) {
+        LOGGER.log(Level.SEVERE, "A scheduled run failed.", cause);
+      }
+    });
+    setNextRun(getNextRunMillis(now));
+  }
+
+  // Returns null if no schedule was saved, e.g. because it was stopped.
+  public SavedSchedule readSavedSchedule() {
+    Properties properties = readProperties();
+    if (properties == null) {
+      return null;
+    }
+    Trigger trigger = Trigger.parse(properties.getProperty("trigger", ""));
+    String jobName = properties.getProperty("job");
+    return trigger == null || jobName == null ? null : new SavedSchedule(trigger, jobName);
+  }
+
+  // Returns -1 if nothing was saved for the job with the trigger.
+  private long readNextRunMillis(Trigger trigger, String jobName) {
+    Properties properties = readProperties();
+    if (properties == null || !trigger.toString().equals(properties.getProperty("trigger")) ||
+        !jobName.equals(properties.getProperty("job"))) {
+      return -1;
+    }
+    try {
+      return Long.parseLong(properties.getProperty("next_run"));
+    } catch (NumberFormatException e) {
+      LOGGER.log(Level.WARNING, "Invalid next run in the schedule " + path + ".", e);
+      return -1;
+    }
+  }
+
+  // Returns null if there is no schedule on disk, or it can't be read.
+  private Properties readProperties() {
+    if (path == null || !Files.exists(path)) {
+      return null;
+    }
+    Properties properties = new Properties();
+    try (Reader reader = Files.newBufferedReader(path, UTF_8)) {
+      properties.load(reader);
+      return properties;
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Failed to read the schedule " + path + ".", e);
+      return null;
+    }
+  }
+
+  private void writeNextRunMillis() {
+    if (path == null) {
+      return;
+    }
+    Properties properties = new Properties();
+    properties.setProperty("trigger", trigger.toString());
+    properties.setProperty("job", jobName);
+    properties.setProperty("next_run", Long.toString(nextRunMillis));
+    Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+    try {
+      try (Writer writer = Files.newBufferedWriter(temporaryPath, UTF_8)) {
+        properties.store(writer, null);
+      }
+      Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Failed to save the schedule " + path + ".", e);
+    }
+  }
+}
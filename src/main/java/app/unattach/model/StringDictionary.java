@@ -0,0 +1,55 @@
+package app.unattach.model;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+// Maps repeated strings to small integers, so that each distinct string is stored only once. The code -1 stands for
+// null.
+class StringDictionary {
+  private final Map<String, Integer> stringToCode = new HashMap<>();
+  private final List<String> codeToString = new ArrayList<>();
+
+  synchronized int encode(String string) {
+    if (string == null) {
+      return -1;
+    }
+    Integer code = stringToCode.get(string);
+    if (code == null) {
+      code = codeToString.size();
+      codeToString.add(string);
+      stringToCode.put(string, code);
+    }
+    return code;
+  }
+
+  synchronized String decode(int code) {
+    return code == -1 ? null : codeToString.get(code);
+  }
+
+  // Returns the codes of the strings that match the predicate, so that rows can be matched by their code.
+  synchronized BitSet getCodes(Predicate<String> predicate) {
+    BitSet codes = new BitSet(codeToString.size());
+    for (int code = 0; code < codeToString.size(); ++code) {
+      if (predicate.test(codeToString.get(code))) {
+        codes.set(code);
+      }
+    }
+    return codes;
+  }
+
+  // Returns the rank of each code when the strings are sorted, so that rows can be sorted by comparing ints.
+  synchronized int[] getRanks(Comparator<String> comparator) {
+    Integer[] codes = new Integer[codeToString.size()];
+    Arrays.setAll(codes, i -> i);
+    Arrays.sort(codes, Comparator.comparing(codeToString::get, comparator));
+    int[] ranks = new int[codes.length];
+    for (int rank = 0; rank < codes.length; ++rank) {
+      ranks[codes[rank]] = rank;
+    }
+    return ranks;
+  }
+
+  synchronized int size() {
+    return codeToString.size();
+  }
+}
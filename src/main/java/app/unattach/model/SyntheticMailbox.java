@@ -0,0 +1,494 @@
+package app.unattach.model;
+
+import javax.activation.DataHandler;
+import javax.mail.BodyPart;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Part;
+import javax.mail.Session;
+import javax.mail.internet.*;
+import javax.mail.util.ByteArrayDataSource;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+// Generates a mailbox of realistic emails from a seed, for the mock model and for performance tests. Each email is
+// derived from the seed and its index alone, so a mailbox of any size costs nothing until its emails are used, and
+// its metadata can be listed without generating the emails themselves. The sizes, the number and types of
+// attachments, and the nesting (e.g. inline images, multipart/mixed inside multipart/alternative, forwarded emails)
+// follow rough distributions of a real mailbox, with a share of non-UTF-8 charsets and encoded file names.
+public class SyntheticMailbox {
+  private static final long NEWEST_TIMESTAMP = 1_600_000_000_000L;
+  private static final long TIME_SPAN_MILLIS = TimeUnit.DAYS.toMillis(10 * 365);
+  private static final int MAX_ATTACHMENT_SIZE_IN_BYTES = 20 * Constants.BYTES_IN_MEGABYTE;
+  private static final String[] NAMES = {"Ana Novak", "John Smith", "Marie Dubois", "Jürgen Müller", "Søren Kjær",
+      "Иван Петров", "山田太郎", "Priya Sharma", "Chen Wei", "Aoife O'Brien"};
+  private static final String[] DOMAINS = {"example.com", "mail.example.org", "corp.example.net", "example.co.uk"};
+  private static final List<List<String>> LABEL_SETS = List.of(List.of("INBOX"), List.of("INBOX", "IMPORTANT"),
+      List.of("INBOX", "UNREAD", "CATEGORY_UPDATES"), List.of("SENT"), List.of("CATEGORY_PROMOTIONS"),
+      List.of("Label_1", "INBOX"), List.of("Label_2"), List.of("Label_1", "Label_3", "IMPORTANT"));
+
+  private enum Layout {
+    // text/plain
+    PLAIN,
+    // multipart/alternative of text/plain and text/html
+    ALTERNATIVE,
+    // multipart/mixed of the alternative and the attachments
+    MIXED,
+    // multipart/mixed of an alternative with the HTML in a multipart/related with inline images, and the attachments
+    RELATED,
+    // multipart/alternative of text/plain and a multipart/mixed of HTML with the attachments in between, as sent by
+    // e.g. Apple Mail
+    MIXED_IN_ALTERNATIVE,
+    // multipart/mixed of a text/plain and a forwarded message/rfc822, which has attachments of its own
+    FORWARDED
+  }
+
+  private static final class Language {
+    private final String charset;
+    private final String subject;
+    private final String paragraph;
+    private final String filenameStem;
+
+    private Language(String charset, String subject, String paragraph, String filenameStem) {
+      this.charset = charset;
+      this.subject = subject;
+      this.paragraph = paragraph;
+      this.filenameStem = filenameStem;
+    }
+  }
+
+  private static final Language[] LANGUAGES = {
+      new Language("utf-8", "Quarterly report", "Please find the documents attached. Let me know if anything is " +
+          "missing, and I will send it over as soon as possible.", "report"),
+      new Language("utf-8", "Photos from the weekend", "Here are the photos from Saturday. The ones by the lake " +
+          "turned out great, especially the last few.", "photo"),
+      new Language("iso-8859-1", "Präsentation für Montag", "Anbei die Präsentation für Montag. Bitte prüft die " +
+          "Zahlen auf Seite drei, bevor wir sie verschicken.", "Präsentation"),
+      new Language("windows-1252", "Facture – réglée", "Veuillez trouver ci-joint la facture. Le règlement a été " +
+          "effectué hier — merci de confirmer la réception.", "facture"),
+      new Language("koi8-r", "Отчёт за квартал", "Отчёт за квартал во вложении. Если что-то непонятно, " +
+          "напишите мне.", "отчёт"),
+      new Language("iso-2022-jp", "見積書の送付", "お世話になっております。見積書を添付いたしましたので、ご確認ください。", "見積書"),
+      // Not a charset that Java knows, but common in Hebrew emails, and handled by EmailProcessor.
+      new Language("iso-8859-8-i", "דוח חודשי", "מצורף הדוח החודשי. אשמח לקבל הערות עד סוף השבוע.", "דוח")
+  };
+
+  private static final class AttachmentType {
+    private final String extension;
+    private final String mimeType;
+    private final boolean text;
+
+    private AttachmentType(String extension, String mimeType, boolean text) {
+      this.extension = extension;
+      this.mimeType = mimeType;
+      this.text = text;
+    }
+  }
+
+  private static final AttachmentType[] ATTACHMENT_TYPES = {
+      new AttachmentType("pdf", "application/pdf", false),
+      new AttachmentType("jpg", "image/jpeg", false),
+      new AttachmentType("JPG", "image/jpeg", false),
+      new AttachmentType("png", "image/png", false),
+      new AttachmentType("docx", "application/vnd.openxmlformats-officedocument.wordprocessingml.document", false),
+      new AttachmentType("xlsx", "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", false),
+      new AttachmentType("zip", "application/zip", false),
+      new AttachmentType("csv", "text/csv", true),
+      new AttachmentType("ics", "text/calendar", true),
+      // No file name extension, and the generic type that many mailers use.
+      new AttachmentType("", "application/octet-stream", false)
+  };
+  private static final AttachmentType INLINE_IMAGE = new AttachmentType("png", "image/png", false);
+
+  private static final class Attachment {
+    private final String filename;
+    private final AttachmentType type;
+    private final int sizeInBytes;
+    private final boolean encodedWord;
+
+    private Attachment(String filename, AttachmentType type, int sizeInBytes, boolean encodedWord) {
+      this.filename = filename;
+      this.type = type;
+      this.sizeInBytes = sizeInBytes;
+      this.encodedWord = encodedWord;
+    }
+  }
+
+  // Everything about an email but the contents of its attachments, which are only generated when it is written.
+  private static final class Plan {
+    private final String gmailId;
+    private final String uniqueId;
+    private final List<String> labelIds;
+    private final InternetAddress from;
+    private final InternetAddress to;
+    private final Language language;
+    private final String subject;
+    private final long timestamp;
+    private final int paragraphs;
+    private final Layout layout;
+    private final List<Attachment> attachments;
+    private final List<Attachment> inlineImages;
+    private final long contentSeed;
+
+    private Plan(int index, Random random) throws UnsupportedEncodingException {
+      gmailId = getGmailId(index);
+      language = LANGUAGES[pickLanguage(random)];
+      from = getAddress(random);
+      to = getAddress(random);
+      uniqueId = "<" + gmailId + "." + index + "@" + from.getAddress().substring(from.getAddress().indexOf('@') + 1) +
+          ">";
+      labelIds = LABEL_SETS.get(random.nextInt(LABEL_SETS.size()));
+      timestamp = NEWEST_TIMESTAMP - (long) (random.nextDouble() * TIME_SPAN_MILLIS);
+      paragraphs = 1 + random.nextInt(random.nextInt(10) == 0 ? 200 : 12);
+      int numberOfAttachments = pickNumberOfAttachments(random);
+      layout = pickLayout(random, numberOfAttachments);
+      attachments = new ArrayList<>();
+      for (int i = 0; i < numberOfAttachments; ++i) {
+        attachments.add(getAttachment(random, language, i));
+      }
+      inlineImages = new ArrayList<>();
+      if (layout == Layout.RELATED) {
+        for (int i = 1 + random.nextInt(3); i > 0; --i) {
+          inlineImages.add(new Attachment("image00" + i + ".png", INLINE_IMAGE, 2_000 + random.nextInt(60_000),
+              false));
+        }
+      }
+      subject = (layout == Layout.FORWARDED ? "Fwd: " : "") + language.subject + " #" + (index + 1);
+      contentSeed = random.nextLong();
+    }
+
+    private List<String> getAttachmentNames() {
+      List<String> attachmentNames = new ArrayList<>();
+      inlineImages.forEach(image -> attachmentNames.add(image.filename));
+      if (layout == Layout.FORWARDED) {
+        // The attachments of the forwarded email are inside of it.
+        attachmentNames.add("Forwarded message.eml");
+      } else {
+        attachments.forEach(attachment -> attachmentNames.add(attachment.filename));
+      }
+      return attachmentNames;
+    }
+
+    // Base64 takes 4 bytes for every 3, plus line breaks, and the text is there in both plain and HTML.
+    private int getSizeEstimate() {
+      long sizeInBytes = 2_000 + 3L * paragraphs * language.paragraph.length();
+      for (Attachment attachment : attachments) {
+        sizeInBytes += 300 + attachment.sizeInBytes * 137L / 100;
+      }
+      for (Attachment image : inlineImages) {
+        sizeInBytes += 300 + image.sizeInBytes * 137L / 100;
+      }
+      return (int) Math.min(Integer.MAX_VALUE, sizeInBytes);
+    }
+  }
+
+  private final long seed;
+  private final int size;
+  private final Session session = Session.getInstance(new Properties());
+
+  public SyntheticMailbox(long seed, int size) {
+    this.seed = seed;
+    this.size = size;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  static String getGmailId(int index) {
+    return String.format("17%014x", index);
+  }
+
+  static int getIndex(String gmailId) {
+    return Integer.parseInt(gmailId.substring(2), 16);
+  }
+
+  // Adds the metadata of the emails from startIndexInclusive to endIndexExclusive, as a search would.
+  void addTo(EmailStore emailStore, int startIndexInclusive, int endIndexExclusive) {
+    for (int index = startIndexInclusive; index < endIndexExclusive; ++index) {
+      Plan plan = getPlan(index);
+      emailStore.add(plan.gmailId, plan.uniqueId, plan.labelIds, plan.from.toString(), plan.to.toString(),
+          plan.subject, plan.timestamp, plan.getSizeEstimate(), plan.getAttachmentNames());
+    }
+  }
+
+  // The email as Gmail would return it in the raw format (before the base64 encoding).
+  byte[] getRaw(int index) throws MessagingException, IOException {
+    MimeMessage mimeMessage = getMimeMessage(index);
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream(getPlan(index).getSizeEstimate());
+    mimeMessage.writeTo(buffer);
+    return buffer.toByteArray();
+  }
+
+  MimeMessage getMimeMessage(int index) throws MessagingException, IOException {
+    Plan plan = getPlan(index);
+    Random random = new Random(plan.contentSeed);
+    MimeMessage mimeMessage = new FixedIdMimeMessage(session, plan.uniqueId);
+    setHeaders(mimeMessage, plan);
+    switch (plan.layout) {
+      case PLAIN:
+        setText(mimeMessage, plan.language, getText(plan), "plain");
+        break;
+      case ALTERNATIVE:
+        mimeMessage.setContent(getAlternative(plan, random));
+        break;
+      case MIXED:
+        mimeMessage.setContent(getMixed(getPart(getAlternative(plan, random)), plan.attachments, random));
+        break;
+      case RELATED:
+        MimeMultipart related = newMultipart("related", random);
+        related.addBodyPart(getTextPart(plan.language, getHtml(plan), "html"));
+        for (Attachment image : plan.inlineImages) {
+          MimeBodyPart imagePart = getAttachmentPart(image, random);
+          imagePart.setDisposition(Part.INLINE);
+          imagePart.setContentID("<" + image.filename + "@" + plan.gmailId + ">");
+          related.addBodyPart(imagePart);
+        }
+        MimeMultipart alternative = newMultipart("alternative", random);
+        alternative.addBodyPart(getTextPart(plan.language, getText(plan), "plain"));
+        alternative.addBodyPart(getPart(related));
+        if (plan.attachments.isEmpty()) {
+          mimeMessage.setContent(alternative);
+        } else {
+          mimeMessage.setContent(getMixed(getPart(alternative), plan.attachments, random));
+        }
+        break;
+      case MIXED_IN_ALTERNATIVE:
+        MimeMultipart mixed = newMultipart("mixed", random);
+        mixed.addBodyPart(getTextPart(plan.language, getHtml(plan), "html"));
+        for (Attachment attachment : plan.attachments) {
+          mixed.addBodyPart(getAttachmentPart(attachment, random));
+        }
+        mixed.addBodyPart(getTextPart(plan.language, "<html><body><p>--</p></body></html>", "html"));
+        MimeMultipart outer = newMultipart("alternative", random);
+        outer.addBodyPart(getTextPart(plan.language, getText(plan), "plain"));
+        outer.addBodyPart(getPart(mixed));
+        mimeMessage.setContent(outer);
+        break;
+      case FORWARDED:
+        MimeMessage forwarded = new FixedIdMimeMessage(session, plan.uniqueId.replace("<", "<fwd."));
+        setHeaders(forwarded, plan);
+        forwarded.setSubject(plan.language.subject, MimeUtility.mimeCharset(getJavaCharset(plan.language.charset)));
+        forwarded.setContent(getMixed(getTextPart(plan.language, getText(plan), "plain"), plan.attachments, random));
+        forwarded.saveChanges();
+        MimeBodyPart forwardedPart = new MimeBodyPart();
+        forwardedPart.setContent(forwarded, "message/rfc822");
+        forwardedPart.setDisposition(Part.ATTACHMENT);
+        forwardedPart.setFileName("Forwarded message.eml");
+        MimeMultipart forwarding = newMultipart("mixed", random);
+        forwarding.addBodyPart(getTextPart(plan.language, "---------- Forwarded message ---------", "plain"));
+        forwarding.addBodyPart(forwardedPart);
+        mimeMessage.setContent(forwarding);
+        break;
+    }
+    mimeMessage.saveChanges();
+    return mimeMessage;
+  }
+
+  private Plan getPlan(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("No email " + index + " in a mailbox of " + size + ".");
+    }
+    try {
+      return new Plan(index, new Random(seed * 0x5DEECE66DL + index));
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  // Mostly UTF-8.
+  private static int pickLanguage(Random random) {
+    int percentile = random.nextInt(100);
+    if (percentile < 70) {
+      return percentile % 2;
+    }
+    return 2 + percentile % (LANGUAGES.length - 2);
+  }
+
+  // A third without attachments, and a long tail of many.
+  private static int pickNumberOfAttachments(Random random) {
+    int percentile = random.nextInt(100);
+    if (percentile < 30) {
+      return 0;
+    } else if (percentile < 70) {
+      return 1;
+    } else if (percentile < 90) {
+      return 2 + random.nextInt(2);
+    } else {
+      return 4 + random.nextInt(12);
+    }
+  }
+
+  private static Layout pickLayout(Random random, int numberOfAttachments) {
+    int percentile = random.nextInt(100);
+    if (numberOfAttachments == 0) {
+      return percentile < 30 ? Layout.PLAIN : percentile < 80 ? Layout.ALTERNATIVE : Layout.RELATED;
+    }
+    if (percentile < 65) {
+      return Layout.MIXED;
+    } else if (percentile < 85) {
+      return Layout.RELATED;
+    } else if (percentile < 93) {
+      return Layout.MIXED_IN_ALTERNATIVE;
+    } else {
+      return Layout.FORWARDED;
+    }
+  }
+
+  private static InternetAddress getAddress(Random random) throws UnsupportedEncodingException {
+    String name = NAMES[random.nextInt(NAMES.length)];
+    String localPart = Normalizer.normalize(name, Normalizer.Form.NFD).toLowerCase()
+        .replaceAll("\\p{M}", "").replaceAll("[^a-z]+", ".").replaceAll("^\\.|\\.$", "");
+    if (localPart.isEmpty()) {
+      localPart = "user" + random.nextInt(1000);
+    }
+    String address = localPart + "@" + DOMAINS[random.nextInt(DOMAINS.length)];
+    return new InternetAddress(address, name, "utf-8");
+  }
+
+  // Mostly around 100 KB, with a long tail up to the size that Gmail accepts.
+  private static Attachment getAttachment(Random random, Language language, int index) {
+    AttachmentType type = ATTACHMENT_TYPES[random.nextInt(ATTACHMENT_TYPES.length)];
+    double logSize = Math.log(100_000) + 1.6 * random.nextGaussian();
+    int sizeInBytes = (int) Math.max(200, Math.min(MAX_ATTACHMENT_SIZE_IN_BYTES, Math.exp(logSize)));
+    String stem = random.nextInt(3) == 0 ? language.filenameStem : type.text ? "data" : "IMG_" + (1000 + index);
+    String filename = stem + " " + (index + 1) + (type.extension.isEmpty() ? "" : "." + type.extension);
+    return new Attachment(filename, type, sizeInBytes, random.nextInt(4) == 0);
+  }
+
+  private static void setHeaders(MimeMessage mimeMessage, Plan plan) throws MessagingException {
+    mimeMessage.setFrom(plan.from);
+    mimeMessage.setRecipient(Message.RecipientType.TO, plan.to);
+    mimeMessage.setSubject(plan.subject, MimeUtility.mimeCharset(getJavaCharset(plan.language.charset)));
+    mimeMessage.setSentDate(new Date(plan.timestamp));
+  }
+
+  private static String getText(Plan plan) {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < plan.paragraphs; ++i) {
+      text.append(plan.language.paragraph).append("\n\n");
+    }
+    return text.append(plan.from.getPersonal()).append("\n").toString();
+  }
+
+  private static String getHtml(Plan plan) {
+    StringBuilder html = new StringBuilder("<html><head><meta charset=\"").append(plan.language.charset)
+        .append("\"></head><body>");
+    for (int i = 0; i < plan.paragraphs; ++i) {
+      html.append("<p>").append(plan.language.paragraph).append("</p>");
+    }
+    for (Attachment image : plan.inlineImages) {
+      html.append("<img src=\"cid:").append(image.filename).append("@").append(plan.gmailId).append("\">");
+    }
+    return html.append("<p>").append(plan.from.getPersonal()).append("</p></body></html>").toString();
+  }
+
+  private static MimeMultipart getAlternative(Plan plan, Random random) throws MessagingException {
+    MimeMultipart alternative = newMultipart("alternative", random);
+    alternative.addBodyPart(getTextPart(plan.language, getText(plan), "plain"));
+    alternative.addBodyPart(getTextPart(plan.language, getHtml(plan), "html"));
+    return alternative;
+  }
+
+  private static MimeMultipart getMixed(BodyPart body, List<Attachment> attachments, Random random)
+      throws MessagingException {
+    MimeMultipart mixed = newMultipart("mixed", random);
+    mixed.addBodyPart(body);
+    for (Attachment attachment : attachments) {
+      mixed.addBodyPart(getAttachmentPart(attachment, random));
+    }
+    return mixed;
+  }
+
+  private static MimeBodyPart getPart(MimeMultipart multipart) throws MessagingException {
+    MimeBodyPart part = new MimeBodyPart();
+    part.setContent(multipart);
+    return part;
+  }
+
+  // The bytes are encoded explicitly, so that the charset in the header can be one that Java doesn't know.
+  private static MimeBodyPart getTextPart(Language language, String text, String subtype) throws MessagingException {
+    MimeBodyPart part = new MimeBodyPart();
+    setText(part, language, text, subtype);
+    return part;
+  }
+
+  private static void setText(Part part, Language language, String text, String subtype) throws MessagingException {
+    String contentType = "text/" + subtype + "; charset=" + language.charset;
+    byte[] bytes = text.getBytes(Charset.forName(getJavaCharset(language.charset)));
+    part.setDataHandler(new DataHandler(new ByteArrayDataSource(bytes, contentType)));
+    part.setHeader("Content-Type", contentType);
+    part.setHeader("Content-Transfer-Encoding", language.charset.equals("iso-2022-jp") ? "7bit" : "quoted-printable");
+  }
+
+  private static String getJavaCharset(String charset) {
+    return charset.equals("iso-8859-8-i") ? "iso-8859-8" : charset;
+  }
+
+  private static MimeBodyPart getAttachmentPart(Attachment attachment, Random random) throws MessagingException {
+    byte[] bytes;
+    if (attachment.type.text) {
+      StringBuilder text = new StringBuilder(attachment.sizeInBytes + 32);
+      while (text.length() < attachment.sizeInBytes) {
+        text.append(random.nextInt(100_000)).append(',').append(random.nextInt(1000)).append(",value\r\n");
+      }
+      bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+    } else {
+      bytes = new byte[attachment.sizeInBytes];
+      random.nextBytes(bytes);
+    }
+    MimeBodyPart part = new MimeBodyPart();
+    part.setDataHandler(new DataHandler(new ByteArrayDataSource(bytes, attachment.type.mimeType)));
+    // Either as an RFC 2047 encoded word, or as an RFC 2231 parameter, both of which are common. The charset is
+    // explicit, since the default one depends on the platform.
+    if (attachment.encodedWord) {
+      part.setDisposition(Part.ATTACHMENT);
+      try {
+        part.setFileName(MimeUtility.encodeText(attachment.filename, "utf-8", "B"));
+      } catch (UnsupportedEncodingException e) {
+        throw new IllegalStateException(e);
+      }
+    } else {
+      ParameterList parameters = new ParameterList();
+      parameters.set("filename", attachment.filename, "utf-8");
+      part.setHeader("Content-Disposition", new ContentDisposition(Part.ATTACHMENT, parameters).toString());
+    }
+    part.setHeader("Content-Transfer-Encoding", attachment.type.text ? "quoted-printable" : "base64");
+    return part;
+  }
+
+  // With a boundary from the seed rather than a unique one, so that the same email is always the same bytes.
+  private static MimeMultipart newMultipart(String subtype, Random random) throws MessagingException {
+    return new SeededMultipart(subtype, "----=_Part_" + Long.toHexString(random.nextLong()));
+  }
+
+  private static class SeededMultipart extends MimeMultipart {
+    private SeededMultipart(String subtype, String boundary) throws MessagingException {
+      super(subtype);
+      ContentType contentType = new ContentType("multipart", subtype, null);
+      contentType.setParameter("boundary", boundary);
+      this.contentType = contentType.toString();
+    }
+  }
+
+  // Keeps the Message-ID that the metadata reports, rather than generating a new one on saveChanges().
+  private static class FixedIdMimeMessage extends MimeMessage {
+    private final String messageId;
+
+    private FixedIdMimeMessage(Session session, String messageId) {
+      super(session);
+      this.messageId = messageId;
+    }
+
+    @Override
+    protected void updateMessageID() throws MessagingException {
+      setHeader("Message-ID", messageId);
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package app.unattach.view;
+
+import app.unattach.model.Email;
+import javafx.collections.ModifiableObservableListBase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+// The items of the results table. Changes to the emails are not observed one by one, but reported in batches with
+// fireUpdated(), so that the table only updates the rows that changed.
+class EmailObservableList extends ModifiableObservableListBase<Email> {
+  private final List<Email> emails;
+  // The position of each store row in this list, or -1; rebuilt lazily after the list is modified (e.g. sorted).
+  private int[] positionByRow;
+
+  EmailObservableList(List<Email> emails) {
+    this.emails = new ArrayList<>(emails);
+  }
+
+  void fireUpdated(int[] changedRows) {
+    int[] positionByRow = getPositionByRow();
+    int[] positions = new int[changedRows.length];
+    int numberOfPositions = 0;
+    for (int row : changedRows) {
+      if (row < positionByRow.length && positionByRow[row] != -1) {
+        positions[numberOfPositions++] = positionByRow[row];
+      }
+    }
+    if (numberOfPositions == 0) {
+      return;
+    }
+    Arrays.sort(positions, 0, numberOfPositions);
+    beginChange();
+    for (int i = 0; i < numberOfPositions; ++i) {
+      nextUpdate(positions[i]);
+    }
+    endChange();
+  }
+
+  private int[] getPositionByRow() {
+    if (positionByRow == null) {
+      int maxRow = emails.stream().mapToInt(Email::getRow).max().orElse(-1);
+      positionByRow = new int[maxRow + 1];
+      Arrays.fill(positionByRow, -1);
+      for (int position = 0; position < emails.size(); ++position) {
+        positionByRow[emails.get(position).getRow()] = position;
+      }
+    }
+    return positionByRow;
+  }
+
+  // Sorting the table replaces all the items, which would otherwise be removed and added one by one.
+  @Override
+  public boolean setAll(Collection<? extends Email> newEmails) {
+    List<Email> removed = new ArrayList<>(emails);
+    emails.clear();
+    emails.addAll(newEmails);
+    positionByRow = null;
+    beginChange();
+    nextReplace(0, emails.size(), removed);
+    endChange();
+    return true;
+  }
+
+  @Override
+  public Email get(int index) {
+    return emails.get(index);
+  }
+
+  @Override
+  public int size() {
+    return emails.size();
+  }
+
+  @Override
+  protected void doAdd(int index, Email email) {
+    emails.add(index, email);
+    positionByRow = null;
+  }
+
+  @Override
+  protected Email doSet(int index, Email email) {
+    positionByRow = null;
+    return emails.set(index, email);
+  }
+
+  @Override
+  protected Email doRemove(int index) {
+    positionByRow = null;
+    return emails.remove(index);
+  }
+}
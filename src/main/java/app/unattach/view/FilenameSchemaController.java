@@ -61,8 +61,8 @@ public class FilenameSchemaController {
     );
     filenameSchemaTextField.textProperty().addListener(observable -> {
       String schema = filenameSchemaTextField.getText();
-      FilenameFactory filenameFactory = new FilenameFactory(schema);
       try {
+        FilenameFactory filenameFactory = new FilenameFactory(schema);
         String filename = filenameFactory.getFilename(email, 3, "the beach.jpg");
         filenameExampleLabel.setText(filename);
         errorLabel.setText("");
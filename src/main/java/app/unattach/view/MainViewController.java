@@ -1,13 +1,14 @@
 package app.unattach.view;
 
+import app.unattach.controller.CancellationToken;
 import app.unattach.controller.Controller;
 import app.unattach.controller.ControllerFactory;
-import app.unattach.controller.LongTask;
+import app.unattach.controller.LongTaskExecutor;
+import app.unattach.controller.ProcessingEngine;
+import app.unattach.controller.ProcessingProgress;
 import app.unattach.model.*;
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
+import javafx.animation.AnimationTimer;
 import javafx.application.Platform;
-import javafx.beans.Observable;
 import javafx.collections.FXCollections;
 import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
@@ -18,16 +19,22 @@ import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.layout.VBox;
 import javafx.stage.DirectoryChooser;
+import javafx.stage.FileChooser;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
-import javafx.util.Duration;
 import org.apache.commons.lang3.exception.ExceptionUtils;
-import org.apache.commons.lang3.time.DurationFormatUtils;
 
 import java.io.File;
 import java.io.IOException;
-import java.time.LocalDateTime;
+import java.security.InvalidParameterException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.logging.Level;
@@ -37,6 +44,7 @@ import java.util.stream.IntStream;
 
 public class MainViewController {
   private static final Logger LOGGER = Logger.getLogger(MainViewController.class.getName());
+  private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
 
   private Controller controller;
   @FXML
@@ -48,16 +56,26 @@ public class MainViewController {
   @FXML
   private CheckMenuItem signInAutomaticallyCheckMenuItem;
   @FXML
+  private MenuItem importResultsMenuItem;
+  @FXML
+  private MenuItem exportResultsMenuItem;
+  @FXML
   private MenuItem signOutMenuItem;
   @FXML
   private CheckMenuItem addMetadataCheckMenuItem;
   @FXML
+  private CheckMenuItem loadDetailsLazilyCheckMenuItem;
+  @FXML
   private Menu viewColumnMenu;
   @FXML
   private CheckMenuItem deleteOriginalMenuItem;
   @FXML
   private CheckMenuItem trashOriginalMenuItem;
   @FXML
+  private Menu directoryLayoutMenu;
+  @FXML
+  private Menu processingOrderMenu;
+  @FXML
   private Menu donationCurrencyMenu;
   @FXML
   private Menu donateMenu;
@@ -93,7 +111,7 @@ public class MainViewController {
   private CheckBox backupCheckBox;
   @FXML
   private Button stopSearchButton;
-  private boolean stopSearchButtonPressed;
+  private CancellationToken searchCancellationToken = new CancellationToken();
 
   // Results view
   private static final String DESELECT_ALL_CAPTION = "Deselect all";
@@ -101,6 +119,8 @@ public class MainViewController {
   @FXML
   private SubView resultsSubView;
   @FXML
+  private TextField resultsFilterTextField;
+  @FXML
   private TableView<Email> resultsTable;
   @FXML
   private TableColumn<Email, CheckBox> selectedTableColumn;
@@ -135,20 +155,37 @@ public class MainViewController {
   @FXML
   private Button stopScheduleButton;
 
-  private long bytesProcessed = 0;
-  private long allBytesToProcess = 0;
-  private boolean stopProcessingButtonPressed = false;
-  private Timeline timeline;
+  private CancellationToken processingCancellationToken = new CancellationToken();
+  private ProcessingEngine processingEngine;
+  @FXML
+  private Label bandwidthLabel;
+  private Action scheduledAction;
+  private SchedulePeriod scheduledPeriod;
+  private CompletableFuture<Void> scheduledRun = CompletableFuture.completedFuture(null);
+  private final AtomicBoolean resultsCaptionUpdatePending = new AtomicBoolean();
+  private EmailObservableList resultEmails;
+  private Map<String, String> idToLabel = Collections.emptyMap();
+  // Status and note changes are recorded by the store on any thread, and applied to the table at most once per frame.
+  private final AnimationTimer emailChangeFlusher = new AnimationTimer() {
+    @Override
+    public void handle(long now) {
+      flushEmailChanges();
+    }
+  };
 
   @FXML
   private void initialize() throws IOException {
     controller = ControllerFactory.getDefaultController();
-    emailMenuItem.setText("Signed in as " + controller.getEmailAddress() + ".");
+    processingEngine = new ProcessingEngine(controller);
+    emailMenuItem.setText("Signing in ..");
     signInAutomaticallyCheckMenuItem.setSelected(controller.getConfig().getSignInAutomatically());
+    loadDetailsLazilyCheckMenuItem.setSelected(controller.getConfig().getLoadDetailsLazily());
     addMenuForHidingColumns();
     if (!controller.getConfig().getDeleteOriginal()) {
       onTrashOriginalMenuItemPressed();
     }
+    addDirectoryLayoutMenuItems();
+    addProcessingOrderMenuItems();
     List<CheckMenuItem> currencyMenuItems =
             Arrays.stream(Constants.CURRENCIES).map(CheckMenuItem::new).collect(Collectors.toList());
     currencyMenuItems.forEach(menuItem -> menuItem.setOnAction(this::onDonationCurrencySelected));
@@ -171,18 +208,27 @@ public class MainViewController {
     toggleAllEmailsCheckBox.setTooltip(new Tooltip(SELECT_ALL_CAPTION));
     toggleAllEmailsCheckBox.selectedProperty()
         .addListener((checkbox, previous, current) -> onToggleAllEmailsCheckBoxChange());
-    selectedTableColumn.setComparator((cb1, cb2) -> Boolean.compare(cb1.isSelected(), cb2.isSelected()));
+    resultsTable.setRowFactory(table -> new TableRow<>() {
+      @Override
+      protected void updateItem(Email email, boolean empty) {
+        super.updateItem(email, empty);
+        // Rows of a lazy search are loaded as soon as they are shown.
+        if (!empty && email != null && !email.isLoaded()) {
+          controller.requestEmailMetadata(email);
+        }
+      }
+    });
+    resultsTable.setSortPolicy(table -> {
+      sortResults();
+      return true;
+    });
+    resultsFilterTextField.textProperty().addListener(observable -> filterResults());
     targetDirectoryTextField.setText(controller.getConfig().getTargetDirectory());
     processingProgressBarWithText.progressProperty().setValue(0);
     processingProgressBarWithText.textProperty().setValue("(Processing of emails not started yet.)");
     labelsListViewLabel.setText("Email labels:\n(If selecting multiple, results will match any.)");
     labelsListView.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
-    List<GmailLabel> labels = controller.getIdToLabel().entrySet().stream()
-        .map(e -> new GmailLabel(e.getKey(), e.getValue())).sorted(Comparator.comparing(GmailLabel::getName))
-        .collect(Collectors.toList());
-    labelsListView.setItems(FXCollections.observableList(labels));
-    selectSavedLabels(labels);
-    saveLabelsOnChange();
+    labelsListView.setPlaceholder(new Label("Loading labels .."));
     enableScheduleCheckBox.selectedProperty()
         .addListener((checkBox, previous, current) -> onEnableScheduleCheckBoxChange());
     schedulePeriodComboBox.setItems(FXCollections.observableList(Arrays.asList(
@@ -198,6 +244,88 @@ public class MainViewController {
         new SchedulePeriod("24 hours", 24 * 3600)
     )));
     schedulePeriodComboBox.getSelectionModel().select(5);
+    loadAccount();
+  }
+
+  // Signing in and getting the profile and the labels take several round trips to Gmail, so the window is shown
+  // first, and the controls that need them are enabled once they arrive.
+  private void loadAccount() {
+    disableControls();
+    CompletableFuture<String> emailAddressFuture = LongTaskExecutor.submit(() ->
+        controller.isSignedIn() ? controller.getEmailAddress() : controller.signIn());
+    emailAddressFuture.thenCompose(emailAddress -> LongTaskExecutor.submit(controller::getIdToLabel))
+        .whenComplete((idToLabel, throwable) -> Platform.runLater(() -> {
+          if (throwable != null) {
+            LOGGER.log(Level.SEVERE, "Failed to sign in.", throwable);
+            try {
+              Scenes.setScene(Scenes.SIGN_IN);
+            } catch (IOException e) {
+              LOGGER.log(Level.SEVERE, "Failed to load the sign in view.", e);
+            }
+            return;
+          }
+          emailMenuItem.setText("Signed in as " + emailAddressFuture.join() + ".");
+          showLabels(idToLabel);
+          updateBandwidthLabel();
+          resetControls();
+          offerToResumeInterruptedJob();
+          restoreSchedule();
+        }));
+  }
+
+  private void showLabels(SortedMap<String, String> idToLabel) {
+    if (idToLabel == null) {
+      labelsListView.setPlaceholder(new Label("Failed to load labels."));
+      return;
+    }
+    this.idToLabel = idToLabel;
+    List<GmailLabel> labels = idToLabel.entrySet().stream()
+        .map(e -> new GmailLabel(e.getKey(), e.getValue())).sorted(Comparator.comparing(GmailLabel::getName))
+        .collect(Collectors.toList());
+    labelsListView.setItems(FXCollections.observableList(labels));
+    selectSavedLabels(labels);
+    saveLabelsOnChange();
+  }
+
+  private void offerToResumeInterruptedJob() {
+    JobJournal interruptedJob = controller.getInterruptedJob();
+    if (interruptedJob != null) {
+      askAboutInterruptedJob(interruptedJob, false);
+    }
+  }
+
+  // Returns true if the job was discarded, so that a new one can be started. Starting a new job while an interrupted
+  // one is pending would replace its journal, and with it the emails that were left halfway.
+  private boolean askAboutInterruptedJob(JobJournal interruptedJob, boolean beforeNewJob) {
+    int numberOfPendingEmails = interruptedJob.getPendingGmailIds().size();
+    ButtonType resumeButtonType = new ButtonType("Resume", ButtonBar.ButtonData.YES);
+    ButtonType discardButtonType = new ButtonType("Discard", ButtonBar.ButtonData.NO);
+    ButtonType laterButtonType =
+        new ButtonType(beforeNewJob ? "Cancel" : "Later", ButtonBar.ButtonData.CANCEL_CLOSE);
+    Alert alert = new Alert(Alert.AlertType.CONFIRMATION, null, resumeButtonType, discardButtonType,
+        laterButtonType);
+    alert.setTitle("Interrupted processing");
+    alert.setHeaderText(null);
+    alert.setContentText(String.format("Processing of %d emails (%s) was interrupted, and %d of them are not " +
+            "finished yet. %s If you discard it, emails that were left halfway may have to be cleaned up by hand.",
+        interruptedJob.getNumberOfEmails(), interruptedJob.getProcessSettings().getProcessOption().getAction(),
+        numberOfPendingEmails, beforeNewJob ? "It has to be resumed or discarded before processing other emails." :
+            "Would you like to resume it from where it stopped?"));
+    Optional<ButtonType> buttonType = alert.showAndWait();
+    if (buttonType.isEmpty() || buttonType.get() == laterButtonType) {
+      return false;
+    }
+    if (buttonType.get() == discardButtonType) {
+      controller.discardJob(interruptedJob);
+      return true;
+    }
+    List<Email> emailsToProcess = controller.resumeJob(interruptedJob);
+    searchProgressBarWithText.textProperty().setValue("(Resumed an interrupted job.)");
+    showResults();
+    startProcessing();
+    showProcessing(processingEngine.resume(emailsToProcess, interruptedJob, processingCancellationToken,
+        processingListener), interruptedJob.getProcessSettings().getProcessOption().getAction());
+    return false;
   }
 
   private void addMenuForHidingColumns() {
@@ -209,6 +337,40 @@ public class MainViewController {
     });
   }
 
+  private void addDirectoryLayoutMenuItems() {
+    DirectoryLayout savedDirectoryLayout = controller.getConfig().getDirectoryLayout();
+    for (DirectoryLayout directoryLayout : DirectoryLayout.values()) {
+      CheckMenuItem menuItem = new CheckMenuItem(directoryLayout.toString());
+      menuItem.setUserData(directoryLayout);
+      menuItem.setSelected(directoryLayout == savedDirectoryLayout);
+      menuItem.setOnAction(event -> onDirectoryLayoutSelected(menuItem));
+      directoryLayoutMenu.getItems().add(menuItem);
+    }
+  }
+
+  private void onDirectoryLayoutSelected(CheckMenuItem selectedMenuItem) {
+    directoryLayoutMenu.getItems().stream().map(CheckMenuItem.class::cast).forEach(e -> e.setSelected(false));
+    selectedMenuItem.setSelected(true);
+    controller.getConfig().saveDirectoryLayout((DirectoryLayout) selectedMenuItem.getUserData());
+  }
+
+  private void addProcessingOrderMenuItems() {
+    ProcessingOrder savedProcessingOrder = controller.getConfig().getProcessingOrder();
+    for (ProcessingOrder processingOrder : ProcessingOrder.values()) {
+      CheckMenuItem menuItem = new CheckMenuItem(processingOrder.toString());
+      menuItem.setUserData(processingOrder);
+      menuItem.setSelected(processingOrder == savedProcessingOrder);
+      menuItem.setOnAction(event -> onProcessingOrderSelected(menuItem));
+      processingOrderMenu.getItems().add(menuItem);
+    }
+  }
+
+  private void onProcessingOrderSelected(CheckMenuItem selectedMenuItem) {
+    processingOrderMenu.getItems().stream().map(CheckMenuItem.class::cast).forEach(e -> e.setSelected(false));
+    selectedMenuItem.setSelected(true);
+    controller.getConfig().saveProcessingOrder((ProcessingOrder) selectedMenuItem.getUserData());
+  }
+
   private void selectSavedLabels(List<GmailLabel> labels) {
     Map<String, GmailLabel> idToIdLabel = labels.stream().collect(Collectors.toMap(GmailLabel::getId, Function.identity()));
     controller.getConfig().getLabelIds().stream().map(idToIdLabel::get).filter(Objects::nonNull).
@@ -243,6 +405,11 @@ public class MainViewController {
     controller.getConfig().saveSignInAutomatically(signInAutomaticallyCheckMenuItem.isSelected());
   }
 
+  @FXML
+  private void onLoadDetailsLazilyCheckMenuItemAction() {
+    controller.getConfig().saveLoadDetailsLazily(loadDetailsLazilyCheckMenuItem.isSelected());
+  }
+
   @FXML
   private void onAboutButtonPressed() {
     controller.openUnattachHomepage();
@@ -270,8 +437,10 @@ public class MainViewController {
     disableControls();
     resultsSubView.setText("Results");
     stopSearchButton.setDisable(false);
-    stopSearchButtonPressed = false;
+    CancellationToken cancellationToken = new CancellationToken();
+    searchCancellationToken = cancellationToken;
     controller.clearPreviousSearch();
+    resultEmails = null;
     resultsTable.setItems(FXCollections.emptyObservableList());
     AtomicInteger currentBatch = new AtomicInteger();
     AtomicInteger numberOfBatches = new AtomicInteger();
@@ -283,16 +452,24 @@ public class MainViewController {
         updateMessage("Obtaining email metadata ..");
         String query = getQuery();
         LOGGER.info("Obtaining email metadata (query: " + query + ") ..");
-        GetEmailMetadataTask longTask = controller.getSearchTask(query);
-        currentBatch.set(0);
-        numberOfBatches.set(longTask.getNumberOfSteps());
-        updateProgress(currentBatch.get(), numberOfBatches.get());
-        updateMessage(String.format("Obtaining email metadata (%s) ..", getStatusString()));
-        while (!stopSearchButtonPressed && longTask.hasMoreSteps()) {
-          GetEmailMetadataTask.Result result = longTask.takeStep();
-          currentBatch.set(result.currentBatchNumber);
+        try {
+          GetEmailMetadataTask longTask = controller.getSearchTask(query, cancellationToken);
+          currentBatch.set(0);
+          numberOfBatches.set(longTask.getNumberOfSteps());
           updateProgress(currentBatch.get(), numberOfBatches.get());
           updateMessage(String.format("Obtaining email metadata (%s) ..", getStatusString()));
+          LongTaskExecutor.run(longTask, cancellationToken, progress -> {
+            currentBatch.set(progress.result.currentBatchNumber);
+            updateProgress(currentBatch.get(), numberOfBatches.get());
+            updateMessage(String.format("Obtaining email metadata (%s) ..", getStatusString()));
+          }).join();
+        } catch (CancellationException e) {
+          LOGGER.info("Stopped obtaining email metadata.");
+        } catch (CompletionException e) {
+          if (!(e.getCause() instanceof CancellationException)) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+          }
+          LOGGER.info("Stopped obtaining email metadata.");
         }
         return null;
       }
@@ -311,11 +488,7 @@ public class MainViewController {
         boolean successful = false;
         try {
           updateMessage(String.format("Finished obtaining email metadata (%s).", getStatusString()));
-          List<Email> emails = controller.getEmails();
-          ObservableList<Email> observableEmails = FXCollections.observableList(emails, email -> new Observable[]{email});
-          resultsTable.setItems(observableEmails);
-          updateResultsCaption();
-          observableEmails.addListener((ListChangeListener<? super Email>) change -> updateResultsCaption());
+          showResults();
           successful = true;
         } catch (Throwable t) {
           String message = "Failed to process email metadata.";
@@ -326,6 +499,8 @@ public class MainViewController {
         }
         if (successful && successCallback != null) {
           successCallback.run();
+        } else {
+          scheduledRun.complete(null);
         }
       }
 
@@ -334,6 +509,7 @@ public class MainViewController {
         String message = "Failed to obtain email metadata.";
         updateMessage(message);
         reportError(message, getException());
+        scheduledRun.complete(null);
         resetControls();
       }
     };
@@ -344,19 +520,177 @@ public class MainViewController {
     new Thread(task).start();
   }
 
+  private void showResults() {
+    EmailStore emailStore = controller.getEmailStore();
+    resultEmails = new EmailObservableList(emailStore.getEmails());
+    resultsTable.setItems(resultEmails);
+    filterResults();
+    updateResultsCaption();
+    resultEmails.addListener((ListChangeListener<? super Email>) change -> updateResultsCaption());
+    emailStore.setChangeListener(() -> Platform.runLater(emailChangeFlusher::start));
+  }
+
+  @FXML
+  private void onExportResultsMenuItemPressed() {
+    FileChooser fileChooser = createResultsFileChooser("Export results");
+    fileChooser.setInitialFileName("unattach-results.jsonl");
+    File file = fileChooser.showSaveDialog(root.getScene().getWindow());
+    if (file == null) {
+      return;
+    }
+    disableControls();
+    Task<Void> task = new Task<>() {
+      @Override
+      protected Void call() throws Exception {
+        controller.exportResults(file);
+        return null;
+      }
+
+      @Override
+      protected void succeeded() {
+        LOGGER.info("Exported the results to " + file.getAbsolutePath() + ".");
+        resetControls();
+      }
+
+      @Override
+      protected void failed() {
+        reportError("Failed to export the results.", getException());
+        resetControls();
+      }
+    };
+    new Thread(task).start();
+  }
+
+  @FXML
+  private void onImportResultsMenuItemPressed() {
+    File file = createResultsFileChooser("Import results").showOpenDialog(root.getScene().getWindow());
+    if (file == null) {
+      return;
+    }
+    disableControls();
+    resultEmails = null;
+    resultsTable.setItems(FXCollections.emptyObservableList());
+    searchProgressBarWithText.progressProperty().unbind();
+    searchProgressBarWithText.textProperty().unbind();
+    searchProgressBarWithText.textProperty().setValue("Importing results ..");
+    Task<Integer> task = new Task<>() {
+      @Override
+      protected Integer call() throws Exception {
+        return controller.importResults(file);
+      }
+
+      @Override
+      protected void succeeded() {
+        searchProgressBarWithText.textProperty().setValue(
+            String.format("Imported %d emails from %s.", getValue(), file.getName()));
+        showResults();
+        resetControls();
+      }
+
+      @Override
+      protected void failed() {
+        String message = "Failed to import the results.";
+        searchProgressBarWithText.textProperty().setValue(message);
+        reportError(message, getException());
+        resetControls();
+      }
+    };
+    new Thread(task).start();
+  }
+
+  private static FileChooser createResultsFileChooser(String title) {
+    FileChooser fileChooser = new FileChooser();
+    fileChooser.setTitle(title);
+    fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Results (*.jsonl)", "*.jsonl"));
+    return fileChooser;
+  }
+
+  // Filtering and sorting work on the rows of the store, and then replace the table items in one change.
+  private void filterResults() {
+    if (resultEmails == null) {
+      return;
+    }
+    ResultFilter filter;
+    try {
+      filter = ResultFilter.parse(resultsFilterTextField.getText(), idToLabel);
+      resultsFilterTextField.setTooltip(null);
+      resultsFilterTextField.setStyle(null);
+    } catch (InvalidParameterException e) {
+      resultsFilterTextField.setTooltip(new Tooltip(e.getMessage()));
+      resultsFilterTextField.setStyle("-fx-text-fill: red;");
+      return;
+    }
+    EmailStore emailStore = controller.getEmailStore();
+    int[] rows = emailStore.filter(filter);
+    emailStore.setFilteredRows(rows);
+    sortRows(emailStore, rows);
+    setResultRows(emailStore, rows);
+  }
+
+  private void sortResults() {
+    if (resultEmails == null) {
+      return;
+    }
+    EmailStore emailStore = controller.getEmailStore();
+    int[] rows = resultEmails.stream().mapToInt(Email::getRow).toArray();
+    sortRows(emailStore, rows);
+    setResultRows(emailStore, rows);
+  }
+
+  private void sortRows(EmailStore emailStore, int[] rows) {
+    List<TableColumn<Email, ?>> sortOrder = resultsTable.getSortOrder();
+    Arrays.sort(rows);
+    // The sort is stable, so sorting by the least significant column first yields the sort order of the table.
+    for (int i = sortOrder.size() - 1; i >= 0; --i) {
+      TableColumn<Email, ?> column = sortOrder.get(i);
+      EmailStore.SortKey sortKey = EmailStore.SortKey.valueOf((String) column.getUserData());
+      emailStore.sort(rows, sortKey, column.getSortType() == TableColumn.SortType.ASCENDING);
+    }
+  }
+
+  private void setResultRows(EmailStore emailStore, int[] rows) {
+    List<Email> emails = emailStore.getEmails();
+    List<Email> resultRows = new ArrayList<>(rows.length);
+    for (int row : rows) {
+      resultRows.add(emails.get(row));
+    }
+    resultEmails.setAll(resultRows);
+  }
+
+  private void flushEmailChanges() {
+    int[] changedRows = resultEmails == null ? new int[0] : controller.getEmailStore().drainChangedRows();
+    if (changedRows.length == 0) {
+      emailChangeFlusher.stop();
+      return;
+    }
+    resultEmails.fireUpdated(changedRows);
+  }
+
+  // The caption is read from the store's running aggregates, and at most one update is pending at any time, so
+  // changing the status of many emails at once stays cheap.
   private void updateResultsCaption() {
+    if (!resultsCaptionUpdatePending.compareAndSet(false, true)) {
+      return;
+    }
     Platform.runLater(() -> {
-      int selected = 0, total = 0, selectedSizeInMegaBytes = 0, totalSizeInMegaBytes = 0;
-      for (Email email : resultsTable.getItems()) {
-        if (email.isSelected()) {
-          ++selected;
-          selectedSizeInMegaBytes += email.getSizeInMegaBytes();
-        }
-        ++total;
-        totalSizeInMegaBytes += email.getSizeInMegaBytes();
+      resultsCaptionUpdatePending.set(false);
+      EmailStore emailStore = controller.getEmailStore();
+      if (resultEmails != null && resultEmails.size() != emailStore.size()) {
+        // Only the filtered emails are shown, and only those are processed.
+        resultsSubView.setText(String.format("Results: showing %d of %d, selected %d (%dMB)",
+            resultEmails.size(), emailStore.size(), emailStore.getFilteredCount(EmailStatus.TO_PROCESS),
+            toMegaBytes(emailStore.getFilteredSizeInBytes(EmailStatus.TO_PROCESS))));
+      } else if (emailStore.isFullyLoaded()) {
+        resultsSubView.setText(String.format("Results: selected %d/%d (%dMB/%dMB)",
+            emailStore.getCount(EmailStatus.TO_PROCESS), emailStore.size(),
+            toMegaBytes(emailStore.getSizeInBytes(EmailStatus.TO_PROCESS)),
+            toMegaBytes(emailStore.getTotalSizeInBytes())));
+      } else {
+        resultsSubView.setText(String.format("Results: selected %d/%d (~%dMB/~%dMB, details loaded for %d)",
+            emailStore.getCount(EmailStatus.TO_PROCESS), emailStore.size(),
+            toMegaBytes(emailStore.getEstimatedSizeInBytes(EmailStatus.TO_PROCESS)),
+            toMegaBytes(emailStore.getEstimatedTotalSizeInBytes()), emailStore.getNumberOfLoadedRows()));
       }
-      resultsSubView.setText(String.format("Results: selected %d/%d (%dMB/%dMB)",
-              selected, total, selectedSizeInMegaBytes, totalSizeInMegaBytes));
     });
   }
 
@@ -368,7 +702,7 @@ public class MainViewController {
 
   @FXML
   private void onStopSearchButtonPressed() {
-    stopSearchButtonPressed = true;
+    searchCancellationToken.cancel();
   }
 
   @FXML
@@ -379,28 +713,20 @@ public class MainViewController {
         email.setStatus(targetStatus);
       }
     });
-    resultsTable.refresh();
     Tooltip tooltip = new Tooltip(toggleAllEmailsCheckBox.isSelected() ? DESELECT_ALL_CAPTION : SELECT_ALL_CAPTION);
     toggleAllEmailsCheckBox.setTooltip(tooltip);
   }
 
   private String getQuery() {
-    StringBuilder query = new StringBuilder();
     if (basicSearchTab.isSelected()) {
       int minEmailSizeInMb = emailSizeComboBox.getSelectionModel().getSelectedItem().value;
-      query.append(String.format("has:attachment size:%dm", minEmailSizeInMb));
       ObservableList<GmailLabel> labels = labelsListView.getSelectionModel().getSelectedItems();
-      if (!labels.isEmpty()) {
-        query.append(" {");
-        query.append(labels.stream().map(label -> String.format("label:\"%s\"", label.getName()))
-                .collect(Collectors.joining(" ")));
-        query.append("}");
-      }
+      return BasicSearchQuery.build(minEmailSizeInMb,
+          labels.stream().map(GmailLabel::getName).collect(Collectors.toList()));
     } else {
-      query = new StringBuilder(searchQueryTextField.getText());
       controller.getConfig().saveSearchQuery(searchQueryTextField.getText());
+      return searchQueryTextField.getText();
     }
-    return query.toString();
   }
 
   @FXML
@@ -465,19 +791,71 @@ public class MainViewController {
       showNoEmailsAlert();
       return;
     }
+    JobJournal interruptedJob = controller.getInterruptedJob();
+    if (interruptedJob != null) {
+      if (!scheduledRun.isDone()) {
+        // Nobody may be there to decide, so the scheduled run is skipped until the job is resumed or discarded.
+        LOGGER.warning("Skipping a scheduled run, because an interrupted job is pending.");
+        processingProgressBarWithText.textProperty().setValue(
+            "(Skipped a scheduled run, because an interrupted job has to be resumed or discarded first.)");
+        scheduledRun.complete(null);
+        return;
+      }
+      if (!askAboutInterruptedJob(interruptedJob, true)) {
+        return;
+      }
+    }
+    String filenameSchema = controller.getConfig().getFilenameSchema();
+    DirectoryLayout directoryLayout = controller.getConfig().getDirectoryLayout();
+    ProcessSettings processSettings = new ProcessSettings(processOption, getTargetDirectory(), filenameSchema,
+        directoryLayout, addMetadataCheckMenuItem.isSelected());
+    startProcessing();
+    showProcessing(processingEngine.process(emailsToProcess, processSettings,
+        controller.getConfig().getProcessingOrder(), processingCancellationToken, processingListener),
+        processOption.getAction());
+  }
+
+  private void startProcessing() {
     disableControls();
     stopProcessingButton.setDisable(false);
-    stopProcessingButtonPressed = false;
-    File targetDirectory = getTargetDirectory();
-    bytesProcessed = 0;
-    allBytesToProcess = emailsToProcess.stream().mapToLong(email -> (long) email.getSizeInBytes()).sum();
+    processingCancellationToken = new CancellationToken();
     processingProgressBarWithText.progressProperty().setValue(0);
-    String filenameSchema = controller.getConfig().getFilenameSchema();
-    ProcessSettings processSettings = new ProcessSettings(processOption, targetDirectory, filenameSchema,
-        addMetadataCheckMenuItem.isSelected());
-    processEmail(emailsToProcess, 0, 0, processSettings);
   }
 
+  private void showProcessing(CompletableFuture<ProcessingProgress> future, Action action) {
+    future.whenComplete((progress, throwable) -> Platform.runLater(() -> {
+      if (throwable != null) {
+        reportError("Failed to process selected emails.", throwable);
+      } else {
+        processingProgressBarWithText.textProperty().setValue(String.format("Processing stopped (%s).", progress));
+      }
+      updateBandwidthLabel();
+      resetControls();
+      scheduledRun.complete(null);
+      if (enableScheduleCheckBox.isSelected()) {
+        startSchedule(action);
+      }
+    }));
+  }
+
+  private final ProcessingEngine.Listener processingListener = new ProcessingEngine.Listener() {
+    @Override
+    public void onProgress(ProcessingProgress progress) {
+      Platform.runLater(() -> {
+        processingProgressBarWithText.textProperty().setValue(
+            String.format("Processing selected emails (%s) ..", progress));
+        processingProgressBarWithText.progressProperty().setValue(progress.getFractionOfBytesProcessed());
+        updateBandwidthLabel();
+      });
+    }
+
+    @Override
+    public void onEmailFailed(Email email, Throwable t) {
+      // Already logged by the engine.
+      controller.sendToServer("stack trace", ExceptionUtils.getStackTrace(t), null);
+    }
+  };
+
   private void showNoEmailsAlert() {
     Alert alert = new Alert(Alert.AlertType.WARNING);
     alert.setTitle("No emails selected");
@@ -488,62 +866,17 @@ public class MainViewController {
     alert.showAndWait();
   }
 
-  private void processEmail(List<Email> emailsToProcess, int nextEmailIndex, int failed, ProcessSettings processSettings) {
-    if (stopProcessingButtonPressed || nextEmailIndex >= emailsToProcess.size()) {
-      processingProgressBarWithText.textProperty().setValue(
-          String.format("Processing stopped (%s).", getProcessingStatusString(emailsToProcess, nextEmailIndex, failed)));
-      resetControls();
-      if (enableScheduleCheckBox.isSelected()) {
-        scheduleNextRun(processSettings.getProcessOption().getAction());
-      }
+  private void updateBandwidthLabel() {
+    BandwidthLedger bandwidthLedger = controller.getBandwidthLedger();
+    if (bandwidthLedger == null) {
       return;
     }
-    Email email = emailsToProcess.get(nextEmailIndex);
-    processingProgressBarWithText.textProperty().setValue(
-        String.format("Processing selected emails (%s) ..", getProcessingStatusString(emailsToProcess, nextEmailIndex, failed)));
-
-    Task<ProcessEmailResult> task = new Task<>() {
-      @Override
-      protected ProcessEmailResult call() throws Exception {
-        LongTask<ProcessEmailResult> longTask = controller.getProcessTask(email, processSettings);
-        // This is 'if' and not 'while', because longTask always has a single step.
-        if (!stopProcessingButtonPressed && longTask.hasMoreSteps()) {
-          return longTask.takeStep();
-        }
-        return null;
-      }
-
-      @Override
-      protected void succeeded() {
-        ProcessEmailResult processEmailResult = getValue();
-        if (processEmailResult != null) {
-          if (processEmailResult.getNewUniqueId() != null) {
-            email.setUniqueId(processEmailResult.getNewUniqueId());
-          }
-          bytesProcessed += email.getSizeInBytes();
-          processingProgressBarWithText.progressProperty().setValue(1.0 * bytesProcessed / allBytesToProcess);
-          resultsTable.refresh();
-        }
-        processEmail(emailsToProcess, nextEmailIndex + 1, failed, processSettings);
-      }
-
-      @Override
-      protected void failed() {
-        email.setStatus(EmailStatus.FAILED);
-        email.setNote(getException().getMessage());
-        resultsTable.refresh();
-        reportError("Failed to process selected emails.", getException());
-        processEmail(emailsToProcess, nextEmailIndex + 1, failed + 1, processSettings);
-      }
-    };
-
-    new Thread(task).start();
-  }
-
-  private String getProcessingStatusString(List<Email> emailsToProcess, int nextEmailIndex, int failed) {
-    return String.format("processed %d of %d, %dMB / %dMB, %d%% by size, %d failed",
-        nextEmailIndex - failed, emailsToProcess.size(), toMegaBytes(bytesProcessed), toMegaBytes(allBytesToProcess),
-        allBytesToProcess == 0 ? 0 : 100 * bytesProcessed / allBytesToProcess, failed);
+    bandwidthLabel.setText(String.format("Gmail bandwidth in the last 24 hours: downloaded %dMB / %dMB, " +
+            "uploaded %dMB / %dMB.",
+        toMegaBytes(bandwidthLedger.getBytes(BandwidthLedger.Direction.DOWNLOAD)),
+        toMegaBytes(BandwidthLedger.Direction.DOWNLOAD.getLimitInBytes()),
+        toMegaBytes(bandwidthLedger.getBytes(BandwidthLedger.Direction.UPLOAD)),
+        toMegaBytes(BandwidthLedger.Direction.UPLOAD.getLimitInBytes())));
   }
 
   private static int toMegaBytes(long bytes) {
@@ -553,7 +886,7 @@ public class MainViewController {
   @FXML
   private void onStopProcessingButtonPressed() {
     stopProcessingButton.setDisable(true);
-    stopProcessingButtonPressed = true;
+    processingCancellationToken.cancel();
   }
 
   private List<Email> getEmailsToProcess() {
@@ -563,10 +896,11 @@ public class MainViewController {
 
   private void disableControls() {
     signOutMenuItem.setDisable(true);
+    importResultsMenuItem.setDisable(true);
+    exportResultsMenuItem.setDisable(true);
     searchButton.setDisable(true);
     stopSearchButton.setDisable(true);
     resultsTable.setEditable(false);
-    setResultsTableCheckboxesEnabled(false);
     toggleAllEmailsCheckBox.setDisable(true);
     targetDirectoryTextField.setDisable(true);
     browseButton.setDisable(true);
@@ -579,10 +913,11 @@ public class MainViewController {
 
   private void resetControls() {
     signOutMenuItem.setDisable(false);
+    importResultsMenuItem.setDisable(false);
+    exportResultsMenuItem.setDisable(false);
     searchButton.setDisable(false);
     stopSearchButton.setDisable(true);
     resultsTable.setEditable(true);
-    setResultsTableCheckboxesEnabled(true);
     toggleAllEmailsCheckBox.setDisable(false);
     toggleAllEmailsCheckBox.setSelected(false);
     targetDirectoryTextField.setDisable(false);
@@ -594,13 +929,6 @@ public class MainViewController {
     stopProcessingButton.setDisable(true);
   }
 
-  private void setResultsTableCheckboxesEnabled(boolean enabled) {
-    for (int row = 0; row < resultsTable.getItems().size(); ++row) {
-      selectedTableColumn.getCellObservableValue(row).getValue().setDisable(!enabled);
-    }
-    resultsTable.refresh();
-  }
-
   @FXML
   private void onDonateMenuItemPressed(ActionEvent event) {
     Object source = event.getSource();
@@ -750,26 +1078,68 @@ public class MainViewController {
     schedulePeriodComboBox.setDisable(!enabled);
   }
 
-  private void scheduleNextRun(Action action) {
-    stopAnyRunningSchedule();
-    stopScheduleButton.setDisable(false);
+  // The run that started the schedule counts as its first one, and the schedule is only restarted if the action or
+  // the period changed. The scheduler checks the time itself, so nothing needs to tick here.
+  private void startSchedule(Action action) {
     SchedulePeriod schedulePeriod = schedulePeriodComboBox.getSelectionModel().getSelectedItem();
-    LocalDateTime nextRunTime = LocalDateTime.now().plusSeconds(schedulePeriod.getSeconds());
-    timeline = new Timeline(new KeyFrame(Duration.ZERO, event -> {
-      LocalDateTime now = LocalDateTime.now();
-      if (now.isAfter(nextRunTime)) {
-        timeline.stop();
-        timeline = null;
-        scheduleTimeLabel.setText("");
-        onSchedule(action);
-      } else {
-        long durationMillis = java.time.Duration.between(now, nextRunTime).toMillis();
-        String duration = DurationFormatUtils.formatDurationWords(durationMillis, true, false);
-        scheduleTimeLabel.setText("Next '" + action + "' in " + duration + ".");
+    Scheduler scheduler = controller.getScheduler(Scheduler.Owner.DESKTOP);
+    if (scheduler.isStarted() && action == scheduledAction && schedulePeriod == scheduledPeriod) {
+      return;
+    }
+    scheduledAction = action;
+    scheduledPeriod = schedulePeriod;
+    stopScheduleButton.setDisable(false);
+    // Starting replaces the previous schedule, and keeps the next run if neither the action nor the period changed.
+    scheduler.start(getTrigger(schedulePeriod), action.name(), 0, false,
+        // A run while the bandwidth that the action needs is spent would only defer every email.
+        () -> processingEngine.getMillisUntilBandwidthAvailable(action), () -> runScheduled(action),
+        nextRunMillis -> Platform.runLater(() -> scheduleTimeLabel.setText("Next '" + action + "' at " +
+            TIME_FORMATTER.format(Instant.ofEpochMilli(nextRunMillis).atZone(ZoneId.systemDefault())) + ".")));
+  }
+
+  // A schedule that was running when the app was closed is started again, and a run that was missed in the meantime
+  // is caught up right away.
+  private void restoreSchedule() {
+    Scheduler.SavedSchedule savedSchedule = controller.getScheduler(Scheduler.Owner.DESKTOP).readSavedSchedule();
+    if (savedSchedule == null) {
+      return;
+    }
+    Action action;
+    try {
+      action = Action.valueOf(savedSchedule.jobName);
+    } catch (IllegalArgumentException e) {
+      LOGGER.warning("Ignoring a saved schedule of an unknown action: " + savedSchedule.jobName);
+      return;
+    }
+    for (SchedulePeriod schedulePeriod : schedulePeriodComboBox.getItems()) {
+      if (getTrigger(schedulePeriod).toString().equals(savedSchedule.trigger.toString())) {
+        schedulePeriodComboBox.getSelectionModel().select(schedulePeriod);
+        enableScheduleCheckBox.setSelected(true);
+        LOGGER.info("Restoring the schedule of '" + action + "' every " + schedulePeriod + ".");
+        startSchedule(action);
+        return;
+      }
+    }
+    LOGGER.warning("Ignoring a saved schedule with an unknown period: " + savedSchedule.trigger);
+  }
+
+  private static Scheduler.Trigger getTrigger(SchedulePeriod schedulePeriod) {
+    return Scheduler.Trigger.every(1000L * schedulePeriod.getSeconds());
+  }
+
+  // Completes once the processing stopped, so that the scheduler skips runs while it is still going.
+  private CompletableFuture<?> runScheduled(Action action) {
+    CompletableFuture<Void> run = new CompletableFuture<>();
+    Platform.runLater(() -> {
+      if (searchButton.isDisabled()) {
+        LOGGER.info("Skipping a scheduled '" + action + "', because a search or processing is still going.");
+        run.complete(null);
+        return;
       }
-    }), new KeyFrame(Duration.seconds(1)));
-    timeline.setCycleCount(Timeline.INDEFINITE);
-    timeline.play();
+      scheduledRun = run;
+      onSchedule(action);
+    });
+    return run;
   }
 
   @FXML
@@ -791,10 +1161,9 @@ public class MainViewController {
   }
 
   private void stopAnyRunningSchedule() {
-    if (timeline != null) {
-      timeline.stop();
-      timeline = null;
-    }
+    controller.getScheduler(Scheduler.Owner.DESKTOP).stop();
+    scheduledAction = null;
+    scheduledPeriod = null;
     scheduleTimeLabel.setText("");
     stopScheduleButton.setDisable(true);
   }
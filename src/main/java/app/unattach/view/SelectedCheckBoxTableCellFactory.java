@@ -13,14 +13,16 @@ public class SelectedCheckBoxTableCellFactory implements Callback<TableColumn.Ce
   public ObservableValue<CheckBox> call(TableColumn.CellDataFeatures<Email, CheckBox> cellDataFeatures) {
     Email email = cellDataFeatures.getValue();
     CheckBox checkBox = new CheckBox();
-    boolean enabled = cellDataFeatures.getTableView().isEditable()
-        && email.getStatus() != EmailStatus.FAILED && email.getStatus() != EmailStatus.PROCESSED;
-    checkBox.setDisable(!enabled);
+    if (email.getStatus() == EmailStatus.FAILED || email.getStatus() == EmailStatus.PROCESSED) {
+      checkBox.setDisable(true);
+    } else {
+      // Follows the table, so that enabling or disabling the table doesn't require refreshing all its rows.
+      checkBox.disableProperty().bind(cellDataFeatures.getTableView().editableProperty().not());
+    }
     checkBox.selectedProperty().setValue(email.isSelected());
     checkBox.selectedProperty().addListener((observableValue, oldValue, newValue) -> {
       EmailStatus targetStatus = newValue ? EmailStatus.TO_PROCESS : EmailStatus.IGNORED;
       email.setStatus(targetStatus);
-      cellDataFeatures.getTableView().refresh();
     });
     return new SimpleObjectProperty<>(checkBox);
   }
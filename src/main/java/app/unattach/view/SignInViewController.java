@@ -2,6 +2,7 @@ package app.unattach.view;
 
 import app.unattach.controller.Controller;
 import app.unattach.controller.ControllerFactory;
+import app.unattach.controller.LongTaskExecutor;
 import app.unattach.model.Constants;
 import app.unattach.model.DonationOption;
 import javafx.application.Platform;
@@ -51,7 +52,7 @@ public class SignInViewController {
             "Click on 'How Unattach Works' to see why this is required and how your privacy is protected.");
     subscribeToUpdatesCheckBox.setSelected(controller.getConfig().getSubscribeToUpdates());
     Platform.runLater(() -> signInButton.requestFocus());
-    Platform.runLater(this::checkLatestVersion);
+    checkLatestVersion();
   }
 
   @FXML
@@ -110,9 +111,14 @@ public class SignInViewController {
     new Thread(task).start();
   }
 
+  // The check is a round trip to the server, so the view is shown without waiting for it.
   private void checkLatestVersion() {
+    LongTaskExecutor.submit(controller::getLatestVersion)
+        .thenAccept(latestVersion -> Platform.runLater(() -> showLatestVersion(latestVersion)));
+  }
+
+  private void showLatestVersion(DefaultArtifactVersion latestVersion) {
     DefaultArtifactVersion currentVersion = new DefaultArtifactVersion(Constants.VERSION);
-    DefaultArtifactVersion latestVersion = controller.getLatestVersion();
     if (latestVersion == null) {
       versionMessage.setText("Failed to find out the latest version.");
     } else if (currentVersion.compareTo(latestVersion) >= 0) {
@@ -0,0 +1,77 @@
+package app.unattach;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncLogHandlerTest {
+  private static class RecordingHandler extends Handler {
+    private final List<LogRecord> records = new CopyOnWriteArrayList<>();
+    private final CountDownLatch release;
+
+    private RecordingHandler(CountDownLatch release) {
+      this.release = release;
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      records.add(record);
+    }
+
+    @Override
+    public void flush() {}
+
+    @Override
+    public void close() {}
+  }
+
+  @Test
+  void blockingKeepsAllRecordsFromAllThreads() throws Exception {
+    RecordingHandler target = new RecordingHandler(new CountDownLatch(0));
+    AsyncLogHandler handler = new AsyncLogHandler(new Handler[] {target}, 4, AsyncLogHandler.Overflow.BLOCK);
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; ++i) {
+      threads[i] = new Thread(() -> {
+        for (int j = 0; j < 1000; ++j) {
+          handler.publish(new LogRecord(Level.INFO, "record " + j));
+        }
+      });
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    handler.close();
+    assertEquals(4000, target.records.size());
+  }
+
+  @Test
+  void droppingKeepsWarningsAndReportsTheDroppedCount() {
+    CountDownLatch release = new CountDownLatch(1);
+    RecordingHandler target = new RecordingHandler(release);
+    AsyncLogHandler handler = new AsyncLogHandler(new Handler[] {target}, 2, AsyncLogHandler.Overflow.DROP);
+    for (int i = 0; i < 100; ++i) {
+      handler.publish(new LogRecord(Level.INFO, "record " + i));
+    }
+    release.countDown();
+    handler.publish(new LogRecord(Level.WARNING, "warning"));
+    handler.close();
+    List<String> messages = target.records.stream().map(LogRecord::getMessage).collect(Collectors.toList());
+    assertTrue(messages.contains("warning"));
+    assertTrue(messages.size() < 100);
+    assertTrue(messages.stream().anyMatch(message -> message.startsWith("Dropped ")));
+  }
+}
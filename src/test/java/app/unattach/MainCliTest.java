@@ -0,0 +1,57 @@
+package app.unattach;
+
+import app.unattach.model.DirectoryLayout;
+import app.unattach.model.ProcessingOrder;
+import app.unattach.view.Action;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MainCliTest {
+  @Test
+  void optionsAreParsed() {
+    MainCli.Options options = MainCli.Options.parse(new String[] {"--action", "download-and-delete", "--min-size",
+        "5", "--labels", "INBOX,Family", "--directory-layout", "sender-domain", "--order", "largest-first",
+        "--trash-original", "--no-metadata", "--daily-at", "02:30", "--jitter", "10"});
+    assertEquals(Action.DOWNLOAD_AND_DELETE, options.action);
+    assertEquals(Integer.valueOf(5), options.minEmailSizeInMb);
+    assertEquals(List.of("INBOX", "Family"), options.labelNames);
+    assertEquals(DirectoryLayout.SENDER_DOMAIN, options.directoryLayout);
+    assertEquals(ProcessingOrder.LARGEST_FIRST, options.processingOrder);
+    assertTrue(options.trashOriginal);
+    assertFalse(options.addMetadata);
+    assertEquals(LocalTime.of(2, 30), options.dailyAt);
+    assertEquals(10, options.jitterMinutes);
+    assertNotNull(options.getTrigger());
+  }
+
+  @Test
+  void resumeDoesNotNeedAnAction() {
+    MainCli.Options options = MainCli.Options.parse(new String[] {"--resume"});
+    assertTrue(options.resume);
+    assertNull(options.action);
+    assertNull(options.getTrigger());
+  }
+
+  @Test
+  void invalidCombinationsAreRejected() {
+    assertThrows(IllegalArgumentException.class, () -> MainCli.Options.parse(new String[] {}));
+    assertThrows(IllegalArgumentException.class, () -> MainCli.Options.parse(
+        new String[] {"--action", "download", "--repeat-every", "60", "--daily-at", "02:30"}));
+    assertThrows(IllegalArgumentException.class, () -> MainCli.Options.parse(
+        new String[] {"--resume", "--repeat-every", "60"}));
+    assertThrows(IllegalArgumentException.class, () -> MainCli.Options.parse(new String[] {"--action", "archive"}));
+    assertThrows(IllegalArgumentException.class, () -> MainCli.Options.parse(
+        new String[] {"--action", "download", "--min-size", "-1"}));
+    assertThrows(IllegalArgumentException.class, () -> MainCli.Options.parse(new String[] {"--action"}));
+  }
+
+  @Test
+  void invalidOptionsExitWithCode2() {
+    assertEquals(2, MainCli.run(new String[] {"--action", "download", "--unknown"}));
+    assertEquals(2, MainCli.run(new String[] {"--daily-at", "25:00", "--action", "download"}));
+  }
+}
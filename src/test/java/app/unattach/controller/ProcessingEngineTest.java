@@ -0,0 +1,147 @@
+package app.unattach.controller;
+
+import app.unattach.model.*;
+import app.unattach.view.Action;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProcessingEngineTest {
+  private static final int NUMBER_OF_EMAILS = 4;
+
+  // Fails the emails with the given Gmail IDs, and counts the finished jobs.
+  private static class TestModel extends MockModel {
+    private final List<String> failingGmailIds = new ArrayList<>();
+    private int finishedJobs;
+
+    @Override
+    public LongTask<ProcessEmailResult> getProcessTask(Email email, ProcessSettings processSettings) {
+      if (!failingGmailIds.contains(email.getGmailId())) {
+        return super.getProcessTask(email, processSettings);
+      }
+      return new LongTask<>() {
+        @Override
+        public int getNumberOfSteps() {
+          return 1;
+        }
+
+        @Override
+        public boolean hasMoreSteps() {
+          return true;
+        }
+
+        @Override
+        public CompletableFuture<ProcessEmailResult> takeStep(CancellationToken cancellationToken) {
+          return CompletableFuture.failedFuture(new IOException("Failed to insert the email."));
+        }
+      };
+    }
+
+    @Override
+    public void finishJob() {
+      ++finishedJobs;
+    }
+  }
+
+  @Test
+  void emailsAreProcessedAndFailuresAreCounted() throws Exception {
+    TestModel model = new TestModel();
+    Controller controller = new DefaultController(model);
+    List<Email> emails = search(controller);
+    model.failingGmailIds.add(emails.get(1).getGmailId());
+    List<ProcessingProgress> progresses = new ArrayList<>();
+    List<Email> failedEmails = new ArrayList<>();
+
+    ProcessingProgress progress = new ProcessingEngine(controller).process(emails,
+        createProcessSettings(Action.DOWNLOAD), ProcessingOrder.TABLE, new CancellationToken(),
+        new ProcessingEngine.Listener() {
+          @Override
+          public void onProgress(ProcessingProgress progress) {
+            progresses.add(progress);
+          }
+
+          @Override
+          public void onEmailFailed(Email email, Throwable t) {
+            failedEmails.add(email);
+          }
+        }).join();
+
+    assertEquals(NUMBER_OF_EMAILS, progress.numberOfEmails);
+    assertEquals(NUMBER_OF_EMAILS - 1, progress.processed);
+    assertEquals(1, progress.failed);
+    assertEquals(0, progress.deferred);
+    assertEquals(NUMBER_OF_EMAILS + 1, progresses.size());
+    assertEquals(List.of(emails.get(1)), failedEmails);
+    assertEquals(EmailStatus.FAILED, emails.get(1).getStatus());
+    assertEquals("Failed to insert the email.", emails.get(1).getNote());
+    assertEquals(1, model.finishedJobs);
+  }
+
+  @Test
+  void emailsThatNeedSpentBandwidthAreDeferred() throws Exception {
+    TestModel model = new TestModel();
+    Controller controller = new DefaultController(model);
+    List<Email> emails = search(controller);
+    BandwidthLedger.Direction upload = BandwidthLedger.Direction.UPLOAD;
+    controller.getBandwidthLedger().record(upload, upload.getLimitInBytes());
+
+    ProcessingProgress progress = new ProcessingEngine(controller).process(emails,
+        createProcessSettings(Action.DOWNLOAD_AND_DELETE), ProcessingOrder.TABLE, new CancellationToken(),
+        p -> {}).join();
+
+    long emailsWithAttachments = emails.stream().filter(email -> !email.getAttachments().isEmpty()).count();
+    assertTrue(emailsWithAttachments > 0);
+    assertEquals(emailsWithAttachments, progress.deferred);
+    assertEquals(NUMBER_OF_EMAILS - emailsWithAttachments, progress.processed);
+    assertEquals(0, progress.failed);
+    for (Email email : emails) {
+      if (!email.getAttachments().isEmpty()) {
+        assertEquals(EmailStatus.TO_PROCESS, email.getStatus());
+        assertTrue(email.getNote().contains("upload"));
+      }
+    }
+    assertEquals(1, model.finishedJobs);
+  }
+
+  @Test
+  void cancelledRunFinishesTheJob() throws Exception {
+    TestModel model = new TestModel();
+    Controller controller = new DefaultController(model);
+    List<Email> emails = search(controller);
+    CancellationToken cancellationToken = new CancellationToken();
+    cancellationToken.cancel();
+
+    ProcessingProgress progress = new ProcessingEngine(controller).process(emails,
+        createProcessSettings(Action.DOWNLOAD), ProcessingOrder.TABLE, cancellationToken, p -> {}).join();
+
+    assertEquals(0, progress.getNumberOfFinishedEmails());
+    assertEquals(1, model.finishedJobs);
+  }
+
+  // The first few small emails of the mock mailbox, so that the test doesn't generate large attachments.
+  private static List<Email> search(Controller controller) throws Exception {
+    CancellationToken cancellationToken = new CancellationToken();
+    LongTaskExecutor.run(controller.getSearchTask("", cancellationToken), cancellationToken, progress -> {}).join();
+    List<Email> emails = controller.getEmails().stream()
+        .filter(email -> email.getSizeInBytes() < Constants.BYTES_IN_MEGABYTE)
+        .limit(NUMBER_OF_EMAILS).collect(Collectors.toList());
+    assertEquals(NUMBER_OF_EMAILS, emails.size());
+    emails.forEach(email -> email.setStatus(EmailStatus.TO_PROCESS));
+    return emails;
+  }
+
+  private static ProcessSettings createProcessSettings(Action action) throws IOException {
+    boolean remove = action != Action.DOWNLOAD;
+    ProcessOption processOption = new ProcessOption(action, false, action != Action.DELETE, remove, false,
+        "downloaded", remove ? "removed" : null);
+    return new ProcessSettings(processOption, Files.createTempDirectory("unattach-test").toFile(),
+        "${ATTACHMENT_NAME}", DirectoryLayout.FLAT, true);
+  }
+}
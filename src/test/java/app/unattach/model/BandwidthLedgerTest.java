@@ -0,0 +1,59 @@
+package app.unattach.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static app.unattach.model.BandwidthLedger.Direction.DOWNLOAD;
+import static app.unattach.model.BandwidthLedger.Direction.UPLOAD;
+import static org.junit.jupiter.api.Assertions.*;
+
+class BandwidthLedgerTest {
+  private static final long MB = Constants.BYTES_IN_MEGABYTE;
+  private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+  @Test
+  void transfersLeaveTheWindowAfterADay() throws IOException {
+    AtomicLong clock = new AtomicLong(1_000_000_000L);
+    Path path = Files.createTempDirectory("unattach-test").resolve("bandwidth.log");
+    BandwidthLedger ledger = BandwidthLedger.load(path, clock::get);
+    ledger.record(UPLOAD, 300 * MB);
+    clock.addAndGet(2 * HOUR);
+    ledger.record(UPLOAD, 150 * MB);
+    ledger.record(DOWNLOAD, 10 * MB);
+    assertEquals(50 * MB, ledger.getRemainingBytes(UPLOAD));
+    assertEquals(2490 * MB, ledger.getRemainingBytes(DOWNLOAD));
+
+    BandwidthBudgetException exception =
+        assertThrows(BandwidthBudgetException.class, () -> ledger.check(UPLOAD, 60 * MB));
+    assertEquals(UPLOAD, exception.getDirection());
+    // Only once the first upload leaves the window.
+    assertEquals(clock.get() + 22 * HOUR, exception.getAvailableAt());
+    // Emails that surely need at least as much are deferred without being fetched, but smaller ones still fit.
+    assertThrows(BandwidthBudgetException.class, () -> ledger.checkNotSpent(UPLOAD));
+    ledger.check(UPLOAD, 40 * MB);
+
+    // The ledger is shared across restarts.
+    BandwidthLedger reloadedLedger = BandwidthLedger.load(path, clock::get);
+    assertEquals(450 * MB, reloadedLedger.getBytes(UPLOAD));
+    clock.addAndGet(22 * HOUR);
+    assertEquals(150 * MB, reloadedLedger.getBytes(UPLOAD));
+    assertEquals(0, reloadedLedger.getMillisUntilNotSpent(UPLOAD));
+    assertEquals(150 * MB, BandwidthLedger.load(path, clock::get).getBytes(UPLOAD));
+  }
+
+  @Test
+  void fullBudgetIsSpent() throws BandwidthBudgetException {
+    AtomicLong clock = new AtomicLong(1_000_000_000L);
+    BandwidthLedger ledger = new BandwidthLedger(null, clock::get);
+    ledger.checkNotSpent(DOWNLOAD);
+    ledger.record(DOWNLOAD, 2500 * MB);
+    assertEquals(0, ledger.getRemainingBytes(DOWNLOAD));
+    assertEquals(24 * HOUR, ledger.getMillisUntilNotSpent(DOWNLOAD));
+    assertThrows(BandwidthBudgetException.class, () -> ledger.checkNotSpent(DOWNLOAD));
+  }
+}
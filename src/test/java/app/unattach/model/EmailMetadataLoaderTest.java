@@ -0,0 +1,68 @@
+package app.unattach.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EmailMetadataLoaderTest {
+  @Test
+  void requestedEmailsAreLoadedFirst() throws InterruptedException {
+    EmailStore emailStore = new EmailStore();
+    for (int i = 0; i < 100; ++i) {
+      emailStore.addUnloaded("id" + i);
+    }
+    List<List<Email>> batches = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch firstBatch = new CountDownLatch(1);
+    EmailMetadataLoader loader = new EmailMetadataLoader(emailStore, emails -> {
+      for (Email email : emails) {
+        email.load(email.getGmailId(), null, null, null, null, 0, 100, null);
+      }
+      batches.add(emails);
+      firstBatch.countDown();
+    });
+    List<Email> emails = emailStore.getEmails();
+    loader.request(emails.get(90));
+    loader.request(emails.get(42));
+    loader.request(emails.get(90));
+    loader.start();
+    assertTrue(firstBatch.await(10, TimeUnit.SECONDS));
+    loader.stop();
+
+    assertEquals(List.of(emails.get(90), emails.get(42)), batches.get(0));
+    assertTrue(emails.get(42).isLoaded());
+    assertFalse(emails.get(0).isLoaded());
+  }
+
+  @Test
+  void emailsThatFailToLoadAreRetried() throws InterruptedException {
+    EmailStore emailStore = new EmailStore();
+    for (int i = 0; i < 30; ++i) {
+      emailStore.addUnloaded("id" + i);
+    }
+    Set<String> failedGmailIds = Collections.synchronizedSet(new HashSet<>());
+    CountDownLatch fullyLoaded = new CountDownLatch(1);
+    EmailMetadataLoader loader = new EmailMetadataLoader(emailStore, emails -> {
+      for (Email email : emails) {
+        // Like a message that hit the rate limit, the first attempt leaves every third email unloaded.
+        if (email.getRow() % 3 == 0 && failedGmailIds.add(email.getGmailId())) {
+          continue;
+        }
+        email.load(email.getGmailId(), null, null, null, null, 0, 100, null);
+      }
+      if (emailStore.isFullyLoaded()) {
+        fullyLoaded.countDown();
+      }
+    });
+    long start = System.nanoTime();
+    loader.start();
+    assertTrue(fullyLoaded.await(20, TimeUnit.SECONDS));
+    loader.stop();
+
+    assertEquals(10, failedGmailIds.size());
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(EmailMetadataLoader.INITIAL_BACKOFF_MILLIS));
+  }
+}
@@ -0,0 +1,178 @@
+package app.unattach.model;
+
+import app.unattach.view.Action;
+import org.junit.jupiter.api.Test;
+
+import javax.activation.DataHandler;
+import javax.mail.Multipart;
+import javax.mail.Part;
+import javax.mail.Session;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import javax.mail.util.ByteArrayDataSource;
+import javax.mail.util.SharedByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EmailProcessorTest {
+  private static final Email email = new Email("id3", "uid42", null, "from@example.com", "to@example.com",
+      "subject", 1501545600000L, 32141, Collections.singletonList("data.zip"));
+
+  @Test
+  void removeKeepsUntouchedPartsAndSavesAttachment() throws Exception {
+    File targetDirectory = Files.createTempDirectory("unattach-test").toFile();
+    ProcessOption processOption = new ProcessOption(Action.DOWNLOAD_AND_DELETE, false, true, true, false,
+        "downloaded", "removed");
+    ProcessSettings processSettings = new ProcessSettings(processOption, targetDirectory, "${ATTACHMENT_NAME}",
+        DirectoryLayout.FLAT, false);
+
+    // The image is not an attachment, so it stays. Its base64 lines are shorter than the ones JavaMail writes, so a
+    // re-encoded copy would differ from the original.
+    String encodedImage = "AAECAwQFBgcICQoLDA0ODxAREhMUFRYXGBkaGxwdHh8gISIjJCUmJygpKissLS4v\r\n" +
+        "MDEyMzQ1Njc4OTo7PD0+P0BBQkNERUZHSElKS0xNTk9QUVJTVFVWV1hZWltcXV5f\r\n" +
+        "YGFiY2RlZmdoaWprbG1ub3BxcnN0dXZ3\r\n";
+    String raw = "Subject: subject\r\n" +
+        "MIME-Version: 1.0\r\n" +
+        "Content-Type: multipart/mixed; boundary=\"boundary\"\r\n" +
+        "\r\n" +
+        "--boundary\r\n" +
+        "Content-Type: text/plain; charset=us-ascii\r\n" +
+        "\r\n" +
+        "Hello there.\r\n" +
+        "--boundary\r\n" +
+        "Content-Type: image/png\r\n" +
+        "Content-Transfer-Encoding: base64\r\n" +
+        "\r\n" +
+        encodedImage +
+        "--boundary\r\n" +
+        "Content-Type: application/zip; name=data.zip\r\n" +
+        "Content-Transfer-Encoding: base64\r\n" +
+        "Content-Disposition: attachment; filename=data.zip\r\n" +
+        "\r\n" +
+        "emlwLWNvbnRlbnRz\r\n" +
+        "--boundary--\r\n";
+    MimeMessage mimeMessage = parse(raw.getBytes(StandardCharsets.US_ASCII));
+    Set<String> filenames = EmailProcessor.process(email, mimeMessage, processSettings);
+
+    assertEquals(Collections.singleton("data.zip"), filenames);
+    assertArrayEquals("zip-contents".getBytes(StandardCharsets.UTF_8),
+        Files.readAllBytes(new File(targetDirectory, "data.zip").toPath()));
+    byte[] writtenBytes = write(mimeMessage);
+    assertTrue(new String(writtenBytes, StandardCharsets.US_ASCII).contains("\r\n\r\n" + encodedImage + "--"));
+    MimeMessage written = parse(writtenBytes);
+    Multipart multipart = (Multipart) written.getContent();
+    assertEquals(2, multipart.getCount());
+    assertEquals("Hello there.", multipart.getBodyPart(0).getContent().toString());
+    assertEquals("image/png", multipart.getBodyPart(1).getContentType());
+  }
+
+  @Test
+  void downloadLeavesMessageUnchanged() throws Exception {
+    File targetDirectory = Files.createTempDirectory("unattach-test").toFile();
+    ProcessOption processOption = new ProcessOption(Action.DOWNLOAD, false, true, false, false, "downloaded", null);
+    ProcessSettings processSettings = new ProcessSettings(processOption, targetDirectory, "${ATTACHMENT_NAME}",
+        DirectoryLayout.FLAT, true);
+
+    MimeMessage mimeMessage = parse(createMessage("data.zip"));
+    EmailProcessor.process(email, mimeMessage, processSettings);
+
+    assertTrue(new File(targetDirectory, "data.zip").exists());
+    assertEquals(2, ((Multipart) mimeMessage.getContent()).getCount());
+  }
+
+  @Test
+  void shardedLayoutIsReflectedInLinks() throws Exception {
+    File targetDirectory = Files.createTempDirectory("unattach-test").toFile();
+    ProcessOption processOption = new ProcessOption(Action.DOWNLOAD_AND_DELETE, false, true, true, false,
+        "downloaded", "removed");
+    ProcessSettings processSettings = new ProcessSettings(processOption, targetDirectory, "${ATTACHMENT_NAME}",
+        DirectoryLayout.SENDER_DOMAIN, true);
+
+    MimeMessage mimeMessage = parse(createMessage("data.zip"));
+    EmailProcessor.process(email, mimeMessage, processSettings);
+
+    assertTrue(new File(targetDirectory, "example.com/data.zip").exists());
+    String text = ((Multipart) parse(write(mimeMessage)).getContent()).getBodyPart(0).getContent().toString();
+    assertTrue(text.contains("/get_file/example.com/data.zip"));
+  }
+
+  @Test
+  void resumeRefersToTheFileSavedForEachAttachmentWithTheSameName() throws Exception {
+    File targetDirectory = Files.createTempDirectory("unattach-test").toFile();
+    ProcessOption processOption = new ProcessOption(Action.DOWNLOAD_AND_DELETE, false, true, true, false,
+        "downloaded", "removed");
+    ProcessSettings processSettings = new ProcessSettings(processOption, targetDirectory, "${ATTACHMENT_NAME}",
+        DirectoryLayout.FLAT, false);
+    byte[] message = createMessage("image001.png", "image001.png");
+
+    List<SavedAttachment> savedAttachments =
+        EmailProcessor.process(email, parse(message), processSettings, null);
+    assertEquals(2, savedAttachments.size());
+    assertEquals("image001.png", savedAttachments.get(0).normalizedFilename);
+    assertEquals("image001.png", savedAttachments.get(1).originalFilename);
+    assertNotEquals("image001.png", savedAttachments.get(1).normalizedFilename);
+
+    // The job was interrupted before the slim email was inserted, so the original email is processed again.
+    MimeMessage mimeMessage = parse(message);
+    assertEquals(savedAttachments, EmailProcessor.process(email, mimeMessage, processSettings, savedAttachments));
+    assertEquals(1, ((Multipart) parse(write(mimeMessage)).getContent()).getCount());
+    assertEquals(2, Objects.requireNonNull(targetDirectory.list()).length);
+  }
+
+  @Test
+  void resumeKeepsTheEmailIfAnAttachmentWasNotSaved() throws Exception {
+    File targetDirectory = Files.createTempDirectory("unattach-test").toFile();
+    ProcessOption processOption = new ProcessOption(Action.DOWNLOAD_AND_DELETE, false, true, true, false,
+        "downloaded", "removed");
+    ProcessSettings processSettings = new ProcessSettings(processOption, targetDirectory, "${ATTACHMENT_NAME}",
+        DirectoryLayout.FLAT, false);
+
+    MimeMessage mimeMessage = parse(createMessage("image001.png", "image001.png"));
+    List<SavedAttachment> savedAttachments = List.of(new SavedAttachment("image001.png", "image001.png"));
+    assertThrows(IOException.class,
+        () -> EmailProcessor.process(email, mimeMessage, processSettings, savedAttachments));
+    assertEquals(3, ((Multipart) mimeMessage.getContent()).getCount());
+  }
+
+  private static byte[] createMessage(String... filenames) throws Exception {
+    MimeMessage mimeMessage = new MimeMessage(Session.getInstance(new Properties()));
+    mimeMessage.setSubject("subject");
+    MimeBodyPart text = new MimeBodyPart();
+    text.setText("Hello there.");
+    MimeMultipart multipart = new MimeMultipart();
+    multipart.addBodyPart(text);
+    for (String filename : filenames) {
+      MimeBodyPart attachment = new MimeBodyPart();
+      attachment.setDataHandler(new DataHandler(
+          new ByteArrayDataSource("zip-contents".getBytes(StandardCharsets.UTF_8), "application/zip")));
+      attachment.setDisposition(Part.ATTACHMENT);
+      attachment.setFileName(filename);
+      attachment.setHeader("Content-Transfer-Encoding", "base64");
+      multipart.addBodyPart(attachment);
+    }
+    mimeMessage.setContent(multipart);
+    mimeMessage.saveChanges();
+    return write(mimeMessage);
+  }
+
+  private static MimeMessage parse(byte[] bytes) throws Exception {
+    return new MimeMessage(Session.getInstance(new Properties()), new SharedByteArrayInputStream(bytes));
+  }
+
+  private static byte[] write(MimeMessage mimeMessage) throws Exception {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    mimeMessage.writeTo(buffer);
+    return buffer.toByteArray();
+  }
+}
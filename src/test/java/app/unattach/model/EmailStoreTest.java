@@ -0,0 +1,257 @@
+package app.unattach.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EmailStoreTest {
+  private static Email add(EmailStore emailStore, String gmailId, int sizeInBytes) {
+    return emailStore.add(gmailId, "<" + gmailId + "@example.com>", Arrays.asList("INBOX", "IMPORTANT"),
+        "\"John Doe\" <john.doe@example.com>", "jane.doe@example.com", "Subject " + gmailId, 1501545600000L,
+        sizeInBytes, Arrays.asList("data.zip", "image.png"));
+  }
+
+  @Test
+  void rowsAreReadBack() {
+    EmailStore emailStore = new EmailStore();
+    for (int i = 0; i < 100; ++i) {
+      add(emailStore, "id" + i, i);
+    }
+    Email email = emailStore.getEmails().get(42);
+    assertEquals(100, emailStore.size());
+    assertEquals("id42", email.getGmailId());
+    assertEquals("<id42@example.com>", email.getUniqueId());
+    assertEquals("IMPORTANT_INBOX", email.getLabelIdsString());
+    assertEquals("john.doe@example.com", email.getFromEmail());
+    assertEquals("Subject id42", email.getSubject());
+    assertEquals(42, email.getSizeInBytes());
+    assertEquals("data.zip, image.png", email.getAttachments());
+    assertEquals(EmailStatus.IGNORED, email.getStatus());
+    assertEquals("", email.getNote());
+  }
+
+  @Test
+  void addedAndLoadedRowsRoundTrip() {
+    EmailStore emailStore = new EmailStore();
+    Email added = emailStore.add("id0", "<id0>", Arrays.asList("INBOX", "Label_1"), "Alice <alice@example.com>",
+        "bob@example.com", "Hello", 1501545600000L, 1234, Collections.singletonList("a.pdf"));
+    Email unloaded = emailStore.addUnloaded("id1");
+    assertEquals("id1", unloaded.getGmailId());
+    assertFalse(unloaded.isLoaded());
+    assertNull(unloaded.getFrom());
+    assertEquals(List.of(), unloaded.getAttachmentNames());
+
+    unloaded.load("<id1>", Collections.singletonList("SENT"), null, "carol@example.com", "Re: Hello",
+        1501545700000L, 5678, Collections.emptyList());
+    // A row is only loaded once.
+    unloaded.load("<other>", Collections.singletonList("INBOX"), "x", "y", "z", 0, 1, Collections.singletonList("b"));
+    for (Email email : List.of(added, unloaded)) {
+      assertTrue(email.isLoaded());
+    }
+    assertEquals("<id0>", added.getUniqueId());
+    assertEquals(List.of("INBOX", "Label_1"), added.getLabelIds());
+    assertEquals("Alice <alice@example.com>", added.getFrom());
+    assertEquals("bob@example.com", added.getTo());
+    assertEquals(1501545600000L, added.getDate().getTime());
+    assertEquals("<id1>", unloaded.getUniqueId());
+    assertEquals(List.of("SENT"), unloaded.getLabelIds());
+    assertNull(unloaded.getFrom());
+    assertEquals("carol@example.com", unloaded.getTo());
+    assertEquals("Re: Hello", unloaded.getSubject());
+    assertEquals(5678, unloaded.getSizeInBytes());
+    assertEquals(List.of(), unloaded.getAttachmentNames());
+  }
+
+  @Test
+  void sharedStringsAndAttachmentRangesAreDecodedPerRow() {
+    EmailStore emailStore = new EmailStore(new LabelDictionary(), 1);
+    List<List<String>> attachments = List.of(List.of(), List.of("a.zip", "b.zip", "c.zip"), List.of("a.zip"),
+        List.of(), List.of("d.png", "a.zip"));
+    for (int i = 0; i < 100; ++i) {
+      emailStore.addUnloaded("id" + i);
+    }
+    // Loaded out of order, so that the attachment ranges are not in the order of the rows.
+    for (int i = 99; i >= 0; --i) {
+      emailStore.getEmails().get(i).load("<id" + i + ">", Collections.singletonList("INBOX"),
+          "sender" + i % 3 + "@example.com", "me@example.com", "Subject", 1501545600000L, i,
+          attachments.get(i % attachments.size()));
+    }
+    for (int i = 0; i < 100; ++i) {
+      Email email = emailStore.getEmails().get(i);
+      assertEquals("sender" + i % 3 + "@example.com", email.getFrom());
+      assertEquals("me@example.com", email.getTo());
+      assertEquals(attachments.get(i % attachments.size()), email.getAttachmentNames());
+    }
+  }
+
+  @Test
+  void aggregatesFollowStatusChanges() {
+    EmailStore emailStore = new EmailStore();
+    Email small = add(emailStore, "id1", 100);
+    Email large = add(emailStore, "id2", 1000);
+    assertEquals(2, emailStore.getCount(EmailStatus.IGNORED));
+    assertEquals(1100, emailStore.getTotalSizeInBytes());
+
+    small.setStatus(EmailStatus.TO_PROCESS);
+    large.setStatus(EmailStatus.TO_PROCESS);
+    large.setStatus(EmailStatus.TO_PROCESS);
+    assertEquals(2, emailStore.getCount(EmailStatus.TO_PROCESS));
+    assertEquals(1100, emailStore.getSizeInBytes(EmailStatus.TO_PROCESS));
+
+    large.setStatus(EmailStatus.PROCESSED);
+    assertEquals(1, emailStore.getCount(EmailStatus.TO_PROCESS));
+    assertEquals(100, emailStore.getSizeInBytes(EmailStatus.TO_PROCESS));
+    assertEquals(1000, emailStore.getSizeInBytes(EmailStatus.PROCESSED));
+    assertEquals(0, emailStore.getCount(EmailStatus.IGNORED));
+  }
+
+  @Test
+  void filteredAggregatesFollowStatusChangesOfFilteredRows() {
+    EmailStore emailStore = new EmailStore();
+    Email small = add(emailStore, "id1", 100);
+    Email large = add(emailStore, "id2", 1000);
+    Email unloaded = emailStore.addUnloaded("id3");
+    emailStore.setFilteredRows(new int[] {small.getRow(), unloaded.getRow()});
+
+    small.setStatus(EmailStatus.TO_PROCESS);
+    large.setStatus(EmailStatus.TO_PROCESS);
+    unloaded.setStatus(EmailStatus.TO_PROCESS);
+    assertEquals(2, emailStore.getFilteredCount(EmailStatus.TO_PROCESS));
+    assertEquals(100, emailStore.getFilteredSizeInBytes(EmailStatus.TO_PROCESS));
+
+    unloaded.load("id3", null, null, null, null, 0, 10, null);
+    assertEquals(110, emailStore.getFilteredSizeInBytes(EmailStatus.TO_PROCESS));
+    small.setStatus(EmailStatus.PROCESSED);
+    assertEquals(1, emailStore.getFilteredCount(EmailStatus.TO_PROCESS));
+    assertEquals(10, emailStore.getFilteredSizeInBytes(EmailStatus.TO_PROCESS));
+
+    emailStore.setFilteredRows(new int[] {large.getRow()});
+    assertEquals(1, emailStore.getFilteredCount(EmailStatus.TO_PROCESS));
+    assertEquals(1000, emailStore.getFilteredSizeInBytes(EmailStatus.TO_PROCESS));
+    assertEquals(0, emailStore.getFilteredCount(EmailStatus.PROCESSED));
+  }
+
+  @Test
+  void changesAreCoalesced() {
+    EmailStore emailStore = new EmailStore();
+    for (int i = 0; i < 10; ++i) {
+      add(emailStore, "id" + i, i);
+    }
+    AtomicInteger notifications = new AtomicInteger();
+    emailStore.setChangeListener(notifications::incrementAndGet);
+    emailStore.getEmails().get(7).setStatus(EmailStatus.TO_PROCESS);
+    emailStore.getEmails().get(3).setStatus(EmailStatus.TO_PROCESS);
+    emailStore.getEmails().get(7).setNote("Failed.");
+    emailStore.getEmails().get(5).setStatus(EmailStatus.IGNORED);
+    assertEquals(1, notifications.get());
+    assertArrayEquals(new int[] {3, 7}, emailStore.drainChangedRows());
+    assertArrayEquals(new int[0], emailStore.drainChangedRows());
+
+    emailStore.getEmails().get(1).setNote("Failed.");
+    assertEquals(2, notifications.get());
+    assertArrayEquals(new int[] {1}, emailStore.drainChangedRows());
+  }
+
+  @Test
+  void sizesAreEstimatedUntilLoaded() {
+    EmailStore emailStore = new EmailStore();
+    for (int i = 0; i < 4; ++i) {
+      emailStore.addUnloaded("id" + i);
+    }
+    List<Email> emails = emailStore.getEmails();
+    emails.get(0).setStatus(EmailStatus.TO_PROCESS);
+    emails.get(1).setStatus(EmailStatus.TO_PROCESS);
+    assertFalse(emails.get(0).isLoaded());
+    assertNull(emails.get(0).getDate());
+    assertEquals("", emails.get(0).getAttachments());
+    assertEquals(0, emailStore.getEstimatedTotalSizeInBytes());
+
+    emails.get(2).load("<id2@example.com>", Collections.singletonList("INBOX"), "john.doe@example.com",
+        "jane.doe@example.com", "Subject", 1501545600000L, 1000, Collections.singletonList("data.zip"));
+    emails.get(0).load("<id0@example.com>", Collections.singletonList("INBOX"), "john.doe@example.com",
+        "jane.doe@example.com", "Subject", 1501545600000L, 3000, Arrays.asList("a.zip", "b.zip"));
+    assertEquals("a.zip, b.zip", emails.get(0).getAttachments());
+    assertEquals("data.zip", emails.get(2).getAttachments());
+    assertEquals(2, emailStore.getNumberOfLoadedRows());
+    assertFalse(emailStore.isFullyLoaded());
+    assertEquals(3000 + 2000, emailStore.getEstimatedSizeInBytes(EmailStatus.TO_PROCESS));
+    assertEquals(4000 + 2 * 2000, emailStore.getEstimatedTotalSizeInBytes());
+    assertEquals(1, emailStore.getNextUnloadedRow(0));
+    assertEquals(3, emailStore.getNextUnloadedRow(2));
+    assertEquals(-1, emailStore.getNextUnloadedRow(4));
+  }
+
+  @Test
+  void rowsAreFilteredAndSorted() {
+    EmailStore emailStore = new EmailStore();
+    emailStore.add("id0", "<id0>", Collections.singletonList("INBOX"), "Alice <alice@example.com>", "me",
+        "Invoice March", 1583020800000L, 3 * Constants.BYTES_IN_MEGABYTE, Arrays.asList("invoice.PDF", "logo.png"));
+    emailStore.add("id1", "<id1>", Collections.singletonList("Label_1"), "bob@example.org", "me",
+        "Holiday photos", 1593561600000L, 30 * Constants.BYTES_IN_MEGABYTE, Collections.singletonList("beach.jpg"));
+    emailStore.add("id2", "<id2>", Arrays.asList("INBOX", "Label_1"), "Carol <carol@example.com>", "me",
+        "Invoice July", 1593561600000L, 8 * Constants.BYTES_IN_MEGABYTE, Collections.singletonList("invoice.pdf"));
+    emailStore.addUnloaded("id3");
+    Map<String, String> idToLabel = Map.of("INBOX", "INBOX", "Label_1", "Family");
+
+    assertArrayEquals(new int[] {0, 1, 2, 3}, emailStore.filter(ResultFilter.EMPTY));
+    assertArrayEquals(new int[] {0, 2}, emailStore.filter(ResultFilter.parse("invoice ext:pdf", idToLabel)));
+    assertArrayEquals(new int[] {0, 2}, emailStore.filter(ResultFilter.parse("from:example.com", idToLabel)));
+    assertArrayEquals(new int[] {1, 2}, emailStore.filter(ResultFilter.parse("label:family", idToLabel)));
+    assertArrayEquals(new int[] {2}, emailStore.filter(ResultFilter.parse("size>5 size<10", idToLabel)));
+    assertArrayEquals(new int[] {1, 2}, emailStore.filter(ResultFilter.parse("after:2020-06-01", idToLabel)));
+    assertArrayEquals(new int[] {1}, emailStore.filter(ResultFilter.parse("subject:\"holiday photos\"", idToLabel)));
+
+    int[] rows = {0, 1, 2};
+    emailStore.sort(rows, EmailStore.SortKey.SIZE, false);
+    assertArrayEquals(new int[] {1, 2, 0}, rows);
+    emailStore.sort(rows, EmailStore.SortKey.DATE, true);
+    assertArrayEquals(new int[] {0, 1, 2}, rows);
+    emailStore.sort(rows, EmailStore.SortKey.FROM, false);
+    assertArrayEquals(new int[] {2, 1, 0}, rows);
+  }
+
+  @Test
+  void rowsAreReadWhileAnotherThreadFillsTheStore() throws Exception {
+    // A small initial capacity, so that the columns are reallocated while they are read.
+    EmailStore emailStore = new EmailStore(new LabelDictionary(), 1);
+    AtomicReference<Throwable> writerFailure = new AtomicReference<>();
+    Thread writer = new Thread(() -> {
+      try {
+        for (int i = 0; i < 20_000; ++i) {
+          if (i % 2 == 0) {
+            add(emailStore, "id" + i, i);
+          } else {
+            emailStore.addUnloaded("id" + i).load("<id" + i + ">", Collections.singletonList("INBOX"), "from", "to",
+                "Subject", 1501545600000L, i, Arrays.asList("a.zip", "b.zip", "c.zip"));
+          }
+        }
+      } catch (Throwable t) {
+        writerFailure.set(t);
+      }
+    });
+    writer.start();
+    do {
+      List<Email> emails = emailStore.getEmails();
+      for (int i = Math.max(0, emails.size() - 100); i < emails.size(); ++i) {
+        Email email = emails.get(i);
+        assertEquals("id" + i, email.getGmailId());
+        String attachments = email.getAttachments();
+        if (i % 2 == 0) {
+          assertEquals("data.zip, image.png", attachments);
+        } else if (email.isLoaded()) {
+          assertEquals("a.zip, b.zip, c.zip", attachments);
+        }
+      }
+    } while (writer.isAlive());
+    writer.join();
+    assertNull(writerFailure.get());
+    assertEquals(20_000, emailStore.getEmails().size());
+  }
+}
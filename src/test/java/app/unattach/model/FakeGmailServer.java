@@ -0,0 +1,552 @@
+package app.unattach.model;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import javax.mail.BodyPart;
+import javax.mail.MessagingException;
+import javax.mail.Multipart;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeUtility;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.commons.codec.binary.Base64.decodeBase64;
+import static org.apache.commons.codec.binary.Base64.encodeBase64URLSafeString;
+
+// An in-process stand-in for the parts of the Gmail REST API that LiveModel uses, backed by an in-memory mailbox, so
+// that the real requests, batches, JSON and base64 handling can be exercised off-line. LiveModel is pointed at it by
+// setting the GmailServiceLifecycleManager.ROOT_URL_PROPERTY system property to getRootUrl(). The latency, the
+// injected failures and the quota per user make it usable for load and fault testing, with a mailbox of messages
+// added one by one, or generated by SyntheticMailbox. Search queries are ignored: every message that is not in the
+// trash matches.
+class FakeGmailServer implements AutoCloseable {
+  private static final String USERS_PATH = "/gmail/v1/users/";
+  private static final String BATCH_PATH = "/batch/gmail/v1";
+  private static final int MAX_PAGE_SIZE = 500;
+  private static final int DEFAULT_PAGE_SIZE = 100;
+  // The same costs as Gmail's, see https://developers.google.com/gmail/api/reference/quota.
+  private static final Map<String, Integer> QUOTA_UNITS = Map.of("users.getProfile", 1, "messages.list", 5,
+      "messages.get", 5, "messages.insert", 25, "messages.modify", 5, "messages.trash", 5, "messages.delete", 10,
+      "labels.list", 1, "labels.create", 5);
+  private static final List<String> SYSTEM_LABELS =
+      List.of("INBOX", "SENT", "TRASH", "SPAM", "DRAFT", "STARRED", "UNREAD", "IMPORTANT");
+  private static final int[] FAILURE_STATUSES = {429, 500, 503};
+
+  private static class StoredMessage {
+    private final String id;
+    private final byte[] raw;
+    private final long internalDate;
+    private final Set<String> labelIds;
+    private final JSONObject payload;
+
+    private StoredMessage(String id, byte[] raw, long internalDate, Collection<String> labelIds, JSONObject payload) {
+      this.id = id;
+      this.raw = raw;
+      this.internalDate = internalDate;
+      this.labelIds = new LinkedHashSet<>(labelIds);
+      this.payload = payload;
+    }
+  }
+
+  private static class Response {
+    private final int status;
+    private final String body;
+
+    private Response(int status, JSONObject body) {
+      this.status = status;
+      this.body = body == null ? "" : body.toString();
+    }
+  }
+
+  private final String emailAddress;
+  private final Session session = Session.getInstance(new Properties());
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final Random random;
+  private final Map<String, StoredMessage> messages = new LinkedHashMap<>();
+  private final Map<String, String> labelIdToName = new LinkedHashMap<>();
+  private final Map<String, long[]> userToQuotaSecondAndUnits = new HashMap<>();
+  private final Deque<Integer> injectedFailures = new ArrayDeque<>();
+  private final Map<String, AtomicInteger> endpointToCalls = new ConcurrentHashMap<>();
+  private long nextId = 0x1700000000000000L;
+  private int nextLabelNumber = 1;
+  private volatile long latencyMillis;
+  private volatile double failureRate;
+  private volatile int quotaUnitsPerUserPerSecond = 250;
+
+  FakeGmailServer(String emailAddress, long seed) throws IOException {
+    this.emailAddress = emailAddress;
+    random = new Random(seed);
+    SYSTEM_LABELS.forEach(label -> labelIdToName.put(label, label));
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    executor = Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable, "fake-gmail");
+      thread.setDaemon(true);
+      return thread;
+    });
+    server.setExecutor(executor);
+    server.createContext("/", this::handle);
+    server.start();
+  }
+
+  String getRootUrl() {
+    return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/";
+  }
+
+  // The latency of every HTTP request, including each batch as a whole.
+  void setLatencyMillis(long latencyMillis) {
+    this.latencyMillis = latencyMillis;
+  }
+
+  // The fraction of API calls that fail with a random one of 429, 500 and 503.
+  void setFailureRate(double failureRate) {
+    this.failureRate = failureRate;
+  }
+
+  // The next count API calls fail with the given status.
+  synchronized void injectFailures(int status, int count) {
+    for (int i = 0; i < count; ++i) {
+      injectedFailures.add(status);
+    }
+  }
+
+  void setQuotaUnitsPerUserPerSecond(int quotaUnitsPerUserPerSecond) {
+    this.quotaUnitsPerUserPerSecond = quotaUnitsPerUserPerSecond;
+  }
+
+  int getCalls(String endpoint) {
+    AtomicInteger calls = endpointToCalls.get(endpoint);
+    return calls == null ? 0 : calls.get();
+  }
+
+  synchronized String addMessage(byte[] raw, long internalDate, String... labelIds) throws MessagingException,
+      IOException {
+    String id = Long.toHexString(nextId++);
+    messages.put(id, new StoredMessage(id, raw, internalDate, Arrays.asList(labelIds), getPayload(raw)));
+    return id;
+  }
+
+  // Adds the emails of the mailbox in order, with their labels and dates, and returns their IDs. The user labels of the
+  // mailbox are created as needed.
+  synchronized List<String> addMessages(SyntheticMailbox mailbox) throws MessagingException, IOException {
+    EmailStore emailStore = new EmailStore();
+    mailbox.addTo(emailStore, 0, mailbox.size());
+    List<String> ids = new ArrayList<>(mailbox.size());
+    for (Email email : emailStore.getEmails()) {
+      List<String> labelIds = email.getLabelIds();
+      for (String labelId : labelIds) {
+        if (labelIdToName.putIfAbsent(labelId, labelId) == null && labelId.startsWith("Label_")) {
+          nextLabelNumber = Math.max(nextLabelNumber, Integer.parseInt(labelId.substring("Label_".length())) + 1);
+        }
+      }
+      byte[] raw = mailbox.getRaw(SyntheticMailbox.getIndex(email.getGmailId()));
+      ids.add(addMessage(raw, email.getTimestamp(), labelIds.toArray(new String[0])));
+    }
+    return ids;
+  }
+
+  synchronized List<String> getMessageIds() {
+    return new ArrayList<>(messages.keySet());
+  }
+
+  synchronized byte[] getRaw(String id) {
+    return messages.get(id).raw;
+  }
+
+  synchronized Set<String> getLabelIds(String id) {
+    return new LinkedHashSet<>(messages.get(id).labelIds);
+  }
+
+  synchronized String getLabelId(String name) {
+    return labelIdToName.entrySet().stream().filter(entry -> entry.getValue().equals(name))
+        .map(Map.Entry::getKey).findFirst().orElse(null);
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  // The top-level headers, and the top-level parts with their file names and decoded sizes, like Gmail's "full"
+  // format without the bodies.
+  private JSONObject getPayload(byte[] raw) throws MessagingException, IOException {
+    MimeMessage mimeMessage = new MimeMessage(session, new ByteArrayInputStream(raw));
+    JSONObject payload = new JSONObject();
+    payload.put("mimeType", mimeMessage.getContentType().split(";")[0].trim());
+    payload.put("headers", getHeaders(mimeMessage.getAllHeaders()));
+    if (mimeMessage.isMimeType("multipart/*")) {
+      Multipart multipart = (Multipart) mimeMessage.getContent();
+      JSONArray parts = new JSONArray();
+      for (int i = 0; i < multipart.getCount(); ++i) {
+        BodyPart bodyPart = multipart.getBodyPart(i);
+        String filename = bodyPart.getFileName();
+        JSONObject part = new JSONObject();
+        part.put("partId", Integer.toString(i));
+        part.put("mimeType", bodyPart.getContentType().split(";")[0].trim());
+        part.put("filename", filename == null ? "" : MimeUtility.decodeText(filename));
+        part.put("headers", getHeaders(bodyPart.getAllHeaders()));
+        part.put("body", new JSONObject().put("size", getDecodedSize(bodyPart)));
+        parts.put(part);
+      }
+      payload.put("parts", parts);
+    }
+    return payload;
+  }
+
+  private static JSONArray getHeaders(Enumeration<javax.mail.Header> headers) {
+    JSONArray array = new JSONArray();
+    while (headers.hasMoreElements()) {
+      javax.mail.Header header = headers.nextElement();
+      array.put(new JSONObject().put("name", header.getName()).put("value", header.getValue()));
+    }
+    return array;
+  }
+
+  private static long getDecodedSize(BodyPart bodyPart) throws MessagingException, IOException {
+    try (InputStream inputStream = bodyPart.getInputStream()) {
+      return inputStream.transferTo(OutputStream.nullOutputStream());
+    }
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try (exchange) {
+      sleep(latencyMillis);
+      byte[] requestBody = readRequestBody(exchange);
+      URI uri = exchange.getRequestURI();
+      if (uri.getPath().equals(BATCH_PATH)) {
+        handleBatch(exchange, requestBody);
+        return;
+      }
+      Response response = handle(exchange.getRequestMethod(), uri.getPath(), uri.getRawQuery(), requestBody);
+      exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+      byte[] responseBody = response.body.getBytes(UTF_8);
+      exchange.sendResponseHeaders(response.status, responseBody.length == 0 ? -1 : responseBody.length);
+      exchange.getResponseBody().write(responseBody);
+    }
+  }
+
+  // The client compresses the bodies of its requests.
+  private static byte[] readRequestBody(HttpExchange exchange) throws IOException {
+    boolean gzip = "gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"));
+    try (InputStream inputStream = gzip ? new GZIPInputStream(exchange.getRequestBody()) : exchange.getRequestBody()) {
+      return inputStream.readAllBytes();
+    }
+  }
+
+  // Each part of the batch is an HTTP request of its own, and its response is a part of the response.
+  private void handleBatch(HttpExchange exchange, byte[] requestBody) throws IOException {
+    String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+    String boundary = contentType.substring(contentType.indexOf("boundary=") + "boundary=".length()).replace("\"", "");
+    String responseBoundary = "batch_" + Long.toHexString(random.nextLong());
+    StringBuilder responseBody = new StringBuilder();
+    // ISO-8859-1 maps each byte to a char, so that the UTF-8 bodies of the parts can be restored.
+    String[] parts = new String(requestBody, ISO_8859_1).split("--" + boundary);
+    for (int i = 1; i < parts.length; ++i) {
+      String part = parts[i];
+      if (part.startsWith("--")) {
+        break;
+      }
+      String[] headersAndRequest = part.strip().split("\r?\n\r?\n", 2);
+      String contentId = getHeader(headersAndRequest[0], "Content-ID");
+      String[] requestHeadersAndBody = headersAndRequest[1].split("\r?\n\r?\n", 2);
+      String[] requestLine = requestHeadersAndBody[0].split("\r?\n")[0].split(" ");
+      byte[] body = requestHeadersAndBody.length < 2 ? new byte[0] : requestHeadersAndBody[1].getBytes(ISO_8859_1);
+      URI uri = URI.create(requestLine[1]);
+      Response response = handle(requestLine[0], uri.getPath(), uri.getRawQuery(), body);
+      responseBody.append("--").append(responseBoundary).append("\r\n");
+      responseBody.append("Content-Type: application/http\r\n");
+      if (contentId != null) {
+        responseBody.append("Content-ID: ").append(contentId.replace("<", "<response-")).append("\r\n");
+      }
+      responseBody.append("\r\n");
+      responseBody.append("HTTP/1.1 ").append(response.status).append(" ").append(getReasonPhrase(response.status))
+          .append("\r\n");
+      responseBody.append("Content-Type: application/json; charset=UTF-8\r\n\r\n");
+      responseBody.append(new String(response.body.getBytes(UTF_8), ISO_8859_1)).append("\r\n");
+    }
+    responseBody.append("--").append(responseBoundary).append("--\r\n");
+    exchange.getResponseHeaders().set("Content-Type", "multipart/mixed; boundary=" + responseBoundary);
+    byte[] bytes = responseBody.toString().getBytes(ISO_8859_1);
+    exchange.sendResponseHeaders(200, bytes.length);
+    exchange.getResponseBody().write(bytes);
+  }
+
+  private static String getHeader(String headers, String name) {
+    for (String header : headers.split("\r?\n")) {
+      if (header.regionMatches(true, 0, name + ":", 0, name.length() + 1)) {
+        return header.substring(name.length() + 1).trim();
+      }
+    }
+    return null;
+  }
+
+  private Response handle(String method, String path, String rawQuery, byte[] body) {
+    if (!path.startsWith(USERS_PATH)) {
+      return error(404, "notFound", "Not Found");
+    }
+    List<String> segments = Arrays.asList(path.substring(USERS_PATH.length()).split("/"));
+    String user = segments.get(0).equals("me") ? emailAddress : segments.get(0);
+    List<String> resource = segments.subList(1, segments.size());
+    String endpoint = getEndpoint(method, resource);
+    if (endpoint == null) {
+      return error(404, "notFound", "Not Found");
+    }
+    endpointToCalls.computeIfAbsent(endpoint, e -> new AtomicInteger()).incrementAndGet();
+    Response failure = getFailure(user, endpoint);
+    if (failure != null) {
+      return failure;
+    }
+    Map<String, String> query = parseQuery(rawQuery);
+    JSONObject json = body.length == 0 ? new JSONObject() : new JSONObject(new String(body, UTF_8));
+    synchronized (this) {
+      String id = resource.size() > 1 ? resource.get(1) : null;
+      switch (endpoint) {
+        case "users.getProfile":
+          return new Response(200, new JSONObject().put("emailAddress", emailAddress)
+              .put("messagesTotal", messages.size()).put("threadsTotal", messages.size()).put("historyId", "1"));
+        case "messages.list":
+          return listMessages(query);
+        case "messages.get":
+          return messages.containsKey(id) ?
+              new Response(200, toJson(messages.get(id), query.getOrDefault("format", "full"))) : notFound();
+        case "messages.insert":
+          return insertMessage(json);
+        case "messages.modify":
+          return modifyMessage(id, json.optJSONArray("addLabelIds"), json.optJSONArray("removeLabelIds"));
+        case "messages.trash":
+          return modifyMessage(id, new JSONArray().put("TRASH"), new JSONArray().put("INBOX"));
+        case "messages.delete":
+          return messages.remove(id) == null ? notFound() : new Response(204, null);
+        case "labels.list":
+          return listLabels();
+        case "labels.create":
+          return createLabel(json.getString("name"));
+        default:
+          return notFound();
+      }
+    }
+  }
+
+  private static String getEndpoint(String method, List<String> resource) {
+    String collection = resource.isEmpty() ? "" : resource.get(0);
+    String action = resource.size() > 2 ? "/" + resource.get(2) : "";
+    boolean hasId = resource.size() > 1;
+    switch (method + " " + collection + action) {
+      case "GET profile":
+        return "users.getProfile";
+      case "GET messages":
+        return hasId ? "messages.get" : "messages.list";
+      case "POST messages":
+        return hasId ? null : "messages.insert";
+      case "POST messages/modify":
+        return "messages.modify";
+      case "POST messages/trash":
+        return "messages.trash";
+      case "DELETE messages":
+        return hasId ? "messages.delete" : null;
+      case "GET labels":
+        return hasId ? null : "labels.list";
+      case "POST labels":
+        return hasId ? null : "labels.create";
+      default:
+        return null;
+    }
+  }
+
+  private synchronized Response getFailure(String user, String endpoint) {
+    Integer injectedStatus = injectedFailures.poll();
+    if (injectedStatus != null) {
+      return failure(injectedStatus);
+    }
+    if (failureRate > 0 && random.nextDouble() < failureRate) {
+      return failure(FAILURE_STATUSES[random.nextInt(FAILURE_STATUSES.length)]);
+    }
+    long second = System.currentTimeMillis() / 1000;
+    long[] secondAndUnits = userToQuotaSecondAndUnits.computeIfAbsent(user, u -> new long[2]);
+    if (secondAndUnits[0] != second) {
+      secondAndUnits[0] = second;
+      secondAndUnits[1] = 0;
+    }
+    int units = QUOTA_UNITS.get(endpoint);
+    if (secondAndUnits[1] + units > quotaUnitsPerUserPerSecond) {
+      return error(429, "rateLimitExceeded", "User-rate limit exceeded.");
+    }
+    secondAndUnits[1] += units;
+    return null;
+  }
+
+  private static Response failure(int status) {
+    switch (status) {
+      case 429:
+        return error(429, "rateLimitExceeded", "Rate Limit Exceeded");
+      case 503:
+        return error(503, "backendError", "Service Unavailable");
+      default:
+        return error(status, "backendError", "Backend Error");
+    }
+  }
+
+  private static Response notFound() {
+    return error(404, "notFound", "Requested entity was not found.");
+  }
+
+  private static Response error(int status, String reason, String message) {
+    JSONObject error = new JSONObject().put("domain", "global").put("reason", reason).put("message", message);
+    return new Response(status, new JSONObject().put("error",
+        new JSONObject().put("code", status).put("message", message).put("errors", new JSONArray().put(error))));
+  }
+
+  private Response listMessages(Map<String, String> query) {
+    List<StoredMessage> matches = new ArrayList<>();
+    for (StoredMessage message : messages.values()) {
+      if (!message.labelIds.contains("TRASH")) {
+        matches.add(message);
+      }
+    }
+    int start = Integer.parseInt(query.getOrDefault("pageToken", "0"));
+    int pageSize = Math.min(MAX_PAGE_SIZE, Integer.parseInt(query.getOrDefault("maxResults", "" + DEFAULT_PAGE_SIZE)));
+    int end = Math.min(matches.size(), start + pageSize);
+    JSONObject response = new JSONObject().put("resultSizeEstimate", matches.size());
+    if (start < end) {
+      JSONArray array = new JSONArray();
+      for (StoredMessage message : matches.subList(start, end)) {
+        array.put(new JSONObject().put("id", message.id).put("threadId", message.id));
+      }
+      response.put("messages", array);
+    }
+    if (end < matches.size()) {
+      response.put("nextPageToken", Integer.toString(end));
+    }
+    return new Response(200, response);
+  }
+
+  private static JSONObject toJson(StoredMessage message, String format) {
+    JSONObject json = new JSONObject().put("id", message.id).put("threadId", message.id)
+        .put("labelIds", new JSONArray(message.labelIds)).put("sizeEstimate", message.raw.length)
+        .put("internalDate", Long.toString(message.internalDate)).put("historyId", "1");
+    if (format.equals("raw")) {
+      json.put("raw", encodeBase64URLSafeString(message.raw));
+    } else if (!format.equals("minimal")) {
+      json.put("payload", message.payload);
+    }
+    return json;
+  }
+
+  private Response insertMessage(JSONObject json) {
+    if (!json.has("raw")) {
+      return error(400, "invalidArgument", "'raw' RFC822 payload message string is required.");
+    }
+    byte[] raw = decodeBase64(json.getString("raw"));
+    List<String> labelIds = new ArrayList<>();
+    JSONArray labelIdArray = json.optJSONArray("labelIds");
+    if (labelIdArray != null) {
+      labelIdArray.forEach(labelId -> labelIds.add(labelId.toString()));
+    }
+    try {
+      MimeMessage mimeMessage = new MimeMessage(session, new ByteArrayInputStream(raw));
+      Date sentDate = mimeMessage.getSentDate();
+      String id = addMessage(raw, sentDate == null ? System.currentTimeMillis() : sentDate.getTime(),
+          labelIds.toArray(new String[0]));
+      return new Response(200, toJson(messages.get(id), "minimal"));
+    } catch (MessagingException | IOException e) {
+      return error(400, "invalidArgument", "Invalid RFC822 payload: " + e.getMessage());
+    }
+  }
+
+  private Response modifyMessage(String id, JSONArray addLabelIds, JSONArray removeLabelIds) {
+    StoredMessage message = messages.get(id);
+    if (message == null) {
+      return notFound();
+    }
+    List<Object> labelIdsToAdd = addLabelIds == null ? List.of() : addLabelIds.toList();
+    for (Object labelId : labelIdsToAdd) {
+      if (!labelIdToName.containsKey(labelId.toString())) {
+        return error(400, "invalidArgument", "Invalid label: " + labelId);
+      }
+    }
+    labelIdsToAdd.forEach(labelId -> message.labelIds.add(labelId.toString()));
+    if (removeLabelIds != null) {
+      removeLabelIds.forEach(labelId -> message.labelIds.remove(labelId.toString()));
+    }
+    return new Response(200, toJson(message, "minimal"));
+  }
+
+  private Response listLabels() {
+    JSONArray labels = new JSONArray();
+    labelIdToName.forEach((id, name) -> labels.put(new JSONObject().put("id", id).put("name", name)
+        .put("type", SYSTEM_LABELS.contains(id) ? "system" : "user")));
+    return new Response(200, new JSONObject().put("labels", labels));
+  }
+
+  private Response createLabel(String name) {
+    if (labelIdToName.containsValue(name)) {
+      return error(409, "duplicate", "Label name exists or conflicts");
+    }
+    String id = "Label_" + nextLabelNumber++;
+    labelIdToName.put(id, name);
+    return new Response(200, new JSONObject().put("id", id).put("name", name).put("type", "user"));
+  }
+
+  private static Map<String, String> parseQuery(String rawQuery) {
+    Map<String, String> query = new HashMap<>();
+    if (rawQuery != null) {
+      for (String parameter : rawQuery.split("&")) {
+        String[] nameAndValue = parameter.split("=", 2);
+        query.put(URLDecoder.decode(nameAndValue[0], UTF_8),
+            nameAndValue.length < 2 ? "" : URLDecoder.decode(nameAndValue[1], UTF_8));
+      }
+    }
+    return query;
+  }
+
+  private static String getReasonPhrase(int status) {
+    switch (status) {
+      case 200:
+        return "OK";
+      case 204:
+        return "No Content";
+      case 400:
+        return "Bad Request";
+      case 404:
+        return "Not Found";
+      case 409:
+        return "Conflict";
+      case 429:
+        return "Too Many Requests";
+      case 503:
+        return "Service Unavailable";
+      default:
+        return "Internal Server Error";
+    }
+  }
+
+  private static void sleep(long millis) {
+    if (millis <= 0) {
+      return;
+    }
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -83,11 +83,27 @@ public class FilenameFactoryTest {
     testGetFilename("${LABELS}", "a%b@.jpg", "IMPORTANT_SENT");
   }
 
+  @Test
+  public void testLiteralsAndRepeatedVariables() {
+    testGetFilename("$x-${ID}/${ID:2}-{}", "a%b@.jpg", "$x-id3/id-{}");
+    testGetFilename("${RAW_SUBJECT}$", "a%b@.jpg", "subject$");
+  }
+
   @Test(expected = InvalidParameterException.class)
   public void testUnknownPlaceholder() {
     testGetFilename("${FOO}", "a%b@.jpg", "a%b@.jpg");
   }
 
+  @Test(expected = InvalidParameterException.class)
+  public void testUnknownPlaceholderAtCompileTime() {
+    new FilenameFactory("${ID}-${ID:x}");
+  }
+
+  @Test(expected = InvalidParameterException.class)
+  public void testUnterminatedPlaceholder() {
+    new FilenameFactory("${ID}-${SUBJECT");
+  }
+
   private static void testGetFilename(String schema, String attachmentName, String expectedFilename) {
     FilenameFactory filenameFactory = new FilenameFactory(schema);
     String actualFilename = filenameFactory.getFilename(email, 234, attachmentName);
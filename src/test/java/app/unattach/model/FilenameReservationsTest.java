@@ -0,0 +1,57 @@
+package app.unattach.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FilenameReservationsTest {
+  @Test
+  void addSuffix() {
+    assertEquals("image-1.png", FilenameReservations.addSuffix("image.png", 1));
+    assertEquals("archive.tar-2.gz", FilenameReservations.addSuffix("archive.tar.gz", 2));
+    assertEquals("README-3", FilenameReservations.addSuffix("README", 3));
+    assertEquals(".profile-4", FilenameReservations.addSuffix(".profile", 4));
+    assertEquals("a.b/c-5", FilenameReservations.addSuffix("a.b/c", 5));
+  }
+
+  @Test
+  void reserveAvoidsExistingAndReservedNames() throws Exception {
+    Path directory = Files.createTempDirectory("unattach-test");
+    Files.createFile(directory.resolve("image.png"));
+    FilenameReservations reservations = new FilenameReservations(directory);
+    assertEquals("image-1.png", reservations.reserve("image.png"));
+    assertEquals("image-2.png", reservations.reserve("image.png"));
+    assertEquals("sub/image.png", reservations.reserve("sub/image.png"));
+    assertTrue(Files.exists(directory.resolve("sub/image.png")));
+  }
+
+  @Test
+  void reserveIsUniqueAcrossThreads() throws Exception {
+    Path directory = Files.createTempDirectory("unattach-test");
+    FilenameReservations reservations = new FilenameReservations(directory);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<String>> futures = new ArrayList<>();
+      for (int i = 0; i < 200; ++i) {
+        futures.add(executor.submit(() -> reservations.reserve("data.zip")));
+      }
+      Set<String> filenames = new HashSet<>();
+      for (Future<String> future : futures) {
+        filenames.add(future.get());
+      }
+      assertEquals(200, filenames.size());
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
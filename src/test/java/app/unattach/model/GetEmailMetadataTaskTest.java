@@ -0,0 +1,48 @@
+package app.unattach.model;
+
+import app.unattach.controller.CancellationToken;
+import app.unattach.controller.LongTaskExecutor;
+import app.unattach.controller.LongTaskProgress;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GetEmailMetadataTaskTest {
+  @Test
+  void progressIsPublishedAfterEachBatch() {
+    List<String> emailIds = List.of("a", "b", "c");
+    List<Integer> startIndices = Collections.synchronizedList(new ArrayList<>());
+    GetEmailMetadataTask task = new GetEmailMetadataTask(emailIds, 2,
+        (startIndexInclusive, endIndexExclusive) -> startIndices.add(startIndexInclusive));
+    List<Integer> completedSteps = Collections.synchronizedList(new ArrayList<>());
+    LongTaskExecutor.run(task, new CancellationToken(),
+        (LongTaskProgress<GetEmailMetadataTask.Result> progress) -> completedSteps.add(progress.completedSteps)).join();
+    assertEquals(List.of(0, 2), startIndices);
+    assertEquals(List.of(1, 2), completedSteps);
+    assertFalse(task.hasMoreSteps());
+  }
+
+  @Test
+  void cancellingEndsTheWaitBetweenBatches() {
+    List<String> emailIds = List.of("a", "b", "c");
+    CancellationToken cancellationToken = new CancellationToken();
+    List<Integer> startIndices = Collections.synchronizedList(new ArrayList<>());
+    GetEmailMetadataTask task = new GetEmailMetadataTask(emailIds, 1,
+        (startIndexInclusive, endIndexExclusive) -> startIndices.add(startIndexInclusive));
+    CompletableFuture<Void> future = LongTaskExecutor.run(task, cancellationToken, progress -> cancellationToken.cancel());
+    long start = System.nanoTime();
+    CompletionException exception = assertThrows(CompletionException.class, future::join);
+    assertTrue(exception.getCause() instanceof CancellationException);
+    assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(900));
+    assertEquals(List.of(0), startIndices);
+    assertTrue(task.hasMoreSteps());
+  }
+}
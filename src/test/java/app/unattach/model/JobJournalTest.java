@@ -0,0 +1,99 @@
+package app.unattach.model;
+
+import app.unattach.view.Action;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+class JobJournalTest {
+  @Test
+  void interruptedJobResumesFromLastCompletedStep() throws IOException {
+    Path path = Files.createTempDirectory("unattach-test").resolve("journal.jsonl");
+    JobJournal jobJournal = JobJournal.start(path, "me@example.com", createProcessSettings(), List.of("a", "b", "c"));
+    jobJournal.record("a", JobJournal.Step.FETCHED);
+    jobJournal.recordAttachmentsSaved("a", List.of(new SavedAttachment("data.zip", "2020/01/data.zip")));
+    jobJournal.recordSlimInserted("a", "a2");
+    jobJournal.record("a", JobJournal.Step.LABELLED);
+    jobJournal.record("a", JobJournal.Step.ORIGINAL_REMOVED);
+    jobJournal.record("a", JobJournal.Step.PROCESSED);
+    // Attachments with the same name are saved to different files.
+    List<SavedAttachment> savedAttachments = List.of(new SavedAttachment("image001.png", "image001.png"),
+        new SavedAttachment("image001.png", "image001 (1).png"), new SavedAttachment("b.pdf", "b.pdf"));
+    jobJournal.recordAttachmentsSaved("b", savedAttachments);
+    jobJournal.recordSlimInserted("b", "b2");
+    // The app stopped while writing the next step.
+    Files.writeString(path, "{\"gmailId\":\"b\",\"st", UTF_8, StandardOpenOption.APPEND);
+
+    JobJournal interruptedJob = JobJournal.read(path);
+    assertNotNull(interruptedJob);
+    assertEquals("me@example.com", interruptedJob.getEmailAddress());
+    assertEquals(Action.DOWNLOAD_AND_DELETE, interruptedJob.getProcessSettings().getProcessOption().getAction());
+    assertEquals(3, interruptedJob.getNumberOfEmails());
+    assertEquals(List.of("b", "c"), interruptedJob.getPendingGmailIds());
+    assertEquals(JobJournal.Step.SLIM_INSERTED, interruptedJob.getLastStep("b"));
+    assertEquals(savedAttachments, interruptedJob.getSavedAttachments("b"));
+    assertEquals(List.of(), interruptedJob.getSavedAttachments("c"));
+    assertEquals("b2", interruptedJob.getNewGmailId("b"));
+    assertNull(interruptedJob.getLastStep("c"));
+
+    // Steps that were already completed are not recorded again.
+    interruptedJob.record("b", JobJournal.Step.FETCHED);
+    assertEquals(JobJournal.Step.SLIM_INSERTED, interruptedJob.getLastStep("b"));
+    interruptedJob.record("b", JobJournal.Step.LABELLED);
+    assertEquals(JobJournal.Step.LABELLED, JobJournal.read(path).getLastStep("b"));
+  }
+
+  @Test
+  void onlyEmailsLeftHalfwayAreKept() throws IOException {
+    Path path = Files.createTempDirectory("unattach-test").resolve("journal.jsonl");
+    JobJournal jobJournal = JobJournal.start(path, "me@example.com", createProcessSettings(), List.of("a", "b", "c"));
+    jobJournal.record("a", JobJournal.Step.PROCESSED);
+    jobJournal.recordSlimInserted("b", "b2");
+    jobJournal.record("c", JobJournal.Step.FETCHED);
+    jobJournal.finish();
+
+    JobJournal interruptedJob = JobJournal.read(path);
+    assertNotNull(interruptedJob);
+    assertEquals(List.of("b"), interruptedJob.getPendingGmailIds());
+    assertEquals("b2", interruptedJob.getNewGmailId("b"));
+
+    interruptedJob.record("b", JobJournal.Step.PROCESSED);
+    interruptedJob.finish();
+    assertFalse(Files.exists(path));
+  }
+
+  @Test
+  void pendingJobIsNotReplacedByANewOne() throws IOException {
+    Path path = Files.createTempDirectory("unattach-test").resolve("journal.jsonl");
+    JobJournal jobJournal = JobJournal.start(path, "me@example.com", createProcessSettings(), List.of("a", "b"));
+    jobJournal.recordSlimInserted("a", "a2");
+
+    assertThrows(IOException.class,
+        () -> JobJournal.start(path, "me@example.com", createProcessSettings(), List.of("c")));
+    assertEquals("a2", JobJournal.read(path).getNewGmailId("a"));
+
+    JobJournal.read(path).delete();
+    JobJournal newJob = JobJournal.start(path, "me@example.com", createProcessSettings(), List.of("c"));
+    assertEquals(List.of("c"), newJob.getPendingGmailIds());
+  }
+
+  @Test
+  void journalsAreKeptPerAccount() {
+    assertNotEquals(JobJournal.getDefaultPath("me@example.com"), JobJournal.getDefaultPath("you@example.com"));
+  }
+
+  private static ProcessSettings createProcessSettings() throws IOException {
+    File targetDirectory = Files.createTempDirectory("unattach-test").toFile();
+    ProcessOption processOption = new ProcessOption(Action.DOWNLOAD_AND_DELETE, false, true, true, false,
+        "downloaded", "removed");
+    return new ProcessSettings(processOption, targetDirectory, "${ATTACHMENT_NAME}", DirectoryLayout.DATE, true);
+  }
+}
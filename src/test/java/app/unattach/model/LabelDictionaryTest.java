@@ -0,0 +1,32 @@
+package app.unattach.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LabelDictionaryTest {
+  @Test
+  void labelSetsAreInternedAndJoinedInSortedOrder() {
+    LabelDictionary labelDictionary = new LabelDictionary();
+    int first = labelDictionary.getLabelSetCode(Arrays.asList("SENT", "IMPORTANT"));
+    int second = labelDictionary.getLabelSetCode(Arrays.asList("IMPORTANT", "SENT", "SENT"));
+    int empty = labelDictionary.getLabelSetCode(null);
+    assertEquals(first, second);
+    assertEquals(2, labelDictionary.getNumberOfLabelSets());
+    assertEquals("IMPORTANT_SENT", labelDictionary.getLabelIdsString(first));
+    assertEquals("", labelDictionary.getLabelIdsString(empty));
+  }
+
+  @Test
+  void hasAnyLabel() {
+    EmailStore emailStore = new EmailStore();
+    Email email = emailStore.add("id3", "uid42", Arrays.asList("INBOX", "Label_1"), "from@example.com",
+        "to@example.com", "subject", 1501545600000L, 32141, Collections.emptyList());
+    LabelDictionary labelDictionary = emailStore.getLabelDictionary();
+    assertTrue(email.hasAnyLabel(labelDictionary.getLabels(Arrays.asList("SENT", "Label_1"))));
+    assertFalse(email.hasAnyLabel(labelDictionary.getLabels(Collections.singletonList("SENT"))));
+  }
+}
@@ -0,0 +1,232 @@
+package app.unattach.model;
+
+import app.unattach.controller.CancellationToken;
+import app.unattach.view.Action;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import javax.activation.DataHandler;
+import javax.mail.Part;
+import javax.mail.Session;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import javax.mail.util.ByteArrayDataSource;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Runs LiveModel against FakeGmailServer, with the files it keeps in the home directory in a temporary one.
+class LiveModelTest {
+  private static final String EMAIL_ADDRESS = "me@example.com";
+
+  private String userHome;
+  private FakeGmailServer server;
+  private File targetDirectory;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    userHome = System.getProperty("user.home");
+    System.setProperty("user.home", Files.createTempDirectory("unattach-test").toString());
+    targetDirectory = Files.createTempDirectory("unattach-test").toFile();
+    server = new FakeGmailServer(EMAIL_ADDRESS, 1);
+    System.setProperty(GmailServiceLifecycleManager.ROOT_URL_PROPERTY, server.getRootUrl());
+  }
+
+  @AfterEach
+  void tearDown() {
+    server.close();
+    System.clearProperty(GmailServiceLifecycleManager.ROOT_URL_PROPERTY);
+    System.setProperty("user.home", userHome);
+  }
+
+  @Test
+  void searchAndRemoveAttachment() throws Exception {
+    String originalId = server.addMessage(createMessage("report.pdf"), 1501545600000L, "INBOX");
+    server.addMessage(createMessage(null), 1501545600000L, "INBOX");
+    LiveModel model = new LiveModel();
+    model.signIn();
+    assertEquals(EMAIL_ADDRESS, model.getEmailAddress());
+    String removedLabelId = model.createLabel("removed");
+    assertEquals(removedLabelId, model.getIdToLabel().entrySet().stream()
+        .filter(entry -> entry.getValue().equals("removed")).findFirst().orElseThrow().getKey());
+
+    search(model);
+    List<Email> emails = model.getEmails();
+    assertEquals(2, emails.size());
+    Email email = emails.stream().filter(e -> e.getGmailId().equals(originalId)).findFirst().orElseThrow();
+    assertEquals(List.of("report.pdf"), email.getAttachmentNames());
+    assertEquals(1, server.getCalls("messages.list"));
+
+    ProcessOption processOption = new ProcessOption(Action.DOWNLOAD_AND_DELETE, false, true, true, false, null,
+        removedLabelId);
+    ProcessSettings processSettings = new ProcessSettings(processOption, targetDirectory, "${ATTACHMENT_NAME}",
+        DirectoryLayout.FLAT, true);
+    ProcessEmailResult result = model.getProcessTask(email, processSettings).takeStep(new CancellationToken()).join();
+
+    assertArrayEquals("pdf-contents".getBytes(StandardCharsets.UTF_8),
+        Files.readAllBytes(new File(targetDirectory, "report.pdf").toPath()));
+    assertTrue(server.getLabelIds(originalId).contains("TRASH"));
+    String slimId = server.getMessageIds().get(2);
+    assertTrue(server.getLabelIds(slimId).containsAll(List.of(removedLabelId, "STARRED")));
+    String slimRaw = new String(server.getRaw(slimId), StandardCharsets.UTF_8);
+    assertFalse(slimRaw.contains("report.pdf\""));
+    assertTrue(slimRaw.contains("/get_file/report.pdf"));
+    assertNotNull(result.getNewUniqueId());
+  }
+
+  @Test
+  void failedDownloadLeavesEmailUntouched() throws Exception {
+    String originalId = server.addMessage(createMessage("report.pdf"), 1501545600000L, "INBOX");
+    LiveModel model = new LiveModel();
+    model.signIn();
+    search(model);
+    Email email = model.getEmails().get(0);
+    ProcessOption processOption = new ProcessOption(Action.DELETE, false, false, true, false, null, "STARRED");
+    ProcessSettings processSettings = new ProcessSettings(processOption, targetDirectory, "${ATTACHMENT_NAME}",
+        DirectoryLayout.FLAT, true);
+
+    server.injectFailures(503, 1);
+    CompletionException e = assertThrows(CompletionException.class,
+        () -> model.getProcessTask(email, processSettings).takeStep(new CancellationToken()).join());
+    assertTrue(e.getCause().getMessage().contains("503"));
+    assertEquals(List.of(originalId), server.getMessageIds());
+    assertEquals(List.of("INBOX"), List.copyOf(server.getLabelIds(originalId)));
+  }
+
+  @Test
+  void emailIsDeferredBeforeDownloadingIfItsSlimCopyWouldNotFitTheUploadBudget() throws Exception {
+    String originalId = server.addMessage(createMessage("report.pdf"), 1501545600000L, "INBOX");
+    LiveModel model = new LiveModel();
+    model.signIn();
+    search(model);
+    Email email = model.getEmails().get(0);
+    // Once the attachment size is known, the slim email is expected to take nearly all of the original size.
+    email.setAttachmentSizeInBytes(12);
+    assertTrue(ProcessingOrder.getUploadBytes(email) > 10);
+    BandwidthLedger.Direction upload = BandwidthLedger.Direction.UPLOAD;
+    model.getBandwidthLedger().record(upload, upload.getLimitInBytes() - 10);
+    ProcessOption processOption = new ProcessOption(Action.DOWNLOAD_AND_DELETE, false, true, true, false, null,
+        "STARRED");
+    ProcessSettings processSettings = new ProcessSettings(processOption, targetDirectory, "${ATTACHMENT_NAME}",
+        DirectoryLayout.FLAT, true);
+
+    CompletionException e = assertThrows(CompletionException.class,
+        () -> model.getProcessTask(email, processSettings).takeStep(new CancellationToken()).join());
+    assertTrue(e.getCause().getCause() instanceof BandwidthBudgetException);
+    assertEquals(0, model.getBandwidthLedger().getBytes(BandwidthLedger.Direction.DOWNLOAD));
+    assertArrayEquals(new String[0], targetDirectory.list());
+    assertEquals(List.of(originalId), server.getMessageIds());
+  }
+
+  @Test
+  void lazySearchRetriesEmailsThatFailedToLoad() throws Exception {
+    SyntheticMailbox mailbox = new SyntheticMailbox(1337, 30);
+    List<String> ids = server.addMessages(mailbox);
+    LiveModel model = new LiveModel();
+    model.signIn();
+    model.getConfig().saveLoadDetailsLazily(true);
+    search(model);
+    EmailStore emailStore = model.getEmailStore();
+    // The metadata is loaded in the background, with some of the calls failing like under load.
+    server.setFailureRate(0.1);
+    long deadline = System.currentTimeMillis() + 60000;
+    while (!emailStore.isFullyLoaded() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(100);
+    }
+    model.clearPreviousSearch();
+
+    assertTrue(emailStore.isFullyLoaded());
+    assertEquals(ids, emailStore.getEmails().stream().map(Email::getGmailId).collect(Collectors.toList()));
+    assertTrue(server.getCalls("messages.get") > mailbox.size());
+  }
+
+  @Test
+  void phasesAreRecordedAsFlightRecorderEvents() throws Exception {
+    String originalId = server.addMessage(createMessage("report.pdf"), 1501545600000L, "INBOX");
+    LiveModel model = new LiveModel();
+    model.signIn();
+    ProcessOption processOption = new ProcessOption(Action.DOWNLOAD_AND_DELETE, false, true, true, false, null,
+        "STARRED");
+    ProcessSettings processSettings = new ProcessSettings(processOption, targetDirectory, "${ATTACHMENT_NAME}",
+        DirectoryLayout.FLAT, true);
+    List<RecordedEvent> events;
+    try (Recording recording = new Recording()) {
+      for (String name : List.of("GmailCall", "MetadataBatch", "MimeParse", "AttachmentWrite", "Insert", "Trash")) {
+        recording.enable("app.unattach." + name);
+      }
+      recording.start();
+      search(model);
+      model.getProcessTask(model.getEmails().get(0), processSettings).takeStep(new CancellationToken()).join();
+      recording.stop();
+      Path file = Files.createTempFile("unattach-test", ".jfr");
+      recording.dump(file);
+      events = RecordingFile.readAllEvents(file);
+    }
+
+    RecordedEvent download = events.stream().filter(event -> event.getEventType().getName().endsWith("GmailCall") &&
+        originalId.equals(event.getString("gmailId")) && event.getLong("bytes") > 0).findFirst().orElseThrow();
+    assertEquals("messages.get", download.getString("endpoint"));
+    assertEquals(200, download.getInt("status"));
+    for (String name : List.of("MetadataBatch", "MimeParse", "AttachmentWrite", "Insert", "Trash")) {
+      RecordedEvent event = events.stream().filter(e -> e.getEventType().getName().equals("app.unattach." + name))
+          .findFirst().orElseThrow();
+      assertEquals(originalId, event.getString("gmailId"));
+    }
+  }
+
+  @Test
+  void quotaIsEnforcedPerUser() throws Exception {
+    LiveModel model = new LiveModel();
+    model.signIn();
+    // Creating a label costs 5 quota units.
+    server.setQuotaUnitsPerUserPerSecond(4);
+    Exception e = assertThrows(Exception.class, () -> model.createLabel("removed"));
+    assertTrue(e.getMessage().contains("429"));
+  }
+
+  private static void search(LiveModel model) throws Exception {
+    CancellationToken cancellationToken = new CancellationToken();
+    GetEmailMetadataTask searchTask = model.getSearchTask("has:attachment", cancellationToken);
+    while (searchTask.hasMoreSteps()) {
+      searchTask.takeStep(cancellationToken).join();
+    }
+  }
+
+  // A text body, and an attachment if the file name is given.
+  private static byte[] createMessage(String attachmentFilename) throws Exception {
+    MimeMessage mimeMessage = new MimeMessage(Session.getInstance(new Properties()));
+    mimeMessage.setFrom("from@example.com");
+    mimeMessage.setSubject("subject");
+    MimeBodyPart text = new MimeBodyPart();
+    text.setText("Hello there.");
+    MimeMultipart multipart = new MimeMultipart();
+    multipart.addBodyPart(text);
+    if (attachmentFilename != null) {
+      MimeBodyPart attachment = new MimeBodyPart();
+      attachment.setDataHandler(new DataHandler(
+          new ByteArrayDataSource("pdf-contents".getBytes(StandardCharsets.UTF_8), "application/pdf")));
+      attachment.setDisposition(Part.ATTACHMENT);
+      attachment.setFileName(attachmentFilename);
+      multipart.addBodyPart(attachment);
+    }
+    mimeMessage.setContent(multipart);
+    mimeMessage.saveChanges();
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    mimeMessage.writeTo(buffer);
+    return buffer.toByteArray();
+  }
+}
@@ -0,0 +1,82 @@
+package app.unattach.model;
+
+import app.unattach.controller.CancellationToken;
+import app.unattach.view.Action;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MemoryBudgetTest {
+  private static final long MB = Constants.BYTES_IN_MEGABYTE;
+
+  @Test
+  void removingNeedsMoreMemoryThanDownloading() {
+    ProcessOption download = new ProcessOption(Action.DOWNLOAD, false, true, false, false, "downloaded", null);
+    ProcessOption remove = new ProcessOption(Action.DOWNLOAD_AND_DELETE, false, true, true, false, null, "removed");
+    assertTrue(MemoryBudget.estimatePeakBytes(10 * MB, download) > 10 * MB);
+    assertTrue(MemoryBudget.estimatePeakBytes(10 * MB, remove) > MemoryBudget.estimatePeakBytes(10 * MB, download));
+  }
+
+  @Test
+  void emailsWaitUntilTheyFit() throws Exception {
+    MemoryBudget budget = new MemoryBudget(1000 * MB);
+    CancellationToken cancellationToken = new CancellationToken();
+    MemoryBudget.Reservation first = budget.newReservation();
+    first.acquire(300 * MB, cancellationToken);
+    try (MemoryBudget.Reservation second = budget.newReservation()) {
+      second.acquire(150 * MB, cancellationToken);
+      assertEquals(450 * MB, budget.getReservedBytes());
+    }
+    MemoryBudget.Reservation third = budget.newReservation();
+    CompletableFuture<Void> acquired = CompletableFuture.runAsync(() -> acquire(third, 300 * MB, cancellationToken));
+    assertThrows(TimeoutException.class, () -> acquired.get(300, TimeUnit.MILLISECONDS));
+    first.close();
+    acquired.get(5, TimeUnit.SECONDS);
+    assertEquals(300 * MB, budget.getReservedBytes());
+    third.close();
+    assertEquals(0, budget.getReservedBytes());
+  }
+
+  @Test
+  void largeEmailsAreProcessedAloneOrDeferred() throws Exception {
+    MemoryBudget budget = new MemoryBudget(1000 * MB);
+    CancellationToken cancellationToken = new CancellationToken();
+    MemoryBudgetException exception = assertThrows(MemoryBudgetException.class,
+        () -> budget.newReservation().acquire(950 * MB, cancellationToken));
+    assertEquals(950 * MB, exception.getRequiredBytes());
+    assertEquals(0, budget.getReservedBytes());
+
+    MemoryBudget.Reservation small = budget.newReservation();
+    small.acquire(10 * MB, cancellationToken);
+    CancellationToken largeCancellationToken = new CancellationToken();
+    CompletableFuture<Void> large = CompletableFuture.runAsync(
+        () -> acquire(budget.newReservation(), 600 * MB, largeCancellationToken));
+    assertThrows(TimeoutException.class, () -> large.get(300, TimeUnit.MILLISECONDS));
+    largeCancellationToken.cancel();
+    Exception e = assertThrows(Exception.class, () -> large.get(5, TimeUnit.SECONDS));
+    assertTrue(e.getCause() instanceof CancellationException);
+    small.close();
+
+    MemoryBudget.Reservation alone = budget.newReservation();
+    alone.acquire(600 * MB, cancellationToken);
+    MemoryBudget.Reservation next = budget.newReservation();
+    CompletableFuture<Void> blocked = CompletableFuture.runAsync(() -> acquire(next, 10 * MB, cancellationToken));
+    assertThrows(TimeoutException.class, () -> blocked.get(300, TimeUnit.MILLISECONDS));
+    alone.close();
+    blocked.get(5, TimeUnit.SECONDS);
+    next.close();
+  }
+
+  private static void acquire(MemoryBudget.Reservation reservation, long bytes, CancellationToken cancellationToken) {
+    try {
+      reservation.acquire(bytes, cancellationToken);
+    } catch (MemoryBudgetException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package app.unattach.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsTest {
+  private static final long START = 1_600_000_000_000L;
+
+  @Test
+  void callsAreCountedPerEndpointAndQuotaRateIsOverTheLastMinute() {
+    AtomicLong clock = new AtomicLong(START);
+    Metrics metrics = new Metrics(clock::get, false);
+    metrics.recordCall("messages.get", 5, TimeUnit.MILLISECONDS.toNanos(10), false);
+    metrics.recordCall("messages.get", 5, TimeUnit.MILLISECONDS.toNanos(30), true);
+    metrics.recordCall("messages.insert", 25, TimeUnit.MILLISECONDS.toNanos(100), false);
+    assertEquals(3, metrics.getCalls());
+    assertEquals(1, metrics.getCallFailures());
+    assertEquals(35, metrics.getQuotaUnits());
+    assertEquals(35 / 60.0, metrics.getQuotaUnitsPerSecond(), 1e-9);
+    Metrics.EndpointMBean messagesGet = metrics.getEndpoint("messages.get");
+    assertEquals(2, messagesGet.getCalls());
+    assertEquals(20, messagesGet.getAverageLatencyMillis(), 1e-9);
+    assertEquals(30, messagesGet.getMaxLatencyMillis(), 1e-9);
+    clock.addAndGet(TimeUnit.MINUTES.toMillis(1));
+    assertEquals(0, metrics.getQuotaUnitsPerSecond(), 1e-9);
+    assertEquals(35, metrics.getQuotaUnits());
+  }
+
+  @Test
+  void finishedEmailsAreCountedByOutcome() {
+    Metrics metrics = new Metrics(() -> START, false);
+    long[] startAllocatedBytes = new long[4];
+    for (int i = 0; i < startAllocatedBytes.length; ++i) {
+      startAllocatedBytes[i] = metrics.recordEmailStarted();
+    }
+    assertEquals(4, metrics.getEmailsInFlight());
+    metrics.recordEmailFinished(startAllocatedBytes[0], null);
+    metrics.recordEmailFinished(startAllocatedBytes[1],
+        new BandwidthBudgetException(BandwidthLedger.Direction.UPLOAD, START));
+    metrics.recordEmailFinished(startAllocatedBytes[2], new CancellationException());
+    metrics.recordEmailFinished(startAllocatedBytes[3], new RuntimeException("Failed."));
+    assertEquals(0, metrics.getEmailsInFlight());
+    assertEquals(1, metrics.getEmailsProcessed());
+    assertEquals(1, metrics.getEmailsDeferred());
+    assertEquals(1, metrics.getEmailsFailed());
+    assertEquals(1, metrics.getEmailsPerMinute(), 1e-9);
+    metrics.reset();
+    assertEquals(0, metrics.getEmailsProcessed());
+    assertEquals(0, metrics.getMaxBytesAllocatedPerEmail());
+  }
+
+  @Test
+  void allocationsAreMeasuredPerEmail() {
+    Metrics metrics = new Metrics(() -> START, false);
+    long startAllocatedBytes = metrics.recordEmailStarted();
+    byte[] email = new byte[4 * Constants.BYTES_IN_MEGABYTE];
+    metrics.recordEmailFinished(startAllocatedBytes, null);
+    assertTrue(metrics.getMaxBytesAllocatedPerEmail() >= email.length);
+    // A smaller email doesn't lower the maximum.
+    startAllocatedBytes = metrics.recordEmailStarted();
+    metrics.recordEmailFinished(startAllocatedBytes, null);
+    assertTrue(metrics.getMaxBytesAllocatedPerEmail() >= email.length);
+    // Without allocation counts, nothing is recorded.
+    metrics.reset();
+    metrics.recordEmailStarted();
+    metrics.recordEmailFinished(-1, null);
+    assertEquals(0, metrics.getMaxBytesAllocatedPerEmail());
+  }
+}
@@ -0,0 +1,60 @@
+package app.unattach.model;
+
+import app.unattach.view.Action;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProcessingOrderTest {
+  private static final int MB = Constants.BYTES_IN_MEGABYTE;
+  private static final ProcessOption REMOVE = new ProcessOption(Action.DELETE, false, false, true, false, null, null);
+
+  private static Email addEmail(EmailStore emailStore, String gmailId, int sizeInBytes, int attachmentSizeInBytes) {
+    List<String> attachments = attachmentSizeInBytes == 0 ? Collections.emptyList() : List.of("file.pdf");
+    Email email = emailStore.add(gmailId, null, null, "from@example.com", "me", "subject", 0, sizeInBytes,
+        attachments);
+    email.setAttachmentSizeInBytes(attachmentSizeInBytes);
+    return email;
+  }
+
+  private static List<String> getGmailIds(List<Email> emails) {
+    return emails.stream().map(Email::getGmailId).collect(Collectors.toList());
+  }
+
+  @Test
+  void largestAttachmentsComeFirst() {
+    EmailStore emailStore = new EmailStore();
+    addEmail(emailStore, "none", 9 * MB, 0);
+    addEmail(emailStore, "small", 2 * MB, 3 * MB / 2);
+    addEmail(emailStore, "large", 10 * MB, 6 * MB);
+    addEmail(emailStore, "unknown", 4 * MB, -1);
+    List<Email> emails = emailStore.getEmails();
+    assertEquals(List.of("none", "small", "large", "unknown"),
+        getGmailIds(ProcessingOrder.TABLE.sort(emails, REMOVE, Long.MAX_VALUE)));
+    assertEquals(List.of("large", "unknown", "small", "none"),
+        getGmailIds(ProcessingOrder.LARGEST_FIRST.sort(emails, REMOVE, Long.MAX_VALUE)));
+  }
+
+  @Test
+  void bestRatiosThatFitTheUploadLimitComeFirst() {
+    EmailStore emailStore = new EmailStore();
+    // Reclaims 8MB, but uploads 12MB.
+    addEmail(emailStore, "heavy", 20 * MB, 6 * MB);
+    // Reclaims 4MB and uploads 2MB.
+    addEmail(emailStore, "good", 6 * MB, 3 * MB);
+    // Reclaims 2MB and uploads 0.5MB.
+    addEmail(emailStore, "best", 5 * MB / 2, 3 * MB / 2);
+    // Reclaims 8MB and uploads 4MB: the same ratio as the good one, but more space.
+    addEmail(emailStore, "big", 12 * MB, 6 * MB);
+    List<Email> emails = emailStore.getEmails();
+    // The big one no longer fits after the best one, but the good one still does.
+    assertEquals(List.of("best", "good", "big", "heavy"),
+        getGmailIds(ProcessingOrder.BEST_RATIO_WITHIN_UPLOAD_LIMIT.sort(emails, REMOVE, 3 * MB)));
+    assertEquals(List.of("best", "big", "good", "heavy"),
+        getGmailIds(ProcessingOrder.BEST_RATIO_WITHIN_UPLOAD_LIMIT.sort(emails, REMOVE, Long.MAX_VALUE)));
+  }
+}
@@ -0,0 +1,29 @@
+package app.unattach.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.security.InvalidParameterException;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResultFilterTest {
+  @Test
+  void termsAreParsed() {
+    ResultFilter filter = ResultFilter.parse("  From:alice  \"annual report\" ext:.PDF size>1.5 ", Collections.emptyMap());
+    assertEquals(List.of("alice"), filter.senders);
+    assertEquals(List.of("annual report"), filter.words);
+    assertEquals(List.of(".PDF"), filter.extensions);
+    assertEquals((long) (1.5 * Constants.BYTES_IN_MEGABYTE), filter.minSizeInBytesExclusive);
+    assertFalse(filter.isEmpty());
+    assertTrue(ResultFilter.parse(" ", Collections.emptyMap()).isEmpty());
+  }
+
+  @Test
+  void invalidTermsAreRejected() {
+    assertThrows(InvalidParameterException.class, () -> ResultFilter.parse("size>big", Collections.emptyMap()));
+    assertThrows(InvalidParameterException.class, () -> ResultFilter.parse("after:yesterday", Collections.emptyMap()));
+    assertThrows(InvalidParameterException.class, () -> ResultFilter.parse("from:", Collections.emptyMap()));
+  }
+}
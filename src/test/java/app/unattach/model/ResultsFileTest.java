@@ -0,0 +1,48 @@
+package app.unattach.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResultsFileTest {
+  @Test
+  void resultsAreWrittenAndReadBack() throws IOException {
+    Path tempDir = Files.createTempDirectory("unattach-test");
+    EmailStore emailStore = new EmailStore();
+    Email email = emailStore.add("id1", "<id1@example.com>", Arrays.asList("INBOX", "Label_12"),
+        "\"Doe, John\" <john.doe@example.com>", "jane.doe@example.com", "Subject with \"quotes\"\nand a new line",
+        1501545600000L, 1234567, Arrays.asList("data.zip", "image.png"));
+    email.setStatus(EmailStatus.FAILED);
+    email.setNote("Something went wrong.");
+    emailStore.addUnloaded("id2").setStatus(EmailStatus.TO_PROCESS);
+    Path path = tempDir.resolve("results.jsonl");
+    ResultsFile.write(emailStore, path);
+    assertEquals(2, Files.readAllLines(path).size());
+
+    EmailStore importedEmailStore = new EmailStore();
+    assertEquals(2, ResultsFile.read(path, importedEmailStore));
+    List<Email> emails = importedEmailStore.getEmails();
+    assertEquals(email.toString(), emails.get(0).toString());
+    assertEquals(Arrays.asList("INBOX", "Label_12"), emails.get(0).getLabelIds());
+    assertEquals("data.zip, image.png", emails.get(0).getAttachments());
+    assertEquals("id2", emails.get(1).getGmailId());
+    assertFalse(emails.get(1).isLoaded());
+    assertEquals(EmailStatus.TO_PROCESS, emails.get(1).getStatus());
+    assertEquals(1, importedEmailStore.getCount(EmailStatus.FAILED));
+  }
+
+  @Test
+  void invalidLinesAreReported() throws IOException {
+    Path tempDir = Files.createTempDirectory("unattach-test");
+    Path path = tempDir.resolve("results.jsonl");
+    Files.writeString(path, "{\"gmailId\": \"id1\", \"status\": \"IGNORED\"}\n{\"gmailId\": \"id2\", \"status\": \"?\"}\n");
+    IOException e = assertThrows(IOException.class, () -> ResultsFile.read(path, new EmailStore()));
+    assertTrue(e.getMessage().startsWith("Invalid email on line 2"));
+  }
+}
@@ -0,0 +1,97 @@
+package app.unattach.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SchedulerTest {
+  private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+  private static final long START = 1_600_000_000_000L;
+
+  @Test
+  void runIsSkippedWhileThePreviousOneIsStillGoing() {
+    AtomicLong clock = new AtomicLong(START);
+    Scheduler scheduler = new Scheduler(null, clock::get, new Random(1));
+    List<CompletableFuture<Void>> runs = new ArrayList<>();
+    scheduler.start(Scheduler.Trigger.every(HOUR), "job", 0, false, () -> 0, () -> {
+      CompletableFuture<Void> run = new CompletableFuture<>();
+      runs.add(run);
+      return run;
+    }, nextRunMillis -> {});
+    assertEquals(START + HOUR, scheduler.getNextRunMillis());
+    scheduler.check();
+    assertEquals(0, runs.size());
+    clock.addAndGet(HOUR);
+    scheduler.check();
+    assertEquals(1, runs.size());
+    clock.addAndGet(HOUR);
+    scheduler.check();
+    assertEquals(1, runs.size());
+    assertEquals(START + 3 * HOUR, scheduler.getNextRunMillis());
+    runs.get(0).complete(null);
+    clock.addAndGet(HOUR);
+    scheduler.check();
+    assertEquals(2, runs.size());
+    scheduler.stop();
+  }
+
+  @Test
+  void missedRunsAreCaughtUpOnceAfterRestarting() throws IOException {
+    Path directory = Files.createTempDirectory("unattach-test");
+    Path path = directory.resolve("schedule.properties");
+    AtomicLong clock = new AtomicLong(START);
+    Scheduler.Trigger trigger = Scheduler.Trigger.every(HOUR);
+    new Scheduler(path, clock::get, new Random(1))
+        .start(trigger, "job", 0, false, () -> 0, () -> CompletableFuture.completedFuture(null), nextRunMillis -> {});
+    // Nothing ran for 10 hours, e.g. because the app was closed.
+    clock.addAndGet(10 * HOUR);
+    Scheduler restarted = new Scheduler(path, clock::get, new Random(1));
+    List<Long> runTimes = Collections.synchronizedList(new ArrayList<>());
+    restarted.start(trigger, "job", 0, true, () -> 0, () -> {
+      runTimes.add(clock.get());
+      return CompletableFuture.completedFuture(null);
+    }, nextRunMillis -> {});
+    restarted.check();
+    restarted.check();
+    assertEquals(List.of(START + 10 * HOUR), runTimes);
+    assertEquals(START + 11 * HOUR, restarted.getNextRunMillis());
+    restarted.stop();
+    assertFalse(Files.exists(path));
+    assertNull(restarted.readSavedSchedule());
+  }
+
+  @Test
+  void scheduleIsSavedWithItsJobAndKeptWhenReplaced() throws IOException {
+    Path path = Files.createTempDirectory("unattach-test").resolve("schedule.properties");
+    AtomicLong clock = new AtomicLong(START);
+    Scheduler scheduler = new Scheduler(path, clock::get, new Random(1));
+    scheduler.start(Scheduler.Trigger.every(HOUR), "DOWNLOAD", 0, false, () -> 0,
+        () -> CompletableFuture.completedFuture(null), nextRunMillis -> {});
+    scheduler.start(Scheduler.Trigger.dailyAt(LocalTime.of(2, 30)), "DELETE", 0, false, () -> 0,
+        () -> CompletableFuture.completedFuture(null), nextRunMillis -> {});
+
+    Scheduler.SavedSchedule savedSchedule = new Scheduler(path, clock::get, new Random(1)).readSavedSchedule();
+    assertNotNull(savedSchedule);
+    assertEquals("daily at 02:30", savedSchedule.trigger.toString());
+    assertEquals("DELETE", savedSchedule.jobName);
+    scheduler.stop();
+  }
+
+  @Test
+  void ownersKeepSeparateSchedules() {
+    assertNotEquals(Scheduler.getDefaultPath(Scheduler.Owner.DESKTOP),
+        Scheduler.getDefaultPath(Scheduler.Owner.COMMAND_LINE));
+  }
+}
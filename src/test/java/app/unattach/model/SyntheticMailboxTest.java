@@ -0,0 +1,60 @@
+package app.unattach.model;
+
+import app.unattach.view.Action;
+import org.junit.jupiter.api.Test;
+
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import javax.mail.util.SharedByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SyntheticMailboxTest {
+  @Test
+  void emailsDependOnlyOnSeedAndIndex() throws Exception {
+    SyntheticMailbox mailbox = new SyntheticMailbox(42, 1000);
+    assertArrayEquals(mailbox.getRaw(500), new SyntheticMailbox(42, 600).getRaw(500));
+    assertFalse(new String(mailbox.getRaw(500)).equals(new String(new SyntheticMailbox(43, 1000).getRaw(500))));
+    assertEquals(500, SyntheticMailbox.getIndex(SyntheticMailbox.getGmailId(500)));
+  }
+
+  @Test
+  void processorFindsTheAttachmentsOfTheMetadata() throws Exception {
+    SyntheticMailbox mailbox = new SyntheticMailbox(1337, 100);
+    EmailStore emailStore = new EmailStore();
+    mailbox.addTo(emailStore, 0, mailbox.size());
+    File targetDirectory = Files.createTempDirectory("unattach-test").toFile();
+    ProcessOption processOption = new ProcessOption(Action.DELETE, false, false, true, false, null, null);
+    ProcessSettings processSettings = new ProcessSettings(processOption, targetDirectory, "${ATTACHMENT_NAME}",
+        DirectoryLayout.FLAT, true);
+    Session session = Session.getInstance(new Properties());
+    Set<String> layouts = new HashSet<>();
+    for (Email email : emailStore.getEmails()) {
+      byte[] raw = mailbox.getRaw(SyntheticMailbox.getIndex(email.getGmailId()));
+      MimeMessage mimeMessage = new MimeMessage(session, new SharedByteArrayInputStream(raw));
+      layouts.add(mimeMessage.getContentType().split(";")[0]);
+      Set<String> filenames = EmailProcessor.process(email, mimeMessage, processSettings);
+      assertEquals(new HashSet<>(email.getAttachmentNames()), filenames, email.getGmailId());
+    }
+    assertEquals(Set.of("text/plain", "multipart/alternative", "multipart/mixed"), layouts);
+  }
+
+  @Test
+  void largeMailboxHasRealisticMetadata() {
+    SyntheticMailbox mailbox = new SyntheticMailbox(1337, 100_000);
+    EmailStore emailStore = new EmailStore();
+    mailbox.addTo(emailStore, 0, mailbox.size());
+    List<Email> emails = emailStore.getEmails();
+    assertEquals(100_000, emails.size());
+    long withAttachments = emails.stream().filter(email -> !email.getAttachmentNames().isEmpty()).count();
+    assertTrue(60_000 < withAttachments && withAttachments < 80_000, "" + withAttachments);
+    long over10Mb = emails.stream().filter(email -> email.getSizeInBytes() > 10 * Constants.BYTES_IN_MEGABYTE).count();
+    assertTrue(0 < over10Mb && over10Mb < 5_000, "" + over10Mb);
+  }
+}